@@ -0,0 +1,148 @@
+package rimx.media.streaming.harness;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.microedition.io.HttpConnection;
+
+/**
+ * An HttpConnection that delays its response by the emulated connection setup time
+ * and latency, shapes its
+ * response body through the emulated link and, if the profile says so, drops the
+ * Range request header.
+ */
+class EmulatedHttpConnection implements HttpConnection {
+
+	private final HttpConnection conn;
+	private final NetworkEmulator emulator;
+	private boolean requested = false;
+	private InputStream in;
+
+	EmulatedHttpConnection(HttpConnection conn, NetworkEmulator emulator) {
+		this.conn = conn;
+		this.emulator = emulator;
+	}
+
+	/**
+	 * Pays connection setup and the request latency once, before the first call that
+	 * needs the response.
+	 */
+	private void request() {
+		if(!requested){
+			requested = true;
+			NetworkEmulator.sleep(emulator.getProfile().connect + emulator.valueAt(NetworkProfile.EVENT_LATENCY, emulator.elapsed()));
+		}
+	}
+
+	public void setRequestProperty(String key, String value) throws IOException {
+		if(emulator.getProfile().ignoreRange && "range".equals(key.toLowerCase())){
+			return;
+		}
+		conn.setRequestProperty(key, value);
+	}
+
+	public InputStream openInputStream() throws IOException {
+		request();
+		if(in==null){
+			in = new NetworkEmulator.ShapedInputStream(conn.openInputStream(), emulator);
+		}
+		return in;
+	}
+
+	public DataInputStream openDataInputStream() throws IOException {
+		return new DataInputStream(openInputStream());
+	}
+
+	public int getResponseCode() throws IOException {
+		request();
+		return conn.getResponseCode();
+	}
+
+	public String getResponseMessage() throws IOException {
+		request();
+		return conn.getResponseMessage();
+	}
+
+	public String getHeaderField(String name) throws IOException {
+		request();
+		return conn.getHeaderField(name);
+	}
+
+	public String getHeaderField(int n) throws IOException {
+		request();
+		return conn.getHeaderField(n);
+	}
+
+	public String getHeaderFieldKey(int n) throws IOException {
+		request();
+		return conn.getHeaderFieldKey(n);
+	}
+
+	public long getHeaderFieldDate(String name, long def) throws IOException {
+		request();
+		return conn.getHeaderFieldDate(name, def);
+	}
+
+	public int getHeaderFieldInt(String name, int def) throws IOException {
+		request();
+		return conn.getHeaderFieldInt(name, def);
+	}
+
+	public String getType() {
+		request();
+		return conn.getType();
+	}
+
+	public String getEncoding() {
+		request();
+		return conn.getEncoding();
+	}
+
+	public long getLength() {
+		request();
+		return conn.getLength();
+	}
+
+	public String getURL() {
+		return conn.getURL();
+	}
+
+	public String getHost() {
+		return conn.getHost();
+	}
+
+	public int getPort() {
+		return conn.getPort();
+	}
+
+	public String getFile() {
+		return conn.getFile();
+	}
+
+	public String getRequestMethod() {
+		return conn.getRequestMethod();
+	}
+
+	public void setRequestMethod(String method) throws IOException {
+		conn.setRequestMethod(method);
+	}
+
+	public String getRequestProperty(String key) {
+		return conn.getRequestProperty(key);
+	}
+
+	public OutputStream openOutputStream() throws IOException {
+		return conn.openOutputStream();
+	}
+
+	public DataOutputStream openDataOutputStream() throws IOException {
+		return conn.openDataOutputStream();
+	}
+
+	public void close() throws IOException {
+		conn.close();
+	}
+}
@@ -0,0 +1,122 @@
+package rimx.media.streaming.harness;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.microedition.io.StreamConnection;
+
+/**
+ * A socket:// or ssl:// StreamConnection behind the emulated link. Connection setup is
+ * paid when the connection is opened, the request latency before the first byte of the
+ * response, and the response is shaped like any other. If the profile says so, Range
+ * headers are dropped from the requests written to the socket.
+ */
+class EmulatedSocketConnection implements StreamConnection {
+
+	private final StreamConnection conn;
+	private final NetworkEmulator emulator;
+	private InputStream in;
+	private OutputStream out;
+	private boolean requested = false;
+
+	EmulatedSocketConnection(StreamConnection conn, NetworkEmulator emulator) {
+		this.conn = conn;
+		this.emulator = emulator;
+	}
+
+	public InputStream openInputStream() throws IOException {
+		if(in==null){
+			final InputStream shaped = new NetworkEmulator.ShapedInputStream(conn.openInputStream(), emulator);
+			in = new InputStream(){
+				public int read() throws IOException {
+					awaitResponse();
+					return shaped.read();
+				}
+				public int read(byte[] b, int off, int len) throws IOException {
+					awaitResponse();
+					return shaped.read(b, off, len);
+				}
+				public int available() throws IOException {
+					return requested ? shaped.available() : 0;
+				}
+				public void close() throws IOException {
+					shaped.close();
+				}
+			};
+		}
+		return in;
+	}
+
+	/**
+	 * Pays the request latency once, before the first byte of the response.
+	 */
+	private void awaitResponse() {
+		if(!requested){
+			requested = true;
+			NetworkEmulator.sleep(emulator.valueAt(NetworkProfile.EVENT_LATENCY, emulator.elapsed()));
+		}
+	}
+
+	public DataInputStream openDataInputStream() throws IOException {
+		return new DataInputStream(openInputStream());
+	}
+
+	public OutputStream openOutputStream() throws IOException {
+		if(out==null){
+			final OutputStream raw = conn.openOutputStream();
+			out = new OutputStream(){
+				private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+				public void write(int b) {
+					pending.write(b);
+				}
+				public void write(byte[] b, int off, int len) {
+					pending.write(b, off, len);
+				}
+				public void flush() throws IOException {
+					byte[] request = pending.toByteArray();
+					pending.reset();
+					if(emulator.getProfile().ignoreRange){
+						request = dropRange(request);
+					}
+					raw.write(request);
+					raw.flush();
+				}
+				public void close() throws IOException {
+					flush();
+					raw.close();
+				}
+			};
+		}
+		return out;
+	}
+
+	/**
+	 * Removes Range header lines from a request.
+	 */
+	private static byte[] dropRange(byte[] request) throws IOException {
+		String[] lines = new String(request, "ISO-8859-1").split("\r\n", -1);
+		StringBuffer sb = new StringBuffer();
+		for(int i=0; i<lines.length; i++){
+			if(lines[i].toLowerCase().startsWith("range:")){
+				continue;
+			}
+			sb.append(lines[i]);
+			if(i<lines.length-1){
+				sb.append("\r\n");
+			}
+		}
+		return sb.toString().getBytes("ISO-8859-1");
+	}
+
+	public DataOutputStream openDataOutputStream() throws IOException {
+		return new DataOutputStream(openOutputStream());
+	}
+
+	public void close() throws IOException {
+		conn.close();
+	}
+}
@@ -0,0 +1,248 @@
+package rimx.media.streaming.harness;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import javax.microedition.io.Connection;
+import javax.microedition.io.Connector;
+import javax.microedition.io.HttpConnection;
+import javax.microedition.io.StreamConnection;
+
+import rimx.media.streaming.ConnectionFactory;
+
+/**
+ * A ConnectionFactory that reproduces the conditions described by a NetworkProfile on
+ * every HttpConnection and socket:// or ssl:// connection it opens: connection setup
+ * time, a shared throughput cap, per-request latency, silent stalls, mid-stream resets
+ * and origins that ignore Range. Other connections are passed through untouched.
+ * <p>
+ * All timed events are relative to start(), and resets drawn from reset-rate use a
+ * seeded generator, so a profile replays the same way on every run.
+ */
+public class NetworkEmulator implements ConnectionFactory {
+
+	private final NetworkProfile profile;
+	private final long[][] events;
+	private final Random random;
+	private long startedAt;
+	/** Earliest time at which the link can deliver the next byte */
+	private long linkFreeAt = 0;
+
+	private int connectionsOpened = 0;
+	private int resetsInjected = 0;
+	private int stallsInjected = 0;
+	private long bytesDelivered = 0;
+
+	public NetworkEmulator(NetworkProfile profile) {
+		this.profile = profile;
+		this.events = profile.getEvents();
+		this.random = new Random(profile.seed);
+		start();
+	}
+
+	/**
+	 * Restarts the profile timeline.
+	 */
+	public synchronized void start() {
+		startedAt = System.currentTimeMillis();
+		linkFreeAt = startedAt;
+	}
+
+	public Connection open(String url, int mode) throws IOException {
+		Connection c = Connector.open(url, mode);
+		if(c instanceof HttpConnection){
+			synchronized(this){
+				connectionsOpened++;
+			}
+			return new EmulatedHttpConnection((HttpConnection) c, this);
+		}
+		String lower = url.toLowerCase();
+		if(c instanceof StreamConnection && (lower.startsWith("socket://") || lower.startsWith("ssl://"))){
+			synchronized(this){
+				connectionsOpened++;
+			}
+			sleep(profile.connect);
+			return new EmulatedSocketConnection((StreamConnection) c, this);
+		}
+		return c;
+	}
+
+	public NetworkProfile getProfile() {
+		return profile;
+	}
+
+	public synchronized int getConnectionsOpened() {
+		return connectionsOpened;
+	}
+
+	public synchronized int getResetsInjected() {
+		return resetsInjected;
+	}
+
+	public synchronized int getStallsInjected() {
+		return stallsInjected;
+	}
+
+	public synchronized long getBytesDelivered() {
+		return bytesDelivered;
+	}
+
+	/** Milliseconds since start() */
+	synchronized long elapsed() {
+		return System.currentTimeMillis() - startedAt;
+	}
+
+	/**
+	 * Gets the value of a bandwidth or latency setting at time t.
+	 */
+	synchronized long valueAt(int type, long t) {
+		long value = type==NetworkProfile.EVENT_BANDWIDTH ? profile.bandwidth : profile.latency;
+		for(int i=0; i<events.length && events[i][0]<=t; i++){
+			if(events[i][1]==type){
+				value = events[i][2];
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Gets the end of the stall covering time t, or -1 if the link is not stalled.
+	 */
+	synchronized long stallEndingAfter(long t) {
+		for(int i=0; i<events.length && events[i][0]<=t; i++){
+			if(events[i][1]==NetworkProfile.EVENT_STALL && events[i][0]+events[i][2] > t){
+				return events[i][0]+events[i][2];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Whether a reset event occurred in (since, t].
+	 */
+	synchronized boolean resetBetween(long since, long t) {
+		for(int i=0; i<events.length && events[i][0]<=t; i++){
+			if(events[i][1]==NetworkProfile.EVENT_RESET && events[i][0]>since){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Draws whether a connection that just delivered n bytes is reset according to reset-rate.
+	 */
+	synchronized boolean drawReset(int n) {
+		if(profile.resetRate<=0){
+			return false;
+		}
+		return random.nextDouble() < profile.resetRate * n / (1024.0 * 1024.0);
+	}
+
+	synchronized void countReset() {
+		resetsInjected++;
+	}
+
+	synchronized void countStall() {
+		stallsInjected++;
+	}
+
+	/**
+	 * Blocks the calling connection until the shared link has carried n bytes at the
+	 * current bandwidth.
+	 */
+	void transmit(int n) {
+		long wait;
+		synchronized(this){
+			bytesDelivered += n;
+			long bandwidth = valueAt(NetworkProfile.EVENT_BANDWIDTH, elapsed());
+			if(bandwidth<=0){
+				return;
+			}
+			long now = System.currentTimeMillis();
+			linkFreeAt = Math.max(linkFreeAt, now) + (n * 1000L) / bandwidth;
+			wait = linkFreeAt - now;
+		}
+		sleep(wait);
+	}
+
+	/**
+	 * Gets the largest read that keeps pacing smooth at the current bandwidth.
+	 */
+	int maxBurst() {
+		long bandwidth = valueAt(NetworkProfile.EVENT_BANDWIDTH, elapsed());
+		return bandwidth<=0 ? Integer.MAX_VALUE : (int) Math.max(512, bandwidth / 50);
+	}
+
+	static void sleep(long millis) {
+		if(millis>0){
+			try { Thread.sleep(millis); } catch(InterruptedException e){ }
+		}
+	}
+
+	/**
+	 * An InputStream that applies the emulated link to the stream of one connection.
+	 */
+	static class ShapedInputStream extends InputStream {
+
+		private final InputStream in;
+		private final NetworkEmulator emulator;
+		private final long openedAt;
+		private long delivered = 0;
+		private boolean reset = false;
+
+		ShapedInputStream(InputStream in, NetworkEmulator emulator) {
+			this.in = in;
+			this.emulator = emulator;
+			this.openedAt = emulator.elapsed();
+		}
+
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n<0 ? -1 : b[0] & 0xff;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			long stallEnd = emulator.stallEndingAfter(emulator.elapsed());
+			if(stallEnd>=0){
+				emulator.countStall();
+				while(stallEnd>=0){
+					sleep(stallEnd - emulator.elapsed());
+					stallEnd = emulator.stallEndingAfter(emulator.elapsed());
+				}
+			}
+			checkReset();
+			int n = in.read(b, off, Math.min(len, emulator.maxBurst()));
+			if(n>0){
+				emulator.transmit(n);
+				delivered += n;
+				if((emulator.profile.resetAfter>0 && delivered>=emulator.profile.resetAfter) || emulator.drawReset(n)){
+					reset = true;
+					emulator.countReset();
+				}
+				checkReset();
+			}
+			return n;
+		}
+
+		private void checkReset() throws IOException {
+			if(!reset && emulator.resetBetween(openedAt, emulator.elapsed())){
+				reset = true;
+				emulator.countReset();
+			}
+			if(reset){
+				throw new IOException("Connection reset (emulated)");
+			}
+		}
+
+		public int available() throws IOException {
+			return reset ? 0 : in.available();
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package rimx.media.streaming.harness;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Vector;
+
+/**
+ * Describes the network conditions a NetworkEmulator reproduces. A profile is a
+ * script, one directive per line, '#' starts a comment:
+ * <pre>
+ * bandwidth    120000     # link throughput in bytes/s, 0 is unlimited
+ * latency      150        # delay before each response, in ms
+ * connect      450        # connection setup (TCP, TLS, radio) before the first request of a connection, in ms
+ * ignore-range            # the origin ignores Range headers and answers 200 with the whole entity
+ * reset-after  2000000    # every connection is reset after delivering this many bytes
+ * reset-rate   0.05       # probability that a connection is reset per MiB delivered
+ * seed         42         # seed of the random generator used by reset-rate
+ * at 5000 bandwidth 20000 # from 5 s on, throughput drops to 20 KB/s
+ * at 8000 latency 600
+ * at 9000 stall 7000      # connections silently deliver nothing for 7 s
+ * at 20000 reset          # every open connection fails
+ * trace  field-3g.txt     # replay a recorded trace (see below)
+ * </pre>
+ * Times are milliseconds since the emulator was started. A recorded trace has one
+ * sample per line, "&lt;ms&gt; &lt;bytes/s&gt; [&lt;latency ms&gt;]", and is replayed as a
+ * sequence of "at" directives, so the same trace always yields the same schedule.
+ */
+public class NetworkProfile {
+
+	public static final int EVENT_BANDWIDTH = 0;
+	public static final int EVENT_LATENCY = 1;
+	public static final int EVENT_STALL = 2;
+	public static final int EVENT_RESET = 3;
+
+	/** Built-in profiles by name */
+	private static final String[][] BUILT_IN = {
+		{ "lan", "bandwidth 0\nlatency 0\n" },
+		{ "wifi", "bandwidth 1500000\nlatency 20\nconnect 40\n" },
+		{ "3g", "bandwidth 120000\nlatency 150\nconnect 450\n" },
+		{ "edge", "bandwidth 25000\nlatency 400\nconnect 1200\n" },
+		{ "flaky-3g", "bandwidth 120000\nlatency 150\nconnect 450\nat 4000 stall 8000\nat 16000 reset\nat 20000 bandwidth 40000\nat 26000 bandwidth 120000\n" },
+		{ "no-range", "bandwidth 0\nlatency 0\nignore-range\n" },
+	};
+
+	/** Initial throughput in bytes/s, 0 for unlimited */
+	public int bandwidth = 0;
+	/** Initial per-request latency in ms */
+	public int latency = 0;
+	/** Connection setup time in ms */
+	public int connect = 0;
+	/** Whether Range request headers are dropped */
+	public boolean ignoreRange = false;
+	/** Bytes after which each connection is reset, 0 for never */
+	public long resetAfter = 0;
+	/** Probability of a reset per MiB delivered */
+	public double resetRate = 0;
+	/** Seed for resetRate */
+	public long seed = 1;
+	/** Timed events, ordered by time. Each is {time, type, value}. */
+	private final Vector events = new Vector();
+
+	/**
+	 * Gets a built-in profile by name, or parses the named file.
+	 */
+	public static NetworkProfile forName(String name) throws IOException {
+		for(int i=0; i<BUILT_IN.length; i++){
+			if(BUILT_IN[i][0].equals(name)){
+				return parse(new StringReader(BUILT_IN[i][1]));
+			}
+		}
+		return parse(new FileReader(name));
+	}
+
+	public static NetworkProfile parse(Reader reader) throws IOException {
+		NetworkProfile p = new NetworkProfile();
+		BufferedReader in = new BufferedReader(reader);
+		String line;
+		int lineNo = 0;
+		while((line = in.readLine())!=null){
+			lineNo++;
+			String[] words = words(line);
+			if(words.length==0){
+				continue;
+			}
+			if(!p.apply(words)){
+				throw new IOException("line " + lineNo + ": unknown network directive '" + line.trim() + "'");
+			}
+		}
+		return p;
+	}
+
+	/**
+	 * Applies one directive. Returns false if it is not understood.
+	 */
+	public boolean apply(String[] w) throws IOException {
+		String key = w[0];
+		if("bandwidth".equals(key)) bandwidth = Integer.parseInt(w[1]);
+		else if("latency".equals(key)) latency = Integer.parseInt(w[1]);
+		else if("connect".equals(key)) connect = Integer.parseInt(w[1]);
+		else if("ignore-range".equals(key)) ignoreRange = true;
+		else if("reset-after".equals(key)) resetAfter = Long.parseLong(w[1]);
+		else if("reset-rate".equals(key)) resetRate = Double.parseDouble(w[1]);
+		else if("seed".equals(key)) seed = Long.parseLong(w[1]);
+		else if("trace".equals(key)) loadTrace(new FileReader(w[1]));
+		else if("at".equals(key) && w.length>=3){
+			long time = Long.parseLong(w[1]);
+			String what = w[2];
+			if("bandwidth".equals(what)) addEvent(time, EVENT_BANDWIDTH, Long.parseLong(w[3]));
+			else if("latency".equals(what)) addEvent(time, EVENT_LATENCY, Long.parseLong(w[3]));
+			else if("stall".equals(what)) addEvent(time, EVENT_STALL, Long.parseLong(w[3]));
+			else if("reset".equals(what)) addEvent(time, EVENT_RESET, 0);
+			else return false;
+		}
+		else return false;
+		return true;
+	}
+
+	/**
+	 * Replays a recorded trace of "&lt;ms&gt; &lt;bytes/s&gt; [&lt;latency ms&gt;]" samples.
+	 */
+	public void loadTrace(Reader reader) throws IOException {
+		BufferedReader in = new BufferedReader(reader);
+		String line;
+		while((line = in.readLine())!=null){
+			String[] w = words(line);
+			if(w.length<2){
+				continue;
+			}
+			long time = Long.parseLong(w[0]);
+			addEvent(time, EVENT_BANDWIDTH, Long.parseLong(w[1]));
+			if(w.length>2){
+				addEvent(time, EVENT_LATENCY, Long.parseLong(w[2]));
+			}
+		}
+	}
+
+	public void addEvent(long time, int type, long value) {
+		int i = events.size();
+		while(i>0 && ((long[]) events.elementAt(i-1))[0] > time){
+			i--;
+		}
+		events.insertElementAt(new long[]{ time, type, value }, i);
+	}
+
+	/**
+	 * Gets the timed events as {time, type, value} triples ordered by time.
+	 */
+	public long[][] getEvents() {
+		long[][] copy = new long[events.size()][];
+		for(int i=0; i<copy.length; i++){
+			copy[i] = (long[]) events.elementAt(i);
+		}
+		return copy;
+	}
+
+	private static String[] words(String line) {
+		int hash = line.indexOf('#');
+		if(hash>=0){
+			line = line.substring(0, hash);
+		}
+		line = line.trim();
+		return line.length()==0 ? new String[0] : line.split("\\s+");
+	}
+}
@@ -0,0 +1,413 @@
+package rimx.media.streaming.harness;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Hashtable;
+
+/**
+ * A minimal embedded HTTP/1.1 server that serves a SyntheticMedia payload and
+ * honours single "Range: bytes=first-[last]" requests with 206 Partial Content.
+ * Each response closes its connection. Every path serves the same payload, except
+ * that paths under REDIRECT_PREFIX answer 302 with the rest of the path as Location,
+ * like a redirector in front of a CDN, and that once setHls() has been called
+ * HLS_PREFIX + "/index.m3u8" is an HLS media playlist whose segments
+ * (HLS_PREFIX + "/seg-N.ts") are consecutive slices of the payload. Once
+ * setRenditions() has been called as well, HLS_PREFIX + "/master.m3u8" is a master
+ * playlist listing a media playlist (HLS_PREFIX + "/BITRATE/index.m3u8") per bitrate,
+ * whose segments of the same duration are the self-describing segments of
+ * SegmentedStreamChecker.
+ */
+public class RangeHttpServer implements Runnable {
+
+	public static final String REDIRECT_PREFIX = "/redirect";
+	public static final String HLS_PREFIX = "/hls";
+
+	private final SyntheticMedia media;
+	private ServerSocket serverSocket;
+	private Thread acceptThread;
+	private volatile boolean running;
+
+	private int requestCount = 0;
+	private int rangeRequestCount = 0;
+	private int redirectCount = 0;
+	/** Cache-Control max-age of redirects in seconds, or -1 to send none */
+	private int redirectMaxAge = -1;
+	private long bytesServed = 0;
+	/** Size of an HLS segment in bytes, 0 if HLS is not served */
+	private long segmentBytes = 0;
+	private int segmentMillis = 0;
+	/** Bitrates of the HLS renditions, or null to serve only slices of the payload */
+	private int[] renditionBitrates;
+	/** Bitrate at which the payload is produced as a live feed, 0 to serve it as a file */
+	private int liveBitrate = 0;
+	/** Wall-clock time at which the live feed was first requested, 0 before */
+	private long liveStartedAt = 0;
+
+	public RangeHttpServer(SyntheticMedia media) {
+		this.media = media;
+	}
+
+	/**
+	 * Binds to an ephemeral port on the loopback interface and starts accepting.
+	 */
+	public void start() throws IOException {
+		serverSocket = new ServerSocket(0, 50, java.net.InetAddress.getByName("127.0.0.1"));
+		running = true;
+		acceptThread = new Thread(this, "RangeHttpServer");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	public void stop() {
+		running = false;
+		try { serverSocket.close(); } catch(IOException e){ }
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Gets a locator for the served payload.
+	 */
+	public String getUrl(String path) {
+		return "http://127.0.0.1:" + getPort() + path;
+	}
+
+	public synchronized int getRequestCount() {
+		return requestCount;
+	}
+
+	public synchronized int getRangeRequestCount() {
+		return rangeRequestCount;
+	}
+
+	public synchronized int getRedirectCount() {
+		return redirectCount;
+	}
+
+	public synchronized void setRedirectMaxAge(int seconds) {
+		redirectMaxAge = seconds;
+	}
+
+	/**
+	 * Serves the payload as an HLS stream of segments lasting segmentMillis each.
+	 */
+	public synchronized void setHls(long segmentBytes, int segmentMillis) {
+		this.segmentBytes = segmentBytes;
+		this.segmentMillis = segmentMillis;
+	}
+
+	/**
+	 * Serves a rendition per bitrate in addition to the slices set up by setHls().
+	 */
+	public synchronized void setRenditions(int[] bitrates) {
+		this.renditionBitrates = bitrates;
+	}
+
+	/**
+	 * Serves the payload as a live feed produced at bitrate from the time it is first requested:
+	 * without a length and ignoring Range, each response starts at the live edge and follows it.
+	 */
+	public synchronized void setLive(int bitrate) {
+		this.liveBitrate = bitrate;
+	}
+
+	/**
+	 * Gets the offset of the live edge, i.e. how much of the payload the live feed has produced.
+	 */
+	public synchronized long getLiveEdge() {
+		if(liveStartedAt==0){
+			return 0;
+		}
+		return Math.min(media.getLength(), (System.currentTimeMillis() - liveStartedAt) * liveBitrate / 8000);
+	}
+
+	public synchronized long getBytesServed() {
+		return bytesServed;
+	}
+
+	public void run() {
+		while(running){
+			try {
+				final Socket socket = serverSocket.accept();
+				Thread handler = new Thread("RangeHttpServer-conn"){
+					public void run(){
+						handle(socket);
+					}
+				};
+				handler.setDaemon(true);
+				handler.start();
+			} catch(IOException e){
+				if(running){
+					System.out.println("RangeHttpServer - accept failed: " + e);
+				}
+			}
+		}
+	}
+
+	private void handle(Socket socket) {
+		try {
+			socket.setTcpNoDelay(true);
+			InputStream in = socket.getInputStream();
+			OutputStream out = socket.getOutputStream();
+
+			String requestLine = readLine(in);
+			if(requestLine==null){
+				return;
+			}
+			Hashtable headers = new Hashtable();
+			String line;
+			while((line = readLine(in))!=null && line.length()>0){
+				int colon = line.indexOf(':');
+				if(colon>0){
+					headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon+1).trim());
+				}
+			}
+
+			int sp1 = requestLine.indexOf(' ');
+			int sp2 = requestLine.indexOf(' ', sp1+1);
+			String method = requestLine.substring(0, sp1);
+			String target = sp2<0 ? requestLine.substring(sp1+1) : requestLine.substring(sp1+1, sp2);
+			if(target.startsWith(REDIRECT_PREFIX + "/")){
+				int maxAge;
+				synchronized(this){
+					requestCount++;
+					redirectCount++;
+					maxAge = redirectMaxAge;
+				}
+				StringBuffer response = new StringBuffer();
+				response.append("HTTP/1.1 302 Found\r\n");
+				response.append("Location: ").append(target.substring(REDIRECT_PREFIX.length())).append("\r\n");
+				if(maxAge>=0){
+					response.append("Cache-Control: max-age=").append(maxAge).append("\r\n");
+				}
+				response.append("Content-Length: 0\r\n");
+				response.append("Connection: close\r\n\r\n");
+				out.write(response.toString().getBytes());
+				out.flush();
+				return;
+			}
+			boolean live;
+			long liveEdge = 0;
+			synchronized(this){
+				live = liveBitrate>0 && segmentBytes==0;
+				if(live){
+					requestCount++;
+					if(liveStartedAt==0){
+						liveStartedAt = System.currentTimeMillis();
+					}
+					liveEdge = getLiveEdge();
+				}
+			}
+			if(live){
+				serveLive(method, liveEdge, out);
+				return;
+			}
+			long base = 0;
+			long length = media.getLength();
+			String etag = "synthetic-" + length;
+			long segmentBytes;
+			synchronized(this){
+				segmentBytes = this.segmentBytes;
+			}
+			int renditionBitrate = 0;
+			int segmentIndex = 0;
+			if(segmentBytes>0 && target.startsWith(HLS_PREFIX + "/")){
+				String name = target.substring(HLS_PREFIX.length() + 1);
+				int slash = name.indexOf('/');
+				if(slash>0){
+					renditionBitrate = Integer.parseInt(name.substring(0, slash));
+					name = name.substring(slash + 1);
+				}
+				if(name.endsWith(".m3u8")){
+					synchronized(this){
+						requestCount++;
+					}
+					byte[] playlist = ("master.m3u8".equals(name) ? getMasterPlaylist() : getPlaylist()).getBytes();
+					StringBuffer response = new StringBuffer();
+					response.append("HTTP/1.1 200 OK\r\n");
+					response.append("Content-Type: application/vnd.apple.mpegurl\r\n");
+					response.append("Content-Length: ").append(playlist.length).append("\r\n");
+					response.append("Connection: close\r\n\r\n");
+					out.write(response.toString().getBytes());
+					out.write(playlist);
+					out.flush();
+					return;
+				}
+				long index = Long.parseLong(name.substring("seg-".length(), name.indexOf('.')));
+				base = index * segmentBytes;
+				length = Math.min(segmentBytes, length - base);
+				etag += "-" + index;
+				if(renditionBitrate>0){
+					segmentIndex = (int) index;
+					length = getRenditionSegmentBytes(renditionBitrate, length);
+					etag += "-" + renditionBitrate;
+				}
+			}
+			long first = 0;
+			long last = length-1;
+			boolean partial = false;
+
+			String range = (String) headers.get("range");
+			if(range!=null && range.startsWith("bytes=")){
+				String spec = range.substring("bytes=".length());
+				int dash = spec.indexOf('-');
+				first = Long.parseLong(spec.substring(0, dash).trim());
+				String lastSpec = spec.substring(dash+1).trim();
+				if(lastSpec.length()>0){
+					last = Math.min(Long.parseLong(lastSpec), length-1);
+				}
+				partial = true;
+			}
+
+			synchronized(this){
+				requestCount++;
+				if(partial) rangeRequestCount++;
+			}
+
+			StringBuffer response = new StringBuffer();
+			if(partial && first>=length){
+				response.append("HTTP/1.1 416 Requested Range Not Satisfiable\r\n");
+				response.append("Content-Range: bytes */").append(length).append("\r\n");
+				response.append("Content-Length: 0\r\n");
+				response.append("Connection: close\r\n\r\n");
+				out.write(response.toString().getBytes());
+				out.flush();
+				return;
+			}
+
+			if(partial){
+				response.append("HTTP/1.1 206 Partial Content\r\n");
+				response.append("Content-Range: bytes ").append(first).append('-').append(last).append('/').append(length).append("\r\n");
+			} else{
+				response.append("HTTP/1.1 200 OK\r\n");
+			}
+			response.append("Content-Type: ").append(media.getContentType()).append("\r\n");
+			response.append("Content-Length: ").append(last-first+1).append("\r\n");
+			response.append("Accept-Ranges: bytes\r\n");
+			response.append("ETag: \"").append(etag).append("\"\r\n");
+			response.append("Connection: close\r\n\r\n");
+			out.write(response.toString().getBytes());
+
+			if(!"HEAD".equals(method)){
+				byte[] chunk = new byte[8192];
+				long position = first;
+				while(position<=last){
+					int n = (int) Math.min(chunk.length, last-position+1);
+					if(renditionBitrate>0){
+						SegmentedStreamChecker.fill(segmentIndex, renditionBitrate, length, position, chunk, 0, n);
+					} else{
+						media.fill(base + position, chunk, 0, n);
+					}
+					out.write(chunk, 0, n);
+					position += n;
+					synchronized(this){
+						bytesServed += n;
+					}
+				}
+			}
+			out.flush();
+		} catch(IOException e){
+			// client went away; nothing to do.
+		} finally{
+			try { socket.close(); } catch(IOException e){ }
+		}
+	}
+
+	/**
+	 * Sends the live feed from position, the live edge when it was requested, as it is produced,
+	 * until the payload ends.
+	 */
+	private void serveLive(String method, long position, OutputStream out) throws IOException {
+		StringBuffer response = new StringBuffer();
+		response.append("HTTP/1.1 200 OK\r\n");
+		response.append("Content-Type: ").append(media.getContentType()).append("\r\n");
+		response.append("Connection: close\r\n\r\n");
+		out.write(response.toString().getBytes());
+		if("HEAD".equals(method)){
+			out.flush();
+			return;
+		}
+		byte[] chunk = new byte[8192];
+		while(position<media.getLength()){
+			long edge = getLiveEdge();
+			if(edge<=position){
+				out.flush();
+				try { Thread.sleep(20); } catch(InterruptedException e){ }
+				continue;
+			}
+			int n = (int) Math.min(chunk.length, edge-position);
+			media.fill(position, chunk, 0, n);
+			out.write(chunk, 0, n);
+			position += n;
+			synchronized(this){
+				bytesServed += n;
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Gets the size of a rendition segment lasting as long as a slice of the payload.
+	 */
+	private synchronized long getRenditionSegmentBytes(int bitrate, long sliceBytes) {
+		long millis = sliceBytes * segmentMillis / segmentBytes;
+		return Math.max(SegmentedStreamChecker.HEADER_BYTES + 1, millis * bitrate / 8000);
+	}
+
+	/**
+	 * Builds the master playlist listing a media playlist per rendition.
+	 */
+	private synchronized String getMasterPlaylist() {
+		StringBuffer sb = new StringBuffer();
+		sb.append("#EXTM3U\n");
+		for(int i=0; renditionBitrates!=null && i<renditionBitrates.length; i++){
+			sb.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(renditionBitrates[i]).append('\n');
+			sb.append(renditionBitrates[i]).append("/index.m3u8\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Builds the media playlist listing the payload's segments. The media playlists of
+	 * the renditions list the same relative segment names and durations.
+	 */
+	private synchronized String getPlaylist() {
+		long length = media.getLength();
+		StringBuffer sb = new StringBuffer();
+		sb.append("#EXTM3U\n#EXT-X-VERSION:3\n");
+		sb.append("#EXT-X-TARGETDURATION:").append((segmentMillis + 999) / 1000).append('\n');
+		sb.append("#EXT-X-MEDIA-SEQUENCE:0\n");
+		for(long i=0; i*segmentBytes<length; i++){
+			long bytes = Math.min(segmentBytes, length - i*segmentBytes);
+			long millis = bytes * segmentMillis / segmentBytes;
+			sb.append("#EXTINF:").append(millis / 1000).append('.');
+			String fraction = String.valueOf(1000 + millis % 1000);
+			sb.append(fraction.substring(1)).append(",\n");
+			sb.append("seg-").append(i).append(".ts\n");
+		}
+		sb.append("#EXT-X-ENDLIST\n");
+		return sb.toString();
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuffer sb = new StringBuffer();
+		int c;
+		while((c = in.read())!=-1){
+			if(c=='\n'){
+				break;
+			}
+			if(c!='\r'){
+				sb.append((char) c);
+			}
+		}
+		if(c==-1 && sb.length()==0){
+			return null;
+		}
+		return sb.toString();
+	}
+}
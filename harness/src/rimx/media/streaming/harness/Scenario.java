@@ -0,0 +1,794 @@
+package rimx.media.streaming.harness;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Vector;
+
+import javax.microedition.media.Manager;
+import javax.microedition.media.MediaException;
+import javax.microedition.media.Player;
+import javax.microedition.media.PlayerListener;
+import javax.microedition.media.protocol.DataSource;
+
+import net.rim.device.api.lowmemory.LowMemoryManager;
+
+import rimx.media.streaming.BandwidthEstimator;
+import rimx.media.streaming.BufferPool;
+import rimx.media.streaming.DefaultConnectionFactory;
+import rimx.media.streaming.FilterMediaSource;
+import rimx.media.streaming.HttpMediaSource;
+import rimx.media.streaming.MediaProbe;
+import rimx.media.streaming.MediaSource;
+import rimx.media.streaming.PrefetchService;
+import rimx.media.streaming.Rendition;
+import rimx.media.streaming.SegmentedMediaSource;
+import rimx.media.streaming.StreamingPlayer;
+import rimx.media.streaming.StreamingPlayerListenerAdapter;
+import rimx.media.streaming.TransportConnectionFactory;
+import rimx.media.streaming.TransportSelector;
+
+/**
+ * An end-to-end playback scenario: a payload served by RangeHttpServer, a
+ * StreamingPlayer configured as the application would, a SimulatedPlayer
+ * consuming it and a script of seeks.
+ * <p>
+ * Scenarios are described one directive per line; '#' starts a comment:
+ * <pre>
+ * name         seek-forward
+ * length       8000000       # payload size in bytes
+ * bitrate      1000000       # media bitrate in bits per second
+ * header       16384         # bytes the Player reads in realize()
+ * lookahead    131072        # bytes the Player keeps decoded ahead
+ * initial-buffer 358000      # StreamingPlayer.setInitialBuffer()
+ * buffer-capacity 4194304    # StreamingPlayer.setBufferCapacity()
+ * back-buffer  1048576       # StreamingPlayer.setBackBufferBudget()
+ * forward-buffer 2097152     # StreamingPlayer.setForwardBufferBudget()
+ * leak-size    2097152       # StreamingPlayer.setBufferLeakSize(), which keeps the rest of the buffer capacity as back buffer
+ * pacing       10 40         # StreamingPlayer.setDownloadPacing() with low and high water marks in seconds
+ * start-at     60000         # StreamingPlayer.setStartTime() in media ms, as when resuming playback
+ * duration     30000         # give up after this many ms of wall time
+ * seek         5000 40000    # 5 s after start(), seek to media time 40 s
+ * standby      10000         # StreamingPlayer.setStandbyIdleTime(), 0 disables standby connections
+ * redirect     60            # request the payload through a redirect, cacheable for 60 s (omit for no Cache-Control)
+ * hls          4000          # serve the payload as an HLS playlist of 4 s segments
+ * rendition    400000        # offer a rendition at this bitrate; repeat for each rendition
+ * media-source filter        # StreamingPlayer(MediaSource, String) over a FilterMediaSource of an HttpMediaSource
+ * preload                    # StreamingPlayer.preload() and wait for the initial buffer before timing start-up
+ * skipped-preload            # before start-up, preload the locator in another StreamingPlayer and close it, as for a playlist item the user skips
+ * probe        3000          # MediaProbe the locator this many ms before start-up is timed
+ * prefetch     262144        # PrefetchService the leading bytes of the locator and wait for them before start-up is timed
+ * background   3000 2000000  # 3 s after start(), prefetch 2 MB of another locator without a bandwidth cap
+ * scheduler    off           # StreamingPlayer.setBandwidthScheduler(null): the player competes blindly with background downloads
+ * ranges       off           # StreamingPlayer.setBoundedRanges(false): request from the position to the end of the media
+ * second-player 4000         # 4 s after start(), start a second StreamingPlayer for the same locator, as a full-screen player after a preview
+ * shared-download            # StreamingPlayer.setSharedDownload(true) on the players
+ * live         2000          # serve the payload as a live feed of unknown length; StreamingPlayer.setLiveLatency(), 0 to leave it off
+ * network      flaky-3g      # emulate a built-in or file based NetworkProfile
+ * net at 3000 stall 5000     # add a NetworkProfile directive
+ * transport    ;interface=wifi wifi  # offer a transport over a built-in or file based NetworkProfile to a TransportSelector; repeat for each transport
+ * coverage     8000 ;interface=wifi off  # 8 s after start(), the transport loses coverage, or regains it with on
+ * expect origin-bytes <= 6000000  # fail the scenario unless the counter compares so, see SimulationReport.COUNTERS
+ * </pre>
+ */
+public class Scenario {
+
+	/** Longest wait for the teardown of a closed player, in ms */
+	private static final long TEARDOWN_WAIT = 15000;
+	/** How often the TransportSelector of a scenario with transports is updated, in ms */
+	private static final long TRANSPORT_UPDATE_INTERVAL = 1000;
+
+	public String name = "default";
+	public long length = 8000000;
+	public int bitrate = 1000000;
+	public int headerBytes = 16384;
+	public int lookAheadBytes = 131072;
+	public int initialBuffer = StreamingPlayer.DEFAULT_INITIAL_BUFFER;
+	/** Buffer capacity; 0 to let the StreamingPlayer size it from free memory */
+	public int bufferCapacity = StreamingPlayer.DEFAULT_BUFFER_CAPACITY;
+	/** Back and forward buffer budgets; 0 for the StreamingPlayer's defaults */
+	public int backBufferBudget = 0;
+	public int forwardBufferBudget = 0;
+	/** Buffer leak size; 0 to leave it unset */
+	public int bufferLeakSize = 0;
+	/** Download pacing low and high water marks in seconds; 0 for no pacing */
+	public int pacingLowWater = 0;
+	public int pacingHighWater = 0;
+	/** Media time playback starts at, in ms; 0 for the beginning */
+	public long startAtMillis = 0;
+	public int standbyIdleTime = StreamingPlayer.DEFAULT_STANDBY_IDLE_TIME;
+	public long durationMillis = 30000;
+	public String contentType = "video/mp4";
+	public String path = "/media/synthetic.mp4";
+	/** Pairs of {wall ms after start(), target media ms} */
+	public Vector seeks = new Vector();
+	/** Pairs of {wall ms after start(), LowMemoryListener priority} */
+	public Vector lowMemorySignals = new Vector();
+	/** Whether the payload is requested through a redirect */
+	public boolean redirect = false;
+	/** Cache-Control max-age of the redirect in seconds, or -1 for none */
+	public int redirectMaxAge = -1;
+	/** Duration of an HLS segment in ms, 0 to serve the payload as a single file */
+	public int hlsSegmentMillis = 0;
+	/** Bitrates of the renditions offered, as Integers; empty to play the payload alone */
+	public Vector renditions = new Vector();
+	/** Whether the player reads an HttpMediaSource through a FilterMediaSource instead of opening the locator itself */
+	public boolean filterSource = false;
+	/** Whether the player is preloaded before start-up is timed, as for the next item of a playlist */
+	public boolean preload = false;
+	/** Whether another player preloads the locator and is closed before start-up, as for a skipped playlist item */
+	public boolean skippedPreload = false;
+	/** How long before start-up the locator is probed with MediaProbe, in ms; -1 not to probe */
+	public long probeLeadMillis = -1;
+	/** Leading bytes prefetched with PrefetchService before start-up, 0 not to prefetch */
+	public long prefetchBytes = 0;
+	/** Wall ms after start() at which another locator is prefetched in the background, and how many bytes of it; 0 bytes for none */
+	public long backgroundAtMillis = 0;
+	public long backgroundBytes = 0;
+	/** Whether the player takes part in the default BandwidthScheduler */
+	public boolean bandwidthScheduler = true;
+	/** Whether the player requests bounded ranges */
+	public boolean boundedRanges = true;
+	/** Wall ms after start() at which a second player for the same locator starts, -1 for none */
+	public long secondPlayerAtMillis = -1;
+	/** Whether the players read the SharedDownload of the locator */
+	public boolean sharedDownload = false;
+	/** Target latency of a live feed in ms, 0 to play it without live mode, -1 to serve the payload as a file */
+	public int liveLatency = -1;
+	/** Network conditions to emulate, or null to use the loopback link as is */
+	public NetworkProfile network;
+	/** Transports offered to a TransportSelector as String[] { connection parameters, profile }; empty to connect without one */
+	public Vector transports = new Vector();
+	/** Coverage changes as String[] { wall ms after start(), connection parameters, "on" or "off" } */
+	public Vector coverageChanges = new Vector();
+	/** Expectations on the report as String[] { counter, operator, value } */
+	public Vector expectations = new Vector();
+	/** Emulator of the running scenario */
+	protected NetworkEmulator emulator;
+	/** Transports of the running scenario, null if it offers none */
+	protected TransportSelector transportSelector;
+	protected TransportRouter transportRouter;
+	/** Wall-clock time of a seek of a segmented stream that has not created its Player yet, 0 if none */
+	private long segmentSeekRequestedAt = 0;
+
+	/**
+	 * Parses a scenario description.
+	 * @throws IOException	If the description cannot be read or contains an unknown directive.
+	 */
+	public static Scenario parse(Reader reader) throws IOException {
+		Scenario s = new Scenario();
+		BufferedReader in = new BufferedReader(reader);
+		String line;
+		int lineNo = 0;
+		while((line = in.readLine())!=null){
+			lineNo++;
+			int hash = line.indexOf('#');
+			if(hash>=0){
+				line = line.substring(0, hash);
+			}
+			String[] words = line.trim().split("\\s+");
+			if(words.length==0 || words[0].length()==0){
+				continue;
+			}
+			if(!s.apply(words)){
+				throw new IOException("line " + lineNo + ": unknown directive '" + words[0] + "'");
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * Applies one directive. Returns false if the directive is not understood.
+	 */
+	protected boolean apply(String[] words) throws IOException {
+		String key = words[0];
+		if("name".equals(key)) name = words[1];
+		else if("length".equals(key)) length = Long.parseLong(words[1]);
+		else if("bitrate".equals(key)) bitrate = Integer.parseInt(words[1]);
+		else if("header".equals(key)) headerBytes = Integer.parseInt(words[1]);
+		else if("lookahead".equals(key)) lookAheadBytes = Integer.parseInt(words[1]);
+		else if("initial-buffer".equals(key)) initialBuffer = Integer.parseInt(words[1]);
+		else if("buffer-capacity".equals(key)) bufferCapacity = "auto".equals(words[1]) ? 0 : Integer.parseInt(words[1]);
+		else if("back-buffer".equals(key)) backBufferBudget = Integer.parseInt(words[1]);
+		else if("forward-buffer".equals(key)) forwardBufferBudget = Integer.parseInt(words[1]);
+		else if("leak-size".equals(key)) bufferLeakSize = Integer.parseInt(words[1]);
+		else if("pacing".equals(key)){
+			pacingLowWater = Integer.parseInt(words[1]);
+			pacingHighWater = Integer.parseInt(words[2]);
+		}
+		else if("start-at".equals(key)) startAtMillis = Long.parseLong(words[1]);
+		else if("standby".equals(key)) standbyIdleTime = Integer.parseInt(words[1]);
+		else if("redirect".equals(key)){
+			redirect = true;
+			redirectMaxAge = words.length>1 ? Integer.parseInt(words[1]) : -1;
+		}
+		else if("hls".equals(key)){
+			hlsSegmentMillis = Integer.parseInt(words[1]);
+			contentType = "video/mp2t";
+		}
+		else if("preload".equals(key)) preload = true;
+		else if("skipped-preload".equals(key)) skippedPreload = true;
+		else if("probe".equals(key)) probeLeadMillis = Long.parseLong(words[1]);
+		else if("prefetch".equals(key)) prefetchBytes = Long.parseLong(words[1]);
+		else if("background".equals(key)){
+			backgroundAtMillis = Long.parseLong(words[1]);
+			backgroundBytes = Long.parseLong(words[2]);
+		}
+		else if("scheduler".equals(key)) bandwidthScheduler = !"off".equals(words[1]);
+		else if("ranges".equals(key)) boundedRanges = !"off".equals(words[1]);
+		else if("second-player".equals(key)) secondPlayerAtMillis = Long.parseLong(words[1]);
+		else if("shared-download".equals(key)) sharedDownload = true;
+		else if("live".equals(key)) liveLatency = Integer.parseInt(words[1]);
+		else if("rendition".equals(key)) renditions.addElement(Integer.valueOf(words[1]));
+		else if("media-source".equals(key)) filterSource = "filter".equals(words[1]);
+		else if("duration".equals(key)) durationMillis = Long.parseLong(words[1]);
+		else if("content-type".equals(key)) contentType = words[1];
+		else if("path".equals(key)) path = words[1];
+		else if("seek".equals(key)) seeks.addElement(new long[]{ Long.parseLong(words[1]), Long.parseLong(words[2]) });
+		else if("low-memory".equals(key)) lowMemorySignals.addElement(new long[]{ Long.parseLong(words[1]), Integer.parseInt(words[2]) });
+		else if("network".equals(key)) network = NetworkProfile.forName(words[1]);
+		else if("transport".equals(key)){
+			NetworkProfile.forName(words[2]);	// fail on an unknown profile while parsing
+			transports.addElement(new String[]{ words[1], words[2] });
+		}
+		else if("coverage".equals(key)){
+			if(words.length<4 || !("on".equals(words[3]) || "off".equals(words[3]))){
+				throw new IOException("coverage needs a time, connection parameters and on or off: " + line(words));
+			}
+			coverageChanges.addElement(new String[]{ String.valueOf(Long.parseLong(words[1])), words[2], words[3] });
+		}
+		else if("expect".equals(key)){
+			if(words.length<4 || !SimulationReport.isCounter(words[1]) || !SimulationReport.isOperator(words[2])){
+				throw new IOException("expect needs a counter, one of < <= = >= > and a value: " + line(words));
+			}
+			expectations.addElement(new String[]{ words[1], words[2], String.valueOf(Long.parseLong(words[3])) });
+		}
+		else if("net".equals(key)){
+			if(network==null){
+				network = new NetworkProfile();
+			}
+			String[] rest = new String[words.length-1];
+			System.arraycopy(words, 1, rest, 0, rest.length);
+			return network.apply(rest);
+		}
+		else return false;
+		return true;
+	}
+
+	private static String line(String[] words) {
+		StringBuffer sb = new StringBuffer();
+		for(int i=0; i<words.length; i++){
+			sb.append(i>0 ? " " : "").append(words[i]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Creates the origin for this scenario. Subclasses may return a differently behaving server.
+	 */
+	protected RangeHttpServer createServer(SyntheticMedia media) {
+		return new RangeHttpServer(media);
+	}
+
+	/**
+	 * Creates and configures the StreamingPlayer under test.
+	 */
+	protected StreamingPlayer createStreamingPlayer(String url) {
+		StreamingPlayer sp;
+		if(!renditions.isEmpty() && hlsSegmentMillis==0){
+			Rendition[] r = new Rendition[renditions.size()];
+			for(int i=0; i<r.length; i++){
+				int b = ((Integer) renditions.elementAt(i)).intValue();
+				r[i] = new Rendition(url + (url.indexOf('?')<0 ? "?" : "&") + "bitrate=" + b, b, null);
+			}
+			sp = new StreamingPlayer(r, contentType);
+		} else if(filterSource){
+			HttpMediaSource http = new HttpMediaSource(url, emulator==null ? new DefaultConnectionFactory() : emulator);
+			sp = new StreamingPlayer(new FilterMediaSource(http), contentType);
+		} else{
+			sp = new StreamingPlayer(url, hlsSegmentMillis>0 ? null : contentType);
+		}
+		if(bufferCapacity>0){
+			sp.setBufferCapacity(bufferCapacity);
+		}
+		sp.setInitialBuffer(initialBuffer);
+		sp.setBackBufferBudget(backBufferBudget);
+		sp.setForwardBufferBudget(forwardBufferBudget);
+		if(bufferLeakSize>0){
+			sp.setBufferLeakSize(bufferLeakSize);
+		}
+		sp.setDownloadPacing(pacingLowWater, pacingHighWater);
+		sp.setStartTime(startAtMillis * 1000);
+		sp.setStandbyIdleTime(standbyIdleTime);
+		if(!bandwidthScheduler){
+			sp.setBandwidthScheduler(null);
+		}
+		sp.setBoundedRanges(boundedRanges);
+		sp.setSharedDownload(sharedDownload);
+		if(liveLatency>0){
+			sp.setLiveLatency(liveLatency);
+		}
+		if(transportSelector!=null){
+			sp.setConnectionFactory(new TransportConnectionFactory(transportRouter, transportSelector));
+		} else if(emulator!=null){
+			sp.setConnectionFactory(emulator);
+		}
+		return sp;
+	}
+
+	/**
+	 * Runs the scenario to completion and returns its report.
+	 */
+	public SimulationReport run() throws IOException, MediaException {
+		final SimulationReport report = new SimulationReport();
+		report.scenario = name;
+
+		SyntheticMedia media = new SyntheticMedia(length, contentType);
+		RangeHttpServer server = createServer(media);
+		server.setRedirectMaxAge(redirectMaxAge);
+		if(hlsSegmentMillis>0){
+			server.setHls((long) hlsSegmentMillis * bitrate / 8000, hlsSegmentMillis);
+			if(!renditions.isEmpty()){
+				int[] bitrates = new int[renditions.size()];
+				for(int i=0; i<bitrates.length; i++){
+					bitrates[i] = ((Integer) renditions.elementAt(i)).intValue();
+				}
+				server.setRenditions(bitrates);
+			}
+		}
+		if(liveLatency>=0){
+			server.setLive(bitrate);
+		}
+		server.start();
+		BufferPool pool = BufferPool.getDefault();
+		int reusedBefore = pool.getReusedCount();
+		int allocatedBefore = pool.getAllocatedCount();
+
+		final StreamingPlayer[] player = new StreamingPlayer[1];
+		final SimulatedPlayer[] simulated = new SimulatedPlayer[1];
+		final StreamingPlayer[] second = new StreamingPlayer[1];
+		Manager.setPlayerFactory(new Manager.PlayerFactory(){
+			public Player createPlayer(DataSource source){
+				SimulatedPlayer p = new SimulatedPlayer(source, bitrate, headerBytes, lookAheadBytes, report);
+				if(hlsSegmentMillis>0 && !renditions.isEmpty()){
+					p.setChecker(new SegmentedStreamChecker(bitrate, hlsSegmentMillis));
+				}
+				p.setLive(liveLatency>=0);
+				synchronized(simulated){
+					if(simulated[0]==null){
+						simulated[0] = p;
+					}
+				}
+				synchronized(Scenario.this){
+					if(segmentSeekRequestedAt!=0){
+						SegmentedMediaSource segmented = (SegmentedMediaSource) player[0].getMediaSource();
+						p.restart(segmented.getTimeOffset() * bitrate / 8000000, segmentSeekRequestedAt);
+						segmentSeekRequestedAt = 0;
+					}
+				}
+				return p;
+			}
+		});
+
+		emulator = network==null ? null : new NetworkEmulator(network);
+		if(!transports.isEmpty()){
+			String[] params = new String[transports.size()];
+			NetworkEmulator[] links = new NetworkEmulator[params.length];
+			for(int i=0; i<params.length; i++){
+				String[] t = (String[]) transports.elementAt(i);
+				params[i] = t[0];
+				links[i] = new NetworkEmulator(NetworkProfile.forName(t[1]));
+			}
+			BandwidthEstimator.getDefault().reset();	// nothing measured by an earlier scenario applies
+			transportRouter = new TransportRouter(params, links);
+			transportSelector = new TransportSelector(params, BandwidthEstimator.getDefault());
+		}
+
+		final Object done = new Object();
+		final String[] outcome = new String[1];
+		String target = path;
+		if(hlsSegmentMillis>0){
+			target = RangeHttpServer.HLS_PREFIX + (renditions.isEmpty() ? "/index.m3u8" : "/master.m3u8");
+		}
+		String url = server.getUrl(redirect ? RangeHttpServer.REDIRECT_PREFIX + target : target);
+		if(probeLeadMillis>=0){
+			long probeStarted = System.currentTimeMillis();
+			MediaProbe probe = MediaProbe.probe(url, emulator==null ? new DefaultConnectionFactory() : emulator, standbyIdleTime);
+			if(probe.await(durationMillis) && probe.getError()==null){
+				report.probeMillis = probe.getProbeMillis();
+				report.probeRanges = probe.isRangeSupported() ? 1 : 0;
+			}
+			long left = probeStarted + probeLeadMillis - System.currentTimeMillis();
+			if(left>0){
+				try { Thread.sleep(left); } catch(InterruptedException e){ }
+			}
+		}
+		if(prefetchBytes>0 || backgroundBytes>0){
+			File dir = new File(System.getProperty("java.io.tmpdir"), "rimx-prefetch");
+			PrefetchService.setDirectory("file://" + dir.getAbsolutePath() + "/");
+		}
+		if(prefetchBytes>0){
+			PrefetchService.prefetch(url, emulator==null ? new DefaultConnectionFactory() : emulator, prefetchBytes);
+			PrefetchService.await(url, durationMillis);
+		}
+		if(skippedPreload){
+			StreamingPlayer skipped = createStreamingPlayer(url);
+			skipped.preload();
+			long deadline = System.currentTimeMillis() + durationMillis;
+			while(!skipped.isInitialBufferingComplete() && System.currentTimeMillis()<deadline){
+				try { Thread.sleep(20); } catch(InterruptedException e){ }
+			}
+			closePlayer(skipped, new SimulationReport());	// its close is not the one reported
+		}
+		StreamingPlayer sp = createStreamingPlayer(url);
+		player[0] = sp;
+		sp.addStreamingPlayerListener(new ReportingListener(report){
+			public void playerUpdate(String event, Object eventData){
+				if(PlayerListener.END_OF_MEDIA.equals(event) || PlayerListener.ERROR.equals(event)){
+					synchronized(done){
+						outcome[0] = event;
+						done.notifyAll();
+					}
+				}
+			}
+		});
+
+		if(preload){
+			sp.preload();
+			long deadline = System.currentTimeMillis() + durationMillis;
+			while(!sp.isInitialBufferingComplete() && System.currentTimeMillis()<deadline){
+				try { Thread.sleep(20); } catch(InterruptedException e){ }
+			}
+		}
+		long t0 = System.currentTimeMillis();
+		try {
+			sp.realize();
+			long realized = System.currentTimeMillis();
+			report.realizeMillis = realized - t0;
+			sp.prefetch();
+			sp.start();
+			long started = System.currentTimeMillis();
+			report.startupMillis = started - t0;
+
+			signalLowMemory(started, report);
+			startBackground(server.getUrl(path + "?background"), started, report);
+			startSecondPlayer(url, started, second);
+			SeekRunner seeker = startSeeks(sp, started, done, outcome);
+			updateTransports(sp, started, done, outcome, report);
+
+			synchronized(done){
+				long deadline = t0 + durationMillis;
+				while(outcome[0]==null && System.currentTimeMillis()<deadline){
+					try { done.wait(Math.max(1, deadline - System.currentTimeMillis())); } catch(InterruptedException e){ }
+				}
+				if(outcome[0]!=null){
+					report.outcome = outcome[0];
+				}
+			}
+			if(seeker!=null && seeker.getPending()>=0){
+				report.hungSeeks++;
+				report.outcome = "seekHung";
+				System.out.println("Seek to " + seeker.getPending() + " ms still blocked in setMediaTime() after " + durationMillis + " ms");
+			}
+		} finally{
+			report.wallMillis = System.currentTimeMillis() - t0;
+			report.bufferCapacity = sp.getBufferCapacity();
+			if(liveLatency>=0){
+				synchronized(simulated){
+					if(simulated[0]!=null){
+						report.liveLatencyMillis = (server.getLiveEdge() - simulated[0].getPlayheadOffset()) * 8000 / bitrate;
+					}
+				}
+				report.discardedBytes = sp.getDiscardedBytes();
+			}
+			closePlayer(sp, report);
+			synchronized(second){
+				if(second[0]!=null){
+					try { second[0].close(); } catch(Throwable t){ }
+				}
+			}
+			report.requests = server.getRequestCount();
+			report.bytesServed = server.getBytesServed();
+			report.redirects = server.getRedirectCount();
+			if(emulator!=null){
+				report.injectedResets = emulator.getResetsInjected();
+				report.injectedStalls = emulator.getStallsInjected();
+				report.connectionsOpened = emulator.getConnectionsOpened();
+			}
+			if(transportRouter!=null){
+				report.connectionsOpened = transportRouter.getConnectionsOpened();
+			}
+			MediaSource unwrapped = sp.getMediaSource();
+			while(unwrapped instanceof FilterMediaSource){
+				unwrapped = ((FilterMediaSource) unwrapped).getSource();
+			}
+			if(unwrapped instanceof HttpMediaSource){
+				HttpMediaSource source = (HttpMediaSource) unwrapped;
+				report.standbyConnections = source.getStandbyConnections();
+				report.standbyHits = source.getStandbyHits();
+			}
+			report.poolReused = pool.getReusedCount() - reusedBefore;
+			report.poolAllocated = pool.getAllocatedCount() - allocatedBefore;
+			server.stop();
+			for(int i=0; i<expectations.size(); i++){
+				String[] e = (String[]) expectations.elementAt(i);
+				report.expect(e[0], e[1], Long.parseLong(e[2]));
+			}
+		}
+		return report;
+	}
+
+	/**
+	 * Signals the scripted low memory conditions in the background.
+	 */
+	private void signalLowMemory(final long started, final SimulationReport report) {
+		if(lowMemorySignals.isEmpty()){
+			return;
+		}
+		new Thread(){
+			public void run(){
+				for(int i=0; i<lowMemorySignals.size(); i++){
+					long[] signal = (long[]) lowMemorySignals.elementAt(i);
+					long left = started + signal[0] - System.currentTimeMillis();
+					if(left>0){
+						try { Thread.sleep(left); } catch(InterruptedException e){ }
+					}
+					if(LowMemoryManager.signal((int) signal[1])){
+						synchronized(report){
+							report.lowMemorySignals++;
+						}
+					}
+				}
+			}
+		}.start();
+	}
+
+	/**
+	 * Applies the scripted coverage changes and updates the TransportSelector every
+	 * TRANSPORT_UPDATE_INTERVAL in the background, reconnecting the player when it switches
+	 * transports, as PlaylistController does.
+	 */
+	private void updateTransports(final StreamingPlayer sp, final long started, final Object done, final String[] outcome, final SimulationReport report) {
+		if(transportSelector==null){
+			return;
+		}
+		new Thread(){
+			public void run(){
+				int applied = 0;
+				while(true){
+					synchronized(done){
+						long at = System.currentTimeMillis() + TRANSPORT_UPDATE_INTERVAL;
+						while(outcome[0]==null && System.currentTimeMillis()<at){
+							try { done.wait(Math.max(1, at - System.currentTimeMillis())); } catch(InterruptedException e){ }
+						}
+						if(outcome[0]!=null || System.currentTimeMillis() - started > durationMillis){
+							return;
+						}
+					}
+					for(; applied<coverageChanges.size(); applied++){
+						String[] change = (String[]) coverageChanges.elementAt(applied);
+						if(started + Long.parseLong(change[0]) > System.currentTimeMillis()){
+							break;
+						}
+						transportSelector.setAvailable(change[1], "on".equals(change[2]));
+					}
+					if(transportSelector.update()){
+						synchronized(report){
+							report.transportSwitches++;
+						}
+						sp.reconnect();
+					}
+				}
+			}
+		}.start();
+	}
+
+	/**
+	 * Prefetches backgroundBytes of another locator in the background backgroundAtMillis after start-up,
+	 * without the bandwidth cap of the PrefetchService, and records how long that took.
+	 */
+	private void startBackground(final String url, final long started, final SimulationReport report) {
+		if(backgroundBytes<=0){
+			return;
+		}
+		new Thread(){
+			public void run(){
+				long left = started + backgroundAtMillis - System.currentTimeMillis();
+				if(left>0){
+					try { Thread.sleep(left); } catch(InterruptedException e){ }
+				}
+				long t0 = System.currentTimeMillis();
+				int cap = PrefetchService.getMaxBandwidth();
+				PrefetchService.setMaxBandwidth(0);
+				try{
+					PrefetchService.prefetch(url, emulator==null ? new DefaultConnectionFactory() : emulator, backgroundBytes);
+					if(PrefetchService.await(url, durationMillis)){
+						synchronized(report){
+							report.backgroundMillis = System.currentTimeMillis() - t0;
+						}
+					}
+				} finally{
+					PrefetchService.setMaxBandwidth(cap);
+					PrefetchService.cancel(url);
+				}
+			}
+		}.start();
+	}
+
+	/**
+	 * Closes the player as a screen does, timing how long close() blocks, and waits up to
+	 * TEARDOWN_WAIT for its teardown to complete, so that the counters read afterwards are final.
+	 */
+	private static void closePlayer(StreamingPlayer sp, SimulationReport report) {
+		final long[] completedAt = { 0 };
+		long closing = System.currentTimeMillis();
+		sp.close(new Runnable(){
+			public void run(){
+				synchronized(completedAt){
+					completedAt[0] = System.currentTimeMillis();
+					completedAt.notifyAll();
+				}
+			}
+		});
+		report.closeMillis = System.currentTimeMillis() - closing;
+		synchronized(completedAt){
+			long deadline = closing + TEARDOWN_WAIT;
+			while(completedAt[0]==0 && System.currentTimeMillis()<deadline){
+				try { completedAt.wait(Math.max(1, deadline - System.currentTimeMillis())); } catch(InterruptedException e){ }
+			}
+			if(completedAt[0]!=0){
+				report.teardownMillis = completedAt[0] - closing;
+			}
+		}
+	}
+
+	/**
+	 * Starts a second player for the locator secondPlayerAtMillis after start-up. Its Player reports into
+	 * the same report.
+	 */
+	private void startSecondPlayer(final String url, final long started, final StreamingPlayer[] second) {
+		if(secondPlayerAtMillis<0){
+			return;
+		}
+		new Thread(){
+			public void run(){
+				long left = started + secondPlayerAtMillis - System.currentTimeMillis();
+				if(left>0){
+					try { Thread.sleep(left); } catch(InterruptedException e){ }
+				}
+				StreamingPlayer sp = createStreamingPlayer(url);
+				synchronized(second){
+					second[0] = sp;
+				}
+				try{
+					sp.realize();
+					sp.prefetch();
+					sp.start();
+				} catch(Exception e){
+					System.out.println("Second player failed: " + e);
+				}
+			}
+		}.start();
+	}
+
+	/**
+	 * Issues the scripted seeks on a SeekRunner, so that a seek that never returns is reported 
+	 * once the scenario's duration is up rather than hanging the harness.
+	 * @return	The SeekRunner, or null if there are no seeks.
+	 */
+	private SeekRunner startSeeks(StreamingPlayer sp, long started, Object done, String[] outcome) {
+		if(seeks.isEmpty()){
+			return null;
+		}
+		SeekRunner seeker = new SeekRunner(sp, started, done, outcome);
+		seeker.start();
+		return seeker;
+	}
+
+	/**
+	 * Issues the scripted seeks at their times.
+	 */
+	private class SeekRunner extends Thread {
+
+		private final StreamingPlayer sp;
+		private final long started;
+		private final Object done;
+		private final String[] outcome;
+		/** Target media time in ms of the seek in progress, -1 if none */
+		private long pending = -1;
+
+		SeekRunner(StreamingPlayer sp, long started, Object done, String[] outcome) {
+			this.sp = sp;
+			this.started = started;
+			this.done = done;
+			this.outcome = outcome;
+		}
+
+		synchronized long getPending() {
+			return pending;
+		}
+
+		public void run() {
+			for(int i=0; i<seeks.size(); i++){
+				long[] seek = (long[]) seeks.elementAt(i);
+				synchronized(done){
+					long at = started + seek[0];
+					while(outcome[0]==null && System.currentTimeMillis()<at){
+						try { done.wait(Math.max(1, at - System.currentTimeMillis())); } catch(InterruptedException e){ }
+					}
+					if(outcome[0]!=null){
+						return;
+					}
+				}
+				if(sp.getMediaSource() instanceof SegmentedMediaSource){
+					synchronized(Scenario.this){
+						segmentSeekRequestedAt = System.currentTimeMillis();
+					}
+				}
+				synchronized(this){
+					pending = seek[1];
+				}
+				try{
+					sp.setMediaTime(seek[1] * 1000);
+				} catch(Exception e){
+					System.out.println("Seek to " + seek[1] + " ms failed: " + e);
+				}
+				synchronized(this){
+					pending = -1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Base StreamingPlayerListener that feeds listener events into a SimulationReport.
+	 */
+	public static class ReportingListener extends StreamingPlayerListenerAdapter {
+
+		protected final SimulationReport report;
+
+		public ReportingListener(SimulationReport report) {
+			this.report = report;
+		}
+
+		public void feedPaused(long available) {
+			synchronized(report){
+				report.feedPausedEvents++;
+			}
+		}
+
+		public void nowReading(long now) {
+			synchronized(report){
+				report.nowReadingEvents++;
+			}
+		}
+
+		public void liveEdgeDistanceUpdated(long distance) {
+			synchronized(report){
+				report.liveEdgeMillis = distance / 1000;
+				report.maxLiveEdgeMillis = Math.max(report.maxLiveEdgeMillis, report.liveEdgeMillis);
+			}
+		}
+
+		public void renditionSwitched(Rendition from, Rendition to) {
+			if(from!=null){
+				synchronized(report){
+					report.renditionSwitches++;
+				}
+			}
+		}
+
+		public void underlyingPlayerReplaced() {
+			synchronized(report){
+				report.playerReplacements++;
+			}
+		}
+
+		public void streamingError(int errorCode) {
+			synchronized(report){
+				report.streamingErrors++;
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package rimx.media.streaming.harness;
+
+import java.util.Vector;
+
+/**
+ * Payload of the HLS renditions served by RangeHttpServer, and its verification by
+ * SimulatedPlayer. Renditions at different bitrates cannot share byte offsets, so each
+ * segment describes itself: a header of HEADER_BYTES holding its index, the bitrate of
+ * its rendition and its length, followed by bytes that are a function of those three
+ * and their position. The checker follows the stream across rendition switches,
+ * counts bytes that do not match, and remembers where each segment started so that
+ * the Player can consume every segment at the bitrate it was encoded at.
+ */
+public class SegmentedStreamChecker {
+
+	public static final int HEADER_BYTES = 12;
+
+	/** Bitrate used until the first header has been read, in bits per second */
+	private final int defaultBitrate;
+	private final int segmentMillis;
+
+	/** long[]{stream offset, bitrate, index} of the segments read */
+	private final Vector segments = new Vector();
+	private final byte[] header = new byte[HEADER_BYTES];
+	/** Offset in the stream of the next byte checked */
+	private long position = 0;
+	/** Offset in the current segment of the next byte checked */
+	private long inSegment = 0;
+	private int index;
+	private int bitrate;
+	private long length = 0;
+	/** Set once a header did not make sense; every later byte is counted as corrupt */
+	private boolean lost = false;
+
+	public SegmentedStreamChecker(int defaultBitrate, int segmentMillis) {
+		this.defaultBitrate = defaultBitrate;
+		this.segmentMillis = segmentMillis;
+	}
+
+	/**
+	 * Gets the value of a byte of a segment.
+	 * @param position	Offset in the segment.
+	 */
+	public static byte byteAt(int index, int bitrate, long length, long position) {
+		if(position<HEADER_BYTES){
+			long field = position<4 ? index : position<8 ? bitrate : length;
+			return (byte) (field >>> (8 * (3 - position % 4)));
+		}
+		return SyntheticMedia.byteAt(position + ((long) index << 24) + ((long) bitrate << 32));
+	}
+
+	/**
+	 * Fills b[off..off+len) with the segment starting at position.
+	 */
+	public static void fill(int index, int bitrate, long length, long position, byte[] b, int off, int len) {
+		for(int i=0; i<len; i++){
+			b[off+i] = byteAt(index, bitrate, length, position+i);
+		}
+	}
+
+	/**
+	 * Checks the next len bytes of the stream.
+	 * @return	the number of bytes that do not match.
+	 */
+	public synchronized int check(byte[] b, int off, int len) {
+		int mismatches = 0;
+		for(int i=0; i<len; i++){
+			if(lost){
+				mismatches++;
+			} else if(inSegment<HEADER_BYTES){
+				header[(int) inSegment] = b[off+i];
+				if(inSegment==HEADER_BYTES-1 && !startSegment()){
+					lost = true;
+					mismatches += HEADER_BYTES;
+				}
+			} else if(b[off+i]!=byteAt(index, bitrate, length, inSegment)){
+				mismatches++;
+			}
+			position++;
+			inSegment++;
+			if(!lost && inSegment>=HEADER_BYTES && inSegment==length){
+				inSegment = 0;
+			}
+		}
+		return mismatches;
+	}
+
+	/**
+	 * Reads the header just completed and records the start of its segment.
+	 * @return	false if the header does not make sense.
+	 */
+	private boolean startSegment() {
+		int newIndex = readInt(0);
+		int newBitrate = readInt(4);
+		long newLength = readInt(8);
+		if(newBitrate<=0 || newLength<=HEADER_BYTES || newIndex<0
+				|| (!segments.isEmpty() && newIndex!=index+1)){
+			return false;
+		}
+		index = newIndex;
+		bitrate = newBitrate;
+		length = newLength;
+		segments.addElement(new long[]{ position - (HEADER_BYTES-1), bitrate, index });
+		return true;
+	}
+
+	private int readInt(int at) {
+		return ((header[at] & 0xff) << 24) | ((header[at+1] & 0xff) << 16) | ((header[at+2] & 0xff) << 8) | (header[at+3] & 0xff);
+	}
+
+	/**
+	 * Gets the bitrate of the segment containing a stream offset.
+	 */
+	public synchronized int getBitrateAt(long offset) {
+		long[] s = getSegmentAt(offset);
+		return s==null ? defaultBitrate : (int) s[1];
+	}
+
+	/**
+	 * Gets the media time at a stream offset, counted from the first segment of the stream.
+	 * @return	the time in milliseconds.
+	 */
+	public synchronized double getMillisAt(double offset) {
+		long[] s = getSegmentAt((long) offset);
+		if(s==null){
+			return offset * 8000 / defaultBitrate;
+		}
+		long first = ((long[]) segments.firstElement())[2];
+		return (s[2] - first) * segmentMillis + (offset - s[0]) * 8000 / s[1];
+	}
+
+	private long[] getSegmentAt(long offset) {
+		for(int i=segments.size()-1; i>=0; i--){
+			long[] s = (long[]) segments.elementAt(i);
+			if(offset>=s[0]){
+				return s;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,398 @@
+package rimx.media.streaming.harness;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import javax.microedition.media.Control;
+import javax.microedition.media.MediaException;
+import javax.microedition.media.Player;
+import javax.microedition.media.PlayerListener;
+import javax.microedition.media.TimeBase;
+import javax.microedition.media.protocol.DataSource;
+import javax.microedition.media.protocol.SourceStream;
+
+/**
+ * A stand-in for the native MMAPI Player. It pulls data from the first SourceStream
+ * of its DataSource the way the device Player does and "plays" it at a constant
+ * bitrate, so that the time at which the decoder would have run dry can be compared
+ * against the time the data actually arrived.
+ * <p>
+ * realize() reads headerBytes, prefetch() fills the decoder look-ahead and start()
+ * begins consuming media in real time. Every byte read is checked against
+ * SyntheticMedia so that data delivered at the wrong offset is reported, or against
+ * a SegmentedStreamChecker for a stream of HLS renditions, which is also consumed at
+ * the bitrate of each segment.
+ */
+public class SimulatedPlayer implements Player {
+
+	/** Number of bytes requested per SourceStream.read() */
+	public static final int READ_SIZE = 4096;
+
+	private final DataSource dataSource;
+	private final SimulationReport report;
+	private final Vector listeners = new Vector();
+	private SourceStream stream;
+	private int state = UNREALIZED;
+
+	/** Bitrate of the simulated media in bytes per millisecond */
+	private final double bytesPerMilli;
+	/** Size of the header read in realize() */
+	private final int headerBytes;
+	/** How much data the decoder keeps ahead of the playhead */
+	private final int lookAheadBytes;
+
+	/** Stream offset up to which data has been read */
+	private long readPosition = 0;
+	/** Stream offset of the playhead */
+	private double playPosition = 0;
+	/** Wall-clock time of the last playhead update */
+	private long lastTick = 0;
+	/** True while the decoder is starved */
+	private boolean stalled = false;
+	/** Wall-clock time at which the decoder ran dry */
+	private long stallStartedAt = 0;
+	/** True once the stream returned -1 */
+	private boolean endOfStream = false;
+	/** Wall-clock time of a pending seek, 0 if none */
+	private long seekRequestedAt = 0;
+	/** Wall-clock time at which start() was called, 0 once the first frame is recorded */
+	private long startRequestedAt = 0;
+	/** Media offset of stream offset 0 */
+	private long mediaOffset = 0;
+	/** True if this Player replaces one closed by a seek, so start-up is reported as seek latency */
+	private boolean restarted = false;
+	/** Verifies a stream of rendition segments, or null for a single payload */
+	private SegmentedStreamChecker checker;
+	/** True if the payload is a live feed, whose stale bytes StreamingPlayer may discard between reads */
+	private boolean live = false;
+	/** Stream offset reported by SourceStream.tell() after the last read of a live feed */
+	private long streamPosition = 0;
+
+	private Thread playback;
+	private volatile boolean stopPlayback = false;
+	/** Serializes read() and seek() calls on the SourceStream, as the device Player does */
+	private final Object streamLock = new Object();
+
+	public SimulatedPlayer(DataSource dataSource, int bitrate, int headerBytes, int lookAheadBytes, SimulationReport report) {
+		this.dataSource = dataSource;
+		this.bytesPerMilli = bitrate / 8000.0;
+		this.headerBytes = headerBytes;
+		this.lookAheadBytes = lookAheadBytes;
+		this.report = report;
+	}
+
+	/**
+	 * Makes this Player verify and consume a stream of self-describing rendition segments.
+	 */
+	public synchronized void setChecker(SegmentedStreamChecker checker) {
+		this.checker = checker;
+	}
+
+	/**
+	 * Makes this Player verify each read of a live feed at the offset SourceStream.tell() reports
+	 * after it, since the bytes StreamingPlayer discards to catch up are never read. A reconnect
+	 * continues at the live edge rather than at that offset, so the bytes read after it are
+	 * counted as corrupt.
+	 */
+	public synchronized void setLive(boolean live) {
+		this.live = live;
+	}
+
+	/**
+	 * Gets the stream offset of the playhead of a live feed.
+	 */
+	public synchronized long getPlayheadOffset() {
+		return streamPosition - (readPosition - (long) playPosition);
+	}
+
+	/**
+	 * Makes this Player stand in for one that StreamingPlayer closed to seek a segmented
+	 * stream. The time until the first read is reported as the latency of the seek
+	 * instead of as start-up time.
+	 * @param mediaOffset	Media offset at which the new stream starts.
+	 * @param seekRequestedAt	Wall-clock time at which the seek was requested.
+	 */
+	public synchronized void restart(long mediaOffset, long seekRequestedAt) {
+		this.mediaOffset = mediaOffset;
+		this.seekRequestedAt = seekRequestedAt;
+		this.restarted = true;
+	}
+
+	public void realize() throws MediaException {
+		if(state!=UNREALIZED){
+			return;
+		}
+		try {
+			stream = dataSource.getStreams()[0];
+			dataSource.start();
+			fill(headerBytes);
+		} catch(IOException e){
+			throw new MediaException("realize failed: " + e);
+		}
+		state = REALIZED;
+	}
+
+	public void prefetch() throws MediaException {
+		if(state==UNREALIZED){
+			realize();
+		}
+		if(state!=REALIZED){
+			return;
+		}
+		long t0 = System.currentTimeMillis();
+		try {
+			fill(lookAheadBytes);
+		} catch(IOException e){
+			throw new MediaException("prefetch failed: " + e);
+		}
+		if(!restarted){
+			report.prefetchMillis = System.currentTimeMillis() - t0;
+		}
+		state = PREFETCHED;
+	}
+
+	public void start() throws MediaException {
+		if(state==STARTED){
+			return;
+		}
+		if(state!=PREFETCHED){
+			prefetch();
+		}
+		synchronized(this){
+			lastTick = System.currentTimeMillis();
+			if(restarted){
+				startRequestedAt = 0;
+			} else if(readPosition > (long) playPosition){
+				// prefetch() already buffered the first frame.
+				report.startToFirstFrameMillis = 0;
+				startRequestedAt = 0;
+			} else{
+				startRequestedAt = lastTick;
+			}
+		}
+		state = STARTED;
+		stopPlayback = false;
+		playback = new Thread("SimulatedPlayer"){
+			public void run(){
+				play();
+			}
+		};
+		playback.start();
+		notifyListeners(PlayerListener.STARTED, new Long(getMediaTime()));
+	}
+
+	public void stop() throws MediaException {
+		if(state!=STARTED){
+			return;
+		}
+		stopPlayback = true;
+		state = PREFETCHED;
+		notifyListeners(PlayerListener.STOPPED, new Long(getMediaTime()));
+	}
+
+	public void deallocate() {
+		if(state==PREFETCHED){
+			state = REALIZED;
+		}
+	}
+
+	public void close() {
+		if(state==CLOSED){
+			return;
+		}
+		stopPlayback = true;
+		state = CLOSED;
+		try { dataSource.stop(); } catch(IOException e){ }
+		notifyListeners(PlayerListener.CLOSED, null);
+	}
+
+	public long setMediaTime(long now) throws MediaException {
+		if(state==UNREALIZED || state==CLOSED){
+			throw new IllegalStateException();
+		}
+		if(stream.getSeekType()!=SourceStream.RANDOM_ACCESSIBLE){
+			throw new MediaException("Stream is not seekable");
+		}
+		long target = (long) (Math.max(0, now) / 1000 * bytesPerMilli);
+		long requestedAt = System.currentTimeMillis();
+		synchronized(streamLock){
+			long actual;
+			try {
+				actual = stream.seek(target);
+			} catch(IOException e){
+				throw new MediaException("seek failed: " + e);
+			}
+			synchronized(this){
+				readPosition = actual;
+				playPosition = actual;
+				lastTick = System.currentTimeMillis();
+				stalled = false;
+				endOfStream = false;
+				seekRequestedAt = requestedAt;
+			}
+			return (long) (actual / bytesPerMilli * 1000);
+		}
+	}
+
+	public synchronized long getMediaTime() {
+		if(state==UNREALIZED || state==CLOSED){
+			return TIME_UNKNOWN;
+		}
+		if(checker!=null){
+			return (long) (checker.getMillisAt(playPosition) * 1000);
+		}
+		return (long) (playPosition / bytesPerMilli * 1000);
+	}
+
+	public long getDuration() {
+		if(stream==null || stream.getContentLength()<=0){
+			return TIME_UNKNOWN;
+		}
+		return (long) (stream.getContentLength() / bytesPerMilli * 1000);
+	}
+
+	public int getState() {
+		return state;
+	}
+
+	public String getContentType() {
+		return dataSource.getContentType();
+	}
+
+	public void setTimeBase(TimeBase master) throws MediaException {
+		throw new MediaException("TimeBase not supported");
+	}
+
+	public TimeBase getTimeBase() {
+		return null;
+	}
+
+	public void setLoopCount(int count) {
+	}
+
+	public void addPlayerListener(PlayerListener playerListener) {
+		if(playerListener!=null && !listeners.contains(playerListener)){
+			listeners.addElement(playerListener);
+		}
+	}
+
+	public void removePlayerListener(PlayerListener playerListener) {
+		listeners.removeElement(playerListener);
+	}
+
+	public Control[] getControls() {
+		return new Control[0];
+	}
+
+	public Control getControl(String controlType) {
+		return null;
+	}
+
+	/**
+	 * Reads until at least target bytes are buffered ahead of the playhead.
+	 */
+	private void fill(int target) throws IOException {
+		byte[] b = new byte[READ_SIZE];
+		while(!endOfStream && readPosition - (long) playPosition < target){
+			if(readChunk(b)<0){
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Reads one chunk from the stream and accounts for stalls and seek latency.
+	 */
+	private int readChunk(byte[] b) throws IOException {
+		synchronized(streamLock){
+			int n = stream.read(b, 0, b.length);
+			long end = n>0 && live ? stream.tell() : 0;
+			long now = System.currentTimeMillis();
+			synchronized(this){
+				tick(now);
+				if(n<0){
+					endOfStream = true;
+					return n;
+				}
+				if(checker!=null){
+					report.corruptBytes += checker.check(b, 0, n);
+				} else if(live){
+					report.corruptBytes += SyntheticMedia.countMismatches(end - n, b, 0, n);
+					streamPosition = end;
+				} else{
+					report.corruptBytes += SyntheticMedia.countMismatches(mediaOffset + readPosition, b, 0, n);
+				}
+				report.bytesRead += n;
+				readPosition += n;
+				if(stalled){
+					stalled = false;
+					if(seekRequestedAt==0 && startRequestedAt==0){
+						report.addStall(now - stallStartedAt);
+					}
+				}
+				if(seekRequestedAt!=0){
+					report.addSeek(now - seekRequestedAt);
+					seekRequestedAt = 0;
+				}
+				if(startRequestedAt!=0 && state==STARTED){
+					report.startToFirstFrameMillis = now - startRequestedAt;
+					startRequestedAt = 0;
+				}
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * Advances the playhead to the wall-clock time now.
+	 */
+	private void tick(long now) {
+		if(state==STARTED && !stalled){
+			double rate = checker==null ? bytesPerMilli : checker.getBitrateAt((long) playPosition) / 8000.0;
+			playPosition += (now - lastTick) * rate;
+			if(playPosition >= readPosition){
+				if(!endOfStream){
+					stalled = true;
+					stallStartedAt = now - (long) ((playPosition - readPosition) / rate);
+				}
+				playPosition = readPosition;
+			}
+		}
+		lastTick = now;
+	}
+
+	private void play() {
+		byte[] b = new byte[READ_SIZE];
+		try {
+			while(!stopPlayback){
+				boolean needData;
+				synchronized(this){
+					tick(System.currentTimeMillis());
+					if(endOfStream && playPosition>=readPosition){
+						break;
+					}
+					needData = !endOfStream && readPosition - (long) playPosition < lookAheadBytes;
+				}
+				if(needData){
+					readChunk(b);
+				} else{
+					try { Thread.sleep(20); } catch(InterruptedException e){ }
+				}
+			}
+			if(!stopPlayback){
+				state = PREFETCHED;
+				notifyListeners(PlayerListener.END_OF_MEDIA, new Long(getMediaTime()));
+			}
+		} catch(IOException e){
+			if(!stopPlayback){
+				notifyListeners(PlayerListener.ERROR, e.toString());
+			}
+		}
+	}
+
+	private void notifyListeners(String event, Object data) {
+		for(int i=0; i<listeners.size(); i++){
+			((PlayerListener) listeners.elementAt(i)).playerUpdate(this, event, data);
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package rimx.media.streaming.harness;
+
+import java.util.Vector;
+
+/**
+ * Timings and counters collected while a Scenario runs. All durations are wall-clock
+ * milliseconds.
+ */
+public class SimulationReport {
+
+	/** Name of the scenario */
+	public String scenario;
+	/** From the start of the scenario until StreamingPlayer.realize() returned */
+	public long realizeMillis;
+	/** Time spent in Player.prefetch() */
+	public long prefetchMillis;
+	/** From Player.start() until the first frame could be rendered */
+	public long startToFirstFrameMillis = -1;
+	/** From the start of the scenario until StreamingPlayer.start() returned */
+	public long startupMillis;
+	/** Total wall-clock time of the scenario */
+	public long wallMillis;
+	/** Bytes handed to the Player */
+	public long bytesRead;
+	/** Bytes handed to the Player that did not match the payload at their offset */
+	public long corruptBytes;
+	/** HTTP requests received by the origin */
+	public int requests;
+	/** Bytes sent by the origin */
+	public long bytesServed;
+	/** Redirects answered by the origin */
+	public int redirects;
+	/** Connections opened through the NetworkEmulator */
+	public int connectionsOpened;
+	/** Standby connections set up by the media source */
+	public int standbyConnections;
+	/** Opens of the media source served by a standby connection */
+	public int standbyHits;
+	/** StreamingPlayerListener.feedPaused() notifications */
+	public int feedPausedEvents;
+	/** StreamingPlayerListener.nowReading() notifications */
+	public int nowReadingEvents;
+	/** StreamingPlayerListener.streamingError() notifications */
+	public int streamingErrors;
+	/** Connection resets injected by the NetworkEmulator */
+	public int injectedResets;
+	/** Connections stalled by the NetworkEmulator */
+	public int injectedStalls;
+	/** StreamingPlayerListener.renditionSwitched() notifications, not counting the first rendition */
+	public int renditionSwitches;
+	/** Switches of the TransportSelector that moved the download to another transport */
+	public int transportSwitches;
+	/** StreamingPlayerListener.underlyingPlayerReplaced() notifications */
+	public int playerReplacements;
+	/** Low memory signals that a StreamingPlayer answered by freeing buffer */
+	public int lowMemorySignals;
+	/** Buffer capacity of the StreamingPlayer when the scenario ended */
+	public int bufferCapacity;
+	/** How long StreamingPlayer.close() blocked the caller, in ms */
+	public long closeMillis = -1;
+	/** How long the teardown took from close() to its completion callback, in ms; -1 if it did not complete */
+	public long teardownMillis = -1;
+	/** How the scenario ended */
+	public String outcome = "timeout";
+	/** How long the background download took, in ms; -1 if there was none or it did not complete */
+	public long backgroundMillis = -1;
+	/** How far the playhead was behind the live edge of a live feed when the scenario ended, in ms; -1 if not live */
+	public long liveLatencyMillis = -1;
+	/** Last and largest distance from the live edge reported by StreamingPlayerListener.liveEdgeDistanceUpdated(), in ms */
+	public long liveEdgeMillis = -1;
+	public long maxLiveEdgeMillis = -1;
+	/** Stale bytes of a live feed the StreamingPlayer discarded */
+	public long discardedBytes;
+	/** How long the MediaProbe of the locator took, in ms; -1 if it was not probed or the probe failed */
+	public long probeMillis = -1;
+	/** Whether the probe found the origin honouring Range: 1 if so, 0 if not, -1 if it was not probed or the probe failed */
+	public int probeRanges = -1;
+	/** Scripted seeks still blocked in StreamingPlayer.setMediaTime() when the scenario ended */
+	public int hungSeeks;
+	/** Arrays of the default BufferPool reused and newly allocated while the scenario ran */
+	public int poolReused;
+	public int poolAllocated;
+
+	/** Names of the counters a scenario can set expectations on, see getCounter() */
+	public static final String[] COUNTERS = {
+		"startup-ms", "realize-ms", "stalls", "stall-ms", "seeks", "max-seek-ms", "hung-seeks",
+		"feed-paused", "now-reading", "streaming-errors", "rendition-switches", "transport-switches", "player-replacements", "probe-ms", "probe-ranges", "buffer-capacity", "low-memory-signals",
+		"bytes-to-player", "corrupt-bytes", "origin-requests", "origin-bytes", "origin-redirects",
+		"connections-opened", "standby-hits", "standby-connections", "injected-resets", "injected-stalls",
+		"pool-reused", "pool-allocated", "background-ms", "live-latency-ms", "max-live-edge-ms",
+		"discarded-bytes", "close-ms", "teardown-ms", "wall-ms",
+	};
+	/** Comparisons of a counter with a value a scenario can expect */
+	public static final String[] OPERATORS = { "<", "<=", "=", ">=", ">" };
+
+	private final Vector stalls = new Vector();
+	private final Vector seeks = new Vector();
+	/** Descriptions of the expectations of the scenario that were not met */
+	private final Vector failedExpectations = new Vector();
+	private int checkedExpectations = 0;
+
+	public synchronized void addStall(long millis) {
+		stalls.addElement(new Long(millis));
+	}
+
+	public synchronized void addSeek(long millis) {
+		seeks.addElement(new Long(millis));
+	}
+
+	public synchronized int getStallCount() {
+		return stalls.size();
+	}
+
+	public synchronized long getTotalStallMillis() {
+		return sum(stalls);
+	}
+
+	public synchronized int getSeekCount() {
+		return seeks.size();
+	}
+
+	public synchronized long getMaxSeekMillis() {
+		long max = 0;
+		for(int i=0; i<seeks.size(); i++){
+			max = Math.max(max, ((Long) seeks.elementAt(i)).longValue());
+		}
+		return max;
+	}
+
+	public synchronized long getMeanSeekMillis() {
+		return seeks.size()==0 ? 0 : sum(seeks) / seeks.size();
+	}
+
+	/**
+	 * Tells whether name is one of the COUNTERS.
+	 */
+	public static boolean isCounter(String name) {
+		return contains(COUNTERS, name);
+	}
+
+	/**
+	 * Tells whether operator is one of the OPERATORS.
+	 */
+	public static boolean isOperator(String operator) {
+		return contains(OPERATORS, operator);
+	}
+
+	private static boolean contains(String[] names, String name) {
+		for(int i=0; i<names.length; i++){
+			if(names[i].equals(name)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets a counter by the name a scenario's expect directive uses, one of COUNTERS.
+	 * @throws IllegalArgumentException	If there is no counter of that name.
+	 */
+	public synchronized long getCounter(String name) {
+		if("startup-ms".equals(name)) return startupMillis;
+		if("realize-ms".equals(name)) return realizeMillis;
+		if("stalls".equals(name)) return stalls.size();
+		if("stall-ms".equals(name)) return sum(stalls);
+		if("seeks".equals(name)) return seeks.size();
+		if("max-seek-ms".equals(name)) return getMaxSeekMillis();
+		if("hung-seeks".equals(name)) return hungSeeks;
+		if("feed-paused".equals(name)) return feedPausedEvents;
+		if("now-reading".equals(name)) return nowReadingEvents;
+		if("streaming-errors".equals(name)) return streamingErrors;
+		if("rendition-switches".equals(name)) return renditionSwitches;
+		if("transport-switches".equals(name)) return transportSwitches;
+		if("player-replacements".equals(name)) return playerReplacements;
+		if("probe-ms".equals(name)) return probeMillis;
+		if("probe-ranges".equals(name)) return probeRanges;
+		if("buffer-capacity".equals(name)) return bufferCapacity;
+		if("low-memory-signals".equals(name)) return lowMemorySignals;
+		if("bytes-to-player".equals(name)) return bytesRead;
+		if("corrupt-bytes".equals(name)) return corruptBytes;
+		if("origin-requests".equals(name)) return requests;
+		if("origin-bytes".equals(name)) return bytesServed;
+		if("origin-redirects".equals(name)) return redirects;
+		if("connections-opened".equals(name)) return connectionsOpened;
+		if("standby-hits".equals(name)) return standbyHits;
+		if("standby-connections".equals(name)) return standbyConnections;
+		if("injected-resets".equals(name)) return injectedResets;
+		if("injected-stalls".equals(name)) return injectedStalls;
+		if("pool-reused".equals(name)) return poolReused;
+		if("pool-allocated".equals(name)) return poolAllocated;
+		if("background-ms".equals(name)) return backgroundMillis;
+		if("live-latency-ms".equals(name)) return liveLatencyMillis;
+		if("max-live-edge-ms".equals(name)) return maxLiveEdgeMillis;
+		if("discarded-bytes".equals(name)) return discardedBytes;
+		if("close-ms".equals(name)) return closeMillis;
+		if("teardown-ms".equals(name)) return teardownMillis;
+		if("wall-ms".equals(name)) return wallMillis;
+		throw new IllegalArgumentException("No counter " + name);
+	}
+
+	/**
+	 * Checks an expectation of the scenario, e.g. "origin-bytes &lt;= 6000000", and records it if it is not met.
+	 * @param operator	One of &lt;, &lt;=, =, &gt;= and &gt;.
+	 * @return	whether the expectation is met.
+	 */
+	public synchronized boolean expect(String counter, String operator, long value) {
+		long actual = getCounter(counter);
+		boolean met;
+		if("<".equals(operator)) met = actual<value;
+		else if("<=".equals(operator)) met = actual<=value;
+		else if("=".equals(operator)) met = actual==value;
+		else if(">=".equals(operator)) met = actual>=value;
+		else if(">".equals(operator)) met = actual>value;
+		else throw new IllegalArgumentException("No operator " + operator);
+		checkedExpectations++;
+		if(!met){
+			failedExpectations.addElement(counter + " " + operator + " " + value + " (was " + actual + ")");
+		}
+		return met;
+	}
+
+	/**
+	 * Gets the number of expectations of the scenario that were not met.
+	 */
+	public synchronized int getFailedExpectationCount() {
+		return failedExpectations.size();
+	}
+
+	private static long sum(Vector v) {
+		long total = 0;
+		for(int i=0; i<v.size(); i++){
+			total += ((Long) v.elementAt(i)).longValue();
+		}
+		return total;
+	}
+
+	public synchronized String toString() {
+		StringBuffer sb = new StringBuffer();
+		sb.append("scenario            ").append(scenario).append('\n');
+		sb.append("outcome             ").append(outcome).append('\n');
+		sb.append("startup ms          ").append(startupMillis).append('\n');
+		sb.append("  realize ms        ").append(realizeMillis).append('\n');
+		sb.append("  prefetch ms       ").append(prefetchMillis).append('\n');
+		sb.append("  start->frame ms   ").append(startToFirstFrameMillis).append('\n');
+		sb.append("stalls              ").append(stalls.size()).append(" (").append(sum(stalls)).append(" ms)\n");
+		sb.append("seeks               ").append(seeks.size()).append(" (mean ").append(getMeanSeekMillis()).append(" ms, max ").append(getMaxSeekMillis()).append(" ms)\n");
+		sb.append("  hung seeks        ").append(hungSeeks).append('\n');
+		sb.append("feedPaused events   ").append(feedPausedEvents).append('\n');
+		sb.append("nowReading events   ").append(nowReadingEvents).append('\n');
+		sb.append("streaming errors    ").append(streamingErrors).append('\n');
+		sb.append("rendition switches  ").append(renditionSwitches).append('\n');
+		sb.append("transport switches  ").append(transportSwitches).append('\n');
+		sb.append("player replacements ").append(playerReplacements).append('\n');
+		sb.append("probe ms            ").append(probeMillis).append(probeRanges<0 ? "" : probeRanges>0 ? " (ranges)" : " (no ranges)").append('\n');
+		sb.append("buffer capacity     ").append(bufferCapacity).append('\n');
+		sb.append("low memory signals  ").append(lowMemorySignals).append('\n');
+		sb.append("bytes to player     ").append(bytesRead).append('\n');
+		sb.append("corrupt bytes       ").append(corruptBytes).append('\n');
+		sb.append("origin requests     ").append(requests).append('\n');
+		sb.append("origin bytes        ").append(bytesServed).append('\n');
+		sb.append("origin redirects    ").append(redirects).append('\n');
+		sb.append("connections opened  ").append(connectionsOpened).append('\n');
+		sb.append("standby hits        ").append(standbyHits).append(" of ").append(standbyConnections).append('\n');
+		sb.append("injected resets     ").append(injectedResets).append('\n');
+		sb.append("injected stalls     ").append(injectedStalls).append('\n');
+		sb.append("background ms       ").append(backgroundMillis).append('\n');
+		sb.append("live latency ms     ").append(liveLatencyMillis).append('\n');
+		sb.append("  live edge ms      ").append(liveEdgeMillis).append(" (max ").append(maxLiveEdgeMillis).append(")\n");
+		sb.append("  discarded bytes   ").append(discardedBytes).append('\n');
+		sb.append("buffer pool         ").append(poolReused).append(" reused, ").append(poolAllocated).append(" allocated\n");
+		sb.append("close ms            ").append(closeMillis).append('\n');
+		sb.append("  teardown ms       ").append(teardownMillis).append('\n');
+		sb.append("wall ms             ").append(wallMillis).append('\n');
+		if(checkedExpectations>0){
+			sb.append("expectations        ").append(checkedExpectations - failedExpectations.size()).append(" of ").append(checkedExpectations).append(" met\n");
+			for(int i=0; i<failedExpectations.size(); i++){
+				sb.append("  FAILED            ").append(failedExpectations.elementAt(i)).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,55 @@
+package rimx.media.streaming.harness;
+
+import java.io.FileReader;
+import java.io.StringReader;
+import java.util.Vector;
+
+/**
+ * Command line entry point of the desktop simulation harness.
+ * <pre>
+ * java rimx.media.streaming.harness.StreamingHarness [-network profile] [scenario-file ...]
+ * </pre>
+ * Without scenario files the built-in scenarios are run. -network emulates the named
+ * built-in NetworkProfile (lan, wifi, 3g, edge, flaky-3g, no-range) or profile file
+ * in every scenario that does not specify its own. A report is printed for each
+ * scenario and the process exits with status 1 if any scenario delivered corrupt
+ * data, did not reach the end of the media or missed one of its expectations.
+ * harness/scenarios holds a scenario file for each feature of the StreamingPlayer,
+ * with expectations on the counters the feature changes.
+ */
+public class StreamingHarness {
+
+	/** Built-in scenarios, used when no scenario file is given */
+	private static final String[] BUILT_IN = {
+		"name progressive\nlength 4000000\nbitrate 4000000\nduration 30000\n",
+		"name seek-forward-and-back\nlength 6000000\nbitrate 4000000\nduration 40000\nseek 1500 9000\nseek 3000 1000\n",
+	};
+
+	public static void main(String[] args) throws Exception {
+		boolean failed = false;
+		NetworkProfile network = null;
+		Vector files = new Vector();
+		for(int i=0; i<args.length; i++){
+			if("-network".equals(args[i]) && i+1<args.length){
+				network = NetworkProfile.forName(args[++i]);
+			} else{
+				files.addElement(args[i]);
+			}
+		}
+		int count = files.size()>0 ? files.size() : BUILT_IN.length;
+		for(int i=0; i<count; i++){
+			Scenario scenario = files.size()>0
+				? Scenario.parse(new FileReader((String) files.elementAt(i)))
+				: Scenario.parse(new StringReader(BUILT_IN[i]));
+			if(scenario.network==null){
+				scenario.network = network;
+			}
+			SimulationReport report = scenario.run();
+			System.out.println(report);
+			if(report.corruptBytes>0 || !"endOfMedia".equals(report.outcome) || report.getFailedExpectationCount()>0){
+				failed = true;
+			}
+		}
+		System.exit(failed ? 1 : 0);
+	}
+}
@@ -0,0 +1,54 @@
+package rimx.media.streaming.harness;
+
+/**
+ * Deterministic media payload served by RangeHttpServer and verified by SimulatedPlayer.
+ * The value of every byte is a function of its offset, so any byte handed to the
+ * Player at the wrong position is detected as corruption.
+ */
+public class SyntheticMedia {
+
+	private final long length;
+	private final String contentType;
+
+	public SyntheticMedia(long length, String contentType) {
+		this.length = length;
+		this.contentType = contentType;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Gets the value of the byte at the given offset.
+	 */
+	public static byte byteAt(long offset) {
+		return (byte)((offset * 31) ^ (offset >>> 9) ^ (offset >>> 17));
+	}
+
+	/**
+	 * Fills b[off..off+len) with the payload starting at position.
+	 */
+	public void fill(long position, byte[] b, int off, int len) {
+		for(int i=0; i<len; i++){
+			b[off+i] = byteAt(position+i);
+		}
+	}
+
+	/**
+	 * Counts the bytes in b[off..off+len) that do not match the payload starting at position.
+	 */
+	public static int countMismatches(long position, byte[] b, int off, int len) {
+		int mismatches = 0;
+		for(int i=0; i<len; i++){
+			if(b[off+i]!=byteAt(position+i)){
+				mismatches++;
+			}
+		}
+		return mismatches;
+	}
+}
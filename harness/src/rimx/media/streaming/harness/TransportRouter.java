@@ -0,0 +1,52 @@
+package rimx.media.streaming.harness;
+
+import java.io.IOException;
+
+import javax.microedition.io.Connection;
+
+import rimx.media.streaming.ConnectionFactory;
+
+/**
+ * Stands in for the transports of a device: opens each connection through the
+ * NetworkEmulator of the transport whose connection parameters end its locator, with the
+ * parameters stripped, as the device routes a ";interface=wifi" connection over Wi-Fi.
+ * Locators without the parameters of a transport are opened through the first one.
+ */
+public class TransportRouter implements ConnectionFactory {
+
+	private final String[] transports;
+	private final NetworkEmulator[] emulators;
+
+	/**
+	 * @param transports	Connection parameters of the transports, e.g. ";interface=wifi".
+	 * @param emulators	The link of each transport.
+	 */
+	public TransportRouter(String[] transports, NetworkEmulator[] emulators) {
+		this.transports = transports;
+		this.emulators = emulators;
+	}
+
+	public Connection open(String url, int mode) throws IOException {
+		int route = 0;
+		for(int i=0; i<transports.length; i++){
+			if(transports[i].length()>0 && url.endsWith(transports[i])){
+				route = i;
+				url = url.substring(0, url.length() - transports[i].length());
+				break;
+			}
+		}
+		return emulators[route].open(url, mode);
+	}
+
+	/**
+	 * Gets the connections opened over all transports.
+	 */
+	public int getConnectionsOpened() {
+		int opened = 0;
+		for(int i=0; i<emulators.length; i++){
+			opened += emulators[i].getConnectionsOpened();
+		}
+		return opened;
+	}
+
+}
@@ -0,0 +1,13 @@
+package javax.microedition.io;
+
+import java.io.IOException;
+
+/**
+ * Desktop stand-in for the CLDC Generic Connection Framework. Only the subset
+ * used by rimx.media.streaming is provided.
+ */
+public interface Connection {
+
+	public void close() throws IOException;
+
+}
@@ -0,0 +1,50 @@
+package javax.microedition.io;
+
+import java.io.IOException;
+
+/**
+ * Desktop stand-in for javax.microedition.io.Connector. http://, https://, socket://,
+ * ssl:// and file:// locators are mapped onto java.net and java.io. BlackBerry connection
+ * parameters (";interface=wifi", ";deviceside=true" ...) are accepted and ignored.
+ */
+public class Connector {
+
+	public static final int READ = 1;
+	public static final int WRITE = 2;
+	public static final int READ_WRITE = 3;
+
+	private Connector() {
+	}
+
+	public static Connection open(String name) throws IOException {
+		return open(name, READ_WRITE, false);
+	}
+
+	public static Connection open(String name, int mode) throws IOException {
+		return open(name, mode, false);
+	}
+
+	public static Connection open(String name, int mode, boolean timeouts) throws IOException {
+		if(name==null){
+			throw new IllegalArgumentException("name cannot be null");
+		}
+		String url = stripParameters(name);
+		String lower = url.toLowerCase();
+		if(lower.startsWith("http://") || lower.startsWith("https://")){
+			return new DesktopHttpConnection(url);
+		} else if(lower.startsWith("socket://") || lower.startsWith("ssl://")){
+			return new DesktopSocketConnection(url);
+		} else if(lower.startsWith("file://")){
+			return new DesktopFileConnection(url);
+		}
+		throw new ConnectionNotFoundException("Protocol not supported: " + name);
+	}
+
+	/**
+	 * Removes BlackBerry transport parameters from a locator.
+	 */
+	static String stripParameters(String name) {
+		int semi = name.indexOf(';');
+		return semi<0 ? name : name.substring(0, semi);
+	}
+}
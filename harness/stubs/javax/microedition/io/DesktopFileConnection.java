@@ -0,0 +1,89 @@
+package javax.microedition.io;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.microedition.io.file.FileConnection;
+
+/**
+ * FileConnection backed by java.io.File. "file:///SDCard/x" maps to "/SDCard/x",
+ * or to $HARNESS_ROOT/SDCard/x when the rimx.harness.root system property is set.
+ */
+class DesktopFileConnection implements FileConnection {
+
+	private final String url;
+	private final File file;
+
+	DesktopFileConnection(String url) {
+		this.url = url;
+		String path = url.substring("file://".length());
+		String root = System.getProperty("rimx.harness.root");
+		this.file = root==null ? new File(path) : new File(root, path);
+	}
+
+	public String getURL() {
+		return url;
+	}
+
+	public boolean exists() {
+		return file.exists();
+	}
+
+	public boolean isDirectory() {
+		return file.isDirectory();
+	}
+
+	public long fileSize() throws IOException {
+		if(!file.exists()){
+			throw new IOException("File does not exist: " + url);
+		}
+		return file.length();
+	}
+
+	public void create() throws IOException {
+		File parent = file.getParentFile();
+		if(parent!=null){
+			parent.mkdirs();
+		}
+		if(!file.createNewFile()){
+			throw new IOException("File already exists: " + url);
+		}
+	}
+
+	public void mkdir() throws IOException {
+		if(!file.mkdirs()){
+			throw new IOException("Cannot create directory: " + url);
+		}
+	}
+
+	public void delete() throws IOException {
+		if(!file.delete()){
+			throw new IOException("Cannot delete: " + url);
+		}
+	}
+
+	public InputStream openInputStream() throws IOException {
+		return new FileInputStream(file);
+	}
+
+	public DataInputStream openDataInputStream() throws IOException {
+		return new DataInputStream(openInputStream());
+	}
+
+	public OutputStream openOutputStream() throws IOException {
+		return new FileOutputStream(file);
+	}
+
+	public DataOutputStream openDataOutputStream() throws IOException {
+		return new DataOutputStream(openOutputStream());
+	}
+
+	public void close() throws IOException {
+	}
+}
@@ -0,0 +1,139 @@
+package javax.microedition.io;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+
+/**
+ * HttpConnection backed by java.net.HttpURLConnection. Like the MIDP implementation
+ * it does not follow redirects and reports error responses through getResponseCode().
+ */
+class DesktopHttpConnection implements HttpConnection {
+
+	private final URL url;
+	private final java.net.HttpURLConnection conn;
+	private InputStream in;
+	private boolean closed;
+
+	DesktopHttpConnection(String url) throws IOException {
+		this.url = new URL(url);
+		this.conn = (java.net.HttpURLConnection) this.url.openConnection();
+		conn.setInstanceFollowRedirects(false);
+		conn.setUseCaches(false);
+	}
+
+	public String getURL() {
+		return url.toString();
+	}
+
+	public String getProtocol() {
+		return url.getProtocol();
+	}
+
+	public String getHost() {
+		return url.getHost();
+	}
+
+	public int getPort() {
+		int port = url.getPort();
+		return port<0 ? url.getDefaultPort() : port;
+	}
+
+	public String getFile() {
+		return url.getPath();
+	}
+
+	public String getRequestMethod() {
+		return conn.getRequestMethod();
+	}
+
+	public void setRequestMethod(String method) throws IOException {
+		conn.setRequestMethod(method);
+	}
+
+	public String getRequestProperty(String key) {
+		return conn.getRequestProperty(key);
+	}
+
+	public void setRequestProperty(String key, String value) throws IOException {
+		conn.setRequestProperty(key, value);
+	}
+
+	public int getResponseCode() throws IOException {
+		return conn.getResponseCode();
+	}
+
+	public String getResponseMessage() throws IOException {
+		return conn.getResponseMessage();
+	}
+
+	public String getHeaderField(String name) throws IOException {
+		return conn.getHeaderField(name);
+	}
+
+	public String getHeaderField(int n) throws IOException {
+		return conn.getHeaderField(n);
+	}
+
+	public String getHeaderFieldKey(int n) throws IOException {
+		return conn.getHeaderFieldKey(n);
+	}
+
+	public long getHeaderFieldDate(String name, long def) throws IOException {
+		return conn.getHeaderFieldDate(name, def);
+	}
+
+	public int getHeaderFieldInt(String name, int def) throws IOException {
+		return conn.getHeaderFieldInt(name, def);
+	}
+
+	public String getType() {
+		return conn.getContentType();
+	}
+
+	public String getEncoding() {
+		return conn.getContentEncoding();
+	}
+
+	public long getLength() {
+		return conn.getContentLengthLong();
+	}
+
+	public InputStream openInputStream() throws IOException {
+		if(closed){
+			throw new IOException("Connection closed");
+		}
+		if(in==null){
+			if(conn.getResponseCode()>=400){
+				in = conn.getErrorStream();
+			} else{
+				in = conn.getInputStream();
+			}
+			if(in==null){
+				in = new java.io.ByteArrayInputStream(new byte[0]);
+			}
+		}
+		return in;
+	}
+
+	public DataInputStream openDataInputStream() throws IOException {
+		return new DataInputStream(openInputStream());
+	}
+
+	public OutputStream openOutputStream() throws IOException {
+		conn.setDoOutput(true);
+		return conn.getOutputStream();
+	}
+
+	public DataOutputStream openDataOutputStream() throws IOException {
+		return new DataOutputStream(openOutputStream());
+	}
+
+	public void close() throws IOException {
+		closed = true;
+		conn.disconnect();
+	}
+}
@@ -0,0 +1,52 @@
+package javax.microedition.io;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * StreamConnection for socket://host:port and ssl://host:port, backed by java.net.Socket.
+ * The socket is connected when the connection is opened, like on the device.
+ */
+class DesktopSocketConnection implements StreamConnection {
+
+	private final Socket socket;
+
+	DesktopSocketConnection(String url) throws IOException {
+		boolean ssl = url.toLowerCase().startsWith("ssl://");
+		String authority = url.substring(url.indexOf("://")+3);
+		int colon = authority.lastIndexOf(':');
+		if(colon<0){
+			throw new IllegalArgumentException("Missing port: " + url);
+		}
+		String host = authority.substring(0, colon);
+		int port = Integer.parseInt(authority.substring(colon+1));
+		socket = ssl ? SSLSocketFactory.getDefault().createSocket(host, port) : new Socket(host, port);
+		socket.setTcpNoDelay(true);
+	}
+
+	public InputStream openInputStream() throws IOException {
+		return socket.getInputStream();
+	}
+
+	public DataInputStream openDataInputStream() throws IOException {
+		return new DataInputStream(openInputStream());
+	}
+
+	public OutputStream openOutputStream() throws IOException {
+		return socket.getOutputStream();
+	}
+
+	public DataOutputStream openDataOutputStream() throws IOException {
+		return new DataOutputStream(openOutputStream());
+	}
+
+	public void close() throws IOException {
+		socket.close();
+	}
+}
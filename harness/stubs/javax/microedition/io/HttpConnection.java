@@ -0,0 +1,51 @@
+package javax.microedition.io;
+
+import java.io.IOException;
+
+public interface HttpConnection extends ContentConnection {
+
+	public static final String HEAD = "HEAD";
+	public static final String GET = "GET";
+	public static final String POST = "POST";
+
+	public static final int HTTP_OK = 200;
+	public static final int HTTP_NO_CONTENT = 204;
+	public static final int HTTP_PARTIAL = 206;
+	public static final int HTTP_MOVED_PERM = 301;
+	public static final int HTTP_MOVED_TEMP = 302;
+	public static final int HTTP_SEE_OTHER = 303;
+	public static final int HTTP_NOT_MODIFIED = 304;
+	public static final int HTTP_TEMP_REDIRECT = 307;
+	public static final int HTTP_NOT_FOUND = 404;
+
+	public String getURL();
+
+	public String getHost();
+
+	public int getPort();
+
+	public String getFile();
+
+	public String getRequestMethod();
+
+	public void setRequestMethod(String method) throws IOException;
+
+	public String getRequestProperty(String key);
+
+	public void setRequestProperty(String key, String value) throws IOException;
+
+	public int getResponseCode() throws IOException;
+
+	public String getResponseMessage() throws IOException;
+
+	public String getHeaderField(String name) throws IOException;
+
+	public String getHeaderField(int n) throws IOException;
+
+	public String getHeaderFieldKey(int n) throws IOException;
+
+	public long getHeaderFieldDate(String name, long def) throws IOException;
+
+	public int getHeaderFieldInt(String name, int def) throws IOException;
+
+}
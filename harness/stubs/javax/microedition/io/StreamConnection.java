@@ -0,0 +1,5 @@
+package javax.microedition.io;
+
+public interface StreamConnection extends InputConnection, OutputConnection {
+
+}
@@ -0,0 +1,23 @@
+package javax.microedition.io.file;
+
+import java.io.IOException;
+
+import javax.microedition.io.StreamConnection;
+
+public interface FileConnection extends StreamConnection {
+
+	public boolean exists();
+
+	public long fileSize() throws IOException;
+
+	public void create() throws IOException;
+
+	public void mkdir() throws IOException;
+
+	public void delete() throws IOException;
+
+	public boolean isDirectory();
+
+	public String getURL();
+
+}
@@ -0,0 +1,9 @@
+package javax.microedition.media;
+
+public interface Controllable {
+
+	public Control[] getControls();
+
+	public Control getControl(String controlType);
+
+}
@@ -0,0 +1,54 @@
+package javax.microedition.media;
+
+import java.io.IOException;
+
+import javax.microedition.media.protocol.DataSource;
+
+/**
+ * Desktop stand-in for javax.microedition.media.Manager. There is no native media
+ * stack on a plain JVM, so players are produced by the PlayerFactory installed
+ * with setPlayerFactory(). The simulation harness installs a factory that returns
+ * a simulated Player consuming the DataSource.
+ */
+public final class Manager {
+
+	/**
+	 * Creates Players on behalf of Manager.createPlayer(DataSource).
+	 */
+	public static interface PlayerFactory {
+		public Player createPlayer(DataSource source) throws IOException, MediaException;
+	}
+
+	private static PlayerFactory factory;
+
+	private Manager() {
+	}
+
+	public static synchronized void setPlayerFactory(PlayerFactory f) {
+		factory = f;
+	}
+
+	public static Player createPlayer(DataSource source) throws IOException, MediaException {
+		PlayerFactory f;
+		synchronized(Manager.class){
+			f = factory;
+		}
+		if(f==null){
+			throw new MediaException("No PlayerFactory installed");
+		}
+		source.connect();
+		return f.createPlayer(source);
+	}
+
+	public static Player createPlayer(String locator) throws IOException, MediaException {
+		throw new MediaException("Locator based players are not supported on the desktop: " + locator);
+	}
+
+	public static String[] getSupportedContentTypes(String protocol) {
+		return new String[0];
+	}
+
+	public static String[] getSupportedProtocols(String contentType) {
+		return new String[0];
+	}
+}
@@ -0,0 +1,13 @@
+package javax.microedition.media;
+
+public class MediaException extends Exception {
+
+	public MediaException() {
+		super();
+	}
+
+	public MediaException(String reason) {
+		super(reason);
+	}
+
+}
@@ -0,0 +1,7 @@
+package javax.microedition.media;
+
+public interface TimeBase {
+
+	public long getTime();
+
+}
@@ -0,0 +1,15 @@
+package javax.microedition.media.protocol;
+
+public class ContentDescriptor {
+
+	private String encoding;
+
+	public ContentDescriptor(String contentType) {
+		encoding = contentType;
+	}
+
+	public String getContentType() {
+		return encoding;
+	}
+
+}
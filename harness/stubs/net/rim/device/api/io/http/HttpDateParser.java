@@ -0,0 +1,34 @@
+package net.rim.device.api.io.http;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Desktop stand-in for the BlackBerry HTTP date parser. Understands RFC 1123,
+ * RFC 850 and asctime dates; returns 0 for anything else.
+ */
+public final class HttpDateParser {
+
+	private static final String[] PATTERNS = {
+		"EEE, dd MMM yyyy HH:mm:ss zzz",
+		"EEEE, dd-MMM-yy HH:mm:ss zzz",
+		"EEE MMM d HH:mm:ss yyyy",
+	};
+
+	private HttpDateParser() {
+	}
+
+	public static long parse(String date) {
+		for(int i=0; i<PATTERNS.length; i++){
+			SimpleDateFormat format = new SimpleDateFormat(PATTERNS[i], Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			try {
+				return format.parse(date.trim()).getTime();
+			} catch(ParseException e){
+			}
+		}
+		return 0;
+	}
+}
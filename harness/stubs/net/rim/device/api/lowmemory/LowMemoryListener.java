@@ -0,0 +1,13 @@
+package net.rim.device.api.lowmemory;
+
+/**
+ * Desktop stand-in for the BlackBerry low memory listener.
+ */
+public interface LowMemoryListener {
+
+	public static final int LOW_PRIORITY = 0;
+	public static final int MEDIUM_PRIORITY = 1;
+	public static final int HIGH_PRIORITY = 2;
+
+	public boolean freeStaleObject(int priority);
+}
@@ -0,0 +1,46 @@
+package net.rim.device.api.lowmemory;
+
+import java.util.Vector;
+
+/**
+ * Desktop stand-in for the BlackBerry low memory manager. The device calls the
+ * listeners when flash or heap runs low; on the desktop signal(int) does.
+ */
+public final class LowMemoryManager {
+
+	private static final Vector listeners = new Vector();
+
+	private LowMemoryManager() {
+	}
+
+	public static void addLowMemoryListener(LowMemoryListener listener) {
+		synchronized(listeners){
+			if(!listeners.contains(listener)){
+				listeners.addElement(listener);
+			}
+		}
+	}
+
+	public static void removeLowMemoryListener(LowMemoryListener listener) {
+		synchronized(listeners){
+			listeners.removeElement(listener);
+		}
+	}
+
+	/**
+	 * Desktop only: asks every listener to free memory, as the device does when memory runs low.
+	 * @return	true if any listener freed something.
+	 */
+	public static boolean signal(int priority) {
+		LowMemoryListener[] copy;
+		synchronized(listeners){
+			copy = new LowMemoryListener[listeners.size()];
+			listeners.copyInto(copy);
+		}
+		boolean freed = false;
+		for(int i=0; i<copy.length; i++){
+			freed |= copy[i].freeStaleObject(priority);
+		}
+		return freed;
+	}
+}
@@ -0,0 +1,40 @@
+package net.rim.device.api.system;
+
+/**
+ * Desktop stand-in for the BlackBerry event log. Events are written to stdout
+ * when the rimx.harness.eventlog system property is "true".
+ */
+public final class EventLogger {
+
+	public static final int ALWAYS_LOG = 0;
+	public static final int SEVERE_ERROR = 1;
+	public static final int ERROR = 2;
+	public static final int WARNING = 3;
+	public static final int INFORMATION = 4;
+	public static final int DEBUG_INFO = 5;
+
+	public static final int VIEWER_STRING = 1;
+	public static final int VIEWER_NUMBER = 2;
+
+	private EventLogger() {
+	}
+
+	public static boolean register(long guid, String name, int viewerType) {
+		return true;
+	}
+
+	public static boolean register(long guid, String name) {
+		return true;
+	}
+
+	public static boolean logEvent(long guid, byte[] data, int level) {
+		if("true".equals(System.getProperty("rimx.harness.eventlog"))){
+			System.out.println("[event] " + new String(data));
+		}
+		return true;
+	}
+
+	public static boolean logEvent(long guid, byte[] data) {
+		return logEvent(guid, data, ALWAYS_LOG);
+	}
+}
@@ -0,0 +1,179 @@
+package com.mjrusso.blackberry.videostreaming;
+
+import java.util.*;
+import javax.microedition.media.*;
+import rimx.media.streaming.BandwidthEstimator;
+import rimx.media.streaming.HlsMediaSource;
+import rimx.media.streaming.MediaProbe;
+
+/**
+ * Picks the playback path for a URL: probes it (protocol, Range support, content type,
+ * connection latency), combines that with the throughput measured by earlier playback,
+ * and hands the URL to the path most likely to start fast and stall least.
+ *
+ * The decision is kept per host for DECISION_MAX_AGE, so that later URLs from the same
+ * server are started without waiting for a probe.
+ */
+public class AutoPlaybackChoice extends PlaybackChoice
+{
+    /** How long a decision is reused for the same host, in ms */
+    public static final long DECISION_MAX_AGE = 10 * 60 * 1000;
+    /** Longest wait for the probe when the user presses Start, in ms */
+    private static final long PROBE_TIMEOUT = 3000;
+    /** Throughput from which the native player starts as fast as the StreamingPlayer, in bits per second */
+    private static final long FAST_THROUGHPUT = 1500000;
+    /** Probe time below which the network is considered responsive, in ms */
+    private static final long FAST_PROBE = 500;
+
+    /** host -> Decision */
+    private static final Hashtable _decisions = new Hashtable();
+
+    private final PlaybackChoice _browser;
+    private final PlaybackChoice _mmapi;
+    private final PlaybackChoice _streamingPlayer;
+
+    public AutoPlaybackChoice(String label, PlaybackChoice browser, PlaybackChoice mmapi, PlaybackChoice streamingPlayer)
+    {
+        super(label);
+        _browser = browser;
+        _mmapi = mmapi;
+        _streamingPlayer = streamingPlayer;
+    }
+
+    public void prepare(String url)
+    {
+        StreamingPlayerPlaybackChoice.probe(url);
+    }
+
+    /**
+     * Decides in the background, since that may wait for the probe, then plays the URL.
+     */
+    public void play(final String url)
+    {
+        new Thread()
+        {
+            public void run()
+            {
+                PlaybackChoice choice = choose(url);
+                System.out.println("Auto playback via " + choice.toString());
+                choice.play(url);
+            }
+        }.start();
+    }
+
+    private PlaybackChoice choose(String url)
+    {
+        String[] urls = StreamingPlayerPlaybackChoice.splitUrls(url);
+        if (urls.length != 1)
+        {
+            return _streamingPlayer;    // the only path that plays a list
+        }
+        String first = urls[0];
+        if (!StreamingPlayerPlaybackChoice.isHttp(first))
+        {
+            return _mmapi;    // rtsp:// and local files are for the native player
+        }
+        if (HlsMediaSource.isPlaylistLocator(first))
+        {
+            return _streamingPlayer;
+        }
+
+        String host = getHost(first);
+        PlaybackChoice cached = getDecision(host);
+        if (cached != null)
+        {
+            return cached;
+        }
+        MediaProbe probe = StreamingPlayerPlaybackChoice.probe(url);
+        if (probe == null || !probe.await(PROBE_TIMEOUT) || probe.getError() != null)
+        {
+            // not cached: the server may just be slow this once
+            return _browser;
+        }
+        PlaybackChoice choice = decide(probe);
+        synchronized (_decisions)
+        {
+            _decisions.put(host, new Decision(choice));
+        }
+        return choice;
+    }
+
+    /**
+     * Picks the path for a URL that has been probed successfully.
+     */
+    private PlaybackChoice decide(MediaProbe probe)
+    {
+        if (!isSupported(probe.getContentType()))
+        {
+            return _browser;    // it may offer to download it or open it elsewhere
+        }
+        if (!probe.isRangeSupported())
+        {
+            // the StreamingPlayer would have to download from the start after every reconnect or seek
+            return _mmapi;
+        }
+        long throughput = BandwidthEstimator.getDefault().getEstimate();
+        if (throughput >= FAST_THROUGHPUT && probe.getProbeMillis() <= FAST_PROBE)
+        {
+            // the native player starts on its first bytes, and a fast network keeps it fed
+            return _mmapi;
+        }
+        return _streamingPlayer;
+    }
+
+    /**
+     * Asks MMAPI whether this device can play the content type, which is how the OS version
+     * and the installed codecs show through.
+     * @return  true if it can, or if the type is not known.
+     */
+    private static boolean isSupported(String contentType)
+    {
+        if (contentType == null) return true;
+        int end = contentType.indexOf(';');
+        String type = (end < 0 ? contentType : contentType.substring(0, end)).trim().toLowerCase();
+        if (type.length() == 0 || type.equals("application/octet-stream")) return true;
+        String[] types = Manager.getSupportedContentTypes(null);
+        for (int i = 0; i < types.length; i++)
+        {
+            if (types[i].toLowerCase().equals(type)) return true;
+        }
+        return false;
+    }
+
+    private PlaybackChoice getDecision(String host)
+    {
+        synchronized (_decisions)
+        {
+            Decision d = (Decision) _decisions.get(host);
+            if (d == null) return null;
+            if (System.currentTimeMillis() - d.decidedAt > DECISION_MAX_AGE)
+            {
+                _decisions.remove(host);
+                return null;
+            }
+            return d.choice;
+        }
+    }
+
+    private static String getHost(String url)
+    {
+        int start = url.indexOf("://") + 3;
+        int end = start;
+        while (end < url.length() && "/:;?".indexOf(url.charAt(end)) < 0)
+        {
+            end++;
+        }
+        return url.substring(start, end).toLowerCase();
+    }
+
+    private static class Decision
+    {
+        final PlaybackChoice choice;
+        final long decidedAt = System.currentTimeMillis();
+
+        Decision(PlaybackChoice choice)
+        {
+            this.choice = choice;
+        }
+    }
+}
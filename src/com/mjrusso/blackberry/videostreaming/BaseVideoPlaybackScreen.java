@@ -22,15 +22,14 @@ public abstract class BaseVideoPlaybackScreen extends FullScreen
 
     protected abstract void stopPlayback();
 
-    protected String appendConnectionString(String url)
+    /**
+     * Appends the parameters of the transport currently fastest. The StreamingPlayer does not
+     * need this: its connections go through Transports.getConnectionFactory(), which can
+     * switch transports mid-stream.
+     */
+    protected static String appendConnectionString(String url)
     {
-        if (DeviceInfo.isSimulator()) { }
-        else
-        {
-            // currently only support WiFi connections for on-device streaming
-            url = url.concat(";interface=wifi");
-        }
-        return url;
+        return url.concat(Transports.getTransport());
     }
 
     protected void popScreen()
@@ -6,6 +6,11 @@ public abstract class PlaybackChoice
 
     public abstract void play(String url);
 
+    /**
+     * Called while the user may be about to play the URL, so that network work can start early.
+     */
+    public void prepare(String url) { }
+
     public PlaybackChoice(String label)
     {
         _label = label;
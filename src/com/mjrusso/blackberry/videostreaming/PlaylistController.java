@@ -0,0 +1,445 @@
+package com.mjrusso.blackberry.videostreaming;
+
+import java.io.*;
+import java.util.*;
+import javax.microedition.media.*;
+import rimx.media.streaming.ConnectionFactory;
+import rimx.media.streaming.DefaultConnectionFactory;
+import rimx.media.streaming.HlsMediaSource;
+import rimx.media.streaming.Rendition;
+import rimx.media.streaming.StreamingPlayer;
+import rimx.media.streaming.StreamingPlayerListener;
+import rimx.media.streaming.TransportSelector;
+
+/**
+ * Plays a list of URLs back to back. While the current item is in its final stretch,
+ * or as soon as it has been downloaded completely, the next item is preloaded: its
+ * connection is opened and its initial buffer filled, so that it starts without
+ * waiting when the current item ends.
+ *
+ * The buffers of the current and the preloaded player share one memory budget. The
+ * preloaded player gets just enough buffer for its initial buffer; once it becomes
+ * the current one its buffer is grown into the rest of the budget.
+ *
+ * Events of the current player are forwarded to the listener. With a TransportSelector,
+ * the download of the current player is moved to another transport when the one in use
+ * degrades.
+ *
+ * Each item resumes where the ResumePositionStore says it was left off; the position of the
+ * current item is recorded while it plays and forgotten once it plays to the end.
+ */
+public class PlaylistController implements StreamingPlayerListener
+{
+    /** Default memory budget for the buffers of the current and the preloaded player */
+    public static final int DEFAULT_MEMORY_BUDGET = StreamingPlayer.DEFAULT_BUFFER_CAPACITY;
+    /** Default time before the end of the current item at which the next one is preloaded, in microseconds */
+    public static final long DEFAULT_PRELOAD_LEAD_TIME = 20000000;    // 20 s
+    /** How often the TransportSelector is asked whether to switch transports, in ms */
+    private static final long TRANSPORT_UPDATE_INTERVAL = 5000;
+
+    private final Vector _urls = new Vector();
+    private final StreamingPlayerListener _listener;
+    private int _memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private long _preloadLeadTime = DEFAULT_PRELOAD_LEAD_TIME;
+    private ConnectionFactory _connectionFactory = new DefaultConnectionFactory();
+    private TransportSelector _transportSelector;
+    private long _transportUpdatedAt = 0;
+
+    /** Index of the current item, -1 before start() */
+    private int _index = -1;
+    private StreamingPlayer _current;
+    /** The preloaded player of item _index+1, or null */
+    private StreamingPlayer _next;
+    /** Thread running preload() on _next */
+    private Thread _preloader;
+    /** Content length of the current item, 0 if not known yet */
+    private long _contentLength = 0;
+    private boolean _closed = false;
+
+    /**
+     * @param urls      Locators of the items, including any BlackBerry connection parameters.
+     * @param listener  Receives the events of the current player.
+     */
+    public PlaylistController(String[] urls, StreamingPlayerListener listener)
+    {
+        if (urls == null || urls.length == 0)
+        {
+            throw new IllegalArgumentException("urls cannot be empty");
+        }
+        for (int i = 0; i < urls.length; i++)
+        {
+            _urls.addElement(urls[i]);
+        }
+        _listener = listener;
+    }
+
+    /**
+     * Sets the memory budget shared by the buffers of the current and the preloaded player.
+     * Must be called before start().
+     */
+    public void setMemoryBudget(int bytes)
+    {
+        if (bytes < 2 * getPreloadCapacity())
+        {
+            throw new IllegalArgumentException("budget must hold two initial buffers");
+        }
+        _memoryBudget = bytes;
+    }
+
+    public int getMemoryBudget()
+    {
+        return _memoryBudget;
+    }
+
+    /**
+     * Sets how long before the end of the current item the next one is preloaded.
+     * @param microseconds  Lead time in microseconds.
+     */
+    public void setPreloadLeadTime(long microseconds)
+    {
+        _preloadLeadTime = microseconds;
+    }
+
+    public long getPreloadLeadTime()
+    {
+        return _preloadLeadTime;
+    }
+
+    /**
+     * Sets the ConnectionFactory of the players. Must be called before start().
+     */
+    public void setConnectionFactory(ConnectionFactory factory)
+    {
+        _connectionFactory = factory;
+    }
+
+    /**
+     * Sets the TransportSelector behind the ConnectionFactory, so that the current player is
+     * reconnected when it switches transports, or null to stay on one.
+     */
+    public void setTransportSelector(TransportSelector selector)
+    {
+        _transportSelector = selector;
+    }
+
+    public synchronized int getIndex()
+    {
+        return _index;
+    }
+
+    public int getSize()
+    {
+        return _urls.size();
+    }
+
+    public synchronized boolean hasNext()
+    {
+        return _index + 1 < _urls.size();
+    }
+
+    /**
+     * Gets the player of the current item, or null before start().
+     */
+    public synchronized StreamingPlayer getCurrent()
+    {
+        return _current;
+    }
+
+    /**
+     * Creates the player of the first item. The caller realizes and starts it.
+     */
+    public synchronized StreamingPlayer start()
+    {
+        if (_index >= 0)
+        {
+            return _current;
+        }
+        _index = 0;
+        _current = createPlayer((String) _urls.elementAt(0), _memoryBudget - getPreloadCapacity());
+        _current.addStreamingPlayerListener(this);
+        return _current;
+    }
+
+    /**
+     * Closes the player of the current item and makes the next item current, using its
+     * preloaded player if there is one. The caller realizes and starts the returned player.
+     * @return  the player of the next item, or null at the end of the list.
+     */
+    public StreamingPlayer advance()
+    {
+        StreamingPlayer previous;
+        StreamingPlayer next;
+        boolean wasPreloaded;
+        Thread preloader;
+        synchronized (this)
+        {
+            if (_closed || !hasNext())
+            {
+                return null;
+            }
+            previous = _current;
+            _index++;
+            wasPreloaded = _next != null;
+            next = wasPreloaded ? _next : createPlayer((String) _urls.elementAt(_index), _memoryBudget - getPreloadCapacity());
+            preloader = _preloader;
+            _next = null;
+            _preloader = null;
+            _current = next;
+            _contentLength = 0;
+            next.addStreamingPlayerListener(this);
+        }
+        while (preloader != null && preloader.isAlive())
+        {
+            // the caller must not realize the player while preload() is still connecting it
+            try { Thread.sleep(20); } catch (InterruptedException ex) { }
+        }
+        if (previous != null)
+        {
+            previous.removeStreamingPlayerListener(this);
+            closeQuietly(previous);
+        }
+        if (wasPreloaded)
+        {
+            growBuffer(next);
+        }
+        return next;
+    }
+
+    /**
+     * Closes the current and the preloaded player.
+     */
+    public void close()
+    {
+        StreamingPlayer current;
+        StreamingPlayer next;
+        synchronized (this)
+        {
+            _closed = true;
+            current = _current;
+            next = _next;
+            _current = null;
+            _next = null;
+        }
+        closeQuietly(current);
+        closeQuietly(next);
+    }
+
+    /**
+     * Preloads the next item unless that has been done or there is none.
+     */
+    private synchronized void preloadNext()
+    {
+        if (_closed || _next != null || !hasNext())
+        {
+            return;
+        }
+        final StreamingPlayer next = createPlayer((String) _urls.elementAt(_index + 1), getPreloadCapacity());
+        _next = next;
+        _preloader = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    next.preload();
+                    System.out.println("Preloading item " + (getIndex() + 1));
+                }
+                catch (IOException ex)
+                {
+                    // advance() realizes the player anyway, which retries the connection
+                    System.out.println("Preload failed: " + ex.toString());
+                }
+            }
+        };
+        _preloader.start();
+    }
+
+    /**
+     * Doubles the buffer of a player that was preloaded with a small buffer while the budget
+     * leaves room for it and for the next preload. Runs in the background, since growing the
+     * buffer waits for the download to be able to write.
+     */
+    private void growBuffer(final StreamingPlayer player)
+    {
+        new Thread()
+        {
+            public void run()
+            {
+                int limit = _memoryBudget - getPreloadCapacity();
+                while (player.getBufferCapacity() * 2 <= limit && player == getCurrent())
+                {
+                    player.increaseBufferCapacity(100);
+                }
+            }
+        }.start();
+    }
+
+    private synchronized String getCurrentUrl()
+    {
+        return _index >= 0 && _current != null ? (String) _urls.elementAt(_index) : null;
+    }
+
+    private int getPreloadCapacity()
+    {
+        return StreamingPlayer.DEFAULT_INITIAL_BUFFER * 2;
+    }
+
+    private StreamingPlayer createPlayer(String url, int bufferCapacity)
+    {
+        // HLS playlists take the content type of their segments
+        String contentType = HlsMediaSource.isPlaylistLocator(url) ? null : "video/mp4";
+        StreamingPlayer player = new StreamingPlayer(url, contentType);
+        player.setBufferCapacity(bufferCapacity);
+        player.setConnectionFactory(_connectionFactory);
+        player.setStartTime(ResumePositionStore.get(url));
+        return player;
+    }
+
+    private static void closeQuietly(StreamingPlayer player)
+    {
+        if (player == null) return;
+        try
+        {
+            player.close();
+        }
+        catch (Exception ex)
+        {
+            System.out.println(ex.toString());
+        }
+    }
+
+    /** StreamingPlayerListener Implementation, forwarding to the listener */
+    public void bufferStatusChanged(long bufferStartsAt, long len)
+    {
+        _listener.bufferStatusChanged(bufferStartsAt, len);
+    }
+
+    public void downloadStatusUpdated(long totalDownloaded)
+    {
+        _listener.downloadStatusUpdated(totalDownloaded);
+        long contentLength;
+        synchronized (this)
+        {
+            contentLength = _contentLength;
+        }
+        if (contentLength > 0 && totalDownloaded >= contentLength)
+        {
+            preloadNext();    // the network is idle for the rest of the current item
+        }
+    }
+
+    public void feedPaused(long available)
+    {
+        _listener.feedPaused(available);
+    }
+
+    public void feedRestarted(long available)
+    {
+        _listener.feedRestarted(available);
+    }
+
+    public void initialBufferCompleted(long available)
+    {
+        _listener.initialBufferCompleted(available);
+    }
+
+    public void playerUpdate(String event, Object eventData)
+    {
+        if (event.equals(PlayerListener.END_OF_MEDIA))
+        {
+            String url = getCurrentUrl();
+            if (url != null) ResumePositionStore.remove(url);
+        }
+        _listener.playerUpdate(event, eventData);
+    }
+
+    public byte[] preprocessData(byte[] bytes, int off, int len)
+    {
+        return _listener.preprocessData(bytes, off, len);
+    }
+
+    public void nowReading(long now)
+    {
+        _listener.nowReading(now);
+    }
+
+    public void nowPlaying(long now)
+    {
+        _listener.nowPlaying(now);
+        StreamingPlayer current = getCurrent();
+        if (current == null) return;
+        updateTransport(current);
+        try
+        {
+            long duration = current.getDuration();
+            String url = getCurrentUrl();
+            if (url != null) ResumePositionStore.put(url, now, duration);
+            if (duration != Player.TIME_UNKNOWN && duration - now <= _preloadLeadTime)
+            {
+                preloadNext();
+            }
+        }
+        catch (IllegalStateException ex) { }
+    }
+
+    public void renditionSwitched(Rendition from, Rendition to)
+    {
+        _listener.renditionSwitched(from, to);
+    }
+
+    public void liveEdgeDistanceUpdated(long distance)
+    {
+        _listener.liveEdgeDistanceUpdated(distance);
+    }
+
+    public void underlyingPlayerReplaced()
+    {
+        _listener.underlyingPlayerReplaced();
+    }
+
+    public void contentLengthUpdated(long contentLength)
+    {
+        synchronized (this)
+        {
+            _contentLength = contentLength;
+        }
+        _listener.contentLengthUpdated(contentLength);
+    }
+
+    public void streamingError(int code)
+    {
+        if (_transportSelector != null
+            && (code == StreamingPlayerListener.ERROR_DOWNLOADING || code == StreamingPlayerListener.ERROR_OPENING_CONNECTION))
+        {
+            // the player reconnects next, over another transport if this one keeps failing
+            _transportSelector.failed();
+            _transportSelector.update();
+        }
+        _listener.streamingError(code);
+    }
+
+    /**
+     * Moves the download of the current player to another transport if the selector switched.
+     */
+    private void updateTransport(final StreamingPlayer current)
+    {
+        if (_transportSelector == null) return;
+        long now = System.currentTimeMillis();
+        synchronized (this)
+        {
+            if (now - _transportUpdatedAt < TRANSPORT_UPDATE_INTERVAL) return;
+            _transportUpdatedAt = now;
+        }
+        if (_transportSelector.update())
+        {
+            System.out.println("Switched transport to " + _transportSelector.getTransport());
+            new Thread()
+            {
+                public void run()
+                {
+                    current.reconnect();    // waits for the download to write its current chunk
+                }
+            }.start();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.mjrusso.blackberry.videostreaming;
+
+import java.util.*;
+import net.rim.device.api.system.*;
+
+/**
+ * Where the user left off in each URL, so that playing it again resumes there. The positions
+ * are kept in the PersistentStore; the oldest are dropped beyond MAX_ENTRIES.
+ */
+public final class ResumePositionStore
+{
+    /** Most URLs whose positions are kept */
+    public static final int MAX_ENTRIES = 50;
+    /** Positions closer to the start than this are not kept, in microseconds */
+    public static final long MIN_POSITION = 10000000;    // 10 s
+    /** Positions closer to the end than this are not kept, in microseconds */
+    public static final long END_MARGIN = 15000000;    // 15 s
+
+    /** PersistentStore key of the positions: com.mjrusso.blackberry.videostreaming.ResumePositionStore */
+    private static final long STATE_KEY = 0x5e2d7a9c41b3f086L;
+
+    /** url -> long[] { position in microseconds, when it was recorded } */
+    private static Hashtable _positions;
+
+    private ResumePositionStore() { }
+
+    /**
+     * Gets where playback of a URL left off.
+     * @return  the position in microseconds, or 0 to start at the beginning.
+     */
+    public static synchronized long get(String url)
+    {
+        long[] entry = (long[]) getPositions().get(url);
+        return entry == null ? 0 : entry[0];
+    }
+
+    /**
+     * Records where playback of a URL is. Positions near the start or, if the duration is known,
+     * near the end are forgotten, so that the URL plays from the beginning next time.
+     * @param position  Media time in microseconds.
+     * @param duration  Duration of the media in microseconds, or a negative value if it is not known.
+     */
+    public static synchronized void put(String url, long position, long duration)
+    {
+        Hashtable positions = getPositions();
+        if (position < MIN_POSITION || (duration > 0 && duration - position < END_MARGIN))
+        {
+            positions.remove(url);
+            return;
+        }
+        if (!positions.containsKey(url) && positions.size() >= MAX_ENTRIES)
+        {
+            removeOldest(positions);
+        }
+        positions.put(url, new long[] { position, System.currentTimeMillis() });
+    }
+
+    /**
+     * Forgets the position of a URL, e.g. once it has been played to the end.
+     */
+    public static synchronized void remove(String url)
+    {
+        getPositions().remove(url);
+    }
+
+    /**
+     * Keeps the positions for the next session.
+     */
+    public static synchronized void save()
+    {
+        if (_positions == null) return;
+        PersistentObject store = PersistentStore.getPersistentObject(STATE_KEY);
+        store.setContents(_positions);
+        store.commit();
+    }
+
+    private static Hashtable getPositions()
+    {
+        if (_positions == null)
+        {
+            Object state = PersistentStore.getPersistentObject(STATE_KEY).getContents();
+            _positions = state instanceof Hashtable ? (Hashtable) state : new Hashtable();
+        }
+        return _positions;
+    }
+
+    private static void removeOldest(Hashtable positions)
+    {
+        String oldest = null;
+        long oldestAt = Long.MAX_VALUE;
+        Enumeration e = positions.keys();
+        while (e.hasMoreElements())
+        {
+            String url = (String) e.nextElement();
+            long recordedAt = ((long[]) positions.get(url))[1];
+            if (recordedAt < oldestAt)
+            {
+                oldest = url;
+                oldestAt = recordedAt;
+            }
+        }
+        if (oldest != null)
+        {
+            positions.remove(oldest);
+        }
+    }
+}
@@ -4,22 +4,29 @@ import net.rim.device.api.ui.*;
 import net.rim.device.api.ui.component.*;
 import net.rim.device.api.ui.container.*;
 
-public class SelectionScreen extends MainScreen implements FieldChangeListener
+public class SelectionScreen extends MainScreen implements FieldChangeListener, FocusChangeListener
 {
+    /** How long the URL must stay unchanged before it is prepared, in ms */
+    private static final long PREPARE_DELAY = 1000;
 
     private HorizontalFieldManager _hfm;
     private ButtonField _startButton;
     private ObjectChoiceField _playbackChoice;
     private BasicEditField _urlField;
+    private int _prepareId = -1;
 
     public SelectionScreen()
     {
         setTitle(new LabelField("Video Streaming", LabelField.ELLIPSIS | LabelField.USE_ALL_WIDTH));
 
+        PlaybackChoice browser = new BrowserPlaybackChoice("HTTP/ RTSP via Browser");
+        PlaybackChoice mmapi = new MMAPIPlaybackChoice("HTTP/ RTSP via MMAPI");
+        PlaybackChoice streamingPlayer = new StreamingPlayerPlaybackChoice("HTTP via StreamingPlayer");
         PlaybackChoice choices[] = {
-              new BrowserPlaybackChoice("HTTP/ RTSP via Browser")
-            , new MMAPIPlaybackChoice("HTTP/ RTSP via MMAPI")
-            , new StreamingPlayerPlaybackChoice("HTTP via StreamingPlayer")
+              new AutoPlaybackChoice("Auto", browser, mmapi, streamingPlayer)
+            , browser
+            , mmapi
+            , streamingPlayer
         };
 
         _playbackChoice = new ObjectChoiceField("Playback Type", choices);
@@ -32,8 +39,44 @@ public class SelectionScreen extends MainScreen implements FieldChangeListener
         _hfm = new HorizontalFieldManager(Field.FIELD_HCENTER);
         _startButton = new ButtonField("Start");
         _startButton.setChangeListener(this);
+        _startButton.setFocusListener(this);
         _hfm.add(_startButton);
         add(_hfm);
+
+        schedulePrepare();
+    }
+
+    /**
+     * Prepares the selected playback of the URL once the user stopped typing.
+     */
+    private void schedulePrepare()
+    {
+        UiApplication app = UiApplication.getUiApplication();
+        if (_prepareId != -1) app.cancelInvokeLater(_prepareId);
+        _prepareId = app.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                _prepareId = -1;
+                prepare();
+            }
+        }, PREPARE_DELAY, false);
+    }
+
+    private void prepare()
+    {
+        PlaybackChoice selection = (PlaybackChoice) _playbackChoice.getChoice(
+            _playbackChoice.getSelectedIndex()
+        );
+        selection.prepare(_urlField.getText());
+    }
+
+    public void focusChanged(Field field, int eventType)
+    {
+        if (field == _startButton && eventType == FocusChangeListener.FOCUS_GAINED)
+        {
+            prepare();    // refreshes a connection that went idle while the user looked at the screen
+        }
     }
 
     public void fieldChanged(Field field, int context)
@@ -45,8 +88,10 @@ public class SelectionScreen extends MainScreen implements FieldChangeListener
             );
             selection.play(_urlField.getText());
         }
-        else if (field == _playbackChoice) { }
-        else if (field == _urlField) { }
+        else if (field == _playbackChoice || field == _urlField)
+        {
+            schedulePrepare();
+        }
         else { }
     }
 
@@ -1,6 +1,10 @@
 package com.mjrusso.blackberry.videostreaming;
 
+import java.util.*;
 import net.rim.device.api.ui.*;
+import rimx.media.streaming.HlsMediaSource;
+import rimx.media.streaming.MediaProbe;
+import rimx.media.streaming.StreamingPlayer;
 
 public class StreamingPlayerPlaybackChoice extends PlaybackChoice
 {
@@ -9,15 +13,65 @@ public class StreamingPlayerPlaybackChoice extends PlaybackChoice
         super(label);
     }
 
+    /**
+     * Plays the URL, or several URLs separated by spaces back to back.
+     */
     public void play(final String url)
     {
+        final String[] urls = splitUrls(url);
         final UiApplication app = UiApplication.getUiApplication();
         app.invokeLater(new Runnable() {
             public void run()
             {
-                app.pushScreen(new StreamingPlayerVideoPlaybackScreen(url));
+                app.pushScreen(new StreamingPlayerVideoPlaybackScreen(urls));
             }
         });
     }
 
+    /**
+     * Probes the first URL in the background and keeps a connection to it ready, so that
+     * the StreamingPlayer created by play() starts without connection setup or redirects.
+     */
+    public void prepare(String url)
+    {
+        probe(url);
+    }
+
+    /**
+     * Starts probing the first URL, unless it is not an http(s) URL or is an HLS playlist.
+     * Transports not measured yet are probed with it.
+     * @return  the probe, or null.
+     */
+    static MediaProbe probe(String url)
+    {
+        String[] urls = splitUrls(url);
+        if (urls.length == 0) return null;
+        String first = urls[0];
+        if (!isHttp(first) || HlsMediaSource.isPlaylistLocator(first)) return null;
+        Transports.probe(first);
+        return MediaProbe.probe(first, Transports.getConnectionFactory(), StreamingPlayer.DEFAULT_STANDBY_IDLE_TIME);
+    }
+
+    static boolean isHttp(String url)
+    {
+        String lower = url.toLowerCase();
+        return lower.startsWith("http://") || lower.startsWith("https://");
+    }
+
+    static String[] splitUrls(String text)
+    {
+        Vector urls = new Vector();
+        int start = 0;
+        while (start < text.length())
+        {
+            int end = text.indexOf(' ', start);
+            if (end < 0) end = text.length();
+            if (end > start) urls.addElement(text.substring(start, end));
+            start = end + 1;
+        }
+        String[] result = new String[urls.size()];
+        urls.copyInto(result);
+        return result;
+    }
+
 }
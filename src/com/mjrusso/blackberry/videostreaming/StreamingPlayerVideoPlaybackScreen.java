@@ -7,6 +7,7 @@ import net.rim.device.api.system.*;
 import net.rim.device.api.ui.*;
 import net.rim.device.api.ui.component.*;
 import net.rim.device.api.ui.container.*;
+import rimx.media.streaming.Rendition;
 import rimx.media.streaming.StreamingPlayer;
 import rimx.media.streaming.StreamingPlayerListener;
 
@@ -14,40 +15,49 @@ public class StreamingPlayerVideoPlaybackScreen extends BaseVideoPlaybackScreen
 {
 
     private StreamingPlayer _player;
+    private PlaylistController _playlist;
+    private Field _pendingField;
 
     public StreamingPlayerVideoPlaybackScreen(String url)
+    {
+        this(new String[] { url });
+    }
+
+    /**
+     * Plays the URLs back to back, preloading each item while the previous one ends.
+     */
+    public StreamingPlayerVideoPlaybackScreen(String[] urls)
     {
         super();
 
-        final String urlWithConnectionString = appendConnectionString(url);
-        System.out.println("initializing player with URL " + urlWithConnectionString);
+        for (int i = 0; i < urls.length; i++)
+        {
+            System.out.println("initializing player with URL " + urls[i]);
+        }
+        _playlist = new PlaylistController(urls, this);
+        _playlist.setConnectionFactory(Transports.getConnectionFactory());
+        _playlist.setTransportSelector(Transports.getSelector());
+        play(_playlist.start());
+    }
 
+    /**
+     * Realizes and starts a player in the background and shows its video in place of the previous one.
+     */
+    private void play(final StreamingPlayer player)
+    {
+        _player = player;
         new Thread()
         {
             public void run()
             {
                 try
                 {
-                    _player = new StreamingPlayer(urlWithConnectionString, "video/mp4");
-                    _player.addStreamingPlayerListener((StreamingPlayerVideoPlaybackScreen) _screen);
-                    _player.realize();
-
-                    VideoControl control = (VideoControl) _player.getControl("VideoControl");
-                    _videoField = (Field) control.initDisplayMode(
-                        VideoControl.USE_GUI_PRIMITIVE, "net.rim.device.api.ui.Field"
-                    );
-                    control.setDisplaySize(Display.getWidth(), Display.getHeight());
-
-                    _player.prefetch();
-                    UiApplication.getUiApplication().invokeLater(new Runnable()
-                    {
-                        public void run()
-                        {
-                            add(_videoField);
-                        }
-                    });
+                    player.realize();
+                    VideoControl control = bindVideo(player);
+                    player.prefetch();
+                    showVideo();
                     control.setVisible(true);
-                    _player.start();
+                    player.start();
                 }
                 catch (IllegalStateException ex)
                 {
@@ -69,6 +79,45 @@ public class StreamingPlayerVideoPlaybackScreen extends BaseVideoPlaybackScreen
         }.start();
     }
 
+    /**
+     * Sets up the display of a realized player's video; showVideo() puts it in place of the previous one.
+     */
+    private synchronized VideoControl bindVideo(StreamingPlayer player)
+    {
+        VideoControl control = (VideoControl) player.getControl("VideoControl");
+        _pendingField = (Field) control.initDisplayMode(
+            VideoControl.USE_GUI_PRIMITIVE, "net.rim.device.api.ui.Field"
+        );
+        control.setDisplaySize(Display.getWidth(), Display.getHeight());
+        return control;
+    }
+
+    /**
+     * Replaces the video field shown with the one set up by bindVideo().
+     */
+    private synchronized void showVideo()
+    {
+        final Field previousField = _videoField;
+        final Field videoField = _pendingField;
+        _videoField = videoField;
+        UiApplication.getUiApplication().invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                if (previousField != null) delete(previousField);
+                add(videoField);
+            }
+        });
+    }
+
+    protected void popScreen()
+    {
+        super.popScreen();
+        _playlist.close();
+        Transports.save();
+        ResumePositionStore.save();
+    }
+
     protected void stopPlayback()
     {
         try {
@@ -105,7 +154,21 @@ public class StreamingPlayerVideoPlaybackScreen extends BaseVideoPlaybackScreen
         else if (event.equals(PlayerListener.END_OF_MEDIA))
         {
             System.out.println("Player End of Media");
-            popScreen();
+            if (_playlist.hasNext())
+            {
+                new Thread()
+                {
+                    public void run()
+                    {
+                        StreamingPlayer next = _playlist.advance();
+                        if (next != null) play(next);
+                    }
+                }.start();
+            }
+            else
+            {
+                popScreen();
+            }
         }
     }
 
@@ -118,6 +181,23 @@ public class StreamingPlayerVideoPlaybackScreen extends BaseVideoPlaybackScreen
 
     public void nowPlaying(long now) { }
 
+    public void renditionSwitched(Rendition from, Rendition to)
+    {
+        System.out.println("Rendition: " + to);
+    }
+
+    public void liveEdgeDistanceUpdated(long distance) { }
+
+    public void underlyingPlayerReplaced()
+    {
+        // an HLS seek closed the Player whose video is shown; show the new one's
+        StreamingPlayer player = _player;
+        if (player == null) return;
+        VideoControl control = bindVideo(player);
+        showVideo();
+        control.setVisible(true);
+    }
+
     public void contentLengthUpdated(long contentLength) { }
 
     public void streamingError(final int code)
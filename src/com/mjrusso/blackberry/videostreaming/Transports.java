@@ -0,0 +1,110 @@
+package com.mjrusso.blackberry.videostreaming;
+
+import net.rim.device.api.system.*;
+import rimx.media.streaming.BandwidthEstimator;
+import rimx.media.streaming.ConnectionFactory;
+import rimx.media.streaming.DefaultConnectionFactory;
+import rimx.media.streaming.TransportConnectionFactory;
+import rimx.media.streaming.TransportSelector;
+
+/**
+ * The transports the application streams over, and what was measured about them in
+ * earlier sessions. The measurements are kept in the PersistentStore.
+ */
+public final class Transports
+{
+    public static final String WIFI = ";interface=wifi";
+    public static final String DIRECT = ";deviceside=true";
+    public static final String MDS = ";deviceside=false";
+
+    /** PersistentStore key of the measurements: com.mjrusso.blackberry.videostreaming.Transports */
+    private static final long STATE_KEY = 0x3c1b9f2e7a5d4e61L;
+
+    private static TransportSelector _selector;
+    private static TransportConnectionFactory _factory;
+
+    private Transports() { }
+
+    /**
+     * Gets the selector of the transport StreamingPlayer connections go over. Only the component
+     * that moves the download over when the transport changes, PlaylistController, calls update()
+     * on it; its update() also takes in which transports have coverage.
+     */
+    public static synchronized TransportSelector getSelector()
+    {
+        if (_selector == null)
+        {
+            // the simulator routes everything through its own network
+            String[] transports = DeviceInfo.isSimulator() ? new String[] { "" } : new String[] { WIFI, DIRECT, MDS };
+            _selector = new TransportSelector(transports, BandwidthEstimator.getDefault())
+            {
+                public synchronized boolean update()
+                {
+                    updateAvailability(this);
+                    return super.update();
+                }
+            };
+            Object state = PersistentStore.getPersistentObject(STATE_KEY).getContents();
+            if (state instanceof String)
+            {
+                _selector.setState((String) state);
+            }
+            _selector.update();    // nothing downloads over it yet: leave a transport without coverage, or that an earlier session found slow
+        }
+        return _selector;
+    }
+
+    /**
+     * Gets the transport for a connection opened outside StreamingPlayer, e.g. by the MMAPI
+     * player: the fastest one with coverage. Unlike update(), this does not switch the
+     * transport StreamingPlayer downloads over.
+     */
+    public static String getTransport()
+    {
+        TransportSelector selector = getSelector();
+        updateAvailability(selector);
+        return selector.getBestTransport();
+    }
+
+    /**
+     * Gets the factory that opens StreamingPlayer connections over the selected transport.
+     */
+    public static synchronized ConnectionFactory getConnectionFactory()
+    {
+        if (_factory == null)
+        {
+            _factory = new TransportConnectionFactory(new DefaultConnectionFactory(), getSelector());
+        }
+        return _factory;
+    }
+
+    /**
+     * Measures the latency of the transports not measured yet by probing the URL over them.
+     */
+    public static void probe(String url)
+    {
+        getSelector().probe(url, new DefaultConnectionFactory());
+    }
+
+    /**
+     * Marks the transports without coverage as unavailable.
+     */
+    private static void updateAvailability(TransportSelector selector)
+    {
+        if (DeviceInfo.isSimulator()) return;
+        selector.setAvailable(WIFI, WLANInfo.getWLANState() == WLANInfo.WLAN_STATE_CONNECTED);
+        selector.setAvailable(DIRECT, CoverageInfo.isCoverageSufficient(CoverageInfo.COVERAGE_DIRECT));
+        selector.setAvailable(MDS, CoverageInfo.isCoverageSufficient(CoverageInfo.COVERAGE_MDS));
+    }
+
+    /**
+     * Keeps the measurements for the next session.
+     */
+    public static synchronized void save()
+    {
+        if (_selector == null) return;
+        PersistentObject store = PersistentStore.getPersistentObject(STATE_KEY);
+        store.setContents(_selector.getState());
+        store.commit();
+    }
+}
@@ -0,0 +1,89 @@
+package rimx.media.streaming;
+
+/**
+ * Estimates the throughput of the network from timed transfers. Two moving averages
+ * are kept, one reacting within seconds and one over a longer window, and the lower
+ * of the two is reported: a drop in throughput lowers the estimate at once, while a
+ * rise has to last before the estimate follows it.
+ * <p>
+ * Each sample is weighted by how long its transfer took, so many small transfers do not
+ * outweigh one long one. Transfers too small to say much about throughput are ignored.
+ * The estimator returned by getDefault() is shared by all StreamingPlayers of the
+ * application, so a new player starts from what earlier ones measured.
+ */
+public class BandwidthEstimator {
+
+	/** Transfer time that moves the fast average halfway to its throughput, in ms */
+	public static final long FAST_HALF_LIFE = 2000;
+	/** Transfer time that moves the slow average halfway to its throughput, in ms */
+	public static final long SLOW_HALF_LIFE = 8000;
+	/** Transfers smaller than this many bytes are ignored */
+	public static final int MIN_SAMPLE_BYTES = 16000;
+
+	private static final BandwidthEstimator defaultEstimator = new BandwidthEstimator();
+
+	/** Averages in bits per second, -1 until the first sample */
+	private long fast = -1;
+	private long slow = -1;
+	private int samples = 0;
+
+	/**
+	 * Gets the estimator shared by the application.
+	 */
+	public static BandwidthEstimator getDefault(){
+		return defaultEstimator;
+	}
+
+	/**
+	 * Adds a timed transfer.
+	 * @param bytes	Number of bytes transferred.
+	 * @param millis	Time the transfer took, including waiting for the first byte.
+	 */
+	public synchronized void addSample(long bytes, long millis){
+		if(bytes<MIN_SAMPLE_BYTES){
+			return;
+		}
+		if(millis<1){
+			millis = 1;
+		}
+		long bps = bytes * 8000 / millis;
+		fast = average(fast, bps, millis, FAST_HALF_LIFE);
+		slow = average(slow, bps, millis, SLOW_HALF_LIFE);
+		samples++;
+	}
+
+	/**
+	 * Moves average towards sample by the weight of a sample lasting millis.
+	 */
+	private static long average(long average, long sample, long millis, long halfLife){
+		if(average<0){
+			return sample;
+		}
+		return average + (sample - average) * millis / (millis + halfLife);
+	}
+
+	/**
+	 * Gets the estimated throughput.
+	 * @return	the estimate in bits per second, or -1 if no transfer has been measured yet.
+	 */
+	public synchronized long getEstimate(){
+		return fast<0 ? -1 : Math.min(fast, slow);
+	}
+
+	/**
+	 * Gets the number of samples the estimate is based on.
+	 */
+	public synchronized int getSampleCount(){
+		return samples;
+	}
+
+	/**
+	 * Forgets all samples, e.g. after the device moved to another network.
+	 */
+	public synchronized void reset(){
+		fast = -1;
+		slow = -1;
+		samples = 0;
+	}
+
+}
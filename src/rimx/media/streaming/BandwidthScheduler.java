@@ -0,0 +1,263 @@
+package rimx.media.streaming;
+
+import java.util.Vector;
+
+/**
+ * Arbitrates the link between the downloads of the application, so that they do not compete
+ * blindly for it. Each download is a Flow that asks the scheduler before every read, and waits
+ * while a more urgent flow is downloading: foreground flows (players being watched) go before
+ * background ones (preloads and prefetches), and among foreground flows the one with the least
+ * media buffered ahead of its player, i.e. the closest to underflow, goes first. A flow that
+ * stops reading soon stops taking bandwidth, so the more urgent flow gets the whole link, and
+ * background work only runs on capacity the foreground flows leave spare.
+ * <p>
+ * A flow holds back less urgent ones only while it is active, i.e. until it has transferred
+ * nothing for ACTIVE_TIME. A flow that is paced, whose buffer is full or whose connection
+ * stalls thus lets the others proceed. How many bytes each flow transferred over the last
+ * SHARE_WINDOW is kept, so its share of the link can be observed with Flow.getShare(). The
+ * scheduler returned by getDefault() is shared by all StreamingPlayers and the PrefetchService.
+ */
+public final class BandwidthScheduler {
+
+	/** Priority of a download someone is waiting for */
+	public static final int FOREGROUND = 0;
+	/** Priority of a download that only uses spare capacity */
+	public static final int BACKGROUND = 1;
+	/** Time without a transfer after which a flow no longer holds back less urgent ones, in ms */
+	public static final long ACTIVE_TIME = 500;
+	/** Difference in buffered media below which foreground flows are equally urgent, in microseconds */
+	public static final long URGENCY_MARGIN = 1000000;	// 1 s
+	/** Window over which the shares of the flows are measured, in ms */
+	public static final long SHARE_WINDOW = 5000;
+	/** How often a waiting flow checks whether it may read, in ms */
+	private static final long WAIT_INTERVAL = 50;
+
+	private static final BandwidthScheduler defaultScheduler = new BandwidthScheduler();
+
+	private final Vector flows = new Vector();
+	/** When the current share window started */
+	private long windowStartedAt = System.currentTimeMillis();
+
+	/**
+	 * Gets the scheduler shared by the application.
+	 */
+	public static BandwidthScheduler getDefault(){
+		return defaultScheduler;
+	}
+
+	/**
+	 * Adds a download to the flows the scheduler arbitrates.
+	 * @param name	Identifies the flow when it is observed, e.g. its locator.
+	 * @param priority	FOREGROUND or BACKGROUND.
+	 * @return	the flow; close it when the download ends for good.
+	 */
+	public Flow register(String name, int priority){
+		Flow f = new Flow(this, name, priority);
+		synchronized(this){
+			flows.addElement(f);
+		}
+		return f;
+	}
+
+	/**
+	 * Gets the flows the scheduler arbitrates.
+	 */
+	public synchronized Flow[] getFlows(){
+		Flow[] all = new Flow[flows.size()];
+		flows.copyInto(all);
+		return all;
+	}
+
+	/**
+	 * Whether an active flow other than f is more urgent than f.
+	 */
+	private synchronized boolean mustWait(Flow f, long now){
+		for(int i=0; i<flows.size(); i++){
+			Flow other = (Flow) flows.elementAt(i);
+			if(other!=f && now - other.transferredAt<ACTIVE_TIME && other.isMoreUrgentThan(f)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private synchronized void transferred(Flow f, int bytes, long now){
+		rotateWindow(now);
+		f.bytes += bytes;
+		f.windowBytes += bytes;
+		f.transferredAt = now;
+	}
+
+	/**
+	 * Gets the share of f in the bytes the flows transferred in the last complete window, in percent.
+	 */
+	private synchronized int getShare(Flow f){
+		rotateWindow(System.currentTimeMillis());
+		long total = 0;
+		for(int i=0; i<flows.size(); i++){
+			total += ((Flow) flows.elementAt(i)).lastWindowBytes;
+		}
+		return total==0 ? 0 : (int) (f.lastWindowBytes * 100 / total);
+	}
+
+	/**
+	 * Starts the next share window once the current one is over. A window in which nothing was
+	 * transferred leaves all shares at 0.
+	 */
+	private void rotateWindow(long now){
+		long elapsed = now - windowStartedAt;
+		if(elapsed<SHARE_WINDOW){
+			return;
+		}
+		for(int i=0; i<flows.size(); i++){
+			Flow f = (Flow) flows.elementAt(i);
+			f.lastWindowBytes = elapsed<2*SHARE_WINDOW ? f.windowBytes : 0;
+			f.windowBytes = 0;
+		}
+		windowStartedAt = now - elapsed % SHARE_WINDOW;
+	}
+
+	private synchronized void unregister(Flow f){
+		flows.removeElement(f);
+	}
+
+	/**
+	 * A download arbitrated by a BandwidthScheduler. Its owner calls await() before each read and
+	 * transferred(int) after it, and keeps its priority and buffered time up to date.
+	 */
+	public static class Flow {
+
+		private final BandwidthScheduler scheduler;
+		private final String name;
+		private volatile int priority;
+		/** Media buffered ahead of the player, in microseconds */
+		private volatile long bufferedTime = 0;
+		private volatile boolean closed = false;
+		/** Guarded by the scheduler */
+		private long transferredAt = 0;
+		private long bytes = 0;
+		private long windowBytes = 0;
+		private long lastWindowBytes = 0;
+		private long waitMillis = 0;
+
+		private Flow(BandwidthScheduler scheduler, String name, int priority){
+			this.scheduler = scheduler;
+			this.name = name;
+			setPriority(priority);
+		}
+
+		/**
+		 * Sets whether someone is waiting for this download.
+		 * @param priority	FOREGROUND or BACKGROUND.
+		 */
+		public void setPriority(int priority){
+			if(priority!=FOREGROUND && priority!=BACKGROUND){
+				throw new IllegalArgumentException("priority must be FOREGROUND or BACKGROUND");
+			}
+			this.priority = priority;
+		}
+
+		public int getPriority(){
+			return priority;
+		}
+
+		/**
+		 * Sets how much media the download has buffered ahead of its player, which orders the
+		 * foreground flows. 0, the initial value, while the player waits for its initial buffer.
+		 * @param microseconds	Buffered media in microseconds.
+		 */
+		public void setBufferedTime(long microseconds){
+			bufferedTime = microseconds;
+		}
+
+		public long getBufferedTime(){
+			return bufferedTime;
+		}
+
+		private boolean isMoreUrgentThan(Flow f){
+			if(priority!=f.priority){
+				return priority<f.priority;
+			}
+			return priority==FOREGROUND && bufferedTime + URGENCY_MARGIN<f.bufferedTime;
+		}
+
+		/**
+		 * Waits while a more urgent flow is active. Returns at once once the flow is closed.
+		 */
+		public void await(){
+			long started = System.currentTimeMillis();
+			long now = started;
+			while(!closed && scheduler.mustWait(this, now)){
+				try { Thread.sleep(WAIT_INTERVAL); } catch(InterruptedException e){ }
+				now = System.currentTimeMillis();
+			}
+			if(now>started){
+				synchronized(scheduler){
+					waitMillis += now - started;
+				}
+			}
+		}
+
+		/**
+		 * Records bytes read by the download.
+		 */
+		public void transferred(int bytes){
+			if(bytes>0){
+				scheduler.transferred(this, bytes, System.currentTimeMillis());
+			}
+		}
+
+		/**
+		 * Whether the flow transferred anything within the last ACTIVE_TIME.
+		 */
+		public boolean isActive(){
+			synchronized(scheduler){
+				return !closed && System.currentTimeMillis() - transferredAt<ACTIVE_TIME;
+			}
+		}
+
+		/**
+		 * Gets the share of this flow in the bytes all flows transferred over the last SHARE_WINDOW.
+		 * @return	the share in percent.
+		 */
+		public int getShare(){
+			return scheduler.getShare(this);
+		}
+
+		/**
+		 * Gets the number of bytes the flow transferred since it was registered.
+		 */
+		public long getBytes(){
+			synchronized(scheduler){
+				return bytes;
+			}
+		}
+
+		/**
+		 * Gets how long the flow waited for more urgent flows, in ms.
+		 */
+		public long getWaitMillis(){
+			synchronized(scheduler){
+				return waitMillis;
+			}
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		/**
+		 * Removes the flow from the scheduler and releases a thread waiting in await().
+		 */
+		public void close(){
+			closed = true;
+			scheduler.unregister(this);
+		}
+
+		public String toString(){
+			return name + (priority==FOREGROUND ? " foreground " : " background ") + getShare() + "%";
+		}
+
+	}
+
+}
@@ -0,0 +1,173 @@
+package rimx.media.streaming;
+
+import java.util.Vector;
+
+import net.rim.device.api.lowmemory.LowMemoryListener;
+import net.rim.device.api.lowmemory.LowMemoryManager;
+
+/**
+ * Keeps the storage of closed buffers for the next ones, so that a user flipping through videos
+ * does not allocate and drop a multi-megabyte array per player and set off full collections
+ * while the next video plays. StreamingPlayer takes the array of its CircularByteBuffer from the
+ * pool when it allocates the buffer and gives it back when it is closed.
+ * <p>
+ * Sizes are rounded up to a multiple of SIZE_CLASS, so that buffers of about the same capacity
+ * reuse the same arrays. A request is served with the smallest retained array that is at least
+ * as large and less than half again as large; otherwise a new array is allocated. Arrays given
+ * back are kept up to the retention cap, the oldest being dropped first, and all of them are
+ * dropped when the device runs low on memory. The pool returned by getDefault() is shared by all
+ * StreamingPlayers.
+ */
+public final class BufferPool implements LowMemoryListener {
+
+	/** Granularity of the sizes of the arrays of the pool */
+	public static final int SIZE_CLASS = 262144;	// 256 KB
+	/** Default of the most bytes kept in arrays nobody uses: one buffer of the largest capacity chosen automatically */
+	public static final int DEFAULT_MAX_RETAINED = StreamingPlayer.MAX_BUFFER_CAPACITY;
+
+	private static BufferPool defaultPool;
+
+	/** The arrays nobody uses, oldest first */
+	private final Vector retained = new Vector();
+	private long retainedBytes = 0;
+	private int maxRetained = DEFAULT_MAX_RETAINED;
+	private int reused = 0;
+	private int allocated = 0;
+
+	/**
+	 * Gets the pool shared by the application. It frees its arrays when the device runs low on memory.
+	 */
+	public static synchronized BufferPool getDefault(){
+		if(defaultPool==null){
+			defaultPool = new BufferPool();
+			LowMemoryManager.addLowMemoryListener(defaultPool);
+		}
+		return defaultPool;
+	}
+
+	/**
+	 * Rounds a size up to the size class it is served from.
+	 */
+	public static int getSizeClass(int size){
+		return Math.max(1, (size + SIZE_CLASS - 1) / SIZE_CLASS) * SIZE_CLASS;
+	}
+
+	/**
+	 * Takes an array of at least size bytes, retained or new. If there is not enough memory for a
+	 * new one, the retained arrays are dropped and the allocation is tried again.
+	 * @return	an array of getSizeClass(size) bytes or, if one is retained, somewhat more. Its contents are undefined.
+	 * @throws OutOfMemoryError	If the array cannot be allocated even then.
+	 */
+	public byte[] take(int size){
+		int length = getSizeClass(size);
+		synchronized(this){
+			byte[] best = null;
+			for(int i=0; i<retained.size(); i++){
+				byte[] b = (byte[]) retained.elementAt(i);
+				if(b.length>=length && b.length<length + length/2 && (best==null || b.length<best.length)){
+					best = b;
+				}
+			}
+			if(best!=null){
+				retained.removeElement(best);
+				retainedBytes -= best.length;
+				reused++;
+				return best;
+			}
+			allocated++;
+		}
+		try{
+			return new byte[length];
+		} catch(OutOfMemoryError e){
+			clear();
+			return new byte[length];
+		}
+	}
+
+	/**
+	 * Gives back an array nobody uses any more. It is dropped unless its size is a multiple of
+	 * SIZE_CLASS and it fits the retention cap; older arrays are dropped to make room for it.
+	 */
+	public synchronized void give(byte[] storage){
+		if(storage==null || storage.length==0 || storage.length % SIZE_CLASS!=0 || storage.length>maxRetained){
+			return;
+		}
+		trim(maxRetained - storage.length);
+		retained.addElement(storage);
+		retainedBytes += storage.length;
+	}
+
+	/**
+	 * Drops all retained arrays.
+	 */
+	public synchronized void clear(){
+		retained.removeAllElements();
+		retainedBytes = 0;
+	}
+
+	/**
+	 * Sets the most bytes kept in arrays nobody uses; 0 turns the pool off. Retained arrays beyond it
+	 * are dropped, the oldest first.
+	 * @param bytes	The cap in bytes, DEFAULT_MAX_RETAINED by default.
+	 */
+	public synchronized void setMaxRetained(int bytes){
+		if(bytes<0){
+			throw new IllegalArgumentException("The cap must not be negative");
+		}
+		maxRetained = bytes;
+		trim(maxRetained);
+	}
+
+	/**
+	 * Drops the oldest retained arrays until at most bytes are retained.
+	 */
+	private void trim(long bytes){
+		while(retainedBytes>bytes){
+			byte[] oldest = (byte[]) retained.elementAt(0);
+			retained.removeElementAt(0);
+			retainedBytes -= oldest.length;
+		}
+	}
+
+	public synchronized int getMaxRetained(){
+		return maxRetained;
+	}
+
+	/**
+	 * Gets the number of bytes kept in arrays nobody uses.
+	 */
+	public synchronized long getRetainedBytes(){
+		return retainedBytes;
+	}
+
+	/**
+	 * Gets how many requests were served with a retained array.
+	 */
+	public synchronized int getReusedCount(){
+		return reused;
+	}
+
+	/**
+	 * Gets how many requests allocated a new array.
+	 */
+	public synchronized int getAllocatedCount(){
+		return allocated;
+	}
+
+	/**
+	 * Drops the retained arrays when the device runs low on memory, whatever the priority: they only
+	 * save allocations.
+	 */
+	public synchronized boolean freeStaleObject(int priority){
+		if(retained.isEmpty()){
+			return false;
+		}
+		clear();
+		return true;
+	}
+
+	public synchronized String toString(){
+		return retained.size() + " arrays, " + retainedBytes + " bytes retained, " + reused + " reused, " + allocated + " allocated";
+	}
+
+}
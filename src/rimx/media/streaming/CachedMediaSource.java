@@ -0,0 +1,164 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+
+/**
+ * A FilterMediaSource that reads the bytes PrefetchService stored for the media from local
+ * storage and the rest from the wrapped source. Reading past the end of the stored bytes
+ * opens the wrapped source there; it is asked to stand by as soon as stored bytes are read,
+ * so that its connection is ready by then. If the wrapped source reports a validator other
+ * than the one of the stored bytes, the media changed since it was prefetched: the stored
+ * bytes are discarded and reading fails, rather than splicing two versions of the media.
+ */
+class CachedMediaSource extends FilterMediaSource {
+
+	private final PrefetchService.Entry entry;
+	private FileConnection file;
+	private InputStream in;
+	/** Offset of the next byte read from the stored bytes */
+	private long position;
+	/** Offset of the first byte after the stored bytes being read */
+	private long storedEnd;
+	/** Whether reads go to the wrapped source */
+	private boolean passThrough = false;
+
+	CachedMediaSource(MediaSource source, PrefetchService.Entry entry){
+		super(source);
+		this.entry = entry;
+	}
+
+	/**
+	 * Whether the byte at offset is stored locally.
+	 */
+	boolean isStored(long offset){
+		return offset<entry.headLength || (entry.tailOffset>=0 && offset>=entry.tailOffset && offset<entry.length);
+	}
+
+	public void open(long offset) throws IOException {
+		close();
+		if(offset<entry.headLength){
+			openFile(entry.getHeadUrl(), offset, 0, entry.headLength);
+		} else if(isStored(offset)){
+			openFile(entry.getTailUrl(), offset, entry.tailOffset, entry.length);
+		} else{
+			openSource(offset);
+		}
+	}
+
+	private void openFile(String url, long offset, long fileOffset, long end) throws IOException {
+		file = (FileConnection) Connector.open(url, Connector.READ);
+		try{
+			in = file.openInputStream();
+			IOUtil.skipFully(in, offset - fileOffset);
+		} catch(IOException e){
+			close();
+			throw e;
+		}
+		position = offset;
+		storedEnd = end;
+		passThrough = false;
+		if(entry.length<0 || end<entry.length){
+			source.setStandby(true);	// for the request at the end of the stored bytes
+		}
+	}
+
+	private void openSource(long offset) throws IOException {
+		closeFile();
+		passThrough = true;
+		source.open(offset);
+		String validator = source.getValidator();
+		if(validator!=null && entry.validator!=null && !validator.equals(entry.validator)){
+			PrefetchService.invalidate(entry);
+			source.close();
+			throw new IOException("Media changed on the server since it was prefetched: " + entry.validator + " -> " + validator);
+		}
+	}
+
+	/**
+	 * Ignored while the start of the media is stored: it is read from storage, and the request
+	 * after the stored bytes is for the bulk of the media.
+	 */
+	public void setLeadingRange(long bytes, boolean requestNext) {
+		if(!isStored(0)){
+			source.setLeadingRange(bytes, requestNext);
+		}
+	}
+
+	/**
+	 * @return	-1 while stored bytes are read, which are not lost by closing.
+	 */
+	public long getRangeRemaining() {
+		return passThrough ? source.getRangeRemaining() : -1;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(passThrough){
+			return source.read(b, off, len);
+		}
+		if(in==null){
+			throw new IOException("CachedMediaSource is not open");
+		}
+		if(position>=storedEnd){
+			if(entry.length>=0 && position>=entry.length){
+				return -1;
+			}
+			openSource(position);
+			return source.read(b, off, len);
+		}
+		int read = in.read(b, off, (int) Math.min(len, storedEnd - position));
+		if(read<0){
+			openSource(position);	// the file is shorter than recorded; fetch the rest
+			return source.read(b, off, len);
+		}
+		position += read;
+		return read;
+	}
+
+	public int available() throws IOException {
+		if(passThrough){
+			return source.available();
+		}
+		return in==null ? 0 : (int) Math.min(in.available(), storedEnd - position);
+	}
+
+	public long getLength() {
+		return entry.length>=0 ? entry.length : source.getLength();
+	}
+
+	public String getContentType() {
+		String type = source.getContentType();
+		return type!=null ? type : entry.contentType;
+	}
+
+	public String getValidator() {
+		return entry.validator!=null ? entry.validator : source.getValidator();
+	}
+
+	public void close() throws IOException {
+		try{
+			closeFile();
+		} finally{
+			passThrough = false;
+			source.close();
+		}
+	}
+
+	private void closeFile() throws IOException {
+		try{
+			if(in!=null){
+				in.close();
+			}
+		} finally{
+			in = null;
+			if(file!=null){
+				file.close();
+				file = null;
+			}
+		}
+	}
+
+}
@@ -109,6 +109,18 @@ public class CircularByteBuffer {
 	 * @since ostermillerutils 1.00.00
 	 */
 	protected volatile boolean infinite = false;
+
+	/**
+	 * If positive, the most bytes (marked and available) the buffer may
+	 * hold; writes block or fail once it is reached even if the array
+	 * has room left. Used to shrink a buffer gradually, see resize(int).
+	 */
+	protected volatile int limit = 0;
+	/**
+	 * If positive, the most unread bytes the buffer may hold; writes
+	 * block or fail once it is reached even if the buffer has room left.
+	 */
+	protected volatile int aheadLimit = 0;
 	/**
 	 * True if a write to a full buffer should block until the buffer
 	 * has room, false if the write method should throw an IOException
@@ -140,6 +152,10 @@ public class CircularByteBuffer {
 	 * @since ostermillerutils 1.00.00
 	 */
 	protected boolean outputStreamClosed = false;
+	/**
+	 * true once detach() has given up the array; the streams stay closed.
+	 */
+	protected boolean detached = false;
 
 	/**
 	 * Make this buffer ready for reuse.  The contents of the buffer
@@ -153,8 +169,10 @@ public class CircularByteBuffer {
 			readPosition = 0;
 			writePosition = 0;
 			markPosition = 0;
-			outputStreamClosed = false;
-			inputStreamClosed = false;
+			if (!detached){
+				outputStreamClosed = false;
+				inputStreamClosed = false;
+			}
 		}
 	}
 
@@ -253,7 +271,151 @@ public class CircularByteBuffer {
 	 * @since ostermillerutils 1.00.00
 	 */
 	public void resize(){
-		byte[] newBuffer = new byte[buffer.length * 2];
+		synchronized (this){
+			resize(buffer.length * 2);
+		}
+	}
+
+	/**
+	 * Moves the contents of the buffer into an array of the given size.
+	 * A mark covering the whole buffer is widened or narrowed with it.
+	 *
+	 * @param size the new size in bytes.
+	 * @return false if the marked and available bytes do not fit into
+	 *         size-1 bytes, in which case the buffer is left as it is.
+	 */
+	public boolean resize(int size){
+		synchronized (this){
+			if (marked() + available() >= size){
+				return false;
+			}
+			return moveInto(new byte[size]) != null;
+		}
+	}
+
+	/**
+	 * Moves the contents of the buffer into the given array, as
+	 * resize(int) does into a new one, e.g. an array taken from a
+	 * BufferPool.
+	 *
+	 * @param storage the array the buffer uses from now on.
+	 * @return the array given up, or null if the marked and available
+	 *         bytes do not fit into storage.length-1 bytes, in which
+	 *         case the buffer is left as it is.
+	 */
+	public byte[] moveInto(byte[] storage){
+		synchronized (this){
+			if (marked() + available() >= storage.length){
+				return null;
+			}
+			if (markSize >= buffer.length - 2){
+				markSize = storage.length - 2;
+			}
+			byte[] old = buffer;
+			copyInto(storage);
+			return old;
+		}
+	}
+
+	/**
+	 * Closes both streams for good and gives up the array, e.g. to
+	 * return it to a BufferPool. Reads and writes fail from then on,
+	 * including those blocked on the buffer, and clear() no longer
+	 * reopens the streams.
+	 *
+	 * @return the array, or null if it has been given up already.
+	 */
+	public byte[] detach(){
+		synchronized (this){
+			if (detached){
+				return null;
+			}
+			byte[] storage = buffer;
+			buffer = new byte[1];
+			readPosition = 0;
+			writePosition = 0;
+			markPosition = 0;
+			inputStreamClosed = true;
+			outputStreamClosed = true;
+			detached = true;
+			return storage;
+		}
+	}
+
+	/**
+	 * Gets the number of already read bytes kept to support a reset()
+	 * of the InputStream.
+	 *
+	 * @return the number of marked bytes.
+	 */
+	public int getMarked(){
+		synchronized (this){
+			return marked();
+		}
+	}
+
+	/**
+	 * Discards the oldest marked bytes so that at most keep of them are
+	 * left. A later reset() of the InputStream goes back to the oldest
+	 * byte left.
+	 *
+	 * @param keep the number of marked bytes to keep.
+	 * @return the number of bytes discarded.
+	 */
+	public int trimMarked(int keep){
+		synchronized (this){
+			int discard = marked() - Math.max(0, keep);
+			if (discard <= 0){
+				return 0;
+			}
+			markPosition = (markPosition + discard) % buffer.length;
+			return discard;
+		}
+	}
+
+	/**
+	 * Limits how many bytes (marked and available) the buffer holds,
+	 * independent of its size. Writes that would go past the limit block
+	 * or fail as on a full buffer.
+	 *
+	 * @param limit the most bytes held, or 0 for no limit but the size.
+	 */
+	public void setLimit(int limit){
+		synchronized (this){
+			this.limit = limit;
+		}
+	}
+
+	public int getLimit(){
+		synchronized (this){
+			return limit;
+		}
+	}
+
+	/**
+	 * Limits how many unread bytes the buffer holds, so that room is
+	 * left for marked bytes. Writes that would go past the limit block
+	 * or fail as on a full buffer.
+	 *
+	 * @param aheadLimit the most unread bytes held, or 0 for no limit.
+	 */
+	public void setAheadLimit(int aheadLimit){
+		synchronized (this){
+			this.aheadLimit = aheadLimit;
+		}
+	}
+
+	public int getAheadLimit(){
+		synchronized (this){
+			return aheadLimit;
+		}
+	}
+
+	/**
+	 * Copies the marked and available bytes to the start of newBuffer and
+	 * makes it the buffer.
+	 */
+	private void copyInto(byte[] newBuffer){
 		int marked = marked();
 		int available = available();
 		if (markPosition <= writePosition){
@@ -280,14 +442,23 @@ public class CircularByteBuffer {
 	 * @since ostermillerutils 1.00.00
 	 */
 	private int spaceLeft(){
+		int space;
 		if (writePosition < markPosition){
 			// any space between the first write and
 			// the mark except one byte is available.
 			// In this case it is all in one piece.
-			return (markPosition - writePosition - 1);
+			space = (markPosition - writePosition - 1);
+		} else {
+			// space at the beginning and end.
+			space = ((buffer.length - 1) - (writePosition - markPosition));
 		}
-		// space at the beginning and end.
-		return ((buffer.length - 1) - (writePosition - markPosition));
+		if (limit > 0){
+			space = Math.max(0, Math.min(space, limit - 1 - (marked() + available())));
+		}
+		if (aheadLimit > 0){
+			space = Math.max(0, Math.min(space, aheadLimit - available()));
+		}
+		return space;
 	}
 
 	/**
@@ -411,6 +582,22 @@ public class CircularByteBuffer {
 		this.blockingWrite = blockingWrite;
 	}
 
+	/**
+	 * Create a new buffer that uses the given array, e.g. one taken
+	 * from a BufferPool. Its capacity is the length of the array and
+	 * its contents are ignored.
+	 *
+	 * @param storage the array the buffer uses.
+	 * @param blockingWrite true writing to a full buffer should block
+	 *        until space is available, false if an exception should
+	 *        be thrown instead.
+	 */
+	public CircularByteBuffer(byte[] storage, boolean blockingWrite){
+		buffer = storage;
+		infinite = false;
+		this.blockingWrite = blockingWrite;
+	}
+
 	/**
 	 * Class for reading from a circular byte buffer.
 	 *
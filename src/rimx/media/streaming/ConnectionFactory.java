@@ -0,0 +1,24 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+
+import javax.microedition.io.Connection;
+
+/**
+ * Opens the Connections through which StreamingPlayer fetches media. Install an
+ * implementation with StreamingPlayer.setConnectionFactory(ConnectionFactory) to route
+ * connections through something other than Connector.open(), e.g. a network emulator
+ * or a different transport.
+ */
+public interface ConnectionFactory {
+
+	/**
+	 * Opens a Connection to the given URL.
+	 * @param url	Locator of the connection, including any BlackBerry connection parameters.
+	 * @param mode	One of Connector.READ, Connector.WRITE or Connector.READ_WRITE.
+	 * @return	An open Connection.
+	 * @throws IOException	If the connection cannot be opened.
+	 */
+	public Connection open(String url, int mode) throws IOException;
+	
+}
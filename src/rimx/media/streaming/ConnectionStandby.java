@@ -0,0 +1,144 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.StreamConnection;
+
+/**
+ * Keeps one socket to a media origin connected ahead of time, so that the next request
+ * does not pay connection (and for ssl://, TLS) setup. A standby that is not taken
+ * within its idle budget is closed, so an unused standby only costs a short-lived
+ * idle socket.
+ */
+final class ConnectionStandby implements Runnable {
+
+	/** How long take() waits for a standby that is still connecting */
+	private static final long MAX_TAKE_WAIT = 5000;
+
+	private final String socketLocator;
+	private final ConnectionFactory factory;
+	private final long idleBudget;
+
+	/** Connected socket waiting to be taken, or null */
+	private StreamConnection ready;
+	/** Whether a connect is in progress */
+	private boolean connecting = false;
+	/** When prepare() was last called; the idle budget runs from here */
+	private long preparedAt;
+
+	private int opened = 0;
+
+	/**
+	 * @param socketLocator	socket:// or ssl:// locator of the origin.
+	 * @param factory	Opens the socket.
+	 * @param idleBudget	Milliseconds a connected standby is kept before it is closed.
+	 */
+	ConnectionStandby(String socketLocator, ConnectionFactory factory, long idleBudget){
+		this.socketLocator = socketLocator;
+		this.factory = factory;
+		this.idleBudget = idleBudget;
+	}
+
+	/**
+	 * Starts connecting a standby in the background unless one is ready or connecting.
+	 * A standby that is already ready gets a fresh idle budget.
+	 */
+	synchronized void prepare(){
+		preparedAt = System.currentTimeMillis();
+		if(connecting || ready!=null){
+			return;
+		}
+		connecting = true;
+		new Thread(this).start();
+	}
+
+	/**
+	 * Takes the standby, waiting for a connect in progress to finish.
+	 * @return	the connected socket, or null if there is none.
+	 */
+	synchronized StreamConnection take(){
+		long deadline = System.currentTimeMillis() + MAX_TAKE_WAIT;
+		while(connecting && System.currentTimeMillis()<deadline){
+			try { wait(Math.max(1, deadline - System.currentTimeMillis())); } catch(InterruptedException e){ }
+		}
+		StreamConnection c = ready;
+		ready = null;
+		if(c!=null){
+			notifyAll();
+		}
+		return c;
+	}
+
+	/**
+	 * Closes the standby, if any. A standby that is still connecting is closed as soon as it is connected.
+	 */
+	void release(){
+		StreamConnection c;
+		synchronized(this){
+			c = ready;
+			ready = null;
+			preparedAt = 0;
+			notifyAll();
+		}
+		close(c);
+	}
+
+	/**
+	 * Gets the socket:// or ssl:// locator this standby connects to.
+	 */
+	String getSocketLocator(){
+		return socketLocator;
+	}
+
+	/**
+	 * Gets the number of standby sockets connected so far.
+	 */
+	synchronized int getOpenedCount(){
+		return opened;
+	}
+
+	/**
+	 * Connects the standby, then closes it once it has been idle for idleBudget.
+	 */
+	public void run(){
+		StreamConnection c;
+		try{
+			c = (StreamConnection) factory.open(socketLocator, Connector.READ_WRITE);
+		} catch(Throwable t){
+			c = null;
+		}
+		boolean expired = false;
+		synchronized(this){
+			connecting = false;
+			notifyAll();
+			if(c==null){
+				return;
+			}
+			ready = c;
+			opened++;
+			while(ready==c){
+				long left = preparedAt + idleBudget - System.currentTimeMillis();
+				if(left<=0){
+					ready = null;
+					expired = true;
+					break;
+				}
+				try { wait(left); } catch(InterruptedException e){ }
+			}
+		}
+		if(expired){
+			close(c);
+		}
+	}
+
+	private static void close(StreamConnection c){
+		if(c!=null){
+			try{
+				c.close();
+			} catch(IOException e){
+			}
+		}
+	}
+
+}
@@ -0,0 +1,30 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+
+import javax.microedition.io.Connection;
+import javax.microedition.io.Connector;
+
+/**
+ * The ConnectionFactory used by StreamingPlayer unless another one is installed.
+ * Simply delegates to Connector.open().
+ */
+public class DefaultConnectionFactory implements ConnectionFactory {
+
+	public Connection open(String url, int mode) throws IOException {
+		return Connector.open(url, mode);
+	}
+
+	/**
+	 * All DefaultConnectionFactories open the same connections, so connections prepared through
+	 * one (see MediaProbe) can be used by a StreamingPlayer holding another.
+	 */
+	public boolean equals(Object o) {
+		return o instanceof DefaultConnectionFactory;
+	}
+
+	public int hashCode() {
+		return DefaultConnectionFactory.class.hashCode();
+	}
+	
+}
@@ -0,0 +1,113 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+
+/**
+ * A MediaSource reading a file:/// locator.
+ */
+public class FileMediaSource implements MediaSource {
+	
+	private final String locator;
+	private final ConnectionFactory factory;
+	private FileConnection connection;
+	private InputStream in;
+	private long length = -1;
+	
+	/**
+	 * @param locator	A file:/// locator.
+	 * @param factory	Opens the FileConnection.
+	 */
+	public FileMediaSource(String locator, ConnectionFactory factory){
+		this.locator = locator;
+		this.factory = factory;
+	}
+
+	public void open(long offset) throws IOException {
+		close();
+		connection = (FileConnection) factory.open(locator, Connector.READ);
+		try{
+			length = connection.fileSize();
+			in = connection.openInputStream();
+			IOUtil.skipFully(in, offset);
+		} catch(IOException e){
+			close();
+			throw e;
+		}
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(in==null){
+			throw new IOException("FileMediaSource is not open");
+		}
+		return in.read(b, off, len);
+	}
+
+	public int available() throws IOException {
+		return in==null ? 0 : in.available();
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public String getContentType() {
+		return null;
+	}
+
+	public String getValidator() {
+		return null;
+	}
+
+	public boolean isSeekable() {
+		return true;
+	}
+
+	public boolean isLocal() {
+		return true;
+	}
+
+	public String getLocator() {
+		return locator;
+	}
+
+	/**
+	 * Ignored; files are cheap to re-open.
+	 */
+	public void setStandby(boolean standby) {
+	}
+
+	/**
+	 * Ignored; files are read without requests.
+	 */
+	public void setRangeSize(long bytes) {
+	}
+
+	/**
+	 * Ignored; files are read without requests.
+	 */
+	public void setLeadingRange(long bytes, boolean requestNext) {
+	}
+
+	public long getRangeRemaining() {
+		return -1;
+	}
+
+	public void close() throws IOException {
+		try{
+			if(in!=null){
+				in.close();
+			}
+		} finally{
+			in = null;
+			if(connection!=null){
+				connection.close();
+				connection = null;
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,84 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+
+/**
+ * A MediaSource that forwards every call to another MediaSource. Extend it to layer a
+ * strategy such as caching, prefetching or throttling on top of an existing source.
+ */
+public class FilterMediaSource implements MediaSource {
+	
+	/** The wrapped source */
+	protected final MediaSource source;
+	
+	public FilterMediaSource(MediaSource source){
+		if(source==null){
+			throw new IllegalArgumentException("source cannot be null");
+		}
+		this.source = source;
+	}
+
+	public void open(long offset) throws IOException {
+		source.open(offset);
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		return source.read(b, off, len);
+	}
+
+	public int available() throws IOException {
+		return source.available();
+	}
+
+	public long getLength() {
+		return source.getLength();
+	}
+
+	public String getContentType() {
+		return source.getContentType();
+	}
+
+	public String getValidator() {
+		return source.getValidator();
+	}
+
+	public boolean isSeekable() {
+		return source.isSeekable();
+	}
+
+	public boolean isLocal() {
+		return source.isLocal();
+	}
+
+	public String getLocator() {
+		return source.getLocator();
+	}
+
+	public void setStandby(boolean standby) {
+		source.setStandby(standby);
+	}
+
+	public void setRangeSize(long bytes) {
+		source.setRangeSize(bytes);
+	}
+
+	public void setLeadingRange(long bytes, boolean requestNext) {
+		source.setLeadingRange(bytes, requestNext);
+	}
+
+	public long getRangeRemaining() {
+		return source.getRangeRemaining();
+	}
+
+	public void close() throws IOException {
+		source.close();
+	}
+
+	/**
+	 * Gets the wrapped source.
+	 */
+	public MediaSource getSource() {
+		return source;
+	}
+	
+}
@@ -0,0 +1,947 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Vector;
+
+/**
+ * A SegmentedMediaSource playing an HLS playlist. The segments are concatenated into one
+ * stream, which for MPEG-2 TS segments is itself a valid MPEG-2 TS stream that the native
+ * Player can play.
+ * <p>
+ * Segments are fetched on a pipeline: once the response headers of a segment have
+ * arrived, the request for the next segment is sent, up to getPrefetchSegments() segments
+ * ahead of the one being read. The round trip of each request is thus hidden behind the
+ * transfer of the previous segment instead of stalling the stream at every segment
+ * boundary. Each segment in flight buffers at most getSegmentBufferSize() bytes, so
+ * prefetching does not hold whole segments in memory.
+ * <p>
+ * Each segment is requested with an HttpMediaSource, so redirects are followed and
+ * cached, and a reconnect in the middle of a segment resumes it with a Range request.
+ * Byte offsets passed to open() count from the start of the segment selected by
+ * seekToTime(); offsets within the segments read since then can be re-opened.
+ * <p>
+ * The variant streams of a master playlist, or the renditions passed to the
+ * constructor, are switched between at segment boundaries, which HLS requires to be
+ * aligned across variants and to start with a key frame. At each boundary the
+ * RenditionSelector picks the rendition from the throughput measured by the
+ * BandwidthEstimator and from how far the download is ahead of the playback time
+ * reported with setPlaybackTime(). The playlist of a rendition is loaded in the
+ * background when it is first wanted, so switching does not stall the stream.
+ * <p>
+ * Live playlists (without EXT-X-ENDLIST) start a few segments behind the newest one
+ * and are reloaded when the stream runs out of segments.
+ */
+public class HlsMediaSource implements SegmentedMediaSource {
+
+	/** Default number of segments requested ahead of the one being read */
+	public static final int DEFAULT_PREFETCH_SEGMENTS = 1;
+	/** Default number of bytes buffered for each segment in flight */
+	public static final int DEFAULT_SEGMENT_BUFFER_SIZE = 64 * 1024;
+	/** Number of segments behind the newest one at which a live playlist starts */
+	private static final int LIVE_START_SEGMENTS = 3;
+	/** Number of segment positions kept to map offsets back to segments */
+	private static final int MAX_POSITIONS = 64;
+	/** Shortest interval between two reloads of a live playlist, in ms */
+	private static final long MIN_RELOAD_INTERVAL = 1000;
+	/** Number of bytes transferred per throughput sample */
+	private static final int SAMPLE_BYTES = 64 * 1024;
+
+	private final String locator;
+	private final ConnectionFactory factory;
+	private int prefetchSegments = DEFAULT_PREFETCH_SEGMENTS;
+	private int segmentBufferSize = DEFAULT_SEGMENT_BUFFER_SIZE;
+	private BandwidthEstimator estimator = BandwidthEstimator.getDefault();
+	private RenditionSelector selector = new RenditionSelector();
+
+	/** Renditions to switch between, null until the master playlist is loaded */
+	private Rendition[] renditions;
+	/** Media playlists of the renditions, null where not loaded */
+	private M3U8Playlist[] playlists;
+	/** Whether a background load of the playlist of a rendition is in progress */
+	private boolean[] loading;
+	/** Index of the rendition new segments are fetched from */
+	private int current;
+	/** Media playlist of the current rendition */
+	private M3U8Playlist playlist;
+	private long playlistLoadedAt;
+	/** Media time being played, in microseconds */
+	private long playbackTime = 0;
+	/** Sequence number of the segment at offset 0, -1 until it is selected */
+	private long startSequence = -1;
+	/** Media time at offset 0, in microseconds */
+	private long timeOffset = 0;
+	/** long[]{sequence, offset, length, rendition} of the segments read since startSequence; length is -1 while a segment is being read */
+	private final Vector positions = new Vector();
+	/** Fetches of the segment being read and the segments after it, in order */
+	private final Vector pipeline = new Vector();
+	/** Sequence number of the next segment to fetch */
+	private long nextSequence;
+	/** Offset of the next byte read() returns */
+	private long position;
+	private boolean open = false;
+	private String contentType;
+	/** Fetches currently waiting for the network */
+	private int activeTransfers = 0;
+	private long activeSince;
+	/** Bytes and time measured since the last throughput sample */
+	private long meteredBytes = 0;
+	private long meteredMillis = 0;
+
+	/**
+	 * @param locator	An http:// or https:// locator of a master or media playlist, including any BlackBerry connection parameters.
+	 * @param factory	Opens the HttpConnections.
+	 */
+	public HlsMediaSource(String locator, ConnectionFactory factory){
+		this.locator = locator;
+		this.factory = factory;
+	}
+
+	/**
+	 * @param renditions	Media playlists of the renditions of the media, whose segments must be aligned.
+	 * @param factory	Opens the HttpConnections.
+	 * @throws IllegalArgumentException	If renditions is null or empty.
+	 */
+	public HlsMediaSource(Rendition[] renditions, ConnectionFactory factory){
+		if(renditions==null || renditions.length==0){
+			throw new IllegalArgumentException("renditions cannot be empty");
+		}
+		this.locator = renditions[0].getLocator();
+		this.factory = factory;
+		this.renditions = new Rendition[renditions.length];
+		System.arraycopy(renditions, 0, this.renditions, 0, renditions.length);
+	}
+
+	/**
+	 * Whether a locator names an HLS playlist, judging by its extension (.m3u8 or .m3u).
+	 */
+	public static boolean isPlaylistLocator(String locator){
+		if(locator==null){
+			return false;
+		}
+		String path = locator;
+		int end = path.length();
+		int i;
+		if((i = path.indexOf(';'))>=0 && i<end) end = i;
+		if((i = path.indexOf('?'))>=0 && i<end) end = i;
+		if((i = path.indexOf('#'))>=0 && i<end) end = i;
+		path = path.substring(0, end).toLowerCase();
+		return path.endsWith(".m3u8") || path.endsWith(".m3u");
+	}
+
+	/**
+	 * Whether a content type is one of the types HLS playlists are served with.
+	 */
+	public static boolean isPlaylistType(String contentType){
+		if(contentType==null){
+			return false;
+		}
+		String type = contentType.toLowerCase();
+		return type.startsWith("application/vnd.apple.mpegurl") || type.startsWith("application/x-mpegurl")
+			|| type.startsWith("audio/mpegurl") || type.startsWith("audio/x-mpegurl");
+	}
+
+	/**
+	 * Sets how many segments are requested ahead of the one being read.
+	 * @param segments	0 fetches one segment at a time.
+	 */
+	public void setPrefetchSegments(int segments){
+		if(segments<0){
+			throw new IllegalArgumentException("segments cannot be negative");
+		}
+		prefetchSegments = segments;
+	}
+
+	public int getPrefetchSegments(){
+		return prefetchSegments;
+	}
+
+	/**
+	 * Sets how many bytes are buffered for each segment in flight. Applies to segments requested from now on.
+	 */
+	public void setSegmentBufferSize(int size){
+		if(size<=0){
+			throw new IllegalArgumentException("size must be positive");
+		}
+		segmentBufferSize = size;
+	}
+
+	public int getSegmentBufferSize(){
+		return segmentBufferSize;
+	}
+
+	/**
+	 * Sets the estimator fed with the throughput of segment downloads and consulted to switch renditions.
+	 * By default the estimator shared by the application is used.
+	 */
+	public synchronized void setBandwidthEstimator(BandwidthEstimator estimator){
+		if(estimator==null){
+			throw new IllegalArgumentException("estimator cannot be null");
+		}
+		this.estimator = estimator;
+	}
+
+	public synchronized BandwidthEstimator getBandwidthEstimator(){
+		return estimator;
+	}
+
+	/**
+	 * Sets the policy that picks the rendition at each segment boundary.
+	 */
+	public synchronized void setRenditionSelector(RenditionSelector selector){
+		if(selector==null){
+			throw new IllegalArgumentException("selector cannot be null");
+		}
+		this.selector = selector;
+	}
+
+	public synchronized RenditionSelector getRenditionSelector(){
+		return selector;
+	}
+
+	/**
+	 * Gets the renditions switched between.
+	 * @return	the renditions, or null until the master playlist has been loaded.
+	 */
+	public synchronized Rendition[] getRenditions(){
+		return renditions;
+	}
+
+	/**
+	 * Gets the rendition new segments are fetched from.
+	 * @return	the rendition, or null until the source has been opened or seeked.
+	 */
+	public synchronized Rendition getRendition(){
+		return playlist==null ? null : renditions[current];
+	}
+
+	public synchronized Rendition getRenditionAt(long offset){
+		for(int i=positions.size()-1; i>=0; i--){
+			long[] p = (long[]) positions.elementAt(i);
+			if(offset>=p[1]){
+				return renditions[(int) p[3]];
+			}
+		}
+		return getRendition();
+	}
+
+	public synchronized void setPlaybackTime(long time){
+		playbackTime = time;
+	}
+
+	/**
+	 * Gets the media playlist being played.
+	 * @return	the playlist, or null until the source has been opened or seeked.
+	 */
+	public synchronized M3U8Playlist getPlaylist(){
+		return playlist;
+	}
+
+	public void open(long offset) throws IOException {
+		close();
+		ensurePlaylist();
+		SegmentFetch first;
+		synchronized(this){
+			if(startSequence<0){
+				selectStart(null);
+			}
+			long sequence = startSequence;
+			long skip = offset;
+			if(!positions.isEmpty()){
+				sequence = -1;
+				for(int i=0; i<positions.size() && sequence<0; i++){
+					long[] p = (long[]) positions.elementAt(i);
+					if(offset>=p[1] && (p[2]<0 || offset<p[1]+p[2])){
+						sequence = p[0];
+						skip = offset - p[1];
+						setCurrent((int) p[3]);	// resume the segment in the rendition it was started in
+					}
+				}
+				long[] last = (long[]) positions.lastElement();
+				if(sequence<0 && last[2]>=0 && offset==last[1]+last[2]){
+					sequence = last[0] + 1;
+					skip = 0;
+				}
+				if(sequence<0){
+					throw new IOException("Offset " + offset + " is not mapped to a segment");
+				}
+			}
+			position = offset;
+			nextSequence = sequence;
+			open = true;
+			first = startNext(skip);
+		}
+		if(first!=null){
+			try{
+				first.awaitOpened();
+			} catch(IOException e){
+				close();
+				throw e;
+			}
+			topUp();
+		}
+	}
+
+	/**
+	 * Loads the master playlist, if any, and the media playlist of the rendition to start
+	 * with, unless that has been done.
+	 */
+	private void ensurePlaylist() throws IOException {
+		Rendition[] available;
+		BandwidthEstimator estimator;
+		RenditionSelector selector;
+		synchronized(this){
+			if(playlist!=null){
+				return;
+			}
+			available = renditions;
+			estimator = this.estimator;
+			selector = this.selector;
+		}
+		M3U8Playlist loaded = null;
+		if(available==null){
+			loaded = loadPlaylist(locator);
+			if(loaded.isMaster()){
+				Vector variants = loaded.getVariants();
+				available = new Rendition[variants.size()];
+				variants.copyInto(available);
+				loaded = null;
+			} else{
+				available = new Rendition[]{ new Rendition(locator, -1, null) };
+			}
+		}
+		int initial = selector.selectInitial(available, estimator.getEstimate());
+		if(loaded==null){
+			loaded = loadPlaylist(available[initial].getLocator());
+			if(loaded.isMaster()){
+				throw new IOException("Rendition is a master playlist: " + available[initial].getLocator());
+			}
+		}
+		synchronized(this){
+			renditions = available;
+			playlists = new M3U8Playlist[available.length];
+			loading = new boolean[available.length];
+			playlists[initial] = loaded;
+			current = initial;
+			playlist = loaded;
+			playlistLoadedAt = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Loads the media playlist of the current rendition again to pick up the segments
+	 * added to a live stream.
+	 */
+	private void reloadPlaylist() throws IOException {
+		int rendition;
+		String url;
+		synchronized(this){
+			rendition = current;
+			url = renditions[current].getLocator();
+		}
+		M3U8Playlist loaded = loadPlaylist(url);
+		synchronized(this){
+			align(loaded, playlists[rendition]);
+			playlists[rendition] = loaded;
+			if(rendition==current){
+				playlist = loaded;
+				playlistLoadedAt = System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * Shifts the start times of a newly loaded playlist onto the timeline of reference,
+	 * using a segment both have in common. Start times of a playlist count from its first
+	 * segment, which for a live stream moves on with every reload.
+	 */
+	private static void align(M3U8Playlist loaded, M3U8Playlist reference){
+		if(reference==null || reference==loaded){
+			return;
+		}
+		Vector segments = loaded.getSegments();
+		long shift = 0;
+		HlsSegment common = null;
+		for(int i=0; i<segments.size() && common==null; i++){
+			HlsSegment s = (HlsSegment) segments.elementAt(i);
+			common = reference.getSegment(s.getSequence());
+			if(common!=null){
+				shift = common.getStartTime() - s.getStartTime();
+			}
+		}
+		if(common==null && !reference.getSegments().isEmpty()){
+			HlsSegment last = (HlsSegment) reference.getSegments().lastElement();
+			shift = last.getStartTime() + last.getDuration();	// the playlist moved on entirely; continue the timeline
+		}
+		for(int i=0; i<segments.size(); i++){
+			HlsSegment s = (HlsSegment) segments.elementAt(i);
+			s.setStartTime(s.getStartTime() + shift);
+		}
+	}
+
+	/**
+	 * Makes a rendition whose playlist is loaded the one new segments are fetched from.
+	 */
+	private synchronized void setCurrent(int rendition){
+		if(rendition==current || playlists[rendition]==null){
+			return;
+		}
+		align(playlists[rendition], playlist);
+		current = rendition;
+		playlist = playlists[rendition];
+	}
+
+	/**
+	 * Loads the playlist of a rendition in the background, so that a later segment boundary can switch to it.
+	 */
+	private synchronized void requestPlaylist(final int rendition){
+		if(loading[rendition]){
+			return;
+		}
+		loading[rendition] = true;
+		new Thread(){
+			public void run(){
+				M3U8Playlist loaded = null;
+				try{
+					loaded = loadPlaylist(renditions[rendition].getLocator());
+					if(loaded.isMaster()){
+						loaded = null;
+					}
+				} catch(IOException e){
+					// stay on the current rendition; it is requested again at a later boundary
+				}
+				synchronized(HlsMediaSource.this){
+					loading[rendition] = false;
+					if(loaded!=null){
+						playlists[rendition] = loaded;
+					}
+				}
+			}
+		}.start();
+	}
+
+	/**
+	 * Picks the rendition of segment nextSequence, switching to it if its playlist is loaded
+	 * and current for the segment, or requesting the playlist otherwise.
+	 */
+	private synchronized void selectRendition(){
+		if(renditions.length<2){
+			return;
+		}
+		HlsSegment next = playlist.getSegment(nextSequence);
+		long buffered = next==null ? 0 : next.getStartTime() - playbackTime;
+		int target = selector.select(renditions, current, estimator.getEstimate(), buffered);
+		if(target==current){
+			return;
+		}
+		M3U8Playlist p = playlists[target];
+		if(p!=null && (p.getSegment(nextSequence)!=null || p.isEndList())){
+			setCurrent(target);
+		} else{
+			requestPlaylist(target);	// not loaded yet, or a live playlist that is behind
+		}
+	}
+
+	private M3U8Playlist loadPlaylist(String url) throws IOException {
+		HttpMediaSource s = new HttpMediaSource(url, factory);
+		s.setStandbyIdleBudget(0);
+		try{
+			s.open(0);
+			return M3U8Playlist.parse(s.getResolvedLocator(), new SourceInputStream(s));
+		} finally{
+			s.close();
+		}
+	}
+
+	/**
+	 * Selects the segment at offset 0: the one playing at time, or if time is null the
+	 * first segment of the playlist (a few segments behind the newest one when live).
+	 */
+	private synchronized long selectStart(Long time) throws IOException {
+		Vector segments = playlist.getSegments();
+		if(segments.isEmpty()){
+			throw new IOException("Playlist has no segments: " + renditions[current].getLocator());
+		}
+		HlsSegment start;
+		if(time!=null){
+			start = playlist.getSegmentAt(time.longValue());
+		} else if(playlist.isEndList()){
+			start = (HlsSegment) segments.firstElement();
+		} else{
+			start = (HlsSegment) segments.elementAt(Math.max(0, segments.size() - LIVE_START_SEGMENTS));
+		}
+		startSequence = start.getSequence();
+		timeOffset = start.getStartTime();
+		playbackTime = timeOffset;
+		positions.removeAllElements();
+		return timeOffset;
+	}
+
+	public long seekToTime(long time) throws IOException {
+		ensurePlaylist();
+		return selectStart(new Long(time));
+	}
+
+	public synchronized long getTimeOffset() {
+		return timeOffset;
+	}
+
+	public synchronized long getDuration() {
+		if(playlist==null || !playlist.isEndList()){
+			return -1;
+		}
+		return playlist.getDuration();
+	}
+
+	/**
+	 * Starts fetching segment nextSequence if the playlist has it.
+	 * @param skip	Number of bytes of the segment to skip.
+	 * @return	the new fetch, or null if the segment is not in the playlist (yet).
+	 */
+	private synchronized SegmentFetch startNext(long skip){
+		if(!open){
+			return null;
+		}
+		if(skip==0){
+			selectRendition();
+		}
+		HlsSegment segment = playlist.getSegment(nextSequence);
+		if(segment==null && nextSequence<playlist.getMediaSequence() && !playlist.getSegments().isEmpty()){
+			// a live stream moved past the segment before it was fetched; continue with the oldest one available
+			nextSequence = playlist.getMediaSequence();
+			segment = playlist.getSegment(nextSequence);
+			skip = 0;
+		}
+		if(segment==null){
+			return null;
+		}
+		if(contentType==null){
+			contentType = guessContentType(segment.getUri());
+		}
+		SegmentFetch fetch = new SegmentFetch(segment, current, skip, segmentBufferSize);
+		pipeline.addElement(fetch);
+		nextSequence++;
+		new Thread(fetch).start();
+		return fetch;
+	}
+
+	/**
+	 * Starts the next fetch if fewer than prefetchSegments segments are in flight ahead
+	 * of the one being read and the newest request has been answered.
+	 */
+	private synchronized void topUp(){
+		while(open && pipeline.size()<=prefetchSegments){
+			if(!pipeline.isEmpty() && !((SegmentFetch) pipeline.lastElement()).isOpened()){
+				return;
+			}
+			if(startNext(0)==null){
+				return;
+			}
+		}
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		while(true){
+			SegmentFetch fetch;
+			synchronized(this){
+				if(!open){
+					throw new IOException("HlsMediaSource is not open");
+				}
+				fetch = pipeline.isEmpty() ? null : (SegmentFetch) pipeline.firstElement();
+				if(fetch!=null && fetch.position==null){
+					recordPosition(fetch);
+				}
+			}
+			if(fetch==null){
+				if(!awaitSegment()){
+					return -1;
+				}
+				continue;
+			}
+			int read = fetch.read(b, off, len);
+			if(read>=0){
+				synchronized(this){
+					position += read;
+				}
+				return read;
+			}
+			synchronized(this){
+				if(!pipeline.removeElement(fetch)){
+					continue;	// closed meanwhile
+				}
+				fetch.position[2] = position - fetch.position[1];
+			}
+			topUp();
+		}
+	}
+
+	/**
+	 * Records where the segment of fetch starts, now that it is the one being read.
+	 */
+	private void recordPosition(SegmentFetch fetch){
+		long sequence = fetch.segment.getSequence();
+		while(!positions.isEmpty() && ((long[]) positions.lastElement())[0]>=sequence){
+			positions.removeElementAt(positions.size()-1);	// re-opened inside an earlier segment
+		}
+		fetch.position = new long[]{ sequence, position - fetch.skip, -1, fetch.rendition };
+		positions.addElement(fetch.position);
+		if(positions.size()>MAX_POSITIONS){
+			positions.removeElementAt(0);
+		}
+	}
+
+	/**
+	 * Waits for the segment after the last one fetched. A live playlist is reloaded until it has the segment.
+	 * @return	false at the end of a playlist that is not live.
+	 */
+	private boolean awaitSegment() throws IOException {
+		boolean available;
+		synchronized(this){
+			available = playlist.getSegment(nextSequence)!=null || nextSequence<playlist.getMediaSequence();
+			if(!available){
+				if(playlist.isEndList()){
+					return false;
+				}
+				long interval = Math.max(MIN_RELOAD_INTERVAL, playlist.getTargetDuration()/2000);
+				long wait = playlistLoadedAt + interval - System.currentTimeMillis();
+				if(wait>0){
+					try { wait(wait); } catch(InterruptedException e){ }
+				}
+				if(!open){
+					throw new IOException("HlsMediaSource is not open");
+				}
+			}
+		}
+		if(!available){
+			reloadPlaylist();
+		}
+		topUp();
+		return true;
+	}
+
+	public int available() throws IOException {
+		SegmentFetch fetch;
+		synchronized(this){
+			fetch = pipeline.isEmpty() ? null : (SegmentFetch) pipeline.firstElement();
+		}
+		return fetch==null ? 0 : fetch.available();
+	}
+
+	/**
+	 * The length of a segmented stream is not known in advance.
+	 * @return	-1
+	 */
+	public long getLength() {
+		return -1;
+	}
+
+	public synchronized String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Gets the content type of a segment from its extension. MPEG-2 TS is assumed for unknown extensions.
+	 */
+	private static String guessContentType(String uri){
+		int end = uri.length();
+		int i;
+		if((i = uri.indexOf(';'))>=0 && i<end) end = i;
+		if((i = uri.indexOf('?'))>=0 && i<end) end = i;
+		String path = uri.substring(0, end).toLowerCase();
+		if(path.endsWith(".aac")){
+			return "audio/aac";
+		} else if(path.endsWith(".mp3")){
+			return "audio/mpeg";
+		} else if(path.endsWith(".mp4") || path.endsWith(".m4s")){
+			return "video/mp4";
+		}
+		return "video/mp2t";
+	}
+
+	/**
+	 * @return	null; segments of a playlist are not versioned as a whole.
+	 */
+	public String getValidator() {
+		return null;
+	}
+
+	/**
+	 * Segmented sources are not seekable by offset; use seekToTime().
+	 */
+	public boolean isSeekable() {
+		return false;
+	}
+
+	public boolean isLocal() {
+		return false;
+	}
+
+	public String getLocator() {
+		return locator;
+	}
+
+	/**
+	 * Ignored: the segment pipeline already keeps requests ahead of the stream.
+	 */
+	public void setStandby(boolean standby) {
+	}
+
+	/**
+	 * Ignored; segments are requested whole.
+	 */
+	public void setRangeSize(long bytes) {
+	}
+
+	/**
+	 * Ignored; segments are requested whole.
+	 */
+	public void setLeadingRange(long bytes, boolean requestNext) {
+	}
+
+	/**
+	 * @return	-1; segments being fetched are kept by the pipeline.
+	 */
+	public long getRangeRemaining() {
+		return -1;
+	}
+
+	public void close() throws IOException {
+		Vector fetches;
+		synchronized(this){
+			open = false;
+			fetches = new Vector();
+			for(int i=0; i<pipeline.size(); i++){
+				fetches.addElement(pipeline.elementAt(i));
+			}
+			pipeline.removeAllElements();
+			notifyAll();
+		}
+		for(int i=0; i<fetches.size(); i++){
+			((SegmentFetch) fetches.elementAt(i)).abort();
+		}
+	}
+
+	/**
+	 * Downloads one segment into a bounded buffer that read() drains.
+	 */
+	private class SegmentFetch implements Runnable {
+
+		final HlsSegment segment;
+		/** Index of the rendition the segment belongs to */
+		final int rendition;
+		final long skip;
+		private final CircularByteBuffer queue;
+		private final InputStream queueIn;
+		/** Entry of positions for this segment, set once it is being read */
+		long[] position;
+		private HttpMediaSource source;
+		/** Whether the response headers arrived or the request failed */
+		private boolean opened = false;
+		private boolean aborted = false;
+		private IOException error;
+
+		SegmentFetch(HlsSegment segment, int rendition, long skip, int bufferSize){
+			this.segment = segment;
+			this.rendition = rendition;
+			this.skip = skip;
+			this.queue = new CircularByteBuffer(bufferSize, true);
+			this.queueIn = queue.getInputStream();
+		}
+
+		public void run(){
+			OutputStream out = queue.getOutputStream();
+			HttpMediaSource s = new HttpMediaSource(segment.getUri(), factory);
+			s.setStandbyIdleBudget(0);
+			try{
+				synchronized(this){
+					if(aborted){
+						return;
+					}
+					source = s;
+				}
+				long start = Math.max(0, segment.getByteRangeOffset()) + skip;
+				transferStarted();
+				try{
+					s.open(start);
+				} finally{
+					transferEnded(0);
+				}
+				long expected = -1;
+				if(segment.getByteRangeLength()>=0){
+					expected = segment.getByteRangeLength() - skip;
+				} else if(s.getLength()>=0){
+					expected = s.getLength() - start;
+				}
+				opened(null);
+				byte[] chunk = new byte[4096];
+				long written = 0;
+				while(expected<0 || written<expected){
+					int n = -1;
+					transferStarted();
+					try{
+						n = s.read(chunk, 0, expected<0 ? chunk.length : (int) Math.min(chunk.length, expected - written));
+					} finally{
+						transferEnded(Math.max(0, n));
+					}
+					if(n<0){
+						if(expected>=0){
+							throw new IOException("Segment " + segment + " ended after " + (skip + written) + " bytes");
+						}
+						break;
+					}
+					out.write(chunk, 0, n);
+					written += n;
+				}
+			} catch(Throwable t){
+				opened(t instanceof IOException ? (IOException) t : new IOException(t.toString()));
+			} finally{
+				try{
+					s.close();
+				} catch(IOException e){
+				}
+				try{
+					out.close();
+				} catch(IOException e){
+				}
+			}
+		}
+
+		/**
+		 * Records that the request was answered, or failed with error.
+		 */
+		private void opened(IOException error){
+			synchronized(this){
+				opened = true;
+				if(error!=null && this.error==null && !aborted){
+					this.error = error;
+				}
+				notifyAll();
+			}
+			if(error==null){
+				topUp();
+			}
+		}
+
+		synchronized boolean isOpened(){
+			return opened;
+		}
+
+		/**
+		 * Waits until the response headers arrived.
+		 * @throws IOException	If the request failed.
+		 */
+		synchronized void awaitOpened() throws IOException {
+			while(!opened && !aborted){
+				try { wait(); } catch(InterruptedException e){ }
+			}
+			if(error!=null){
+				throw error;
+			}
+		}
+
+		/**
+		 * Reads the segment.
+		 * @return	Number of bytes read, or -1 at its end.
+		 * @throws IOException	If the download failed. The bytes received before the failure are read first.
+		 */
+		int read(byte[] b, int off, int len) throws IOException {
+			int read = queueIn.read(b, off, len);
+			if(read<0){
+				synchronized(this){
+					if(error!=null){
+						throw error;
+					}
+				}
+			}
+			return read;
+		}
+
+		int available() throws IOException {
+			return queueIn.available();
+		}
+
+		/**
+		 * Stops the download and releases its connection.
+		 */
+		void abort(){
+			HttpMediaSource s;
+			synchronized(this){
+				aborted = true;
+				s = source;
+				notifyAll();
+			}
+			try{
+				queueIn.close();
+			} catch(IOException e){
+			}
+			if(s!=null){
+				try{
+					s.close();
+				} catch(Throwable t){
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records that a fetch started waiting for the network. Throughput is measured over the
+	 * time any fetch is waiting, so parallel fetches are not counted twice and the time a
+	 * fetch is blocked on its full queue is not counted at all.
+	 */
+	private synchronized void transferStarted(){
+		if(activeTransfers++==0){
+			activeSince = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Records that a fetch received bytes and stopped waiting for the network, and passes a
+	 * throughput sample to the estimator once enough bytes have arrived.
+	 */
+	private synchronized void transferEnded(long bytes){
+		long now = System.currentTimeMillis();
+		if(--activeTransfers==0){
+			meteredMillis += now - activeSince;
+		}
+		meteredBytes += bytes;
+		if(meteredBytes>=SAMPLE_BYTES){
+			if(activeTransfers>0){
+				meteredMillis += now - activeSince;
+				activeSince = now;
+			}
+			estimator.addSample(meteredBytes, meteredMillis);
+			meteredBytes = 0;
+			meteredMillis = 0;
+		}
+	}
+
+	/**
+	 * Reads an opened MediaSource as an InputStream.
+	 */
+	private static class SourceInputStream extends InputStream {
+
+		private final MediaSource source;
+
+		SourceInputStream(MediaSource source){
+			this.source = source;
+		}
+
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n;
+			while((n = source.read(b, 0, 1))==0){
+			}
+			return n<0 ? -1 : b[0] & 0xff;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			return source.read(b, off, len);
+		}
+
+		public int available() throws IOException {
+			return source.available();
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+package rimx.media.streaming;
+
+/**
+ * A media segment of an HLS media playlist.
+ */
+public class HlsSegment {
+
+	private final String uri;
+	private final long sequence;
+	private final long duration;
+	private long startTime;
+	private final long byteRangeOffset;
+	private final long byteRangeLength;
+	private final boolean discontinuity;
+
+	/**
+	 * @param uri	Absolute locator of the segment.
+	 * @param sequence	Media sequence number.
+	 * @param duration	Duration in microseconds.
+	 * @param startTime	Start of the segment on the playlist's timeline, in microseconds.
+	 * @param byteRangeOffset	Offset of the segment within the resource at uri, or -1 if it is the whole resource.
+	 * @param byteRangeLength	Length of the segment within the resource at uri, or -1 if it is the whole resource.
+	 * @param discontinuity	Whether an EXT-X-DISCONTINUITY tag precedes the segment.
+	 */
+	HlsSegment(String uri, long sequence, long duration, long startTime, long byteRangeOffset, long byteRangeLength, boolean discontinuity){
+		this.uri = uri;
+		this.sequence = sequence;
+		this.duration = duration;
+		this.startTime = startTime;
+		this.byteRangeOffset = byteRangeOffset;
+		this.byteRangeLength = byteRangeLength;
+		this.discontinuity = discontinuity;
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Gets the duration of the segment in microseconds.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Gets the start of the segment on the playlist's timeline, in microseconds.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	void setStartTime(long startTime) {
+		this.startTime = startTime;
+	}
+
+	/**
+	 * Gets the offset of the segment within the resource at getUri(), or -1 if the segment is the whole resource.
+	 */
+	public long getByteRangeOffset() {
+		return byteRangeOffset;
+	}
+
+	/**
+	 * Gets the length of the segment within the resource at getUri(), or -1 if the segment is the whole resource.
+	 */
+	public long getByteRangeLength() {
+		return byteRangeLength;
+	}
+
+	public boolean isDiscontinuity() {
+		return discontinuity;
+	}
+
+	public String toString() {
+		return "#" + sequence + " " + uri;
+	}
+
+}
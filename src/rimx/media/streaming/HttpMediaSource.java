@@ -0,0 +1,667 @@
+package rimx.media.streaming;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.HttpConnection;
+import javax.microedition.io.StreamConnection;
+
+/**
+ * A MediaSource reading an http:// or https:// locator with Range requests.
+ * <p>
+ * If the server ignores the Range header and answers 200 with the whole entity, the
+ * bytes before the requested offset are skipped so that the stream still starts at
+ * the requested offset. The ETag (or Last-Modified) of the first response is kept as
+ * validator; re-opening fails if the server later reports a different one, rather
+ * than splicing two versions of the media together.
+ * <p>
+ * When asked to stand by (see setStandby(boolean)), a socket to the origin is connected
+ * in the background and the next open() sends its request over that socket with
+ * SocketHttpConnection, so seeks and reconnects do not wait for connection setup. If
+ * the standby fails, open() falls back to a new HttpConnection.
+ * <p>
+ * Redirects are followed, and the URL the locator finally resolved to is kept in the
+ * RedirectCache for as long as the redirect response allows. Later opens request that
+ * URL directly and fall back to the locator if it fails.
+ * <p>
+ * With a range size (see setRangeSize(long)), the media is requested in bounded ranges
+ * rather than to the end, and read() requests the next range when one is used up. A
+ * standby connection for the next range is prepared while the last quarter of a range is
+ * read, so the next request does not wait for connection setup. Each connection thus ends
+ * cleanly after its range, and a lost connection only costs the rest of one range.
+ * setLeadingRange(long, boolean) bounds just the next request, e.g. to fetch the header
+ * of the media quickly. The range after a leading range can be requested over a second
+ * connection as soon as the leading range is open, so the bulk of the media is on its way
+ * while the header is read.
+ */
+public class HttpMediaSource implements MediaSource {
+
+	/** Default time a standby connection is kept open without being used, in ms */
+	public static final long DEFAULT_STANDBY_IDLE_BUDGET = 10000;
+	/** Maximum number of redirects followed by open() */
+	public static final int MAX_REDIRECTS = 5;
+
+	private final String locator;
+	private final ConnectionFactory factory;
+	private HttpConnection connection;
+	private InputStream in;
+	private long length = -1;
+	private String contentType;
+	private String validator;
+	/** False once the server answered a Range request with 200 */
+	private boolean rangeSupported = true;
+	/** How long a standby connection is kept, 0 disables standby connections */
+	private long standbyIdleBudget = DEFAULT_STANDBY_IDLE_BUDGET;
+	private ConnectionStandby standby;
+	/** Standby connections set up by standbys that have been replaced */
+	private int retiredStandbyConnections = 0;
+	private int standbyHits = 0;
+	/** URL the current response came from */
+	private String resolvedLocator;
+	/** Last byte requested by probe(), -1 to request up to the end of the media */
+	private long requestEnd = -1;
+	/** Most bytes requested at once, 0 to request up to the end of the media */
+	private long rangeSize = 0;
+	/** Most bytes requested by the next request only, 0 to use rangeSize */
+	private long leadingRange = 0;
+	/** Whether the range after the leading range is requested as soon as the leading range is open */
+	private boolean requestAfterLeading = false;
+	/** Offset of the next byte read() returns */
+	private long position = 0;
+	/** Last byte of the range being read, or -1 if it extends to the end of the media */
+	private long rangeEnd = -1;
+	/** Position from which a standby connection is prepared for the next range, -1 once it has been */
+	private long prepareNextRangeAt = -1;
+	/** The request for the range after a leading range, or null */
+	private BulkRequest bulk;
+
+	/**
+	 * @param locator	An http:// or https:// locator, including any BlackBerry connection parameters.
+	 * @param factory	Opens the HttpConnection.
+	 */
+	public HttpMediaSource(String locator, ConnectionFactory factory){
+		this.locator = locator;
+		this.factory = factory;
+	}
+
+	public void open(long offset) throws IOException {
+		close();
+		String cached = RedirectCache.get(locator);
+		if(cached!=null){
+			try{
+				openUrl(cached, offset);
+				return;
+			} catch(IOException e){
+				RedirectCache.remove(locator);	// e.g. a signed CDN URL that expired early; resolve again
+			}
+		}
+		openUrl(locator, offset);
+	}
+
+	/**
+	 * Requests only the first byte of the media, following redirects, to learn its length, type and
+	 * validator, whether the server honours Range requests and where the locator resolves to; then
+	 * connects a standby socket to that origin. The source is left closed, ready for an open() that
+	 * skips DNS, connection setup and redirects.
+	 * @throws IOException	If the media cannot be requested.
+	 */
+	public void probe() throws IOException {
+		requestEnd = 0;
+		try{
+			open(0);
+		} finally{
+			requestEnd = -1;
+			close();
+		}
+		setStandby(true);
+	}
+
+	/**
+	 * Opens url at offset, following redirects. Where a redirect led is recorded in the RedirectCache.
+	 */
+	private void openUrl(String url, long offset) throws IOException {
+		long lifetime = Long.MAX_VALUE;
+		for(int hops=0; ; hops++){
+			if(send(url, offset)){
+				resolvedLocator = url;
+				if(hops>0){
+					RedirectCache.put(locator, url, lifetime);
+				}
+				return;
+			}
+			try{
+				String location = connection.getHeaderField("Location");
+				if(location==null || hops>=MAX_REDIRECTS){
+					throw new IOException("HTTP " + connection.getResponseCode() + " without usable Location for " + locator);
+				}
+				lifetime = Math.min(lifetime, getRedirectLifetime(connection));
+				url = resolveLocation(url, location);
+			} finally{
+				close();
+			}
+		}
+	}
+
+	/**
+	 * Requests url from offset on, over the standby connection if there is one to its origin.
+	 * @return	true if the response body is open, false if the response is a redirect.
+	 */
+	private boolean send(String url, long offset) throws IOException {
+		StreamConnection warm = takeStandby(url);
+		if(warm!=null){
+			connection = new SocketHttpConnection(warm, url);
+			try{
+				return request(url, offset);
+			} catch(IOException e){
+				// the standby went stale or the response needs HttpConnection; start over
+			}
+		}
+		connection = (HttpConnection) factory.open(url, Connector.READ_WRITE);
+		return request(url, offset);
+	}
+
+	/**
+	 * Requests the media from offset on over connection and opens the response body.
+	 * @return	true if the response body is open, false if the response is a redirect. The connection is left open to read it.
+	 */
+	private boolean request(String url, long offset) throws IOException {
+		long end = requestEnd;
+		long size;
+		boolean leading;
+		boolean requestNext;
+		synchronized(this){
+			leading = leadingRange>0;
+			size = leading ? leadingRange : rangeSize;
+			requestNext = leading && requestAfterLeading;
+		}
+		boolean bounded = end<0 && size>0 && rangeSupported;
+		if(bounded){
+			end = length>0 ? Math.min(offset + size, length) - 1 : offset + size - 1;
+		}
+		try{
+			connection.setRequestProperty("Range", "bytes=" + offset + "-" + (end>=0 ? String.valueOf(end) : ""));
+			int code = connection.getResponseCode();
+			if(isRedirect(code)){
+				return false;
+			}
+			if(code==416 && bounded && length<0){
+				// the last range of media of unknown length ended exactly where this one starts
+				length = offset;
+				in = new ByteArrayInputStream(new byte[0]);
+				rangeEnd = -1;
+			} else if(code==HttpConnection.HTTP_PARTIAL){
+				long total = parseContentRangeTotal(connection.getHeaderField("Content-Range"));
+				if(total>0){
+					length = total;
+				} else if(length<0 && offset==0 && end<0){
+					length = connection.getLength();
+				}
+				in = connection.openInputStream();
+				rangeEnd = bounded ? end : -1;
+			} else if(code==HttpConnection.HTTP_OK){
+				rangeSupported = false;
+				length = connection.getLength();
+				in = connection.openInputStream();
+				IOUtil.skipFully(in, offset);
+				rangeEnd = -1;	// every further request would download the skipped bytes again
+			} else{
+				throw new IOException("HTTP " + code + " for " + url);
+			}
+			if(contentType==null){
+				contentType = connection.getType();
+			}
+			checkValidator();
+			synchronized(this){
+				leadingRange = 0;
+			}
+			position = offset;
+			prepareNextRangeAt = rangeEnd>=0 && (length<0 || rangeEnd<length-1) ? rangeEnd - (rangeEnd - offset + 1)/4 : -1;
+			if(requestNext && prepareNextRangeAt>=0){
+				prepareNextRangeAt = -1;
+				bulk = new BulkRequest(rangeEnd + 1);
+				bulk.start();
+			}
+			return true;
+		} catch(IOException e){
+			close();
+			throw e;
+		}
+	}
+
+	private static boolean isRedirect(int code){
+		return code==HttpConnection.HTTP_MOVED_PERM || code==HttpConnection.HTTP_MOVED_TEMP 
+			|| code==HttpConnection.HTTP_SEE_OTHER || code==HttpConnection.HTTP_TEMP_REDIRECT || code==308;
+	}
+
+	/**
+	 * Gets how long the target of a redirect response may be reused, from its Cache-Control
+	 * max-age or Expires header, or a default depending on whether the redirect is permanent.
+	 */
+	static long getRedirectLifetime(HttpConnection c) throws IOException {
+		String cacheControl = c.getHeaderField("Cache-Control");
+		if(cacheControl!=null){
+			cacheControl = cacheControl.toLowerCase();
+			if(cacheControl.indexOf("no-store")>=0 || cacheControl.indexOf("no-cache")>=0){
+				return 0;
+			}
+			int i = cacheControl.indexOf("max-age=");
+			if(i>=0 && (i==0 || cacheControl.charAt(i-1)!='-')){
+				int start = i + "max-age=".length();
+				int end = start;
+				while(end<cacheControl.length() && Character.isDigit(cacheControl.charAt(end))){
+					end++;
+				}
+				if(end>start){
+					return Long.parseLong(cacheControl.substring(start, end)) * 1000;
+				}
+			}
+		}
+		long expires = c.getHeaderFieldDate("Expires", 0);
+		if(expires>0){
+			long date = c.getHeaderFieldDate("Date", 0);
+			return expires - (date>0 ? date : System.currentTimeMillis());
+		}
+		int code = c.getResponseCode();
+		return code==HttpConnection.HTTP_MOVED_PERM || code==308 ? RedirectCache.PERMANENT_LIFETIME : RedirectCache.DEFAULT_LIFETIME;
+	}
+
+	/**
+	 * Resolves a Location header against the URL that returned it. The BlackBerry connection
+	 * parameters of base are carried over.
+	 */
+	static String resolveLocation(String base, String location){
+		int semi = base.indexOf(';');
+		String parameters = semi<0 ? "" : base.substring(semi);
+		if(semi>=0){
+			base = base.substring(0, semi);
+		}
+		location = location.trim();
+		String lower = location.toLowerCase();
+		String resolved;
+		if(lower.startsWith("http://") || lower.startsWith("https://")){
+			resolved = location;
+		} else{
+			int authorityStart = base.indexOf("://") + 3;
+			int pathStart = base.indexOf('/', authorityStart);
+			if(pathStart<0){
+				pathStart = base.length();
+			}
+			if(location.startsWith("//")){
+				resolved = base.substring(0, authorityStart-2) + location;
+			} else if(location.startsWith("/")){
+				resolved = base.substring(0, pathStart) + location;
+			} else{
+				String path = base.substring(pathStart);
+				int query = path.indexOf('?');
+				if(query>=0){
+					path = path.substring(0, query);
+				}
+				int slash = path.lastIndexOf('/');
+				path = slash<0 ? "/" : path.substring(0, slash+1);
+				resolved = base.substring(0, pathStart) + path + location;
+			}
+		}
+		return resolved + parameters;
+	}
+
+	/**
+	 * Gets the URL the media is currently read from: the locator, or where it redirected to.
+	 */
+	public String getResolvedLocator(){
+		return resolvedLocator==null ? locator : resolvedLocator;
+	}
+
+	/**
+	 * Sets how long a standby connection is kept open without being used. Shorter budgets waste less
+	 * radio time and are less likely to be dropped by the origin's idle timeout.
+	 * @param millis	Idle budget in ms; 0 disables standby connections.
+	 */
+	public void setStandbyIdleBudget(long millis){
+		if(millis<0){
+			throw new IllegalArgumentException("millis cannot be negative");
+		}
+		synchronized(this){
+			if(millis==standbyIdleBudget){
+				return;	// keep a standby that is already connected, e.g. by probe()
+			}
+			standbyIdleBudget = millis;
+			retireStandby();
+		}
+	}
+
+	private synchronized void retireStandby(){
+		if(standby!=null){
+			standby.release();
+			retiredStandbyConnections += standby.getOpenedCount();
+			standby = null;
+		}
+	}
+
+	/**
+	 * Takes the standby connection if it leads to the origin of url.
+	 */
+	private StreamConnection takeStandby(String url){
+		ConnectionStandby s;
+		synchronized(this){
+			s = standby;
+		}
+		if(s==null || !s.getSocketLocator().equals(SocketHttpConnection.getSocketLocator(url))){
+			return null;
+		}
+		StreamConnection c = s.take();
+		if(c!=null){
+			synchronized(this){
+				standbyHits++;
+			}
+		}
+		return c;
+	}
+
+	public long getStandbyIdleBudget(){
+		return standbyIdleBudget;
+	}
+
+	/**
+	 * Connects a socket to the origin the next open() will request from in the background, or releases it.
+	 */
+	public void setStandby(boolean standby){
+		ConnectionStandby s;
+		synchronized(this){
+			String target = RedirectCache.get(locator);
+			String socketLocator = SocketHttpConnection.getSocketLocator(target==null ? locator : target);
+			if(this.standby!=null && standby && !this.standby.getSocketLocator().equals(socketLocator)){
+				retireStandby();	// the locator now resolves to another origin
+			}
+			if(this.standby==null && standby && standbyIdleBudget>0){
+				if(socketLocator!=null){
+					this.standby = new ConnectionStandby(socketLocator, factory, standbyIdleBudget);
+				}
+			}
+			s = this.standby;
+		}
+		if(s==null){
+			return;
+		}
+		if(standby){
+			s.prepare();
+		} else{
+			s.release();
+		}
+	}
+
+	/**
+	 * Gets the number of opens that were served by a standby connection.
+	 */
+	public synchronized int getStandbyHits(){
+		return standbyHits;
+	}
+
+	/**
+	 * Gets the number of standby connections set up so far, used or not.
+	 */
+	public synchronized int getStandbyConnections(){
+		return retiredStandbyConnections + (standby==null ? 0 : standby.getOpenedCount());
+	}
+
+	/**
+	 * Records the validator of the first response and fails if a later response carries a different one.
+	 */
+	private void checkValidator() throws IOException {
+		String current = connection.getHeaderField("ETag");
+		if(current==null){
+			current = connection.getHeaderField("Last-Modified");
+		}
+		if(current==null){
+			return;
+		}
+		if(validator==null){
+			validator = current;
+		} else if(!validator.equals(current)){
+			throw new IOException("Media changed on the server: " + validator + " -> " + current);
+		}
+	}
+
+	/**
+	 * Gets the complete length from a "bytes first-last/total" Content-Range value, or -1.
+	 */
+	static long parseContentRangeTotal(String contentRange){
+		if(contentRange==null){
+			return -1;
+		}
+		int slash = contentRange.indexOf('/');
+		if(slash<0){
+			return -1;
+		}
+		try{
+			return Long.parseLong(contentRange.substring(slash+1).trim());
+		} catch(NumberFormatException e){
+			return -1;	// "*": length unknown
+		}
+	}
+
+	/**
+	 * Sets how many bytes are requested at once. Takes effect with the next request; bounded
+	 * ranges are only requested from servers that honour Range.
+	 * @param bytes	The range size, or 0 to request up to the end of the media.
+	 */
+	public synchronized void setRangeSize(long bytes){
+		if(bytes<0){
+			throw new IllegalArgumentException("bytes cannot be negative");
+		}
+		rangeSize = bytes;
+	}
+
+	public synchronized long getRangeSize(){
+		return rangeSize;
+	}
+
+	/**
+	 * Gets how many bytes of the range being read have not been read yet. Closing the source while
+	 * some are left throws away what the origin has already sent of them.
+	 * @return	The bytes left, or -1 if the source is closed or the request runs to the end of the media.
+	 */
+	public long getRangeRemaining(){
+		if(in==null || rangeEnd<0){
+			return -1;
+		}
+		return Math.max(0, rangeEnd - position + 1);
+	}
+
+	/**
+	 * Bounds only the next request to bytes; the requests after it use the range size again.
+	 * @param bytes	The size of the leading range, or 0 for none.
+	 * @param requestNext	Whether the range after the leading one is requested over a second connection as soon
+	 * 	as the leading one is open, rather than when it is used up.
+	 */
+	public synchronized void setLeadingRange(long bytes, boolean requestNext){
+		if(bytes<0){
+			throw new IllegalArgumentException("bytes cannot be negative");
+		}
+		leadingRange = bytes;
+		requestAfterLeading = requestNext;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(in==null){
+			throw new IOException("HttpMediaSource is not open");
+		}
+		if(rangeEnd>=0 && position>rangeEnd){
+			if(length>0 && position>=length){
+				return -1;
+			}
+			BulkRequest request = bulk;
+			bulk = null;
+			HttpMediaSource next = request!=null && request.offset==position ? request.await() : null;
+			if(next!=null){
+				adopt(next);
+			} else{
+				if(request!=null){
+					request.cancel();
+				}
+				open(position);	// the next range, over the connection prepared while this one was read
+			}
+		}
+		if(rangeEnd>=0){
+			len = (int) Math.min(len, rangeEnd - position + 1);
+		}
+		int n = in.read(b, off, len);
+		if(n>0){
+			position += n;
+			if(prepareNextRangeAt>=0 && position>=prepareNextRangeAt){
+				prepareNextRangeAt = -1;
+				setStandby(true);
+			}
+		} else if(n<0 && rangeEnd>=0){
+			if(length<0){
+				length = position;	// a range cut short by the end of media of unknown length
+			} else if(position<length){
+				throw new IOException("Connection closed at " + position + " before the end of the range at " + rangeEnd);
+			}
+		}
+		return n;
+	}
+
+	public int available() throws IOException {
+		return in==null ? 0 : in.available();
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public String getValidator() {
+		return validator;
+	}
+
+	/**
+	 * HTTP sources are seekable when their length is known. Sources whose server ignores
+	 * Range stay seekable, but every open() downloads and discards the skipped bytes.
+	 */
+	public boolean isSeekable() {
+		return length>0;
+	}
+
+	/**
+	 * Whether the server honoured Range requests so far.
+	 */
+	public boolean isRangeSupported() {
+		return rangeSupported;
+	}
+
+	public boolean isLocal() {
+		return false;
+	}
+
+	public String getLocator() {
+		return locator;
+	}
+
+	/**
+	 * Continues with the response another source opened, closing the current one.
+	 */
+	private void adopt(HttpMediaSource next) throws IOException {
+		close();
+		connection = next.connection;
+		in = next.in;
+		resolvedLocator = next.resolvedLocator;
+		position = next.position;
+		rangeEnd = next.rangeEnd;
+		prepareNextRangeAt = next.prepareNextRangeAt;
+		if(length<0){
+			length = next.length;
+		}
+		next.connection = null;
+		next.in = null;
+	}
+
+	public void close() throws IOException {
+		BulkRequest b = bulk;
+		bulk = null;
+		if(b!=null){
+			b.cancel();
+		}
+		try{
+			if(in!=null){
+				in.close();
+			}
+		} finally{
+			in = null;
+			if(connection!=null){
+				connection.close();
+				connection = null;
+			}
+		}
+	}
+
+	/**
+	 * Requests the range after a leading range over a connection of its own, in the background.
+	 */
+	private class BulkRequest extends Thread {
+		final long offset;
+		private final HttpMediaSource source;
+		private boolean done = false;
+		private boolean cancelled = false;
+		private boolean failed = false;
+
+		BulkRequest(long offset){
+			this.offset = offset;
+			source = new HttpMediaSource(locator, factory);
+			source.standbyIdleBudget = 0;
+			source.length = length;
+			source.contentType = contentType;
+			source.validator = validator;
+			source.rangeSize = getRangeSize();
+		}
+
+		public void run(){
+			boolean opened = false;
+			try{
+				source.open(offset);
+				opened = true;
+			} catch(IOException e){
+				// read() opens the range itself
+			}
+			synchronized(this){
+				done = true;
+				failed = !opened;
+				notifyAll();
+				if(!cancelled || !opened){
+					return;
+				}
+			}
+			closeQuietly();
+		}
+
+		/**
+		 * Waits for the request to be answered.
+		 * @return	the source with the response open, or null if the request failed.
+		 */
+		synchronized HttpMediaSource await(){
+			while(!done){
+				try { wait(); } catch(InterruptedException e){ }
+			}
+			return failed ? null : source;
+		}
+
+		void cancel(){
+			synchronized(this){
+				cancelled = true;
+				if(!done){
+					return;	// run() closes the response once it is open
+				}
+			}
+			closeQuietly();
+		}
+
+		private void closeQuietly(){
+			try { source.close(); } catch(IOException e){ }
+		}
+	}
+
+}
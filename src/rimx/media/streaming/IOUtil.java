@@ -0,0 +1,36 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream helpers shared by the MediaSource implementations.
+ */
+final class IOUtil {
+	
+	private IOUtil(){		
+	}
+	
+	/**
+	 * Skips exactly n bytes of in, reading when skip() makes no progress.
+	 * @throws IOException	If the stream ends before n bytes are skipped.
+	 */
+	static void skipFully(InputStream in, long n) throws IOException {
+		byte[] scratch = null;
+		while(n>0){
+			long skipped = in.skip(n);
+			if(skipped<=0){
+				if(scratch==null){
+					scratch = new byte[(int) Math.min(n, 4096)];
+				}
+				int read = in.read(scratch, 0, (int) Math.min(n, scratch.length));
+				if(read<0){
+					throw new IOException("Unexpected end of stream while skipping");
+				}
+				skipped = read;
+			}
+			n -= skipped;
+		}
+	}
+	
+}
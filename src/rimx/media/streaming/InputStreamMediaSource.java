@@ -0,0 +1,101 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A MediaSource reading from an InputStream supplied by the application. It can only
+ * be read forward: open() succeeds only at the current position of the stream, and
+ * not at all once the source has been closed.
+ */
+public class InputStreamMediaSource implements MediaSource {
+	
+	private final InputStream in;
+	/** Number of bytes read from in so far */
+	private long position = 0;
+	private boolean closed = false;
+	
+	public InputStreamMediaSource(InputStream in){
+		if(in==null){
+			throw new IllegalArgumentException("InputStream cannot be null");
+		}
+		this.in = in;
+	}
+
+	public void open(long offset) throws IOException {
+		if(closed){
+			throw new IOException("InputStream is closed");
+		}
+		if(offset!=position){
+			throw new IOException("InputStream is not seekable: position " + position + ", requested " + offset);
+		}
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = in.read(b, off, len);
+		if(read>0){
+			position += read;
+		}
+		return read;
+	}
+
+	public int available() throws IOException {
+		return in.available();
+	}
+
+	public long getLength() {
+		return -1;
+	}
+
+	public String getContentType() {
+		return null;
+	}
+
+	public String getValidator() {
+		return null;
+	}
+
+	public boolean isSeekable() {
+		return false;
+	}
+
+	public boolean isLocal() {
+		return false;
+	}
+
+	public String getLocator() {
+		return "InputStream";
+	}
+
+	/**
+	 * Ignored; the stream cannot be re-opened.
+	 */
+	public void setStandby(boolean standby) {
+	}
+
+	/**
+	 * Ignored; the stream is read as it comes.
+	 */
+	public void setRangeSize(long bytes) {
+	}
+
+	/**
+	 * Ignored; the stream is read as it comes.
+	 */
+	public void setLeadingRange(long bytes, boolean requestNext) {
+	}
+
+	public long getRangeRemaining() {
+		return -1;
+	}
+
+	/**
+	 * Closes the InputStream, which releases a read() blocked on it. The stream cannot be
+	 * re-opened afterwards, so a StreamingPlayer reading it does not reconnect.
+	 */
+	public void close() throws IOException {
+		closed = true;
+		in.close();
+	}
+	
+}
@@ -0,0 +1,314 @@
+package rimx.media.streaming;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+
+/**
+ * A parsed HLS (M3U8) playlist: either a master playlist listing variant streams, or a
+ * media playlist listing segments.
+ * <p>
+ * Only what StreamingPlayer can play is supported: unencrypted segments that are
+ * self-contained (MPEG-2 TS, or audio elementary streams). Playlists using EXT-X-KEY
+ * encryption or EXT-X-MAP initialization sections are rejected with an IOException.
+ */
+public class M3U8Playlist {
+
+	/** Largest playlist accepted, in bytes */
+	private static final int MAX_PLAYLIST_SIZE = 512 * 1024;
+
+	private final String url;
+	private final Vector variants = new Vector();
+	private final Vector segments = new Vector();
+	private long targetDuration = -1;
+	private long mediaSequence = 0;
+	private boolean endList = false;
+
+	private M3U8Playlist(String url){
+		this.url = url;
+	}
+
+	/**
+	 * Parses a playlist.
+	 * @param url	Locator the playlist was read from; relative URIs are resolved against it.
+	 * @param in	The playlist. It is read to its end but not closed.
+	 * @throws IOException	If the playlist cannot be read, is not an M3U8 playlist or uses unsupported features.
+	 */
+	public static M3U8Playlist parse(String url, InputStream in) throws IOException {
+		M3U8Playlist playlist = new M3U8Playlist(url);
+		Vector lines = readLines(in);
+		if(lines.isEmpty() || !((String) lines.elementAt(0)).startsWith("#EXTM3U")){
+			throw new IOException("Not an M3U8 playlist: " + url);
+		}
+
+		long duration = -1;
+		long startTime = 0;
+		long byteRangeOffset = -1;
+		long byteRangeLength = -1;
+		long nextByteRangeOffset = 0;
+		boolean discontinuity = false;
+		int bandwidth = -1;
+		String resolution = null;
+		String codecs = null;
+		boolean variantPending = false;
+		for(int i=1; i<lines.size(); i++){
+			String line = (String) lines.elementAt(i);
+			if(line.length()==0){
+				continue;
+			}
+			if(line.startsWith("#")){
+				if(line.startsWith("#EXTINF:")){
+					String value = line.substring("#EXTINF:".length());
+					int comma = value.indexOf(',');
+					duration = parseMicros(comma<0 ? value : value.substring(0, comma), line);
+				} else if(line.startsWith("#EXT-X-TARGETDURATION:")){
+					playlist.targetDuration = parseMicros(line.substring("#EXT-X-TARGETDURATION:".length()), line);
+				} else if(line.startsWith("#EXT-X-MEDIA-SEQUENCE:")){
+					playlist.mediaSequence = parseLong(line.substring("#EXT-X-MEDIA-SEQUENCE:".length()), line);
+				} else if(line.startsWith("#EXT-X-BYTERANGE:")){
+					String value = line.substring("#EXT-X-BYTERANGE:".length());
+					int at = value.indexOf('@');
+					byteRangeLength = parseLong(at<0 ? value : value.substring(0, at), line);
+					byteRangeOffset = at<0 ? nextByteRangeOffset : parseLong(value.substring(at+1), line);
+				} else if(line.startsWith("#EXT-X-DISCONTINUITY") && !line.startsWith("#EXT-X-DISCONTINUITY-SEQUENCE")){
+					discontinuity = true;
+				} else if(line.startsWith("#EXT-X-ENDLIST")){
+					playlist.endList = true;
+				} else if(line.startsWith("#EXT-X-KEY:")){
+					String method = getAttribute(line.substring("#EXT-X-KEY:".length()), "METHOD");
+					if(method!=null && !"NONE".equals(method)){
+						throw new IOException("Encrypted HLS segments are not supported (" + method + "): " + url);
+					}
+				} else if(line.startsWith("#EXT-X-MAP:")){
+					throw new IOException("HLS initialization sections (EXT-X-MAP) are not supported: " + url);
+				} else if(line.startsWith("#EXT-X-STREAM-INF:")){
+					String attributes = line.substring("#EXT-X-STREAM-INF:".length());
+					String value = getAttribute(attributes, "BANDWIDTH");
+					bandwidth = value==null ? -1 : (int) parseLong(value, line);
+					resolution = getAttribute(attributes, "RESOLUTION");
+					codecs = getAttribute(attributes, "CODECS");
+					variantPending = true;
+				}
+				// other tags do not affect playback
+				continue;
+			}
+
+			String uri = HttpMediaSource.resolveLocation(url, line);
+			if(variantPending){
+				playlist.variants.addElement(new Rendition(uri, bandwidth, resolution, codecs));
+				variantPending = false;
+				continue;
+			}
+			if(duration<0){
+				throw new IOException("Segment without EXTINF in " + url + ": " + line);
+			}
+			long sequence = playlist.mediaSequence + playlist.segments.size();
+			playlist.segments.addElement(new HlsSegment(uri, sequence, duration, startTime, byteRangeOffset, byteRangeLength, discontinuity));
+			startTime += duration;
+			if(byteRangeOffset>=0){
+				nextByteRangeOffset = byteRangeOffset + byteRangeLength;
+			}
+			duration = -1;
+			byteRangeOffset = -1;
+			byteRangeLength = -1;
+			discontinuity = false;
+		}
+		if(playlist.variants.isEmpty() && playlist.segments.isEmpty() && playlist.endList){
+			throw new IOException("Empty playlist: " + url);
+		}
+		return playlist;
+	}
+
+	/**
+	 * Reads in to its end and splits it into lines without their terminators.
+	 */
+	private static Vector readLines(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] chunk = new byte[2048];
+		int n;
+		while((n = in.read(chunk, 0, chunk.length))!=-1){
+			bytes.write(chunk, 0, n);
+			if(bytes.size()>MAX_PLAYLIST_SIZE){
+				throw new IOException("Playlist larger than " + MAX_PLAYLIST_SIZE + " bytes");
+			}
+		}
+		String text = new String(bytes.toByteArray(), "UTF-8");
+		Vector lines = new Vector();
+		int start = 0;
+		while(start<text.length()){
+			int end = text.indexOf('\n', start);
+			if(end<0){
+				end = text.length();
+			}
+			String line = text.substring(start, end);
+			if(line.endsWith("\r")){
+				line = line.substring(0, line.length()-1);
+			}
+			lines.addElement(line.trim());
+			start = end + 1;
+		}
+		if(!lines.isEmpty() && ((String) lines.elementAt(0)).startsWith("\uFEFF")){
+			lines.setElementAt(((String) lines.elementAt(0)).substring(1), 0);
+		}
+		return lines;
+	}
+
+	/**
+	 * Gets an attribute from an attribute list such as BANDWIDTH=800000,CODECS="avc1.4d401e,mp4a.40.2".
+	 * @return	the value without quotes, or null if the attribute is not in the list.
+	 */
+	static String getAttribute(String attributes, String name){
+		int i = 0;
+		while(i<attributes.length()){
+			int eq = attributes.indexOf('=', i);
+			if(eq<0){
+				return null;
+			}
+			String key = attributes.substring(i, eq).trim();
+			int end;
+			String value;
+			if(eq+1<attributes.length() && attributes.charAt(eq+1)=='"'){
+				int close = attributes.indexOf('"', eq+2);
+				if(close<0){
+					close = attributes.length();
+				}
+				value = attributes.substring(eq+2, close);
+				end = attributes.indexOf(',', close);
+			} else{
+				end = attributes.indexOf(',', eq+1);
+				value = attributes.substring(eq+1, end<0 ? attributes.length() : end).trim();
+			}
+			if(key.equals(name)){
+				return value;
+			}
+			if(end<0){
+				return null;
+			}
+			i = end + 1;
+		}
+		return null;
+	}
+
+	/**
+	 * Parses a decimal number of seconds, such as 9.009, into microseconds.
+	 */
+	private static long parseMicros(String seconds, String line) throws IOException {
+		seconds = seconds.trim();
+		int dot = seconds.indexOf('.');
+		long whole = parseLong(dot<0 ? seconds : seconds.substring(0, dot), line);
+		long fraction = 0;
+		if(dot>=0){
+			String digits = seconds.substring(dot+1);
+			long scale = 100000;
+			for(int i=0; i<digits.length() && scale>0; i++, scale/=10){
+				char c = digits.charAt(i);
+				if(c<'0' || c>'9'){
+					throw new IOException("Malformed playlist line: " + line);
+				}
+				fraction += (c - '0') * scale;
+			}
+		}
+		return whole * 1000000 + fraction;
+	}
+
+	private static long parseLong(String value, String line) throws IOException {
+		try{
+			return Long.parseLong(value.trim());
+		} catch(NumberFormatException e){
+			throw new IOException("Malformed playlist line: " + line);
+		}
+	}
+
+	/**
+	 * Gets the locator the playlist was read from.
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Whether this is a master playlist, listing variants rather than segments.
+	 */
+	public boolean isMaster() {
+		return !variants.isEmpty();
+	}
+
+	/**
+	 * Gets the variant streams of a master playlist, in playlist order.
+	 * @return	Vector of Rendition, empty for a media playlist.
+	 */
+	public Vector getVariants() {
+		return variants;
+	}
+
+	/**
+	 * Gets the segments of a media playlist, in playlist order.
+	 * @return	Vector of HlsSegment, empty for a master playlist.
+	 */
+	public Vector getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Gets the segment with a media sequence number.
+	 * @return	the segment, or null if it is not in this playlist.
+	 */
+	public HlsSegment getSegment(long sequence) {
+		long index = sequence - mediaSequence;
+		if(index<0 || index>=segments.size()){
+			return null;
+		}
+		return (HlsSegment) segments.elementAt((int) index);
+	}
+
+	/**
+	 * Gets the segment playing at a time on the playlist's timeline. Times past the end map to the last segment.
+	 * @return	the segment, or null if the playlist has no segments.
+	 */
+	public HlsSegment getSegmentAt(long time) {
+		HlsSegment found = null;
+		for(int i=0; i<segments.size(); i++){
+			HlsSegment s = (HlsSegment) segments.elementAt(i);
+			if(found!=null && s.getStartTime()>time){
+				break;
+			}
+			found = s;
+		}
+		return found;
+	}
+
+	/**
+	 * Gets the EXT-X-TARGETDURATION in microseconds, or -1 if the playlist does not state it.
+	 */
+	public long getTargetDuration() {
+		return targetDuration;
+	}
+
+	/**
+	 * Gets the media sequence number of the first segment.
+	 */
+	public long getMediaSequence() {
+		return mediaSequence;
+	}
+
+	/**
+	 * Whether no segments will be added to the playlist (EXT-X-ENDLIST), i.e. it is not live.
+	 */
+	public boolean isEndList() {
+		return endList;
+	}
+
+	/**
+	 * Gets the total duration of the segments in microseconds.
+	 */
+	public long getDuration() {
+		if(segments.isEmpty()){
+			return 0;
+		}
+		HlsSegment last = (HlsSegment) segments.lastElement();
+		HlsSegment first = (HlsSegment) segments.firstElement();
+		return last.getStartTime() + last.getDuration() - first.getStartTime();
+	}
+
+}
@@ -0,0 +1,242 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+/**
+ * Speculative work on a locator before the user asks to play it: a background request
+ * for its first byte finds its length, type, validator, whether the server honours
+ * Range requests and where it redirects to (see HttpMediaSource.probe()), and leaves a
+ * socket to the final origin connected.
+ * <p>
+ * A StreamingPlayer created for a probed locator takes over the probed HttpMediaSource
+ * when it is realized, so its first request skips DNS, connection setup and redirects.
+ * Probes are kept for MAX_AGE and shared by all StreamingPlayers of the application.
+ */
+public final class MediaProbe implements Runnable {
+
+	/** How long a completed probe is handed to StreamingPlayers, in ms */
+	public static final long MAX_AGE = 60000;
+	/** Maximum number of probes kept */
+	public static final int MAX_ENTRIES = 4;
+
+	/** locator -> MediaProbe */
+	private static final Hashtable probes = new Hashtable();
+
+	private final String locator;
+	private final ConnectionFactory factory;
+	private final HttpMediaSource source;
+	private boolean done = false;
+	private IOException error;
+	/** When the probe completed */
+	private long probedAt;
+	/** How long the probe took, in ms */
+	private long probeMillis;
+
+	private MediaProbe(String locator, ConnectionFactory factory, long standbyIdleBudget){
+		this.locator = locator;
+		this.factory = factory;
+		this.source = new HttpMediaSource(locator, factory);
+		source.setStandbyIdleBudget(standbyIdleBudget);
+	}
+
+	/**
+	 * Starts probing an http:// or https:// locator in the background, unless a probe of it is
+	 * running or recent. A recent probe gets its standby connection refreshed instead.
+	 * @param locator	The locator, including any BlackBerry connection parameters.
+	 * @param factory	Opens the connections. StreamingPlayers only take over probes made with an equal factory.
+	 * @param standbyIdleBudget	How long the standby connection is kept open unused, in ms; use the
+	 * 	StreamingPlayer's standbyIdleTime so that it keeps the connection.
+	 * @return	the probe.
+	 */
+	public static MediaProbe probe(String locator, ConnectionFactory factory, long standbyIdleBudget){
+		MediaProbe p;
+		boolean refresh;
+		synchronized(probes){
+			p = (MediaProbe) probes.get(locator);
+			if(p!=null && !p.isDone() && p.factory.equals(factory)){
+				return p;	// still running
+			}
+			refresh = p!=null && p.isUsable(factory);
+			if(!refresh){
+				if(p!=null){
+					p.discard();
+				}
+				if(probes.size()>=MAX_ENTRIES){
+					evict();
+				}
+				p = new MediaProbe(locator, factory, standbyIdleBudget);
+				probes.put(locator, p);
+			}
+		}
+		if(refresh){
+			p.source.setStandby(true);
+		} else{
+			new Thread(p).start();
+		}
+		return p;
+	}
+
+	/**
+	 * Gets the probe of a locator.
+	 * @return	the probe, or null if the locator has not been probed or the probe expired.
+	 */
+	public static MediaProbe get(String locator){
+		synchronized(probes){
+			MediaProbe p = (MediaProbe) probes.get(locator);
+			if(p!=null && p.isExpired()){
+				probes.remove(locator);
+				p.discard();
+				return null;
+			}
+			return p;
+		}
+	}
+
+	/**
+	 * Removes the completed probe of a locator and hands over its source.
+	 * @return	the probed source, not open, or null if there is no usable probe made with factory.
+	 */
+	static HttpMediaSource take(String locator, ConnectionFactory factory){
+		synchronized(probes){
+			MediaProbe p = (MediaProbe) probes.get(locator);
+			if(p==null || !p.isUsable(factory)){
+				return null;
+			}
+			probes.remove(locator);
+			return p.source;
+		}
+	}
+
+	/**
+	 * Forgets all probes and releases their connections.
+	 */
+	public static void clear(){
+		synchronized(probes){
+			Enumeration e = probes.elements();
+			while(e.hasMoreElements()){
+				((MediaProbe) e.nextElement()).discard();
+			}
+			probes.clear();
+		}
+	}
+
+	/**
+	 * Removes the oldest probe.
+	 */
+	private static void evict(){
+		MediaProbe oldest = null;
+		Enumeration e = probes.elements();
+		while(e.hasMoreElements()){
+			MediaProbe p = (MediaProbe) e.nextElement();
+			if(oldest==null || p.getProbedAt()<oldest.getProbedAt()){
+				oldest = p;
+			}
+		}
+		if(oldest!=null){
+			probes.remove(oldest.locator);
+			oldest.discard();
+		}
+	}
+
+	public void run(){
+		long started = System.currentTimeMillis();
+		IOException failure = null;
+		try{
+			source.probe();
+		} catch(IOException e){
+			failure = e;
+		} catch(Throwable t){
+			failure = new IOException(t.toString());
+		}
+		synchronized(this){
+			error = failure;
+			probedAt = System.currentTimeMillis();
+			probeMillis = probedAt - started;
+			done = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits for the probe to complete.
+	 * @param timeout	Longest wait in ms.
+	 * @return	true if the probe completed.
+	 */
+	public synchronized boolean await(long timeout){
+		long deadline = System.currentTimeMillis() + timeout;
+		while(!done){
+			long left = deadline - System.currentTimeMillis();
+			if(left<=0){
+				return false;
+			}
+			try { wait(left); } catch(InterruptedException e){ }
+		}
+		return true;
+	}
+
+	private synchronized boolean isUsable(ConnectionFactory factory){
+		return done && error==null && !isExpired() && this.factory.equals(factory);
+	}
+
+	private synchronized boolean isExpired(){
+		return done && System.currentTimeMillis() - probedAt > MAX_AGE;
+	}
+
+	private synchronized long getProbedAt(){
+		return done ? probedAt : Long.MAX_VALUE;
+	}
+
+	private void discard(){
+		source.setStandby(false);
+	}
+
+	public String getLocator(){
+		return locator;
+	}
+
+	public synchronized boolean isDone(){
+		return done;
+	}
+
+	/**
+	 * Gets why the probe failed.
+	 * @return	the failure, or null if the probe succeeded or is still running.
+	 */
+	public synchronized IOException getError(){
+		return error;
+	}
+
+	/**
+	 * Gets the URL the locator redirected to, or the locator itself.
+	 */
+	public String getResolvedLocator(){
+		return source.getResolvedLocator();
+	}
+
+	/**
+	 * Gets the length of the media, or -1 if it is not known.
+	 */
+	public long getLength(){
+		return source.getLength();
+	}
+
+	public String getContentType(){
+		return source.getContentType();
+	}
+
+	public boolean isRangeSupported(){
+		return source.isRangeSupported();
+	}
+
+	/**
+	 * Gets how long the probe took, including DNS, connection setup and redirects: roughly what
+	 * a first request for the media costs on the current network.
+	 * @return	the time in ms, or -1 while the probe is running.
+	 */
+	public synchronized long getProbeMillis(){
+		return done ? probeMillis : -1;
+	}
+
+}
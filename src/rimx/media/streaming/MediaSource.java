@@ -0,0 +1,107 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+
+/**
+ * A source of media bytes for StreamingPlayer. StreamingPlayer's Downloader and seek
+ * logic only talk to this interface, so new kinds of sources (caches, parallel range
+ * fetchers, test sources) and strategies layered on top of an existing source (see
+ * FilterMediaSource) can be added without changing StreamingPlayer.
+ * <p>
+ * A MediaSource is opened at a byte offset and then read sequentially until it is
+ * closed or re-opened at another offset.
+ */
+public interface MediaSource {
+
+	/**
+	 * Opens this source so that the next read() returns the byte at offset. If the source
+	 * is already open it is closed first.
+	 * @param offset	Position in the media, between 0 and getLength().
+	 * @throws IOException	If the source cannot be opened at offset, or the media changed since it was last opened.
+	 */
+	public void open(long offset) throws IOException;
+	
+	/**
+	 * Reads up to len bytes. Blocks until at least one byte is available.
+	 * @return	Number of bytes read, or -1 at the end of the media.
+	 * @throws IOException	If the source is not open or the transfer failed.
+	 */
+	public int read(byte[] b, int off, int len) throws IOException;
+	
+	/**
+	 * Gets the number of bytes that can be read without blocking.
+	 */
+	public int available() throws IOException;
+	
+	/**
+	 * Gets the length of the media in bytes.
+	 * @return	length of the media, or -1 if unknown.
+	 */
+	public long getLength();
+	
+	/**
+	 * Gets the content type reported by the source.
+	 * @return	the content type, or null if unknown.
+	 */
+	public String getContentType();
+	
+	/**
+	 * Gets a value that changes whenever the media behind this source changes, e.g. an HTTP ETag.
+	 * @return	the validator, or null if the source has none.
+	 */
+	public String getValidator();
+	
+	/**
+	 * Whether this source can be opened at an arbitrary offset.
+	 */
+	public boolean isSeekable();
+	
+	/**
+	 * Whether re-opening this source is cheap (e.g. local storage), so that seeks outside
+	 * the buffer do not need to be avoided.
+	 */
+	public boolean isLocal();
+	
+	/**
+	 * Gets the locator of the media, used for logging and to identify the media.
+	 */
+	public String getLocator();
+	
+	/**
+	 * Hints whether this source is likely to be re-opened soon. StreamingPlayer passes true
+	 * when a seek or a reconnect may follow and false when it is closed. Sources for which
+	 * opening is expensive may prepare a connection ahead of time; others ignore the hint.
+	 */
+	public void setStandby(boolean standby);
+	
+	/**
+	 * Hints how many bytes to request at once. Sources that request the media in ranges bound
+	 * their next requests to bytes, so that each connection ends after a range rather than
+	 * at the end of the media; others ignore the hint.
+	 * @param bytes	The range size, or 0 to request up to the end of the media.
+	 */
+	public void setRangeSize(long bytes);
+	
+	/**
+	 * Hints that only the first bytes of the media are needed quickly, e.g. its header. Sources 
+	 * that request the media in ranges bound just the next request to bytes and may request the 
+	 * range after it over a second connection alongside; others ignore the hint.
+	 * @param bytes	The size of the leading range, or 0 for none.
+	 * @param requestNext	Whether the rest is requested as soon as the leading range is open, rather than when it is used up.
+	 */
+	public void setLeadingRange(long bytes, boolean requestNext);
+	
+	/**
+	 * Gets how many bytes of the range being read have not been read yet. Closing the source
+	 * while some are left throws away what has already been sent of them.
+	 * @return	The bytes left, or -1 if the source is closed or does not read the media in bounded ranges.
+	 */
+	public long getRangeRemaining();
+	
+	/**
+	 * Closes this source, releasing a read() blocked on it. It may be opened again, unless
+	 * it reads a stream that cannot be re-opened, like InputStreamMediaSource.
+	 */
+	public void close() throws IOException;
+	
+}
@@ -0,0 +1,54 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+
+/**
+ * A FilterMediaSource that measures the throughput of the wrapped source and passes it
+ * to a BandwidthEstimator, so that the next rendition can be selected from it. Only the
+ * time spent in open() and read() is measured, not the time the reader spends elsewhere.
+ */
+class MeteredMediaSource extends FilterMediaSource {
+
+	/** Number of bytes transferred per throughput sample */
+	private static final int SAMPLE_BYTES = 64 * 1024;
+
+	private final BandwidthEstimator estimator;
+	private long meteredBytes = 0;
+	private long meteredMillis = 0;
+
+	MeteredMediaSource(MediaSource source, BandwidthEstimator estimator){
+		super(source);
+		this.estimator = estimator;
+	}
+
+	public void open(long offset) throws IOException {
+		long start = System.currentTimeMillis();
+		try{
+			source.open(offset);
+		} finally{
+			meter(0, System.currentTimeMillis() - start);
+		}
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		long start = System.currentTimeMillis();
+		int read = -1;
+		try{
+			read = source.read(b, off, len);
+		} finally{
+			meter(Math.max(0, read), System.currentTimeMillis() - start);
+		}
+		return read;
+	}
+
+	private synchronized void meter(long bytes, long millis){
+		meteredBytes += bytes;
+		meteredMillis += millis;
+		if(meteredBytes>=SAMPLE_BYTES){
+			estimator.addSample(meteredBytes, meteredMillis);
+			meteredBytes = 0;
+			meteredMillis = 0;
+		}
+	}
+
+}
@@ -0,0 +1,608 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+
+/**
+ * Downloads the first bytes of media the user is likely to play next into local storage, in
+ * the background and without a Player, e.g. for the videos a feed shows. A StreamingPlayer
+ * created later for a prefetched locator reads those bytes through a CachedMediaSource, so it
+ * fills its initial buffer without waiting for the network.
+ * <p>
+ * If the leading bytes are an MP4 whose index (the moov box) follows the media data, the
+ * index at the end of the media is fetched as well, up to getMaxIndexBytes(), since the Player
+ * reads it before it starts.
+ * <p>
+ * Prefetches are queued and run at most getMaxConcurrent() at a time. Together they download
+ * no faster than getMaxBandwidth(), and as BACKGROUND flows of the default BandwidthScheduler
+ * they only use what the StreamingPlayers leave of the link. The
+ * prefetched bytes are kept in files in getDirectory() for the rest of the session, for at
+ * most MAX_ENTRIES locators. A StreamingPlayer created while its locator is still being
+ * prefetched cancels the prefetch and streams as usual. The service is shared by all
+ * StreamingPlayers of the application.
+ */
+public final class PrefetchService {
+
+	/** Default directory of the prefetched files */
+	public static final String DEFAULT_DIRECTORY = "file:///store/home/user/prefetch/";
+	/** Default number of prefetches run at once */
+	public static final int DEFAULT_MAX_CONCURRENT = 2;
+	/** Default bandwidth shared by the running prefetches, in bytes per second */
+	public static final int DEFAULT_MAX_BANDWIDTH = 65536;
+	/** Default size of the largest trailing index fetched, in bytes */
+	public static final long DEFAULT_MAX_INDEX_BYTES = 1048576;
+	/** Maximum number of locators whose prefetched bytes are kept */
+	public static final int MAX_ENTRIES = 8;
+
+	/** Bytes copied at once */
+	private static final int COPY_CHUNK = 8192;
+
+	/** Guards the settings, the entries and the queue */
+	private static final Object lock = new Object();
+	/** locator -> Entry */
+	private static final Hashtable entries = new Hashtable();
+	/** Entries waiting to be fetched */
+	private static final Vector queue = new Vector();
+	private static String directory = DEFAULT_DIRECTORY;
+	private static int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+	private static int maxBandwidth = DEFAULT_MAX_BANDWIDTH;
+	private static long maxIndexBytes = DEFAULT_MAX_INDEX_BYTES;
+	/** Number of the next file name; numbering restarts each session, so the names overwrite the files of earlier sessions */
+	private static int nextName = 0;
+	/** Number of worker threads running */
+	private static int workers = 0;
+	/** Time from which the bandwidth cap lets the prefetches download again */
+	private static long throttledUntil = 0;
+
+	private PrefetchService(){
+	}
+
+	/**
+	 * Queues the first bytes of an http:// or https:// locator for download, unless they are
+	 * already being prefetched or have been.
+	 * @param locator	The locator, including any BlackBerry connection parameters.
+	 * @param factory	Opens the connections.
+	 * @param bytes	How many leading bytes to fetch.
+	 */
+	public static void prefetch(String locator, ConnectionFactory factory, long bytes){
+		if(bytes<=0){
+			throw new IllegalArgumentException("bytes must be positive");
+		}
+		synchronized(lock){
+			Entry e = (Entry) entries.get(locator);
+			if(e!=null && !e.failed && (!e.done || e.headLength>=bytes)){
+				e.usedAt = System.currentTimeMillis();
+				return;
+			}
+			if(e!=null){
+				remove(e);
+			}
+			if(entries.size()>=MAX_ENTRIES){
+				evict();
+			}
+			e = new Entry(locator, factory, bytes, directory + "prefetch" + nextName++);
+			entries.put(locator, e);
+			queue.addElement(e);
+			while(workers<maxConcurrent && workers<queue.size()){
+				workers++;
+				new Thread(new Worker()).start();
+			}
+		}
+	}
+
+	/**
+	 * Queues the first seconds of an http:// or https:// locator for download.
+	 * @param microseconds	How much media to fetch, in microseconds.
+	 * @param bitrate	Bitrate of the media in bits per second.
+	 * @see #prefetch(String, ConnectionFactory, long)
+	 */
+	public static void prefetchTime(String locator, ConnectionFactory factory, long microseconds, int bitrate){
+		prefetch(locator, factory, microseconds * bitrate / 8000000);
+	}
+
+	/**
+	 * Waits for the prefetch of a locator to complete.
+	 * @param timeout	Longest wait in ms.
+	 * @return	true if the locator has been prefetched.
+	 */
+	public static boolean await(String locator, long timeout){
+		long deadline = System.currentTimeMillis() + timeout;
+		Entry e;
+		synchronized(lock){
+			e = (Entry) entries.get(locator);
+		}
+		if(e==null){
+			return false;
+		}
+		synchronized(e){
+			while(!e.done){
+				long left = deadline - System.currentTimeMillis();
+				if(left<=0){
+					return false;
+				}
+				try { e.wait(left); } catch(InterruptedException ex){ }
+			}
+			return !e.failed;
+		}
+	}
+
+	/**
+	 * Whether the leading bytes of a locator have been prefetched.
+	 */
+	public static boolean isPrefetched(String locator){
+		synchronized(lock){
+			Entry e = (Entry) entries.get(locator);
+			return e!=null && e.done && !e.failed;
+		}
+	}
+
+	/**
+	 * Cancels the prefetch of a locator and deletes what it fetched.
+	 */
+	public static void cancel(String locator){
+		synchronized(lock){
+			Entry e = (Entry) entries.get(locator);
+			if(e!=null){
+				remove(e);
+			}
+		}
+	}
+
+	/**
+	 * Cancels all prefetches and deletes the prefetched files.
+	 */
+	public static void clear(){
+		synchronized(lock){
+			Vector all = new Vector();
+			Enumeration e = entries.elements();
+			while(e.hasMoreElements()){
+				all.addElement(e.nextElement());
+			}
+			for(int i=0; i<all.size(); i++){
+				remove((Entry) all.elementAt(i));
+			}
+		}
+	}
+
+	/**
+	 * Sets the directory the prefetched files are written to, e.g. on the SD card. Takes effect for
+	 * the prefetches queued afterwards.
+	 * @param url	A file:/// locator of a directory, ending with '/'.
+	 */
+	public static void setDirectory(String url){
+		if(url==null || !url.endsWith("/")){
+			throw new IllegalArgumentException("url must be a directory ending with '/'");
+		}
+		synchronized(lock){
+			directory = url;
+		}
+	}
+
+	public static String getDirectory(){
+		synchronized(lock){
+			return directory;
+		}
+	}
+
+	/**
+	 * Sets how many prefetches run at once.
+	 */
+	public static void setMaxConcurrent(int count){
+		if(count<1){
+			throw new IllegalArgumentException("count must be at least 1");
+		}
+		synchronized(lock){
+			maxConcurrent = count;
+		}
+	}
+
+	public static int getMaxConcurrent(){
+		synchronized(lock){
+			return maxConcurrent;
+		}
+	}
+
+	/**
+	 * Sets the bandwidth shared by the running prefetches.
+	 * @param bytesPerSecond	Bandwidth in bytes per second; 0 not to limit it.
+	 */
+	public static void setMaxBandwidth(int bytesPerSecond){
+		if(bytesPerSecond<0){
+			throw new IllegalArgumentException("bytesPerSecond cannot be negative");
+		}
+		synchronized(lock){
+			maxBandwidth = bytesPerSecond;
+		}
+	}
+
+	public static int getMaxBandwidth(){
+		synchronized(lock){
+			return maxBandwidth;
+		}
+	}
+
+	/**
+	 * Sets the size of the largest trailing MP4 index fetched; larger ones are left to the player.
+	 * @param bytes	Size in bytes; 0 not to fetch trailing indexes.
+	 */
+	public static void setMaxIndexBytes(long bytes){
+		if(bytes<0){
+			throw new IllegalArgumentException("bytes cannot be negative");
+		}
+		synchronized(lock){
+			maxIndexBytes = bytes;
+		}
+	}
+
+	public static long getMaxIndexBytes(){
+		synchronized(lock){
+			return maxIndexBytes;
+		}
+	}
+
+	/**
+	 * Layers the prefetched bytes of a locator over the source StreamingPlayer created for it.
+	 * A prefetch of the locator that has not completed is cancelled, so that it does not compete
+	 * with the player for bandwidth.
+	 * @return	a CachedMediaSource over source, or source if the locator has not been prefetched.
+	 */
+	static MediaSource wrap(String locator, MediaSource source){
+		synchronized(lock){
+			Entry e = (Entry) entries.get(locator);
+			if(e==null){
+				return source;
+			}
+			if(!e.done || e.failed){
+				remove(e);
+				return source;
+			}
+			e.usedAt = System.currentTimeMillis();
+			return new CachedMediaSource(source, e);
+		}
+	}
+
+	/**
+	 * Forgets the prefetched bytes of a locator, e.g. because the media changed on the server.
+	 */
+	static void invalidate(Entry e){
+		synchronized(lock){
+			if(entries.get(e.locator)==e){
+				remove(e);
+			}
+		}
+	}
+
+	/**
+	 * Cancels and forgets an entry. Its files are deleted unless it is still being fetched, in which
+	 * case the worker deletes them.
+	 */
+	private static void remove(Entry e){
+		entries.remove(e.locator);
+		queue.removeElement(e);
+		e.cancelled = true;
+		if(e.flow!=null){
+			e.flow.close();	// releases the worker if it waits for bandwidth
+		}
+		if(e.done || !e.started){
+			e.deleteFiles();
+		}
+	}
+
+	/**
+	 * Removes the least recently used entry that is not being fetched.
+	 */
+	private static void evict(){
+		Entry oldest = null;
+		Enumeration e = entries.elements();
+		while(e.hasMoreElements()){
+			Entry entry = (Entry) e.nextElement();
+			if((entry.done || !entry.started) && (oldest==null || entry.usedAt<oldest.usedAt)){
+				oldest = entry;
+			}
+		}
+		if(oldest!=null){
+			remove(oldest);
+		}
+	}
+
+	/**
+	 * Waits until the bandwidth cap allows bytes more to be downloaded.
+	 */
+	private static void throttle(int bytes){
+		long wait;
+		synchronized(lock){
+			if(maxBandwidth<=0){
+				return;
+			}
+			long now = System.currentTimeMillis();
+			throttledUntil = Math.max(throttledUntil, now) + bytes * 1000L / maxBandwidth;
+			wait = throttledUntil - now;
+		}
+		if(wait>0){
+			try { Thread.sleep(wait); } catch(InterruptedException e){ }
+		}
+	}
+
+	/**
+	 * Fetches the leading bytes of an entry, and its trailing index if it has one.
+	 */
+	private static void fetch(Entry e) throws IOException {
+		HttpMediaSource source = new HttpMediaSource(e.locator, e.factory);
+		source.setStandbyIdleBudget(0);
+		source.setRangeSize(e.bytes);
+		e.flow = BandwidthScheduler.getDefault().register(e.locator, BandwidthScheduler.BACKGROUND);
+		try{
+			source.open(0);
+			long length = source.getLength();
+			e.length = length;
+			e.contentType = source.getContentType();
+			e.validator = source.getValidator();
+			e.headLength = copy(source, length>0 ? Math.min(e.bytes, length) : e.bytes, e, e.getHeadUrl());
+			long indexBytes = getMaxIndexBytes();
+			if(length<=0 || e.headLength>=length || indexBytes<=0){
+				return;
+			}
+			long index = findTrailingIndex(e.getHeadUrl(), e.headLength, length);
+			if(index>0 && length - index<=indexBytes){
+				source.setRangeSize(length - index);
+				try{
+					source.open(index);
+					if(copy(source, length - index, e, e.getTailUrl())==length - index){
+						e.tailOffset = index;
+					}
+				} catch(IOException ex){
+					if(e.cancelled){
+						throw ex;
+					}
+					// the leading bytes are still of use; the player fetches the index itself
+				}
+			}
+		} finally{
+			e.flow.close();
+			source.close();
+		}
+	}
+
+	/**
+	 * Copies up to bytes from source to a new file.
+	 * @return	the number of bytes copied, less than bytes if the media ended first.
+	 */
+	private static long copy(MediaSource source, long bytes, Entry e, String url) throws IOException {
+		FileConnection file = createFile(url);
+		OutputStream out = null;
+		long copied = 0;
+		try{
+			out = file.openOutputStream();
+			byte[] buffer = new byte[COPY_CHUNK];
+			while(copied<bytes){
+				if(e.cancelled){
+					throw new IOException("Prefetch cancelled: " + e.locator);
+				}
+				e.flow.await();
+				int read = source.read(buffer, 0, (int) Math.min(buffer.length, bytes - copied));
+				if(read<0){
+					break;
+				}
+				e.flow.transferred(read);
+				out.write(buffer, 0, read);
+				copied += read;
+				throttle(read);
+			}
+		} finally{
+			try{
+				if(out!=null){
+					out.close();
+				}
+			} finally{
+				file.close();
+			}
+		}
+		return copied;
+	}
+
+	private static FileConnection createFile(String url) throws IOException {
+		String dir = url.substring(0, url.lastIndexOf('/') + 1);
+		FileConnection c = (FileConnection) Connector.open(dir, Connector.READ_WRITE);
+		try{
+			if(!c.exists()){
+				c.mkdir();
+			}
+		} finally{
+			c.close();
+		}
+		c = (FileConnection) Connector.open(url, Connector.READ_WRITE);
+		try{
+			if(c.exists()){
+				c.delete();
+			}
+			c.create();
+		} catch(IOException ex){
+			c.close();
+			throw ex;
+		}
+		return c;
+	}
+
+	/**
+	 * Finds where the index of an MP4 starts if it follows the media data: walks the top-level boxes
+	 * stored in the file and returns the offset of the first box that starts past them, unless a moov
+	 * box was among them.
+	 * @param stored	Number of leading bytes of the media in the file.
+	 * @return	the offset, or -1 if the index is in the stored bytes, the media is not an MP4 or the boxes cannot be followed.
+	 */
+	static long findTrailingIndex(String url, long stored, long length) throws IOException {
+		FileConnection file = (FileConnection) Connector.open(url, Connector.READ);
+		InputStream in = null;
+		try{
+			in = file.openInputStream();
+			byte[] header = new byte[16];
+			long offset = 0;
+			long position = 0;
+			while(offset + 8<=stored){
+				IOUtil.skipFully(in, offset - position);
+				int headerLength = offset + 16<=stored ? 16 : 8;
+				readFully(in, header, headerLength);
+				position = offset + headerLength;
+				long size = readUnsigned(header, 0, 4);
+				for(int i=4; i<8; i++){
+					if(header[i]<0x20 || header[i]>0x7e){
+						return -1;	// not a box type
+					}
+				}
+				String type = new String(header, 4, 4);
+				if("moov".equals(type)){
+					return -1;
+				}
+				if(size==1){
+					if(headerLength<16){
+						return -1;	// the 64-bit size is not stored
+					}
+					size = readUnsigned(header, 8, 8);
+				}
+				if(size<8){
+					return -1;	// 0: the box extends to the end of the media
+				}
+				offset += size;
+			}
+			return offset<length ? offset : -1;
+		} finally{
+			try{
+				if(in!=null){
+					in.close();
+				}
+			} finally{
+				file.close();
+			}
+		}
+	}
+
+	private static void readFully(InputStream in, byte[] b, int len) throws IOException {
+		int off = 0;
+		while(off<len){
+			int read = in.read(b, off, len - off);
+			if(read<0){
+				throw new IOException("Unexpected end of prefetched file");
+			}
+			off += read;
+		}
+	}
+
+	private static long readUnsigned(byte[] b, int off, int len){
+		long value = 0;
+		for(int i=0; i<len; i++){
+			value = (value << 8) | (b[off + i] & 0xff);
+		}
+		return value;
+	}
+
+	/**
+	 * Runs queued prefetches until the queue is empty.
+	 */
+	private static class Worker implements Runnable {
+
+		public void run(){
+			while(true){
+				Entry e;
+				synchronized(lock){
+					if(queue.isEmpty()){
+						workers--;
+						return;
+					}
+					e = (Entry) queue.elementAt(0);
+					queue.removeElementAt(0);
+					e.started = true;
+				}
+				boolean failed = false;
+				try{
+					fetch(e);
+				} catch(IOException ex){
+					failed = true;
+				} catch(Throwable t){
+					failed = true;
+				}
+				synchronized(lock){
+					if(failed || e.cancelled){
+						e.deleteFiles();
+					}
+				}
+				synchronized(e){
+					e.failed = failed || e.cancelled;
+					e.done = true;
+					e.notifyAll();
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * What has been prefetched of a locator.
+	 */
+	static class Entry {
+		final String locator;
+		final ConnectionFactory factory;
+		/** Leading bytes requested */
+		final long bytes;
+		/** Locator of the files without their extension */
+		final String baseName;
+		volatile boolean started = false;
+		volatile boolean done = false;
+		volatile boolean failed = false;
+		volatile boolean cancelled = false;
+		/** When the entry was last requested or used */
+		long usedAt = System.currentTimeMillis();
+		/** Length of the media, -1 if unknown */
+		long length = -1;
+		String contentType;
+		String validator;
+		/** Number of leading bytes stored */
+		long headLength = 0;
+		/** Offset of the stored trailing index, -1 if none */
+		long tailOffset = -1;
+		/** The download as a flow of the default BandwidthScheduler while it is fetched */
+		volatile BandwidthScheduler.Flow flow;
+
+		Entry(String locator, ConnectionFactory factory, long bytes, String baseName){
+			this.locator = locator;
+			this.factory = factory;
+			this.bytes = bytes;
+			this.baseName = baseName;
+		}
+
+		String getHeadUrl(){
+			return baseName + ".head";
+		}
+
+		String getTailUrl(){
+			return baseName + ".tail";
+		}
+
+		void deleteFiles(){
+			deleteFile(getHeadUrl());
+			deleteFile(getTailUrl());
+		}
+
+		private static void deleteFile(String url){
+			try{
+				FileConnection c = (FileConnection) Connector.open(url, Connector.READ_WRITE);
+				try{
+					if(c.exists()){
+						c.delete();
+					}
+				} finally{
+					c.close();
+				}
+			} catch(IOException e){
+				// left for the next prefetch of the same name to overwrite
+			}
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package rimx.media.streaming;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Remembers where HTTP locators redirect to, so that later requests for the same
+ * locator (seeks, reconnects, replays) go straight to the final URL instead of paying
+ * the redirect round trip again. Entries expire after the lifetime the redirect
+ * response allowed. The cache is shared by all StreamingPlayers of the application.
+ */
+public final class RedirectCache {
+
+	/** Lifetime of a temporary redirect that does not state one, in ms */
+	public static final long DEFAULT_LIFETIME = 300000;	// 5 minutes
+	/** Lifetime of a permanent redirect that does not state one, in ms */
+	public static final long PERMANENT_LIFETIME = 86400000;	// 1 day
+	/** Maximum number of locators remembered */
+	public static final int MAX_ENTRIES = 32;
+
+	/** locator -> Entry */
+	private static final Hashtable entries = new Hashtable();
+
+	private RedirectCache(){
+	}
+
+	/**
+	 * Gets the URL a locator resolved to, if it is still valid.
+	 * @return	the resolved URL, or null.
+	 */
+	public static String get(String locator){
+		synchronized(entries){
+			Entry e = (Entry) entries.get(locator);
+			if(e==null){
+				return null;
+			}
+			if(e.expiresAt<=System.currentTimeMillis()){
+				entries.remove(locator);
+				return null;
+			}
+			return e.url;
+		}
+	}
+
+	/**
+	 * Records that locator resolved to url for the next lifetime ms. A lifetime of 0 or less removes the entry.
+	 */
+	public static void put(String locator, String url, long lifetime){
+		synchronized(entries){
+			if(lifetime<=0 || locator.equals(url)){
+				entries.remove(locator);
+				return;
+			}
+			if(!entries.containsKey(locator) && entries.size()>=MAX_ENTRIES){
+				evict();
+			}
+			entries.put(locator, new Entry(url, System.currentTimeMillis() + lifetime));
+		}
+	}
+
+	/**
+	 * Forgets the resolved URL of locator, e.g. because it failed.
+	 */
+	public static void remove(String locator){
+		synchronized(entries){
+			entries.remove(locator);
+		}
+	}
+
+	/**
+	 * Forgets all resolved URLs.
+	 */
+	public static void clear(){
+		synchronized(entries){
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Removes expired entries, or the entry expiring first if none has expired.
+	 */
+	private static void evict(){
+		long now = System.currentTimeMillis();
+		Object first = null;
+		long firstExpiry = Long.MAX_VALUE;
+		Vector expired = new Vector();
+		Enumeration keys = entries.keys();
+		while(keys.hasMoreElements()){
+			Object key = keys.nextElement();
+			Entry e = (Entry) entries.get(key);
+			if(e.expiresAt<=now){
+				expired.addElement(key);
+			} else if(e.expiresAt<firstExpiry){
+				first = key;
+				firstExpiry = e.expiresAt;
+			}
+		}
+		for(int i=0; i<expired.size(); i++){
+			entries.remove(expired.elementAt(i));
+		}
+		if(entries.size()>=MAX_ENTRIES && first!=null){
+			entries.remove(first);
+		}
+	}
+
+	private static class Entry {
+		final String url;
+		final long expiresAt;
+
+		Entry(String url, long expiresAt){
+			this.url = url;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+}
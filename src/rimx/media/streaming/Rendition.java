@@ -0,0 +1,67 @@
+package rimx.media.streaming;
+
+/**
+ * One encoding of a media item: a locator together with the bit rate and resolution it
+ * was encoded at. A StreamingPlayer given several renditions of the same media picks
+ * the one the measured throughput can sustain (see RenditionSelector). The variant
+ * streams of an HLS master playlist are renditions too.
+ */
+public class Rendition {
+
+	private final String locator;
+	private final int bitrate;
+	private final String resolution;
+	private final String codecs;
+
+	/**
+	 * @param locator	Locator of the media, or of the media playlist of an HLS variant stream.
+	 * @param bitrate	Peak bit rate in bits per second, or -1 if not known.
+	 * @param resolution	Video resolution as "widthxheight", or null if not known.
+	 */
+	public Rendition(String locator, int bitrate, String resolution){
+		this(locator, bitrate, resolution, null);
+	}
+
+	/**
+	 * @param locator	Locator of the media, or of the media playlist of an HLS variant stream.
+	 * @param bitrate	Peak bit rate in bits per second, or -1 if not known.
+	 * @param resolution	Video resolution as "widthxheight", or null if not known.
+	 * @param codecs	RFC 6381 codecs of the media, or null if not known.
+	 */
+	public Rendition(String locator, int bitrate, String resolution, String codecs){
+		if(locator==null){
+			throw new IllegalArgumentException("locator cannot be null");
+		}
+		this.locator = locator;
+		this.bitrate = bitrate;
+		this.resolution = resolution;
+		this.codecs = codecs;
+	}
+
+	public String getLocator() {
+		return locator;
+	}
+
+	/**
+	 * Gets the peak bit rate of the rendition in bits per second, or -1 if it is not known.
+	 */
+	public int getBitrate() {
+		return bitrate;
+	}
+
+	/**
+	 * Gets the video resolution as "widthxheight", or null if it is not known.
+	 */
+	public String getResolution() {
+		return resolution;
+	}
+
+	public String getCodecs() {
+		return codecs;
+	}
+
+	public String toString() {
+		return locator + " (" + bitrate + " bps" + (resolution==null ? "" : ", " + resolution) + ")";
+	}
+
+}
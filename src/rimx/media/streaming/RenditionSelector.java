@@ -0,0 +1,132 @@
+package rimx.media.streaming;
+
+/**
+ * Decides which rendition to play from the estimated throughput and how far the
+ * download is ahead of playback.
+ * <p>
+ * The sustainable rendition is the one with the highest bit rate that fits in a safe
+ * share of the estimated throughput. Moving up to it requires a comfortable buffer, so
+ * a short burst of throughput does not trigger a switch that the buffer could not
+ * cover if the burst ends. Moving down happens only while the buffer is below a
+ * level that could ride out the shortfall, so a large buffer is spent before quality
+ * is reduced.
+ */
+public class RenditionSelector {
+
+	/** Default share of the estimated throughput a rendition may use, in percent */
+	public static final int DEFAULT_SAFETY_PERCENT = 75;
+	/** Default buffer required to switch to a higher bit rate, in microseconds */
+	public static final long DEFAULT_UP_SWITCH_BUFFER = 10000000;	// 10 s
+	/** Default buffer below which a lower bit rate is switched to, in microseconds */
+	public static final long DEFAULT_DOWN_SWITCH_BUFFER = 20000000;	// 20 s
+
+	private int safetyPercent = DEFAULT_SAFETY_PERCENT;
+	private long upSwitchBuffer = DEFAULT_UP_SWITCH_BUFFER;
+	private long downSwitchBuffer = DEFAULT_DOWN_SWITCH_BUFFER;
+
+	/**
+	 * Selects the rendition to start with.
+	 * @param estimate	Estimated throughput in bits per second, or -1 if unknown.
+	 * @return	the index of the sustainable rendition, or 0 (the first listed, as HLS recommends) if the throughput is unknown.
+	 */
+	public int selectInitial(Rendition[] renditions, long estimate){
+		if(estimate<0){
+			return 0;
+		}
+		return getSustainable(renditions, estimate, 0);
+	}
+
+	/**
+	 * Selects the rendition to continue with at a switch point.
+	 * @param current	Index of the rendition being played.
+	 * @param estimate	Estimated throughput in bits per second, or -1 if unknown.
+	 * @param buffered	How far the download is ahead of playback, in microseconds.
+	 * @return	the index of the rendition to play next.
+	 */
+	public int select(Rendition[] renditions, int current, long estimate, long buffered){
+		if(estimate<0 || renditions[current].getBitrate()<0){
+			return current;
+		}
+		int sustainable = getSustainable(renditions, estimate, current);
+		int bitrate = renditions[sustainable].getBitrate();
+		int currentBitrate = renditions[current].getBitrate();
+		if(bitrate>currentBitrate && buffered>=upSwitchBuffer){
+			return sustainable;
+		}
+		if(bitrate<currentBitrate && buffered<downSwitchBuffer){
+			return sustainable;
+		}
+		return current;
+	}
+
+	/**
+	 * Gets the rendition with the highest bit rate within the safe share of estimate, or the
+	 * one with the lowest bit rate if none is. Renditions of unknown bit rate are skipped.
+	 * @param fallback	Returned if no rendition states its bit rate.
+	 */
+	private int getSustainable(Rendition[] renditions, long estimate, int fallback){
+		long budget = estimate * safetyPercent / 100;
+		int best = -1;
+		int lowest = -1;
+		for(int i=0; i<renditions.length; i++){
+			int bitrate = renditions[i].getBitrate();
+			if(bitrate<0){
+				continue;
+			}
+			if(bitrate<=budget && (best<0 || bitrate>renditions[best].getBitrate())){
+				best = i;
+			}
+			if(lowest<0 || bitrate<renditions[lowest].getBitrate()){
+				lowest = i;
+			}
+		}
+		if(best>=0){
+			return best;
+		}
+		return lowest>=0 ? lowest : fallback;
+	}
+
+	/**
+	 * Sets the share of the estimated throughput a rendition may use.
+	 * @param percent	Between 1 and 100.
+	 */
+	public void setSafetyPercent(int percent){
+		if(percent<1 || percent>100){
+			throw new IllegalArgumentException("percent must be between 1 and 100");
+		}
+		safetyPercent = percent;
+	}
+
+	public int getSafetyPercent(){
+		return safetyPercent;
+	}
+
+	/**
+	 * Sets the buffer required to switch to a higher bit rate, in microseconds.
+	 */
+	public void setUpSwitchBuffer(long microseconds){
+		if(microseconds<0){
+			throw new IllegalArgumentException("microseconds cannot be negative");
+		}
+		upSwitchBuffer = microseconds;
+	}
+
+	public long getUpSwitchBuffer(){
+		return upSwitchBuffer;
+	}
+
+	/**
+	 * Sets the buffer below which a lower bit rate is switched to, in microseconds.
+	 */
+	public void setDownSwitchBuffer(long microseconds){
+		if(microseconds<0){
+			throw new IllegalArgumentException("microseconds cannot be negative");
+		}
+		downSwitchBuffer = microseconds;
+	}
+
+	public long getDownSwitchBuffer(){
+		return downSwitchBuffer;
+	}
+
+}
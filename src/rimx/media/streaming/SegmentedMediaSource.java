@@ -0,0 +1,47 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+
+/**
+ * A MediaSource that delivers the media as a series of independently playable segments,
+ * such as an HLS stream. Byte offsets are not meaningful positions in the media, so
+ * seeking is done by time: seekToTime() selects the segment to start from, and the
+ * stream delivered by open() then begins with that segment.
+ */
+public interface SegmentedMediaSource extends MediaSource {
+
+	/**
+	 * Selects the segment playing at a time as the start of the stream. Offset 0 of the
+	 * next open() is the first byte of that segment.
+	 * @param time	Media time in microseconds.
+	 * @return	the start time of the selected segment in microseconds, which is the media time at offset 0.
+	 * @throws IOException	If the segment list could not be loaded.
+	 */
+	public long seekToTime(long time) throws IOException;
+
+	/**
+	 * Gets the media time at offset 0 of the stream, in microseconds.
+	 */
+	public long getTimeOffset();
+
+	/**
+	 * Gets the duration of the media in microseconds.
+	 * @return	the duration, or -1 if it is unknown or the media is live.
+	 */
+	public long getDuration();
+
+	/**
+	 * Gets the rendition the segment containing an offset was fetched from.
+	 * @param offset	Offset in the stream delivered by open().
+	 * @return	the rendition, or null if the source has not been opened.
+	 */
+	public Rendition getRenditionAt(long offset);
+
+	/**
+	 * Tells the source which media time is being played, so that it can tell how far its
+	 * download is ahead of playback when it decides which rendition to fetch next.
+	 * @param time	Media time in microseconds.
+	 */
+	public void setPlaybackTime(long time);
+
+}
@@ -0,0 +1,514 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * One download of a locator shared by all the StreamingPlayers playing it, e.g. a preview
+ * tile and the full-screen player, or a screen pushed again while the old one is closing
+ * (see StreamingPlayer.setSharedDownload(boolean)). Each player reads through its own
+ * SharedMediaSource, with its own position, and the download fetches each byte once into
+ * blocks of BLOCK_SIZE that are kept while a reader may still need them.
+ * <p>
+ * The download serves the reader with the least data stored ahead of it, up to an equal
+ * share of the memory budget ahead of each reader; it stays with one reader until another
+ * has SWITCH_MARGIN less ahead, so that two readers far apart do not make it re-open its
+ * source for every chunk. An HTTP source is requested in ranges that end about where the
+ * reader's share does, so that little is in flight when the download pauses or moves on.
+ * <p>
+ * The blocks between the slowest and the fastest reader are kept for the slower one on top
+ * of the budget, as long as that holds no more than the readers would buffer on their own,
+ * i.e. the budget per reader. Once the budget is used up, the blocks no reader needs any more
+ * are dropped, those furthest from the readers first. A reader that seeks to bytes not
+ * stored makes the download re-open its source there. The download ends when its last
+ * reader is released.
+ * <p>
+ * The memory budget and the BandwidthScheduler are those of the StreamingPlayer that starts 
+ * the download. Players reading a shared download keep only a small buffer of their own, so
+ * memory and bandwidth grow with the number of locators played rather than with the number
+ * of players.
+ */
+public final class SharedDownload implements Runnable {
+
+	/** Size of the blocks the media is stored in */
+	public static final int BLOCK_SIZE = 65536;
+	/** How much less a reader must have stored ahead than the one being served to be served instead */
+	public static final int SWITCH_MARGIN = 4 * BLOCK_SIZE;
+	/** Bytes read from the source at once */
+	private static final int READ_CHUNK = 8192;
+
+	/** locator -> SharedDownload */
+	private static final Hashtable downloads = new Hashtable();
+
+	private final String locator;
+	private final MediaSource source;
+	/** Schedules the download among the other downloads, or null */
+	private final BandwidthScheduler scheduler;
+	/** Most bytes kept in blocks ahead of the readers */
+	private final int budget;
+	/** Long block index -> byte[] of up to BLOCK_SIZE */
+	private final Hashtable blocks = new Hashtable();
+	/** Long block index -> int[] { bytes filled from the start of the block } */
+	private final Hashtable filled = new Hashtable();
+	/** The SharedMediaSources reading the download */
+	private final Vector readers = new Vector();
+	/** Bytes allocated to blocks */
+	private long stored = 0;
+	private long downloaded = 0;
+	/** Offset of the next byte the source returns, -1 if it is not open */
+	private long sourcePosition = -1;
+	/** The reader served last */
+	private SharedMediaSource served;
+	/** Bytes the reader served last may still have stored ahead of it within its share */
+	private long servedRoom;
+	/** Whether the source has been opened, so that its length, type and validator are known */
+	private boolean opened = false;
+	private long length = -1;
+	private String contentType;
+	private String validator;
+	private boolean seekable = true;
+	/** Why the source failed, until a reader re-opens */
+	private IOException error;
+	private boolean released = false;
+
+	private SharedDownload(String locator, MediaSource source, int budget, BandwidthScheduler scheduler){
+		this.locator = locator;
+		this.source = source;
+		this.budget = Math.max(budget, 2 * BLOCK_SIZE);
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Attaches a reader to the download of a locator, starting the download if there is none.
+	 * The other arguments only apply to a new download; an existing one keeps its own.
+	 * @param source	The source a new download reads from.
+	 * @param budget	Memory budget of a new download in bytes.
+	 * @param scheduler	The BandwidthScheduler a new download is a flow of, or null.
+	 * @return	a reader of the download, not open.
+	 */
+	static SharedMediaSource attach(String locator, MediaSource source, int budget, BandwidthScheduler scheduler){
+		synchronized(downloads){
+			SharedDownload d = (SharedDownload) downloads.get(locator);
+			boolean started = d==null;
+			if(started){
+				d = new SharedDownload(locator, source, budget, scheduler);
+				downloads.put(locator, d);
+			}
+			SharedMediaSource reader = new SharedMediaSource(d);
+			synchronized(d){
+				d.readers.addElement(reader);
+			}
+			if(started){
+				new Thread(d).start();
+			}
+			return reader;
+		}
+	}
+
+	/**
+	 * Gets the download of a locator.
+	 * @return	the download, or null if no player is reading the locator through a shared download.
+	 */
+	public static SharedDownload get(String locator){
+		synchronized(downloads){
+			return (SharedDownload) downloads.get(locator);
+		}
+	}
+
+	/**
+	 * Detaches a reader; the download ends with its last reader.
+	 */
+	void release(SharedMediaSource reader){
+		synchronized(downloads){
+			synchronized(this){
+				if(!readers.removeElement(reader)){
+					return;
+				}
+				reader.position = -1;
+				if(readers.isEmpty()){
+					released = true;
+					downloads.remove(locator);
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Positions a reader at offset, and waits for the source to be opened once so that the media
+	 * length is known. Clears an error of the source, so that the download tries again.
+	 */
+	synchronized void open(SharedMediaSource reader, long offset) throws IOException {
+		if(released || !readers.contains(reader)){
+			throw new IOException("SharedMediaSource has been released");
+		}
+		reader.position = offset;
+		error = null;
+		notifyAll();
+		while(!opened){
+			if(error!=null){
+				throw new IOException(error.getMessage());
+			}
+			try { wait(); } catch(InterruptedException e){ }
+		}
+		if(length>=0 && offset>length){
+			reader.position = -1;
+			throw new IOException("Offset " + offset + " beyond the end of the media");
+		}
+	}
+
+	synchronized void close(SharedMediaSource reader){
+		reader.position = -1;
+		notifyAll();
+	}
+
+	/**
+	 * Reads stored bytes at the position of a reader, waiting for the download to store them.
+	 */
+	synchronized int read(SharedMediaSource reader, byte[] b, int off, int len) throws IOException {
+		while(true){
+			long position = reader.position;
+			if(position<0){
+				throw new IOException("SharedMediaSource is not open");
+			}
+			if(length>=0 && position>=length){
+				return -1;
+			}
+			Long index = new Long(position / BLOCK_SIZE);
+			int inBlock = (int) (position % BLOCK_SIZE);
+			int[] fill = (int[]) filled.get(index);
+			if(fill!=null && fill[0]>inBlock){
+				int n = Math.min(len, fill[0] - inBlock);
+				System.arraycopy((byte[]) blocks.get(index), inBlock, b, off, n);
+				reader.position = position + n;
+				if(inBlock + n==BLOCK_SIZE){
+					notifyAll();	// the block behind the reader may make room
+				}
+				return n;
+			}
+			if(error!=null){
+				throw new IOException(error.getMessage());
+			}
+			try { wait(); } catch(InterruptedException e){ }
+		}
+	}
+
+	/**
+	 * Gets the number of bytes stored from the position of a reader on.
+	 */
+	synchronized int available(SharedMediaSource reader){
+		return reader.position<0 ? 0 : (int) Math.max(0, Math.min(Integer.MAX_VALUE, nextMissing(reader.position) - reader.position));
+	}
+
+	public void run(){
+		byte[] chunk = new byte[READ_CHUNK];
+		BandwidthScheduler.Flow flow = scheduler!=null ? scheduler.register(locator, BandwidthScheduler.FOREGROUND) : null;
+		try{
+			while(true){
+				long target;
+				long room;
+				synchronized(this){
+					while(true){
+						if(released){
+							return;
+						}
+						target = error==null ? getTarget() : -1;
+						if(target>=0 && makeRoom(target)){
+							break;
+						}
+						try { wait(); } catch(InterruptedException e){ }
+					}
+					room = servedRoom;
+				}
+				try{
+					updateRangeSize(room);
+					if(target!=sourcePosition){
+						source.open(target);
+						synchronized(this){
+							sourcePosition = target;
+							if(source.getLength()>=0){
+								length = source.getLength();
+							}
+							if(!opened){
+								contentType = source.getContentType();
+								validator = source.getValidator();
+								seekable = source.isSeekable();
+								opened = true;
+							}
+							notifyAll();
+						}
+					}
+					if(flow!=null){
+						flow.await();
+					}
+					int n = source.read(chunk, 0, (int) Math.min(chunk.length, BLOCK_SIZE - target % BLOCK_SIZE));
+					if(flow!=null){
+						flow.transferred(n);
+					}
+					synchronized(this){
+						if(n<0){
+							length = target;
+							sourcePosition = -1;
+						} else{
+							store(target, chunk, n);
+							sourcePosition = target + n;
+							downloaded += n;
+						}
+						notifyAll();
+					}
+				} catch(IOException e){
+					synchronized(this){
+						error = e;
+						sourcePosition = -1;
+						notifyAll();
+					}
+					closeSource();
+				}
+			}
+		} finally{
+			if(flow!=null){
+				flow.close();
+			}
+			closeSource();
+			synchronized(this){
+				blocks.clear();
+				filled.clear();
+				stored = 0;
+			}
+		}
+	}
+
+	/**
+	 * Sizes the next range request of the source like StreamingPlayer does for its own: what the
+	 * measured throughput fetches in StreamingPlayer.RANGE_SECONDS, at most the room the reader served has
+	 * left, and at least StreamingPlayer.MIN_RANGE_SIZE.
+	 */
+	private void updateRangeSize(long room){
+		long throughput = BandwidthEstimator.getDefault().getEstimate();
+		long size = throughput>0 ? Math.min(throughput/8*StreamingPlayer.RANGE_SECONDS, room) : room;
+		source.setRangeSize(Math.max(size, StreamingPlayer.MIN_RANGE_SIZE));
+	}
+
+	private void closeSource(){
+		try{
+			source.close();
+		} catch(IOException e){
+		}
+	}
+
+	/**
+	 * Picks the offset to download next: the first byte missing ahead of the reader with the least
+	 * stored ahead of it, within its share of the budget.
+	 * @return	the offset, or -1 if no reader needs anything.
+	 */
+	private long getTarget(){
+		long maxAhead = getMaxAhead();
+		SharedMediaSource bestReader = null;
+		long best = -1;
+		long bestAhead = Long.MAX_VALUE;
+		long servedTarget = -1;
+		long servedAhead = Long.MAX_VALUE;
+		servedRoom = maxAhead;
+		for(int i=0; i<readers.size(); i++){
+			SharedMediaSource r = (SharedMediaSource) readers.elementAt(i);
+			if(r.position<0){
+				continue;
+			}
+			long next = nextMissing(r.position);
+			long ahead = next - r.position;
+			if((length>=0 && next>=length) || ahead>=maxAhead){
+				continue;
+			}
+			if(r==served){
+				servedTarget = next;
+				servedAhead = ahead;
+			}
+			if(ahead<bestAhead){
+				bestReader = r;
+				best = next;
+				bestAhead = ahead;
+			}
+		}
+		if(servedTarget>=0 && bestAhead + SWITCH_MARGIN>=servedAhead){
+			servedRoom = maxAhead - servedAhead;
+			return servedTarget;	// stay with the reader the source is positioned for
+		}
+		served = bestReader;
+		if(bestReader!=null){
+			servedRoom = maxAhead - bestAhead;
+		}
+		return best;
+	}
+
+	/**
+	 * Gets how far ahead of each reader the download stores: an equal share of the budget.
+	 */
+	private long getMaxAhead(){
+		int active = 0;
+		for(int i=0; i<readers.size(); i++){
+			if(((SharedMediaSource) readers.elementAt(i)).position>=0){
+				active++;
+			}
+		}
+		return Math.max(2 * BLOCK_SIZE, budget / Math.max(1, active) - BLOCK_SIZE);
+	}
+
+	/**
+	 * Gets the offset the download continues at for a reader at position: the end of what the first
+	 * incomplete block from position on holds. Blocks are filled from their start, so a reader positioned
+	 * past that end waits for the block to be filled up to it.
+	 */
+	private long nextMissing(long position){
+		long index = position / BLOCK_SIZE;
+		while(true){
+			int[] fill = (int[]) filled.get(new Long(index));
+			if(fill==null || fill[0]<getBlockLength(index)){
+				return index * BLOCK_SIZE + (fill==null ? 0 : fill[0]);
+			}
+			index++;
+		}
+	}
+
+	private int getBlockLength(long index){
+		long start = index * BLOCK_SIZE;
+		return length>=0 ? (int) Math.min(BLOCK_SIZE, Math.max(0, length - start)) : BLOCK_SIZE;
+	}
+
+	/**
+	 * Makes sure the block of target can be filled within the budget, and the blocks between the
+	 * readers on top of it, dropping blocks no reader needs.
+	 * @return	false if the budget is used up by blocks the readers need.
+	 */
+	private boolean makeRoom(long target){
+		if(blocks.containsKey(new Long(target / BLOCK_SIZE))){
+			return true;
+		}
+		long maxAhead = getMaxAhead();
+		long slowest = Long.MAX_VALUE;
+		long fastest = -1;
+		int active = 0;
+		for(int i=0; i<readers.size(); i++){
+			long position = ((SharedMediaSource) readers.elementAt(i)).position;
+			if(position>=0){
+				slowest = Math.min(slowest, position);
+				fastest = Math.max(fastest, position);
+				active++;
+			}
+		}
+		long gap = active>1 ? fastest - slowest : 0;
+		if(gap>(long) budget * (active - 1)){
+			gap = 0;	// the readers are too far apart to share the blocks between them
+		}
+		while(stored + BLOCK_SIZE>budget + gap){
+			Long victim = null;
+			long victimDistance = -1;
+			Enumeration e = blocks.keys();
+			while(e.hasMoreElements()){
+				Long key = (Long) e.nextElement();
+				long start = key.longValue() * BLOCK_SIZE;
+				long distance = gap>0 && start + BLOCK_SIZE>slowest && start<fastest ? 0 : getDistance(start, maxAhead);
+				if(distance>victimDistance){
+					victim = key;
+					victimDistance = distance;
+				}
+			}
+			if(victim==null || victimDistance==0){
+				return false;
+			}
+			blocks.remove(victim);
+			filled.remove(victim);
+			stored -= BLOCK_SIZE;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets how far the block starting at start is from what the readers need: 0 if it overlaps the
+	 * stretch from a reader's position to maxAhead beyond it or is being filled, otherwise the distance to the
+	 * nearest reader, counting blocks behind a reader as further than blocks ahead of one.
+	 */
+	private long getDistance(long start, long maxAhead){
+		if(sourcePosition>=start && sourcePosition<start + BLOCK_SIZE){
+			return 0;
+		}
+		long nearest = Long.MAX_VALUE;
+		for(int i=0; i<readers.size(); i++){
+			long position = ((SharedMediaSource) readers.elementAt(i)).position;
+			if(position<0){
+				continue;
+			}
+			long distance;
+			if(start + BLOCK_SIZE<=position){
+				distance = 2 * (position - start);	// behind: played already
+			} else if(start>=position + maxAhead){
+				distance = start - position - maxAhead + 1;
+			} else{
+				return 0;
+			}
+			nearest = Math.min(nearest, distance);
+		}
+		return nearest;
+	}
+
+	private void store(long offset, byte[] b, int n){
+		Long index = new Long(offset / BLOCK_SIZE);
+		byte[] block = (byte[]) blocks.get(index);
+		if(block==null){
+			block = new byte[BLOCK_SIZE];
+			blocks.put(index, block);
+			filled.put(index, new int[1]);
+			stored += BLOCK_SIZE;
+		}
+		int[] fill = (int[]) filled.get(index);
+		System.arraycopy(b, 0, block, fill[0], n);
+		fill[0] += n;
+	}
+
+	public String getLocator(){
+		return locator;
+	}
+
+	synchronized long getLength(){
+		return length;
+	}
+
+	synchronized String getContentType(){
+		return contentType;
+	}
+
+	synchronized String getValidator(){
+		return validator;
+	}
+
+	synchronized boolean isSeekable(){
+		return seekable;
+	}
+
+	/**
+	 * Gets the number of players reading the download.
+	 */
+	public synchronized int getReaderCount(){
+		return readers.size();
+	}
+
+	/**
+	 * Gets the number of bytes held in blocks.
+	 */
+	public synchronized long getStoredBytes(){
+		return stored;
+	}
+
+	/**
+	 * Gets the number of bytes downloaded from the source.
+	 */
+	public synchronized long getDownloadedBytes(){
+		return downloaded;
+	}
+
+	public synchronized String toString(){
+		return locator + ": " + readers.size() + " readers, " + stored + " bytes stored, " + downloaded + " downloaded";
+	}
+
+}
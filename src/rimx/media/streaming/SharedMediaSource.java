@@ -0,0 +1,99 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+
+/**
+ * A MediaSource reading a SharedDownload with a position of its own. Re-opening it only moves
+ * that position, so it counts as local. Release it when the player closes, so that the
+ * download ends with its last reader.
+ */
+class SharedMediaSource implements MediaSource {
+
+	private final SharedDownload download;
+	/** Offset of the next byte read, -1 while not open; guarded by the download */
+	long position = -1;
+
+	SharedMediaSource(SharedDownload download){
+		this.download = download;
+	}
+
+	public void open(long offset) throws IOException {
+		download.open(this, offset);
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		return download.read(this, b, off, len);
+	}
+
+	public int available() throws IOException {
+		return download.available(this);
+	}
+
+	public long getLength() {
+		return download.getLength();
+	}
+
+	public String getContentType() {
+		return download.getContentType();
+	}
+
+	public String getValidator() {
+		return download.getValidator();
+	}
+
+	public boolean isSeekable() {
+		return download.isSeekable();
+	}
+
+	public boolean isLocal() {
+		return true;
+	}
+
+	public String getLocator() {
+		return download.getLocator();
+	}
+
+	/**
+	 * Ignored; the download keeps its own connection.
+	 */
+	public void setStandby(boolean standby) {
+	}
+
+	/**
+	 * Ignored; the download sizes its requests itself.
+	 */
+	public void setRangeSize(long bytes) {
+	}
+
+	/**
+	 * Ignored; the download sizes its requests itself.
+	 */
+	public void setLeadingRange(long bytes, boolean requestNext) {
+	}
+
+	/**
+	 * @return	-1; closing a reader leaves the download running.
+	 */
+	public long getRangeRemaining() {
+		return -1;
+	}
+
+	public void close() throws IOException {
+		download.close(this);
+	}
+
+	/**
+	 * Detaches this reader from the download. It cannot be opened again.
+	 */
+	void release(){
+		download.release(this);
+	}
+
+	/**
+	 * Gets the download this source reads.
+	 */
+	SharedDownload getDownload(){
+		return download;
+	}
+
+}
@@ -0,0 +1,442 @@
+package rimx.media.streaming;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import javax.microedition.io.HttpConnection;
+import javax.microedition.io.StreamConnection;
+
+import net.rim.device.api.io.http.HttpDateParser;
+
+/**
+ * An HttpConnection that sends a single HTTP/1.1 request over an already open
+ * StreamConnection (socket:// or ssl://). This lets a connection be set up ahead of
+ * time and handed a request later, which HttpConnection itself does not allow.
+ * <p>
+ * Like HttpConnection, the request is sent by the first call that needs the response.
+ * Only responses delimited by Content-Length or by the end of the connection are
+ * supported; chunked responses fail with an IOException when their body is opened.
+ */
+public class SocketHttpConnection implements HttpConnection {
+
+	private final StreamConnection connection;
+	private final String url;
+	private final String protocol;
+	private final String host;
+	private final int port;
+	private final String file;
+	private String method = GET;
+	private final Vector requestKeys = new Vector();
+	private final Vector requestValues = new Vector();
+
+	private boolean requested = false;
+	private InputStream socketIn;
+	private int responseCode = -1;
+	private String responseMessage;
+	private final Vector responseKeys = new Vector();
+	private final Vector responseValues = new Vector();
+	private final Hashtable responseHeaders = new Hashtable();
+	private InputStream body;
+
+	/**
+	 * @param connection	An open socket:// or ssl:// connection to the origin of url.
+	 * @param url	The http:// or https:// locator to request. BlackBerry connection parameters are ignored.
+	 * @throws IllegalArgumentException	If url is not an http:// or https:// locator.
+	 */
+	public SocketHttpConnection(StreamConnection connection, String url){
+		String[] parts = parse(url);
+		if(parts==null){
+			throw new IllegalArgumentException("Not an http(s) locator: " + url);
+		}
+		this.connection = connection;
+		this.url = stripParameters(url);
+		this.protocol = parts[0];
+		this.host = parts[1];
+		this.port = Integer.parseInt(parts[2]);
+		this.file = parts[3];
+	}
+
+	/**
+	 * Gets the socket:// (or ssl:// for https) locator that connects to the origin of an
+	 * http:// or https:// locator. BlackBerry connection parameters are carried over.
+	 * @return	the socket locator, or null if url is not an http:// or https:// locator.
+	 */
+	public static String getSocketLocator(String url){
+		String[] parts = parse(url);
+		if(parts==null){
+			return null;
+		}
+		int semi = url.indexOf(';');
+		String parameters = semi<0 ? "" : url.substring(semi);
+		return ("https".equals(parts[0]) ? "ssl://" : "socket://") + parts[1] + ":" + parts[2] + parameters;
+	}
+
+	/**
+	 * Splits an http(s) locator into {protocol, host, port, file}, or returns null.
+	 */
+	private static String[] parse(String url){
+		if(url==null){
+			return null;
+		}
+		url = stripParameters(url);
+		String lower = url.toLowerCase();
+		String protocol;
+		int defaultPort;
+		if(lower.startsWith("http://")){
+			protocol = "http";
+			defaultPort = 80;
+		} else if(lower.startsWith("https://")){
+			protocol = "https";
+			defaultPort = 443;
+		} else{
+			return null;
+		}
+		int hostStart = protocol.length() + 3;
+		int slash = url.indexOf('/', hostStart);
+		String authority = slash<0 ? url.substring(hostStart) : url.substring(hostStart, slash);
+		String file = slash<0 ? "/" : url.substring(slash);
+		int colon = authority.indexOf(':');
+		String host = colon<0 ? authority : authority.substring(0, colon);
+		String port = String.valueOf(defaultPort);
+		if(colon>=0){
+			try{
+				port = String.valueOf(Integer.parseInt(authority.substring(colon+1)));
+			} catch(NumberFormatException e){
+				return null;
+			}
+		}
+		if(host.length()==0){
+			return null;
+		}
+		return new String[]{ protocol, host, port, file };
+	}
+
+	private static String stripParameters(String url){
+		int semi = url.indexOf(';');
+		return semi<0 ? url : url.substring(0, semi);
+	}
+
+	/**
+	 * Sends the request and reads the status line and headers, once.
+	 */
+	private void request() throws IOException {
+		if(requested){
+			if(responseCode<0){
+				throw new IOException("No response from " + host);
+			}
+			return;
+		}
+		requested = true;
+
+		StringBuffer request = new StringBuffer();
+		request.append(method).append(' ').append(file).append(" HTTP/1.1\r\n");
+		request.append("Host: ").append(host);
+		if(port!=("https".equals(protocol) ? 443 : 80)){
+			request.append(':').append(port);
+		}
+		request.append("\r\n");
+		for(int i=0; i<requestKeys.size(); i++){
+			request.append(requestKeys.elementAt(i)).append(": ").append(requestValues.elementAt(i)).append("\r\n");
+		}
+		request.append("Connection: close\r\n\r\n");
+
+		OutputStream out = connection.openOutputStream();
+		out.write(request.toString().getBytes());
+		out.flush();
+
+		socketIn = connection.openInputStream();
+		String status = readLine(socketIn);
+		if(status==null || !status.startsWith("HTTP/")){
+			throw new IOException("Malformed response from " + host + ": " + status);
+		}
+		int sp1 = status.indexOf(' ');
+		int sp2 = status.indexOf(' ', sp1+1);
+		try{
+			responseCode = Integer.parseInt(sp2<0 ? status.substring(sp1+1).trim() : status.substring(sp1+1, sp2));
+		} catch(NumberFormatException e){
+			throw new IOException("Malformed status line from " + host + ": " + status);
+		}
+		responseMessage = sp2<0 ? "" : status.substring(sp2+1);
+
+		String line;
+		while((line = readLine(socketIn))!=null && line.length()>0){
+			int colon = line.indexOf(':');
+			if(colon>0){
+				String key = line.substring(0, colon).trim();
+				String value = line.substring(colon+1).trim();
+				responseKeys.addElement(key);
+				responseValues.addElement(value);
+				responseHeaders.put(key.toLowerCase(), value);
+			}
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuffer sb = new StringBuffer();
+		int c;
+		while((c = in.read())!=-1){
+			if(c=='\n'){
+				return sb.toString();
+			}
+			if(c!='\r'){
+				sb.append((char) c);
+			}
+		}
+		return sb.length()==0 ? null : sb.toString();
+	}
+
+	public InputStream openInputStream() throws IOException {
+		request();
+		if(body==null){
+			String transferEncoding = getHeaderField("Transfer-Encoding");
+			if(transferEncoding!=null && !"identity".equals(transferEncoding.toLowerCase())){
+				throw new IOException("Unsupported Transfer-Encoding: " + transferEncoding);
+			}
+			long length = HEAD.equals(method) || responseCode==HTTP_NO_CONTENT || responseCode==HTTP_NOT_MODIFIED ? 0 : getLength();
+			body = new BodyInputStream(socketIn, length);
+		}
+		return body;
+	}
+
+	public DataInputStream openDataInputStream() throws IOException {
+		return new DataInputStream(openInputStream());
+	}
+
+	public OutputStream openOutputStream() throws IOException {
+		throw new IOException("Request bodies are not supported");
+	}
+
+	public DataOutputStream openDataOutputStream() throws IOException {
+		return new DataOutputStream(openOutputStream());
+	}
+
+	public String getURL() {
+		return url;
+	}
+
+	public String getProtocol() {
+		return protocol;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String getFile() {
+		int end = file.length();
+		int q = file.indexOf('?');
+		int h = file.indexOf('#');
+		if(q>=0) end = q;
+		if(h>=0 && h<end) end = h;
+		return file.substring(0, end);
+	}
+
+	public String getQuery() {
+		int q = file.indexOf('?');
+		if(q<0){
+			return null;
+		}
+		int h = file.indexOf('#', q);
+		return h<0 ? file.substring(q+1) : file.substring(q+1, h);
+	}
+
+	public String getRef() {
+		int h = file.indexOf('#');
+		return h<0 ? null : file.substring(h+1);
+	}
+
+	public String getRequestMethod() {
+		return method;
+	}
+
+	public void setRequestMethod(String method) throws IOException {
+		if(requested){
+			throw new IOException("Request already sent");
+		}
+		if(!GET.equals(method) && !HEAD.equals(method)){
+			throw new IOException("Unsupported request method: " + method);
+		}
+		this.method = method;
+	}
+
+	public String getRequestProperty(String key) {
+		for(int i=0; i<requestKeys.size(); i++){
+			if(((String) requestKeys.elementAt(i)).equalsIgnoreCase(key)){
+				return (String) requestValues.elementAt(i);
+			}
+		}
+		return null;
+	}
+
+	public void setRequestProperty(String key, String value) throws IOException {
+		if(requested){
+			throw new IOException("Request already sent");
+		}
+		for(int i=0; i<requestKeys.size(); i++){
+			if(((String) requestKeys.elementAt(i)).equalsIgnoreCase(key)){
+				requestValues.setElementAt(value, i);
+				return;
+			}
+		}
+		requestKeys.addElement(key);
+		requestValues.addElement(value);
+	}
+
+	public int getResponseCode() throws IOException {
+		request();
+		return responseCode;
+	}
+
+	public String getResponseMessage() throws IOException {
+		request();
+		return responseMessage;
+	}
+
+	public long getExpiration() throws IOException {
+		return getHeaderFieldDate("Expires", 0);
+	}
+
+	public long getDate() throws IOException {
+		return getHeaderFieldDate("Date", 0);
+	}
+
+	public long getLastModified() throws IOException {
+		return getHeaderFieldDate("Last-Modified", 0);
+	}
+
+	public String getHeaderField(String name) throws IOException {
+		request();
+		return name==null ? null : (String) responseHeaders.get(name.toLowerCase());
+	}
+
+	public int getHeaderFieldInt(String name, int def) throws IOException {
+		String value = getHeaderField(name);
+		if(value==null){
+			return def;
+		}
+		try{
+			return Integer.parseInt(value);
+		} catch(NumberFormatException e){
+			return def;
+		}
+	}
+
+	public long getHeaderFieldDate(String name, long def) throws IOException {
+		String value = getHeaderField(name);
+		if(value==null){
+			return def;
+		}
+		try{
+			long date = HttpDateParser.parse(value);
+			return date==0 ? def : date;
+		} catch(Throwable t){
+			return def;
+		}
+	}
+
+	public String getHeaderField(int n) throws IOException {
+		request();
+		return n<0 || n>=responseValues.size() ? null : (String) responseValues.elementAt(n);
+	}
+
+	public String getHeaderFieldKey(int n) throws IOException {
+		request();
+		return n<0 || n>=responseKeys.size() ? null : (String) responseKeys.elementAt(n);
+	}
+
+	public String getType() {
+		try{
+			return getHeaderField("Content-Type");
+		} catch(IOException e){
+			return null;
+		}
+	}
+
+	public String getEncoding() {
+		try{
+			return getHeaderField("Content-Encoding");
+		} catch(IOException e){
+			return null;
+		}
+	}
+
+	public long getLength() {
+		try{
+			String value = getHeaderField("Content-Length");
+			return value==null ? -1 : Long.parseLong(value.trim());
+		} catch(IOException e){
+			return -1;
+		} catch(NumberFormatException e){
+			return -1;
+		}
+	}
+
+	public void close() throws IOException {
+		try{
+			if(socketIn!=null){
+				socketIn.close();
+			}
+		} finally{
+			socketIn = null;
+			connection.close();
+		}
+	}
+
+	/**
+	 * The response body: at most length bytes of the socket, or all of it if length is -1.
+	 */
+	private static class BodyInputStream extends InputStream {
+
+		private final InputStream in;
+		private long remaining;
+
+		BodyInputStream(InputStream in, long length){
+			this.in = in;
+			this.remaining = length;
+		}
+
+		public int read() throws IOException {
+			if(remaining==0){
+				return -1;
+			}
+			int c = in.read();
+			if(c>=0 && remaining>0){
+				remaining--;
+			}
+			return c;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(remaining==0){
+				return -1;
+			}
+			if(remaining>0 && len>remaining){
+				len = (int) remaining;
+			}
+			int n = in.read(b, off, len);
+			if(n>0 && remaining>0){
+				remaining -= n;
+			}
+			return n;
+		}
+
+		public int available() throws IOException {
+			int available = in.available();
+			return remaining>=0 && available>remaining ? (int) remaining : available;
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
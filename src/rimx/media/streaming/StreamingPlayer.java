@@ -4,10 +4,9 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Vector;
 
-import javax.microedition.io.Connection;
 import javax.microedition.io.Connector;
-import javax.microedition.io.HttpConnection;
 import javax.microedition.io.file.FileConnection;
 import javax.microedition.media.Control;
 import javax.microedition.media.Manager;
@@ -18,6 +17,8 @@ import javax.microedition.media.protocol.ContentDescriptor;
 import javax.microedition.media.protocol.DataSource;
 import javax.microedition.media.protocol.SourceStream;
 
+import net.rim.device.api.lowmemory.LowMemoryListener;
+import net.rim.device.api.lowmemory.LowMemoryManager;
 import net.rim.device.api.system.EventLogger;
 
 /**
@@ -39,6 +40,8 @@ public class StreamingPlayer implements PlayerListener{
         public static final int CONNECTION_FILE = 2;
         /** Connection type: InputStream Connection */
         public static final int CONNECTION_INPUT_STREAM = 3;
+        /** Connection type: MediaSource supplied by the application */
+        public static final int CONNECTION_MEDIA_SOURCE = 4;
         /** Default     capacity of buffer */
         public static final int DEFAULT_BUFFER_CAPACITY = 4194304;      // 4 MB
         /** Default initialBuffer */
@@ -51,6 +54,36 @@ public class StreamingPlayer implements PlayerListener{
         public static final int DEFAULT_BUFFER_LEAK = DEFAULT_BUFFER_CAPACITY/3;        // 1KB
         /** Default connectionTimeout */
         public static final int DEFAULT_CONNECTION_TIMEOUT = 6000;      // 1KB
+        /** Default standbyIdleTime */
+        public static final int DEFAULT_STANDBY_IDLE_TIME = (int) HttpMediaSource.DEFAULT_STANDBY_IDLE_BUDGET;  // 10 s
+        /** Smallest buffer capacity chosen from free memory, and what low memory shrinks the buffer to */
+        public static final int MIN_BUFFER_CAPACITY = 1048576;  // 1 MB
+        /** Largest buffer capacity chosen from free memory */
+        public static final int MAX_BUFFER_CAPACITY = 8388608;  // 8 MB
+        /** Seconds of media the buffer is sized for once the bitrate of the stream is known */
+        public static final int BUFFER_SECONDS = 120;
+        /** Share of the buffer capacity kept for played data unless a back buffer budget is set, in percent */
+        public static final int DEFAULT_BACK_BUFFER_PERCENT = 25;
+        /** How long after a low memory signal the buffer is not grown, in ms */
+        private static final long MEMORY_PRESSURE_HOLD = 30000;
+        /** How often the buffer capacity is checked against free memory, in ms */
+        private static final long CAPACITY_CHECK_INTERVAL = 5000;
+        /** Smallest range requested from an HTTP source */
+        public static final int MIN_RANGE_SIZE = 262144;        // 256 KB
+        /** Seconds of transfer at the measured throughput a range request is sized for */
+        public static final int RANGE_SECONDS = 10;
+        /** How often a paced Downloader checks whether the player has read down to the low-water mark, in ms */
+        private static final long PACING_POLL_INTERVAL = 500;
+        /** How often the Downloader checks for room in a full buffer, in ms */
+        private static final long SPACE_POLL_INTERVAL = 100;
+        /** Default size of the leading range that fetches the header of HTTP media before the bulk of it */
+        public static final int DEFAULT_STARTUP_RANGE = 65536;  // 64 KB
+        /** How often read() checks for the header while the Player realizes and prefetches, in ms */
+        private static final long STARTUP_POLL_INTERVAL = 50;
+        /** How many bytes reads served by the fast path of read() go without a nowReading() notification */
+        private static final int NOW_READING_INTERVAL = 65536;
+        /** Media time over which the bitrate of a live stream is measured from what the player reads, in microseconds */
+        private static final long LIVE_RATE_WINDOW = 5000000;  // 5 s
         
         /******************************************/
         
@@ -79,8 +112,16 @@ public class StreamingPlayer implements PlayerListener{
         private StreamingPlayer streamingPlayer;
         /** Reference to StreamingPlayerListener of this */
         private StreamingPlayerListener listener;
-        /** Connection to the media source */
-        private Connection connection;  
+        /** The media source. Created from the locator when this StreamingPlayer is realized unless supplied by the application. */
+        private MediaSource source;
+        /** Opens connection to the media source */
+        private ConnectionFactory connectionFactory = new DefaultConnectionFactory();
+        /** Arbitrates the download with the other downloads of the application, or null */
+        private BandwidthScheduler bandwidthScheduler = BandwidthScheduler.getDefault();
+        /** Where the array of the buffer is taken from and given back to, or null to allocate it afresh */
+        private BufferPool bufferPool = BufferPool.getDefault();
+        /** The download of a network source as a flow of bandwidthScheduler, or null */
+        private BandwidthScheduler.Flow bandwidthFlow;
         /** Type of connection: one of CONNECTION_* constants */
         private int connectionType;
         /** Locator URL of the source media */
@@ -93,16 +134,16 @@ public class StreamingPlayer implements PlayerListener{
         private CircularByteBuffer buffer;      
         /** DataSource implementation of this StreamingPlayer */
         private StreamingDataSource dataSource;
-        /** InputStream of the source media*/
-        private InputStream mediaIStream;
         /** SourceStream implementation. Used to feed data to the player. */
         private StreamingSourceStream feedToPlayer;
         /** An InputStream of the buffer */
         private InputStream bufferIStream;
         /** An OutputStream of the buffer */
         private OutputStream bufferOStream;
-        /** A thread that downloads data to the buffer using mediaIStream */
-        private Thread downloader;
+        /** A thread that downloads data from source to the buffer */
+        private volatile Thread downloader;
+        /** A thread that reports the media time and detects stale connections */
+        private Thread timer;
         /** A flag to stop the StreamingSourceStream.read() call.*/
         private boolean stopRead = false;
         /** A flag to stop the Downloader thread.*/
@@ -121,10 +162,10 @@ public class StreamingPlayer implements PlayerListener{
         private boolean downloadStopped = false;
         /** A flag to confirm that MediaTime thread is terminated */ 
         private boolean timerStopped = false;
-        /** Indicates that data has been discarded from the buffer */
-        private boolean dataDiscarded = false;
-        /** Amount of data available in mediaIStream when data is discarded */
-        private long availableAtDiscard = 0;
+        /** Indicates that the player ran out of data, so the MediaTimeThread checks that the download still progresses */
+        private boolean feedStarved = false;
+        /** Amount of data available in source when the player ran out of data */
+        private long availableAtStarve = 0;
         /** Flag that indicates initial buffering is complete. */
         private boolean initialBufferingComplete = false;
         /** Flag that indicates that all contents of the media source is downloaded */
@@ -136,6 +177,8 @@ public class StreamingPlayer implements PlayerListener{
         private long bufferEndsAt = 0;  
         /** Current position of the Player's read head */
         private long now = 0;   
+        /** The position last reported with nowReading() */
+        private long nowReported = 0;
         /** Amount of data to buffer before the seek point. */
         private long seekBuffer = 0;
         /** Current state of this StreamingPlayer. One of  UNREALIZED, REALIZED, PREFETCHED, STARTED and CLOSED */      
@@ -146,6 +189,30 @@ public class StreamingPlayer implements PlayerListener{
         private Object connectionLock = new Object();
         /** A lock to synchronize seek requests initiated by the user.*/
         private Object userSeekLock = new Object();     
+        /** A lock that blocks the Downloader from writing to the buffer */
+        private Object downloadLock = new Object();
+        /** A lock that keeps bufferStartsAt in step with the oldest byte in the buffer. Only the buffer itself is locked while holding it */
+        private Object bufferLock = new Object();
+        /** A lock that guards closing, closeComplete and closeCallbacks */
+        private Object closeLock = new Object();
+        /** Indicates that close() has been called and the teardown thread started */
+        private boolean closing = false;
+        /** Indicates that the teardown started by close() is complete */
+        private boolean closeComplete = false;
+        /** Runnables to run once the teardown is complete */
+        private Vector closeCallbacks = new Vector();
+        /** Bitrate of a live stream measured from what the player reads, in bits per second, or 0 until measured */
+        private long liveBitrate = 0;
+        /** Bytes the player had read, not counting discarded ones, and its media time when liveBitrate was last measured */
+        private long liveSampleBytes = -1;
+        private long liveSampleTime = -1;
+        /** Bytes ahead of the player down to which a live stream catches up, and beyond which it does; 0 until liveBitrate is measured */
+        private volatile int liveTargetBytes = 0;
+        private volatile int liveCatchUpBytes = 0;
+        /** Stale bytes of a live stream discarded to catch up with its live edge */
+        private long discardedBytes = 0;
+        /** Offset at which the Downloader re-opens a local source before writing more data, or -1 */
+        private long pendingSourceOffset = -1;
         /** Indicates whether debug logging (written in event log) is enabled */
         private boolean eventlogEnabled = false;
         /** Indicates whether debug logging (written in SDCard) is enabled */
@@ -171,10 +238,52 @@ public class StreamingPlayer implements PlayerListener{
         private int restartThreshold;
         /** Total capacity of the buffer */
         private int bufferCapacity;
-        /** How much data to lose from the beginning of the buffer when buffer is full and player is reading close to the end of the buffer */
+        /** Set by setBufferLeakSize(int) and mapped onto the back buffer budget, 0 if not set */
         private int bufferLeakSize;
         /** How long to wait on a connection for more data before reconnecting */
         private int connectionTimeout;
+        /** How long a standby connection for seeks and reconnects is kept open unused */
+        private int standbyIdleTime;
+        /** Renditions of the media supplied by the application, or null */
+        private Rendition[] renditions;
+        /** Picks the rendition to play from the measured throughput */
+        private RenditionSelector renditionSelector = new RenditionSelector();
+        /** The rendition selected for a progressive download, or null */
+        private Rendition rendition;
+        /** The rendition last reported to the listener, or null */
+        private Rendition reportedRendition;
+        /** Indicates that preload() connected the data source and started the download before realize() */
+        private boolean preloaded = false;
+        /** Indicates that bufferCapacity is chosen from free memory and bitrate rather than set by the application */
+        private boolean autoBufferCapacity = true;
+        /** Indicates that the media is read from the SharedDownload of the locator rather than downloaded by this player alone */
+        private boolean sharedDownload = false;
+        /** Memory budget of a SharedDownload this player starts: the buffer capacity it would have had on its own */
+        private int sharedBudget;
+        /** Frees buffer memory when the device runs low */
+        private final MemoryMonitor memoryMonitor = new MemoryMonitor();
+        /** Highest LowMemoryListener priority signalled and not handled yet, or -1 */
+        private int memoryPressure = -1;
+        /** When memory pressure was last handled */
+        private long memoryPressureAt = 0;
+        /** When the buffer capacity was last checked against free memory */
+        private long capacityCheckedAt = 0;
+        /** Most played data kept for seeking back, or 0 for DEFAULT_BACK_BUFFER_PERCENT of the capacity */
+        private int backBufferBudget = 0;
+        /** Most data downloaded ahead of the player, or 0 for the capacity left by the back buffer */
+        private int forwardBufferBudget = 0;
+        /** Seconds of media ahead of the player at which a paced download resumes, or 0 if the download is not paced */
+        private int pacingLowWater = 0;
+        /** Seconds of media ahead of the player at which a paced download closes its connection */
+        private int pacingHighWater = 0;
+        /** Indicates that HTTP sources are requested in bounded ranges rather than to the end of the media */
+        private boolean boundedRanges = true;
+        /** Size of the leading range requested when the download starts from the beginning, 0 for none */
+        private int startupRange = DEFAULT_STARTUP_RANGE;
+        /** Media time playback starts at, in microseconds, until it is applied; 0 to start at the beginning */
+        private long startTime = 0;
+        /** Media a live stream keeps buffered ahead of the player, in ms, or 0 to play streams of unknown length as a whole */
+        private int liveLatency = 0;
         
         /**********************************/    
         
@@ -183,6 +292,10 @@ public class StreamingPlayer implements PlayerListener{
          *              - http://
          *              - https://
          *              - file://               
+         * http:// and https:// locators of .m3u8 playlists, or with an HLS playlist type as forcedContentType, 
+         * are played as HLS streams (see HlsMediaSource). An http:// or https:// locator probed recently with
+         * MediaProbe starts on the connection the probe prepared, and the bytes of one prefetched with
+         * PrefetchService are read from local storage.
          * @param locator       A locator String.
          * @param forcedContentType     content-type of the media stream. Cannot be null for file:/// locators.  
          */
@@ -203,7 +316,7 @@ public class StreamingPlayer implements PlayerListener{
         
         /**
          * Creates a new StreamingPlayer from an InputStream. StreamingPlayer created from an InputStream
-         * is not seekable.
+         * is not seekable. The InputStream is closed when this StreamingPlayer is closed.
          * @param is    An InputStream.
          * @param forcedContentType     content-type of the media stream. This cannot be null.
          * @throws IllegalArgumentException     If forcedContentType is null.
@@ -223,7 +336,59 @@ public class StreamingPlayer implements PlayerListener{
                         this.contentType = forcedContentType;
                 else
                         throw new IllegalArgumentException("forcedContentType cannot be null");
-                mediaIStream = is;
+                source = new InputStreamMediaSource(is);
+        }
+        
+        /**
+         * Creates a new StreamingPlayer that streams from a MediaSource supplied by the application,
+         * e.g. a custom source or a FilterMediaSource layered on top of one of the standard sources. 
+         * The StreamingPlayer is seekable if the source is.
+         * @param source        A MediaSource. It is opened when this StreamingPlayer is realized.
+         * @param forcedContentType     content-type of the media stream. If null, MediaSource.getContentType() is used.
+         * @throws IllegalArgumentException     If source is null.
+         */
+        public StreamingPlayer(MediaSource source, String forcedContentType){
+                // initialize logger.
+                EventLogger.register(0x12044bf8d677f8ccL, "StreamingPlayer");
+                
+                log(0, "SP.<init>");
+                log(0, "\tLocator: " + (source==null ? null : source.getLocator()));
+                log(0, "\tforcedContentType: "+forcedContentType);
+                
+                if(source==null)
+                        throw new IllegalArgumentException("source cannot be null");
+                init();
+                connectionType = CONNECTION_MEDIA_SOURCE;
+                this.locator = source.getLocator();
+                this.source = source;
+                this.contentType = forcedContentType;
+        }
+        
+        /**
+         * Creates a new StreamingPlayer that chooses between several renditions of the same media, 
+         * encoded at different bit rates. For HLS renditions (media playlists whose segments are aligned) 
+         * the rendition is switched at segment boundaries as the measured throughput and the buffer level 
+         * change. For progressive renditions the one the measured throughput can sustain is chosen when 
+         * this StreamingPlayer is realized. All renditions must use the same protocol. 
+         * @param renditions    Renditions of the media, with http://, https:// or file:/// locators.
+         * @param forcedContentType     content-type of the media stream. Cannot be null for file:/// locators.
+         * @throws IllegalArgumentException     If renditions is null or empty, or its locators are not valid.
+         */
+        public StreamingPlayer(Rendition[] renditions, String forcedContentType){
+                // initialize logger.
+                EventLogger.register(0x12044bf8d677f8ccL, "StreamingPlayer");
+                
+                log(0, "SP.<init>");
+                log(0, "\tLocator: " + (renditions==null || renditions.length==0 ? null : renditions[0].getLocator()) + " (" + (renditions==null ? 0 : renditions.length) + " renditions)");
+                log(0, "\tforcedContentType: "+forcedContentType);
+                
+                if(renditions==null || renditions.length==0)
+                        throw new IllegalArgumentException("renditions cannot be empty");
+                init();
+                setConnectionType(renditions[0].getLocator());
+                this.renditions = new Rendition[renditions.length];
+                System.arraycopy(renditions, 0, this.renditions, 0, renditions.length);
+                this.contentType = forcedContentType;
         }
         
         /**
@@ -261,8 +426,9 @@ public class StreamingPlayer implements PlayerListener{
                 setInitialBuffer(DEFAULT_INITIAL_BUFFER);               
                 setRestartThreshold(DEFAULT_RESTART_THRESHOLD);         
                 setBufferCapacity(DEFAULT_BUFFER_CAPACITY);             
-                setBufferLeakSize(DEFAULT_BUFFER_LEAK);
+                autoBufferCapacity = true;
                 setConnectionTimeout(DEFAULT_CONNECTION_TIMEOUT);
+                standbyIdleTime = DEFAULT_STANDBY_IDLE_TIME;
                 log(0, "Streaming parameters set to defaults");
         }
         
@@ -297,44 +463,84 @@ public class StreamingPlayer implements PlayerListener{
         }
 
         /**
-         * Opens connection to the locator URL.
-         * Opens InputStream from connection and initializes mediaIStream
-         * Initializes StreamingSourceStream feedToPlayer
+         * Creates the MediaSource for the locator unless one was supplied.
+         */
+        private MediaSource createSource(){
+                if((getConnectionType()==CONNECTION_HTTP || getConnectionType()==CONNECTION_HTTPS) 
+                                && (HlsMediaSource.isPlaylistLocator(getLocator()) || HlsMediaSource.isPlaylistType(contentType))){
+                        if(HlsMediaSource.isPlaylistType(contentType)){
+                                contentType = null;     // the type of the segments is taken from the source
+                        }
+                        HlsMediaSource hlsSource = renditions==null ? new HlsMediaSource(getLocator(), connectionFactory) 
+                                        : new HlsMediaSource(renditions, connectionFactory);
+                        hlsSource.setRenditionSelector(renditionSelector);
+                        return hlsSource;
+                }
+                if(renditions!=null){
+                        BandwidthEstimator estimator = BandwidthEstimator.getDefault();
+                        rendition = renditions[renditionSelector.selectInitial(renditions, estimator.getEstimate())];
+                        locator = rendition.getLocator();
+                        log(0, "SP.createSource() - selected " + rendition + " at estimate " + estimator.getEstimate());
+                }
+                if(getConnectionType()==CONNECTION_HTTP || getConnectionType()==CONNECTION_HTTPS){
+                        HttpMediaSource httpSource = MediaProbe.take(getLocator(), connectionFactory);
+                        if(httpSource!=null){
+                                log(0, "SP.createSource() - using probe of " + getLocator());
+                        } else{
+                                httpSource = new HttpMediaSource(getLocator(), connectionFactory);
+                        }
+                        httpSource.setStandbyIdleBudget(standbyIdleTime);
+                        MediaSource metered = new MeteredMediaSource(httpSource, BandwidthEstimator.getDefault());      // measured for the next selection and the TransportSelector
+                        MediaSource cached = PrefetchService.wrap(getLocator(), metered);
+                        if(cached!=metered){
+                                log(0, "SP.createSource() - using prefetch of " + getLocator());
+                        }
+                        if(sharedDownload && renditions==null){
+                                // the download sizes its ranges itself, since it may outlive this player
+                                SharedMediaSource shared = SharedDownload.attach(getLocator(), cached, sharedBudget, bandwidthScheduler);
+                                log(0, "SP.createSource() - reading " + shared.getDownload());
+                                return shared;
+                        }
+                        return cached;
+                } else if(getConnectionType()==CONNECTION_FILE){
+                        return new FileMediaSource(getLocator(), connectionFactory);
+                }
+                throw new IllegalStateException("No MediaSource for connection type " + getConnectionType());
+        }
+
+        /**
+         * Opens the media source at bufferStartsAt.
+         * Initializes contentType and contentLength from the source if they are not known yet.
          */
         private void initConnection() throws IOException{
                 try{
                         log(0, "Calling SP.initConnection()..");
                         synchronized(connectionLock){
-                                
-                                if(getConnectionType()==CONNECTION_HTTP || getConnectionType()==CONNECTION_HTTPS){
-                                        connection = (HttpConnection) Connector.open(getLocator(), Connector.READ_WRITE);
-                                        log(0, "SP.initConnection() - Connection opened: " + getLocator());
-                                        ((HttpConnection)connection).setRequestProperty("Range", "bytes=" + bufferStartsAt + "-");
-                                        log(0, "SP.initConnection() - Range header set: " + "bytes=" + bufferStartsAt + "-");
-                                        mediaIStream = ((HttpConnection)connection).openInputStream();
-                                        log(0, "SP.initConnection() - mediaIStream:InputStream opened");
-                                        if (contentType == null) {
-                                                setContentType(((HttpConnection)connection).getType());                                 
-                                        }                       
-                                        if(contentLength==0){
-                                                contentLength = ((HttpConnection)connection).getLength();                               
-                                                log(0, "SP.initConnection() - contentLength set: " + contentLength);
-                                        }
-                                } else if(getConnectionType()==CONNECTION_FILE){
-                                        connection = (FileConnection) Connector.open(getLocator(), Connector.READ);
-                                        log(0, "SP.initConnection() - Connection opened: " + getLocator());
-                                        mediaIStream = ((FileConnection)connection).openInputStream();
-                                        log(0, "SP.initConnection() - mediaIStream:InputStream opened");                        
-                                        if(contentLength==0){
-                                                contentLength = ((FileConnection)connection).fileSize();                                
-                                                log(0, "SP.initConnection() - contentLength set: " + contentLength);
-                                        }
-                                } else if(getConnectionType()==CONNECTION_INPUT_STREAM){                        
-                                        if(contentLength==0){
-                                                contentLength = -1;                             
-                                                log(0, "SP.initConnection() - contentLength set: -1");
-                                        }
-                                }                       
+                                if(source==null){
+                                        source = createSource();
+                                }
+                                updateRangeSize();
+                                if(bandwidthFlow==null && bandwidthScheduler!=null && !source.isLocal()){
+                                        bandwidthFlow = bandwidthScheduler.register(getLocator(), BandwidthScheduler.FOREGROUND);
+                                }
+                                if(startTime>0 && source instanceof SegmentedMediaSource){
+                                        ((SegmentedMediaSource) source).seekToTime(startTime);  // the stream starts with the segment playing then
+                                        startTime = 0;
+                                }
+                                if(bufferStartsAt==0 && !initialBufferingComplete){
+                                        // the header first; the bulk is requested alongside unless playback starts further on
+                                        source.setLeadingRange(startupRange, startTime==0);
+                                }
+                                source.open(bufferStartsAt);
+                                log(0, "SP.initConnection() - source opened at " + bufferStartsAt + ": " + source.getLocator());
+                                if (contentType == null) {
+                                        contentType = source.getContentType();
+                                        log(0, "SP.initConnection() - contentType set: " + contentType);
+                                }
+                                if(contentLength==0){
+                                        contentLength = source.getLength();
+                                        log(0, "SP.initConnection() - contentLength set: " + contentLength);
+                                }
                         }
                 } catch(IOException e){
                         notifyStreamingError(StreamingPlayerListener.ERROR_OPENING_CONNECTION);
@@ -352,10 +558,11 @@ public class StreamingPlayer implements PlayerListener{
                                 streamingPlayer.closeConnection();
                                 stopDownload = false;
                                 long oldBufferStartsAt = bufferStartsAt;
-                                bufferStartsAt = bufferEndsAt;  // re-setting bufferStartsAt because this is sent as the range-header.
+                                bufferStartsAt = isLive() ? 0 : bufferEndsAt;   // re-setting bufferStartsAt because this is sent as the range-header; a live stream goes on at its live edge
                                 streamingPlayer.initConnection();
                                 bufferStartsAt = oldBufferStartsAt;
                                 dataSource.start(); 
+                                source.setStandby(true);        // reconnects tend to come in bursts
                                 reconnectInProgress = false;
                                 log(0, "SP.resumeConnection() - download resumed.");
                         } catch(Throwable t){
@@ -364,6 +571,28 @@ public class StreamingPlayer implements PlayerListener{
                 }
         }
          
+        /**
+         * Makes the Downloader continue over a new connection from the end of the buffer, e.g. after
+         * the TransportSelector of a TransportConnectionFactory switched transports. The standby
+         * connection is dropped first, since it was opened over the old transport. Like a seek, this
+         * waits for the Downloader to finish writing its current chunk. Does nothing unless the
+         * Downloader is running; a Downloader stuck on a dead connection is restarted by the stale
+         * connection check as before.
+         */
+        public void reconnect(){
+                if(state==UNREALIZED || state==CLOSED || source==null){
+                        return;
+                }
+                log(0, "Calling SP.reconnect()..");
+                source.setStandby(false);
+                synchronized(downloadLock){
+                        if(downloadComplete || downloader==null || !downloader.isAlive() || pendingSourceOffset>=0){
+                                return;
+                        }
+                        pendingSourceOffset = bufferEndsAt;     // the Downloader re-opens the source and drops what it read before
+                }
+        }
+        
         /**
          * Closes connection
          */
@@ -372,14 +601,9 @@ public class StreamingPlayer implements PlayerListener{
                 synchronized(connectionLock){                                   
                         stopDownload = true;
                         
-                        if (mediaIStream != null) {
-                                mediaIStream.close();   
-                                mediaIStream = null;
+                        if(source!=null){
+                                source.close();
                         }
-                        if(connection!=null){
-                                connection.close();
-                                connection = null;
-                        }               
                         log(0, "SP.closeConnection() - Successful");
                 }
                 
@@ -387,18 +611,23 @@ public class StreamingPlayer implements PlayerListener{
         /**
          * Creates the underlying Player object and calls realize() on it. It also puts this StreamingPlayer in the 
          * REALIZED state. Calling it when StreamingPlayer is not in UNREALIZED state has no effect. Also initializes
-         * the buffer of this StreamingPlayer.
+         * the buffer of this StreamingPlayer. The Player is served the data it reads while realizing as soon as it
+         * has been downloaded; start() waits for the initial buffer.
          * @throws IOException  Thrown by underlying Player while calling Manager.createPlayer().
          * @throws MediaException       Thrown by underlying Player while calling Manager.createPlayer().
          */
         public void realize() throws IOException, MediaException{       
                 log(0, "Calling realize()..");
-                seekBuffer = initialBuffer/3;
-                resetFlags();
-                if(buffer==null)
-                        buffer = new CircularByteBuffer(bufferCapacity, true);
+                boolean wasPreloaded = preloaded && getState()==UNREALIZED;
+                preloaded = false;
+                if(!wasPreloaded){
+                        seekBuffer = initialBuffer/3;
+                        resetFlags();
+                }
+                createBuffer();
                 if(getState()==UNREALIZED){
-                        dataSource = new StreamingDataSource(locator);
+                        if(!wasPreloaded)
+                                dataSource = new StreamingDataSource(locator);
                         player = Manager.createPlayer(dataSource);
                         
                         player.addPlayerListener(this);                 
@@ -414,6 +643,357 @@ public class StreamingPlayer implements PlayerListener{
                 }               
         }
         
+        /**
+         * Opens the connection to the media and starts filling the buffer without creating the underlying Player, 
+         * so that a later realize() finds the initial buffer already downloaded and the Player starts right away.
+         * This is meant for the next item of a playlist while the current one is still playing. The download stops
+         * when the buffer is full, so the buffer capacity bounds the memory a preloaded StreamingPlayer holds;
+         * increaseBufferCapacity() can grow it once it becomes the active one.
+         * Calling it when StreamingPlayer is not in UNREALIZED state, or a second time, has no effect.
+         * @throws IOException  If the connection cannot be opened.
+         */
+        public void preload() throws IOException{
+                log(0, "Calling preload()..");
+                if(getState()!=UNREALIZED || preloaded)
+                        return;
+                seekBuffer = initialBuffer/3;
+                resetFlags();
+                createBuffer();
+                StreamingDataSource preloadSource = new StreamingDataSource(locator);
+                preloadSource.connect();
+                preloadSource.start();
+                preloadSource.preloaded = true;
+                dataSource = preloadSource;
+                preloaded = true;
+                log(0, "SP.preload() - download started");
+        }
+        
+        /**
+         * Allocates the buffer unless it exists. With an automatic bufferCapacity the capacity is taken from free
+         * memory, and halved down to MIN_BUFFER_CAPACITY until the allocation succeeds. The array comes from the
+         * BufferPool, so the capacity is rounded up to its size class.
+         */
+        private void createBuffer(){
+                if(buffer!=null)
+                        return;
+                if(autoBufferCapacity){
+                        bufferCapacity = getTargetBufferCapacity();
+                }
+                if(sharedDownload){
+                        // the shared download holds the media; this buffer only needs the initial buffer and some slack
+                        sharedBudget = bufferCapacity;
+                        bufferCapacity = Math.min(bufferCapacity, Math.max(MIN_BUFFER_CAPACITY, 2*initialBuffer));
+                }
+                while(buffer==null){
+                        try{
+                                BufferPool pool = bufferPool;
+                                buffer = pool!=null ? new CircularByteBuffer(pool.take(bufferCapacity), true) : new CircularByteBuffer(bufferCapacity, true);
+                        } catch(OutOfMemoryError e){
+                                if(!autoBufferCapacity || bufferCapacity<=MIN_BUFFER_CAPACITY){
+                                        throw e;
+                                }
+                                bufferCapacity = Math.max(MIN_BUFFER_CAPACITY, bufferCapacity/2);
+                        }
+                }
+                bufferCapacity = buffer.getSize();
+                applyBufferBudgets();
+                LowMemoryManager.addLowMemoryListener(memoryMonitor);
+                log(0, "SP.createBuffer() - " + bufferCapacity);
+        }
+        
+        /**
+         * Gets the buffer capacity that fits free memory: at most half of the free heap, so that the old and the
+         * new buffer fit while the buffer grows, and BUFFER_SECONDS of media once the bitrate of the stream is
+         * known, within MIN_BUFFER_CAPACITY and MAX_BUFFER_CAPACITY.
+         */
+        private int getTargetBufferCapacity(){
+                long capacity = Math.min(Runtime.getRuntime().freeMemory()/2, MAX_BUFFER_CAPACITY);
+                long bitrate = getStreamBitrate();
+                if(bitrate>0){
+                        capacity = Math.min(capacity, bitrate/8*BUFFER_SECONDS);
+                }
+                return (int) Math.max(capacity, Math.max(MIN_BUFFER_CAPACITY, 2*initialBuffer));
+        }
+        
+        /**
+         * Gets the bitrate of the stream from the rendition playing, as measured for a live stream, or from its length
+         * and duration.
+         * @return      bits per second, or -1 if not known yet.
+         */
+        private long getStreamBitrate(){
+                Rendition playing = getRendition();
+                if(playing!=null){
+                        return playing.getBitrate();
+                }
+                if(liveBitrate>0){
+                        return liveBitrate;
+                }
+                Player p = player;
+                if(p==null || contentLength<=0){
+                        return -1;
+                }
+                try{
+                        long duration = p.getDuration();
+                        return duration>0 ? contentLength*8*1000000/duration : -1;
+                } catch(IllegalStateException e){
+                        return -1;
+                }
+        }
+        
+        /**
+         * Gets the media buffered ahead of the player, from the bitrate of the stream.
+         * @return      microseconds of media, or 0 if the bitrate is not known yet.
+         */
+        private long getBufferedTime(){
+                long bitrate = getStreamBitrate();
+                if(bitrate<=0){
+                        return 0;
+                }
+                return Math.max(0, bufferEndsAt - now) * 8000000 / bitrate;
+        }
+        
+        /**
+         * Gets how much to download before playback starts: the initial buffer, or for a live stream its target latency
+         * (see getLiveTargetBytes()).
+         */
+        private long getStartBuffer(){
+                return isLive() ? getLiveTargetBytes() : initialBuffer;
+        }
+        
+        /**
+         * Gets the media a live stream keeps buffered ahead of the player, in bytes: liveLatency at the bitrate of the 
+         * stream, and at least restartThreshold, so that the feed is not paused right after catching up.
+         */
+        private long getLiveTargetBytes(){
+                long bitrate = getStreamBitrate();
+                long bytes = bitrate>0 ? bitrate/8*liveLatency/1000 : 0;
+                return Math.max(bytes, restartThreshold);
+        }
+        
+        /**
+         * Measures the bitrate of a live stream from the bytes the player read over LIVE_RATE_WINDOW of media time, once
+         * the look-ahead it read before starting no longer counts, and derives the catch-up marks from it. Discarded 
+         * bytes are not counted, since the media time does not include them. Called by the MediaTimeThread.
+         */
+        private void measureLiveBitrate(long mediaTime){
+                long read = now - discardedBytes;
+                if(liveSampleTime<0 || mediaTime<liveSampleTime){
+                        liveSampleTime = mediaTime;
+                        liveSampleBytes = read;
+                        return;
+                }
+                long elapsed = mediaTime - liveSampleTime;
+                if(elapsed<LIVE_RATE_WINDOW){
+                        return;
+                }
+                long measured = (read - liveSampleBytes)*8000000/elapsed;
+                liveBitrate = liveBitrate>0 ? (liveBitrate + measured)/2 : measured;
+                liveSampleTime = mediaTime;
+                liveSampleBytes = read;
+                if(liveBitrate>0){
+                        long target = getLiveTargetBytes();
+                        liveTargetBytes = (int) target;
+                        liveCatchUpBytes = (int) (target + target/2);
+                }
+                log(0, "SP.measureLiveBitrate() - " + liveBitrate + ", target " + liveTargetBytes);
+        }
+        
+        /**
+         * Gets the high-water mark of download pacing in bytes ahead of the player, from the bitrate of the stream. It 
+         * stays below the forward buffer budget, so that the Downloader reaches it, and above restartThreshold.
+         * @return      the mark in bytes, or -1 if the download is not paced or the bitrate is not known yet.
+         */
+        private long getPacingHighMark(){
+                long bitrate = getStreamBitrate();
+                if(pacingHighWater==0 || bitrate<=0){
+                        return -1;
+                }
+                long mark = Math.min(bitrate/8*pacingHighWater, getForwardBufferBudget() - 2*DOWNLOAD_CHUNK);
+                return Math.max(mark, restartThreshold + 2*DOWNLOAD_CHUNK);
+        }
+        
+        /**
+         * Gets the low-water mark of download pacing in bytes ahead of the player. It is halfway to the high-water 
+         * mark if the forward buffer budget cut that below it, and stays above restartThreshold.
+         * @param high  The high-water mark in bytes.
+         */
+        private long getPacingLowMark(long high){
+                long mark = Math.max(0, getStreamBitrate())/8*pacingLowWater;
+                if(mark>=high){
+                        mark = high/2;
+                }
+                return Math.max(mark, restartThreshold + DOWNLOAD_CHUNK);
+        }
+        
+        /**
+         * Sizes the next range request of the source: what the measured throughput fetches in RANGE_SECONDS, at 
+         * most the room left within the forward buffer budget, and at least MIN_RANGE_SIZE. With download pacing the
+         * room ends at the high-water mark, so that a range is used up about when pace() closes the source. Until a
+         * start time is applied, ranges are startupRange long, since only the header is read from where the media
+         * was opened.
+         */
+        private void updateRangeSize(){
+                MediaSource s = source;
+                if(s==null){
+                        return;
+                }
+                if(!boundedRanges){
+                        s.setRangeSize(0);
+                        return;
+                }
+                if(startTime>0 && startupRange>0){
+                        s.setRangeSize(startupRange);
+                        return;
+                }
+                long throughput = BandwidthEstimator.getDefault().getEstimate();
+                long room = getForwardBufferBudget() - (bufferEndsAt - now);
+                long high = getPacingHighMark();
+                if(high>0){
+                        room = Math.min(room, high - (bufferEndsAt - now));
+                }
+                long size = throughput>0 ? Math.min(throughput/8*RANGE_SECONDS, room) : room;
+                s.setRangeSize(Math.max(size, MIN_RANGE_SIZE));
+        }
+        
+        /**
+         * Handles low memory signalled since the last call and, while memory is plentiful, grows an automatically
+         * sized buffer towards getTargetBufferCapacity(). Called by the MediaTimeThread.
+         */
+        private void manageBufferCapacity(){
+                CircularByteBuffer b = buffer;
+                if(b==null){
+                        return;
+                }
+                int pressure;
+                synchronized(memoryMonitor){
+                        pressure = memoryPressure;
+                        memoryPressure = -1;
+                }
+                long time = System.currentTimeMillis();
+                if(pressure>=0){
+                        memoryPressureAt = time;
+                        relieveMemoryPressure(b, pressure);
+                } else if(autoBufferCapacity && !sharedDownload && b.getLimit()==0 && time-memoryPressureAt>MEMORY_PRESSURE_HOLD 
+                                && time-capacityCheckedAt>=CAPACITY_CHECK_INTERVAL){
+                        capacityCheckedAt = time;
+                        int target = getTargetBufferCapacity();
+                        if(target>=bufferCapacity+bufferCapacity/4){
+                                try{
+                                        BufferPool pool = bufferPool;
+                                        byte[] storage = pool!=null ? pool.take(target) : new byte[target];
+                                        byte[] old = b.moveInto(storage);
+                                        if(pool!=null){
+                                                pool.give(old!=null ? old : storage);
+                                        }
+                                        if(old!=null){
+                                                bufferCapacity = storage.length;
+                                                applyBufferBudgets();
+                                                log(0, "SP.manageBufferCapacity() - grown to " + storage.length);
+                                        }
+                                } catch(OutOfMemoryError e){
+                                        memoryPressureAt = time;
+                                }
+                        }
+                }
+                if(b.getLimit()>0){
+                        completeShrink(b);
+                }
+        }
+        
+        /**
+         * Frees the back buffer (played data kept for seeking back) first: at LOW_PRIORITY down to seekBuffer, above
+         * that completely. At MEDIUM_PRIORITY the capacity is then halved and at HIGH_PRIORITY cut to
+         * MIN_BUFFER_CAPACITY, which takes effect once the data ahead of the player fits (see completeShrink()).
+         */
+        private void relieveMemoryPressure(CircularByteBuffer b, int priority){
+                synchronized(bufferLock){
+                        int dropped = b.trimMarked(priority==LowMemoryListener.LOW_PRIORITY ? (int) seekBuffer : 0);
+                        bufferStartsAt += dropped;
+                        log(0, "SP.relieveMemoryPressure(" + priority + ") - back buffer dropped " + dropped);
+                }
+                if(priority==LowMemoryListener.LOW_PRIORITY){
+                        return;
+                }
+                int target = priority==LowMemoryListener.MEDIUM_PRIORITY ? bufferCapacity/2 : MIN_BUFFER_CAPACITY;
+                target = Math.max(target, Math.max(MIN_BUFFER_CAPACITY, 2*initialBuffer));
+                if(target<bufferCapacity){
+                        b.setLimit(target);
+                        log(0, "SP.relieveMemoryPressure(" + priority + ") - shrinking to " + target);
+                }
+        }
+        
+        /**
+         * Moves the buffer into a smaller array once the data ahead of the player fits the limit set by 
+         * relieveMemoryPressure(). The Downloader does not write past the limit meanwhile, and played data is
+         * dropped as the player reads on.
+         */
+        private void completeShrink(CircularByteBuffer b){
+                int limit = b.getLimit();
+                synchronized(bufferLock){
+                        bufferStartsAt += b.trimMarked(limit - 1 - b.getAvailable());
+                        if(!b.resize(limit)){
+                                return;
+                        }
+                        b.setLimit(0);
+                        bufferCapacity = limit;
+                        applyBufferBudgets();
+                }
+                log(0, "SP.completeShrink() - shrunk to " + limit);
+        }
+        
+        /**
+         * Drops the played data beyond the back buffer budget, and beyond what a shrinking buffer leaves room for
+         * next to a chunk. Called by the Downloader before each write, so played data goes a little at a time as 
+         * soon as it is past the budget and the Downloader never waits for the player to discard it. Played data
+         * is kept beyond the budget while the Downloader does not write, e.g. once the download is complete.
+         * For MEMORY_PRESSURE_HOLD after low memory only seekBuffer is kept.
+         */
+        private void reclaimPlayedData(){
+                CircularByteBuffer b = buffer;
+                if(b==null){
+                        return;
+                }
+                int keep = getBackBufferBudget();
+                if(System.currentTimeMillis()-memoryPressureAt<MEMORY_PRESSURE_HOLD){
+                        keep = Math.min(keep, (int) seekBuffer);
+                }
+                synchronized(bufferLock){
+                        int limit = b.getLimit();
+                        if(limit>0){
+                                keep = Math.min(keep, limit - 1 - b.getAvailable() - DOWNLOAD_CHUNK);
+                        }
+                        int dropped = b.trimMarked(keep);
+                        bufferStartsAt += dropped;
+                        if(dropped>0){
+                                log(1, "SP.reclaimPlayedData() - " + dropped);
+                        }
+                }
+        }
+        
+        /**
+         * Makes the buffer hold at most the forward buffer budget ahead of the player.
+         */
+        private void applyBufferBudgets(){
+                CircularByteBuffer b = buffer;
+                if(b!=null){
+                        b.setAheadLimit(getForwardBufferBudget());
+                }
+        }
+        
+        /**
+         * Indicates whether preload() started the download of this StreamingPlayer and it has not been realized since.
+         */
+        public boolean isPreloaded(){
+                return preloaded;
+        }
+        
+        /**
+         * Indicates whether the initial buffer has been downloaded, e.g. by preload().
+         */
+        public boolean isInitialBufferingComplete(){
+                return initialBufferingComplete;
+        }
+        
         /**
          * Puts this StreamingPlayer in the PREFETCHED state. 
          * If this StreamingPlayer is in REALIZED state, simply calls prefetch() on the underlying Player. 
@@ -428,12 +1008,14 @@ public class StreamingPlayer implements PlayerListener{
                 if(getState()==UNREALIZED){
                         realize();
                         if(player!=null){
+                                applyStartTime();
                                 player.prefetch();
                                 state = PREFETCHED;
                                 log(0, "SP.prefetch() - State: PREFETCHED");
                         }                       
                 } else if(getState()==REALIZED){
                         if(player!=null){
+                                applyStartTime();
                                 player.prefetch();
                                 state = PREFETCHED;
                                 log(0, "SP.prefetch() - State: PREFETCHED");
@@ -447,6 +1029,8 @@ public class StreamingPlayer implements PlayerListener{
          * If StreamingPlayer is in REALIZED state, calls StreamingPlayer.prefetch() and Player.start().
          * If StreamingPlayer is in PREFETCHED state, calls Player.start().
          * Otherwise, the call is ignored.
+         * Player.start() is only called once the initial buffer is downloaded; realize() and prefetch() only wait
+         * for the data the Player reads while they run.
          * 
          * @throws MediaException Thrown by StreamingPlayer.realize(), StreamingPlayer.prefetch() or Player.start()
          * @throws IOException Thrown by StreamingPlayer.realize()
@@ -458,6 +1042,7 @@ public class StreamingPlayer implements PlayerListener{
                         realize();
                         prefetch();                     
                         if(player!=null){
+                                awaitInitialBuffer();
                                 player.start();
                                 state = STARTED;
                                 log(0, "SP.start() - State: STARTED");
@@ -465,21 +1050,50 @@ public class StreamingPlayer implements PlayerListener{
                 } else if(getState()==REALIZED){                        
                         prefetch();                     
                         if(player!=null){
+                                awaitInitialBuffer();
                                 player.start();
                                 state = STARTED;
                                 log(0, "SP.start() - State: STARTED");
                         }
                 } else if(getState()==PREFETCHED){                      
                         if(player!=null){
+                                awaitInitialBuffer();
                                 player.start();
                                 state = STARTED;
                                 log(0, "SP.start() - State: STARTED");
                         }
                 }
-                new MediaTimeThread().start();
+                timer = new MediaTimeThread();
+                timer.start();
                 notifyContentLengthUpdated(contentLength);
         }
         
+        /**
+         * Moves the Player to the start time, once it has read the header and before it prefetches. If the media
+         * time cannot be set, playback starts at the beginning.
+         */
+        private void applyStartTime(){
+                long time = startTime;
+                if(time<=0){
+                        return;
+                }
+                startTime = 0;  // releases the Downloader held by holdForStartTime()
+                try{
+                        setMediaTime(time);
+                } catch(MediaException e){
+                        log(0, "FAILED! SP.applyStartTime() - " + e);
+                }
+        }
+        
+        /**
+         * Waits until the initial buffer is downloaded or this StreamingPlayer is closed.
+         */
+        private void awaitInitialBuffer(){
+                while(!initialBufferingComplete && !stopRead && state!=CLOSED){
+                        try{ Thread.sleep(STARTUP_POLL_INTERVAL); } catch(InterruptedException e){}
+                }
+        }
+        
         /**
          * Pauses the playback by calling Player.stop() and puts this StreamingPlayer in PREFETCHED state.
          * If StreamingPlayer is in STARTED state, calls Player.stop()
@@ -497,23 +1111,86 @@ public class StreamingPlayer implements PlayerListener{
         }       
         
         /**
-         * Closes this StreamingPlayer by closing 
-         *              the connection to the media resource.
-         *              the underlying Player object by calling Player.close().
-         * This method blocks until all the threads (DownloadThread and read()) are safely terminated. 
-         * @throws MediaException thrown by Player.stop();                
+         * Closes this StreamingPlayer. It is in the CLOSED state and its threads are told to stop when this returns, 
+         * but the teardown is done by a thread of its own: closing the underlying Player and the connection to the 
+         * media resource, waiting for the DownloadThread and the MediaTimeThread to end and giving the buffer back to 
+         * the BufferPool. A screen can thus close its player without waiting for a socket to close.
+         * @throws MediaException never; kept for compatibility.
          */
         public void close() throws MediaException{
+                close(null);
+        }
+        
+        /**
+         * Closes this StreamingPlayer like close(), and runs onClosed on the teardown thread once the teardown is 
+         * complete. If the teardown is complete already, onClosed is run by the calling thread.
+         * @param onClosed      Run once the teardown is complete, or null.
+         */
+        public void close(Runnable onClosed){
+                boolean started;
+                synchronized(closeLock){
+                        if(onClosed!=null && !closeComplete){
+                                closeCallbacks.addElement(onClosed);
+                                onClosed = null;
+                        }
+                        started = closing;
+                        closing = true;
+                }
+                if(onClosed!=null){
+                        onClosed.run();
+                }
+                if(started){
+                        return;
+                }
                 state = CLOSED;
                 log(0, "Calling SP.close()..");
                 userClose = true;
                 stopRead = true;
                 stopDownload = true;
                 stopTimer = true;
+                preloaded = false;
+                LowMemoryManager.removeLowMemoryListener(memoryMonitor);
+                new Thread(){
+                        public void run(){
+                                tearDown();
+                        }
+                }.start();
+        }
+        
+        /**
+         * Indicates whether the teardown started by close() is complete.
+         */
+        public boolean isCloseComplete(){
+                synchronized(closeLock){
+                        return closeComplete;
+                }
+        }
+        
+        /**
+         * Releases the resources of this StreamingPlayer after close(), then runs the callbacks passed to close().
+         * The DownloadThread and the MediaTimeThread are given connectionTimeout to end before the buffer is given
+         * back; one still blocked on the network by then fails on the buffer rather than write into it.
+         */
+        private void tearDown(){
+                if(source!=null){
+                        source.setStandby(false);
+                }
+                if(bandwidthFlow!=null){
+                        bandwidthFlow.close();
+                        bandwidthFlow = null;
+                }
+                if(source instanceof SharedMediaSource){
+                        ((SharedMediaSource) source).release();
+                }
                 
-                if(player!=null){
-                        player.stop();                  
-                        player.close();
+                Player p = player;
+                if(p!=null){
+                        try{
+                                p.stop();
+                        } catch(MediaException e){
+                                log(0, "SP.tearDown() - Player.stop() failed: " + e.toString());
+                        }
+                        p.close();
                         player=null;
                 }
                 
@@ -522,8 +1199,40 @@ public class StreamingPlayer implements PlayerListener{
                         dataSource=null;                        
                 }               
                 
-                log(0, "SP.close() - All resources cleaned.");
+                long deadline = System.currentTimeMillis() + connectionTimeout;
+                awaitEnd(downloader, deadline);
+                awaitEnd(timer, deadline);
+                
+                if(buffer!=null){
+                        byte[] storage = buffer.detach();       // a Downloader or read() still running fails rather than touch it
+                        if(bufferPool!=null){
+                                bufferPool.give(storage);
+                        }
+                }
+                
+                log(0, "SP.tearDown() - All resources cleaned.");
+                Vector callbacks;
+                synchronized(closeLock){
+                        closeComplete = true;
+                        callbacks = closeCallbacks;
+                        closeCallbacks = new Vector();
+                }
+                for(int i=0; i<callbacks.size(); i++){
+                        try{
+                                ((Runnable) callbacks.elementAt(i)).run();
+                        } catch(Throwable t){
+                                log(0, "SP.tearDown() - close callback failed: " + t.toString());
+                        }
+                }
+        }
         
+        /**
+         * Waits until a thread has ended or the deadline has passed.
+         */
+        private static void awaitEnd(Thread t, long deadline){
+                while(t!=null && t.isAlive() && System.currentTimeMillis()<deadline){
+                        try{ Thread.sleep(100); } catch(InterruptedException e){ }
+                }
         }
         
         /**
@@ -580,7 +1289,11 @@ public class StreamingPlayer implements PlayerListener{
                         log(0, "FAILED! SP.getDuration()");
                         throw new IllegalStateException("Cannot be called in UNREALIZED state");
                 }       
-                long duration = player.getDuration();
+                long duration = getUnderlyingPlayer().getDuration();
+                if(source instanceof SegmentedMediaSource){
+                        long sourceDuration = ((SegmentedMediaSource) source).getDuration();
+                        duration = sourceDuration<0 ? Player.TIME_UNKNOWN : sourceDuration;
+                }
                 log(0, "SP.getDuration() - " + duration);
                 return duration;
         }
@@ -643,11 +1356,22 @@ public class StreamingPlayer implements PlayerListener{
                         try { Thread.sleep(100); } catch (Throwable e) { }                      
                 }
                 userSeek = true;
-                synchronized(connectionLock){                   
-                        long time = player.setMediaTime(microseconds);
-                        log(0, "SP.setMediaTime("+microseconds+") - " + time);
-                        return time;
+                if(source instanceof SegmentedMediaSource){
+                        return seekSegment((SegmentedMediaSource) source, microseconds);
                 }
+                source.setStandby(true);        // connect ahead in case the seek leaves the buffer
+                long time;
+                boolean moved = false;
+                try{
+                        time = getUnderlyingPlayer().setMediaTime(microseconds);        // the stream takes connectionLock itself
+                        moved = true;
+                } finally{
+                        if(!moved){
+                                userSeek = false;       // the stream was not moved, so no seek will clear it
+                        }
+                }
+                log(0, "SP.setMediaTime("+microseconds+") - " + time);
+                return time;
         }
         
         /**
@@ -661,11 +1385,115 @@ public class StreamingPlayer implements PlayerListener{
                         log(0, "FAILED! SP.getMediaTime()");
                         throw new IllegalStateException("Cannot be called in UNREALIZED state");
                 }       
-                long time = player.getMediaTime();
+                if(startTime>0){
+                        log(0, "SP.getMediaTime() - start time " + startTime);
+                        return startTime;       // the Player has not been moved there yet
+                }
+                long time = getUnderlyingPlayer().getMediaTime();
+                if(time!=Player.TIME_UNKNOWN){
+                        time += getTimeOffset();
+                }
                 log(0, "SP.getMediaTime() - " + time);
                 return time;
         }
         
+        /**
+         * Seeks a SegmentedMediaSource. Byte offsets of a segmented stream are not positions in the media, 
+         * so the underlying Player cannot seek it. Instead the stream is restarted at the segment playing at 
+         * microseconds and a new underlying Player is created for it, in the state the old one was in. Listeners 
+         * are told once the new Player is realized, so that they can obtain its controls again. The old DownloadThread 
+         * and MediaTimeThread are given connectionTimeout to end; one still blocked on the network by then is 
+         * superseded by those of the new Player and ends without touching the buffer.
+         * @return      the start time of the segment, in microseconds.
+         */
+        private long seekSegment(SegmentedMediaSource segmented, long microseconds) throws MediaException{
+                log(0, "Calling SP.seekSegment("+microseconds+")..");
+                int previousState = getState();
+                try{
+                        state = UNREALIZED;
+                        if(player!=null){
+                                player.removePlayerListener(this);
+                                player.close();
+                                player = null;
+                        }
+                        if(dataSource!=null){
+                                dataSource.disconnect();
+                        }
+                        buffer.clear(); // releases a Downloader blocked on a full buffer
+                        long deadline = System.currentTimeMillis() + connectionTimeout;
+                        awaitEnd(downloader, deadline);
+                        awaitEnd(timer, deadline);
+                        downloader = null;
+                        timer = null;
+                        
+                        long time = segmented.seekToTime(microseconds);
+                        synchronized(downloadLock){
+                                buffer.clear();
+                                pendingSourceOffset = -1;
+                                bufferStartsAt = 0;
+                                bufferEndsAt = 0;
+                                now = 0;
+                                totalDownload = 0;
+                                feedStarved = false;
+                        }
+                        userSeek = false;       // the new Downloader must resume after errors again
+                        
+                        realize();
+                        notifyUnderlyingPlayerReplaced();
+                        if(previousState==STARTED){
+                                start();
+                        } else if(previousState==PREFETCHED){
+                                prefetch();
+                        }
+                        log(0, "SP.seekSegment("+microseconds+") - " + time);
+                        return time;
+                } catch(IOException e){
+                        log(0, "FAILED! SP.seekSegment() - " + e);
+                        throw new MediaException(e.toString());
+                } finally{
+                        userSeek = false;
+                }
+        }
+        
+        /**
+         * Gets the media time at the start of the stream: the start of the segment a SegmentedMediaSource 
+         * was seeked to, otherwise 0.
+         */
+        private long getTimeOffset(){
+                return source instanceof SegmentedMediaSource ? ((SegmentedMediaSource) source).getTimeOffset() : 0;
+        }
+        
+        /**
+         * Sets the policy that picks the rendition to play from the measured throughput and the buffer level.
+         * This method can only be called while this StreamingPlayer is UNREALIZED.
+         * @param selector      A RenditionSelector.
+         * @throws IllegalArgumentException     If selector is null.
+         * @throws IllegalStateException        If this StreamingPlayer is not UNREALIZED.
+         */
+        public void setRenditionSelector(RenditionSelector selector){
+                if(selector==null)
+                        throw new IllegalArgumentException("selector cannot be null");
+                if(state!=UNREALIZED)
+                        throw new IllegalStateException("StreamingPlayer must be UNREALIZED");
+                renditionSelector = selector;
+        }
+        
+        public RenditionSelector getRenditionSelector(){
+                return renditionSelector;
+        }
+        
+        /**
+         * Gets the rendition being read by the underlying Player.
+         * @return      the rendition, or null if this StreamingPlayer plays a single stream or has not been realized yet.
+         */
+        public Rendition getRendition(){
+                MediaSource s = source;
+                if(s instanceof SegmentedMediaSource){
+                        return ((SegmentedMediaSource) s).getRenditionAt(now);
+                }
+                return rendition;
+        }
+        
         /**
          * Obtain the object that implements the specified Control interface.
          * 
@@ -678,7 +1506,7 @@ public class StreamingPlayer implements PlayerListener{
          * @throws      IllegalStateException   Thrown if getControl is called in a wrong state. See Player for more details.
          */
         public Control getControl(String controlType){
-                return player.getControl(controlType);
+                return getUnderlyingPlayer().getControl(controlType);
         }
         
         /**
@@ -690,7 +1518,19 @@ public class StreamingPlayer implements PlayerListener{
          * @return      the collection of Control objects.
          */
         public Control[] getControls(){
-                return player.getControls();
+                return getUnderlyingPlayer().getControls();
+        }
+        
+        /**
+         * Gets the underlying Player. close() drops it, so this is for the calls that may still come in afterwards.
+         * @throws IllegalStateException        If the underlying Player has been closed.
+         */
+        private Player getUnderlyingPlayer() throws IllegalStateException{
+                Player p = player;
+                if(p==null){
+                        throw new IllegalStateException("Cannot be called in CLOSED state");
+                }
+                return p;
         }
         
         /**
@@ -754,113 +1594,490 @@ public class StreamingPlayer implements PlayerListener{
          * Gets the restartThreshold: Minimum bytes required ahead to resume playback from paused state.
          * @return      Minimum bytes required ahead to resume playback from paused state.
          */
-        public int getRestartThreshold() {
-                log(0, "SP.getRestartThreshold() - " + restartThreshold);
-                return restartThreshold;
+        public int getRestartThreshold() {
+                log(0, "SP.getRestartThreshold() - " + restartThreshold);
+                return restartThreshold;
+        }
+
+        /**
+         * Sets the restartThreshold: Minimum bytes required ahead to resume playback from paused state
+         * @param restartThreshold      new restartThreshold value. Must be less than bufferCapacity, bufferLeakSize, initialBuffer and greater than pauseThreshold.
+         */
+        public void setRestartThreshold(int restartThreshold) {         
+                if(restartThreshold<80000){     // Set the minimum allowed value
+                        this.restartThreshold = 80000;
+                        log(0, "SP.setRestartThreshold() [setting default] - " + 80000);
+                } else{
+                        this.restartThreshold = restartThreshold;
+                        log(0, "SP.setRestartThreshold() - " + restartThreshold);
+                }
+        }
+
+        /**
+         * Sets the amount of data the buffer is allowed to lose to make space for new data for download.
+         * The buffer is designed to hold previously downloaded data as long as possible. When the player
+         * reaches the end of the buffer to read for more and the buffer is full, some data must be discarded 
+         * to make space for more data to download unless end of the stream is reached. Data is discarded 
+         * from the beginning of the buffer.
+         *  
+         * <p>
+         * Played data is no longer discarded in bulk but reclaimed by the Downloader as soon as it is past the
+         * back buffer budget. Unless setBackBufferBudget(int) sets a budget, the leak size sets it to what a full 
+         * buffer used to keep after discarding: the buffer capacity less size.
+         * @param size  The amount of data to discard, or 0 for the default back buffer budget. Must be less than bufferCapacity and greater than initialBuffer and restartThreshold.  
+         */
+        public void setBufferLeakSize(int size){
+                if(size<0){
+                        throw new IllegalArgumentException("Leak size cannot be negative");
+                }
+                this.bufferLeakSize = size;
+                applyBufferBudgets();
+        }
+        
+        /**
+         * Gets the amount of data the buffer is allowed to lose to make space for new data for download.
+         * The buffer is designed to hold previously downloaded data as long as possible. When the player
+         * reaches the end of the buffer to read for more and the buffer is full, some data must be discarded 
+         * to make space for more data to download unless end of the stream is reached. Data is discarded 
+         * from the beginning of the buffer.
+         * This is the buffer capacity less the back buffer budget; see setBufferLeakSize(int).
+         * @return      How much data is not kept once played.
+         */
+        public int getBufferLeakSize(){
+                return bufferCapacity - getBackBufferBudget();
+        }
+        
+        /**
+         * Gets the capacity of the buffer.
+         * @return      Capacity of the buffer.
+         */
+        public int getBufferCapacity() {
+                log(0, "SP.getBufferCapacity() - " + bufferCapacity);
+                return bufferCapacity;
+        }
+        
+        /**
+         * Sets the buffer capacity. Must be set before the player is realized. Turns off automatic sizing (see 
+         * setAutoBufferCapacity(boolean)); the buffer is still shrunk when the device runs low on memory.
+         * @param size  Size of the buffer. Must be greater than initialBuffer, bufferLeakSize, pauseThreshold or restartThreshold 
+         *  
+         */
+        public void setBufferCapacity(int size){                
+                bufferCapacity = size;          
+                autoBufferCapacity = false;
+        }
+        
+        /**
+         * Sets whether the buffer capacity is chosen from free memory at realize() and grown while memory is
+         * plentiful, up to BUFFER_SECONDS of media once the bitrate is known. On by default. Must be set before
+         * the player is realized.
+         */
+        public void setAutoBufferCapacity(boolean auto){
+                autoBufferCapacity = auto;
+        }
+        
+        public boolean isAutoBufferCapacity(){
+                return autoBufferCapacity;
+        }
+        
+        /**
+         * Sets how much played data the buffer keeps for seeking back without reconnecting. Played data beyond 
+         * it is dropped continuously as the player reads on, oldest first.
+         * @param bytes Back buffer budget, or 0 for the budget set by setBufferLeakSize(int) if any, otherwise
+         *              DEFAULT_BACK_BUFFER_PERCENT of the buffer capacity. 
+         */
+        public void setBackBufferBudget(int bytes){
+                if(bytes<0){
+                        throw new IllegalArgumentException("Budget cannot be negative");
+                }
+                backBufferBudget = bytes;
+                applyBufferBudgets();
+        }
+        
+        /**
+         * Gets how much played data the buffer keeps for seeking back. This is less than the budget set if the 
+         * buffer capacity would not leave room for the initial buffer ahead of the player.
+         * @return      Back buffer budget in bytes.
+         */
+        public int getBackBufferBudget(){
+                int capacity = bufferCapacity;
+                int budget;
+                if(backBufferBudget>0){
+                        budget = backBufferBudget;
+                } else if(bufferLeakSize>0){
+                        budget = capacity - bufferLeakSize;
+                } else{
+                        budget = capacity/100*DEFAULT_BACK_BUFFER_PERCENT;
+                }
+                return Math.max(0, Math.min(budget, capacity - 1 - initialBuffer - 2*DOWNLOAD_CHUNK));
+        }
+        
+        /**
+         * Sets how much data the Downloader buffers ahead of the player. The Downloader waits once that much 
+         * has not been played yet, independent of the played data kept.
+         * @param bytes Forward buffer budget, or 0 for the buffer capacity left by the back buffer budget.
+         */
+        public void setForwardBufferBudget(int bytes){
+                if(bytes<0){
+                        throw new IllegalArgumentException("Budget cannot be negative");
+                }
+                forwardBufferBudget = bytes;
+                applyBufferBudgets();
+        }
+        
+        /**
+         * Gets how much data the Downloader buffers ahead of the player. This is at most what the buffer capacity
+         * leaves next to the back buffer budget, and at least the initial buffer.
+         * @return      Forward buffer budget in bytes.
+         */
+        public int getForwardBufferBudget(){
+                int capacity = bufferCapacity;
+                int room = capacity - 1 - getBackBufferBudget() - DOWNLOAD_CHUNK;       // the ring holds one byte less than its size
+                int budget = forwardBufferBudget>0 ? Math.min(forwardBufferBudget, room) : room;
+                return Math.max(budget, Math.min(initialBuffer + DOWNLOAD_CHUNK, capacity - 1 - DOWNLOAD_CHUNK));
+        }
+
+        /**
+         * Increases the size of the buffer by a percent factor of the current bufferCapacity.
+         * @param percent       Amount of increase as a percentage of the current bufferCapacity. E.g. a factor of 50 will increase a 1000KB buffer to 1500KB.
+         */
+        public void increaseBufferCapacity(int percent) {
+                if(percent < 0){ 
+                        log(0, "FAILED! SP.setBufferCapacity() - " + percent);
+                        throw new IllegalArgumentException("Increase factor must be positive..");
+                }
+                synchronized(readLock){
+                        synchronized(connectionLock){                           
+                                synchronized(userSeekLock){
+                                        synchronized(downloadLock){                             
+                                                log(0, "SP.setBufferCapacity() - " + percent);          
+                                                BufferPool pool = bufferPool;
+                                                int size = buffer.getSize() * 2;
+                                                byte[] storage = pool!=null ? pool.take(size) : new byte[size];
+                                                byte[] old = buffer.moveInto(storage);
+                                                if(pool!=null){
+                                                        pool.give(old!=null ? old : storage);
+                                                }
+                                                this.bufferCapacity = buffer.getSize();
+                                                applyBufferBudgets();
+                                        }
+                                }
+                        }
+                }
+        }
+        
+        /**
+         * Gets the connectionTimeout value
+         * @return      connectionTimeout value
+         */
+        public int getConnectionTimeout(){
+                return connectionTimeout;
+        }
+        
+        /**
+         * Sets the connectionTimeout. Since we are using a blocking buffer i.e. download is blocked until player is done with reading a full buffer,
+         * when the buffer is freed up to download more data, the connection might become broken by that time. An exception will be eventually thrown
+         * and connection will be re-initialized. However, the exception might be very delayed and pause the playback for that period. To ensure 
+         * smooth playback, this connectionTimeout value determines how long this StreamingPlayer will wait for a connection before forcefully
+         * re-initializing the connection.
+         * @param timeout
+         */
+        public void setConnectionTimeout(int timeout){
+                this.connectionTimeout = timeout;
+        }
+
+        /**
+         * Sets whether the media is requested in bounded ranges (see MediaSource.setRangeSize()), sized by updateRangeSize() from the
+         * measured throughput and the room in the buffer, rather than from the current position to the end. Each 
+         * connection then ends cleanly, and the next range is requested over a connection prepared in the meantime. 
+         * On by default.
+         */
+        public void setBoundedRanges(boolean bounded){
+                boundedRanges = bounded;
+        }
+        
+        public boolean isBoundedRanges(){
+                return boundedRanges;
+        }
+        
+        /**
+         * Sets the size of the leading range requested from http:// and https:// media when the download starts from
+         * the beginning. The Player reads the header from it in realize() and prefetch() while the bulk of the media is
+         * requested over a second connection, instead of waiting for the initial buffer. 
+         * @param bytes Size of the leading range, at least the header and first keyframe of the media; 0 to request 
+         *              the media as a whole from the start.
+         */
+        public void setStartupRange(int bytes){
+                if(bytes<0){
+                        throw new IllegalArgumentException("Startup range cannot be negative");
+                }
+                startupRange = bytes;
+        }
+        
+        public int getStartupRange(){
+                return startupRange;
+        }
+        
+        /**
+         * Sets the media time playback starts at, e.g. where the user left off. Only the header the Player reads while 
+         * realizing is downloaded from the beginning, which holds the container index when the media is laid out for
+         * streaming. prefetch() then moves the Player to the start time; like for any seek, the Player finds the keyframe
+         * from the index and the download continues from there in bounded ranges. Segmented media is opened at the segment playing at the start time right away.
+         * getMediaTime() reports the start time until the Player has been moved.
+         * This method can only be called while this StreamingPlayer is UNREALIZED.
+         * @param microseconds  Start time in microseconds, or 0 to start at the beginning.
+         * @throws IllegalStateException        If this StreamingPlayer is not UNREALIZED.
+         */
+        public void setStartTime(long microseconds){
+                if(getState()!=UNREALIZED){
+                        throw new IllegalStateException("StreamingPlayer must be UNREALIZED");
+                }
+                if(microseconds<0){
+                        throw new IllegalArgumentException("Start time cannot be negative");
+                }
+                startTime = microseconds;
+        }
+        
+        /**
+         * Gets the media time playback starts at.
+         * @return      Start time in microseconds, or 0 once it has been applied or if playback starts at the beginning.
+         */
+        public long getStartTime(){
+                return startTime;
+        }
+        
+        /**
+         * Makes a stream of unknown length, i.e. a live feed read from an InputStream or from an http:// or https://
+         * locator without a content length, play close to its live edge rather than buffer as much as it can. Playback 
+         * starts once the target latency is buffered instead of the initial buffer. The bitrate of the stream is 
+         * measured from what the player reads; from then on, whenever more than half again the target latency is 
+         * buffered ahead of the player, e.g. after a stall or a pause, the stale bytes are discarded down to the target 
+         * latency, and the listener hears how far playback is from the live edge. Discarding cuts the stream at an 
+         * arbitrary byte; live formats such as MPEG-2 TS, AMR or MP3 resynchronize at the next frame. The target is 
+         * kept at least restartThreshold, so lower that for latencies of a second or two. Media of known length and 
+         * HLS streams, which follow their playlist, play as usual. Off by default.
+         * @param millis        Target latency in ms, or 0 to play streams of unknown length as a whole.
+         */
+        public void setLiveLatency(int millis){
+                if(millis<0){
+                        throw new IllegalArgumentException("Latency cannot be negative");
+                }
+                liveLatency = millis;
+                if(millis==0){
+                        liveCatchUpBytes = 0;
+                        liveTargetBytes = 0;
+                }
+                log(0, "SP.setLiveLatency() - " + millis);
+        }
+        
+        public int getLiveLatency(){
+                return liveLatency;
+        }
+        
+        /**
+         * Indicates whether this StreamingPlayer plays a live stream close to its live edge: a target latency is set 
+         * and the media source, once opened, is of unknown length and not segmented.
+         */
+        public boolean isLive(){
+                MediaSource s = source;
+                return liveLatency>0 && s!=null && !s.isSeekable() && !(s instanceof SegmentedMediaSource);
+        }
+        
+        /**
+         * Gets how far playback of a live stream is from its live edge: the media buffered ahead of the player, not 
+         * counting what the underlying Player has read ahead itself.
+         * @return      microseconds of media, or -1 if the stream is not live or its bitrate is not measured yet.
+         */
+        public long getLiveEdgeDistance(){
+                if(!isLive() || getStreamBitrate()<=0){
+                        return -1;
+                }
+                return getBufferedTime();
+        }
+        
+        /**
+         * Gets the number of stale bytes of a live stream discarded to catch up with its live edge.
+         */
+        public long getDiscardedBytes(){
+                return discardedBytes;
+        }
+        
+        /**
+         * Gets the standbyIdleTime of this StreamingPlayer.
+         * @return      standbyIdleTime in milliseconds.
+         */
+        public int getStandbyIdleTime(){
+                return standbyIdleTime;
+        }
+        
+        /**
+         * Sets the standbyIdleTime of this StreamingPlayer. Before a user seek, after a reconnect and when a connection
+         * might be stale, this StreamingPlayer asks its media source to connect a standby connection to the origin, so that
+         * the seek or reconnect that follows does not wait for connection (and TLS) setup. A standby that is not used 
+         * within standbyIdleTime is closed. Can only be called in the UNREALIZED state and only applies to http/https locators.
+         * @param millis        standbyIdleTime in milliseconds. 0 disables standby connections.
+         * @throws IllegalStateException        If this StreamingPlayer is NOT in UNREALIZED state.
+         */
+        public void setStandbyIdleTime(int millis) throws IllegalStateException{
+                if(getState()!=UNREALIZED){
+                        log(0, "FAILED! SP.setStandbyIdleTime()");
+                        throw new IllegalStateException("Can only be called in UNREALIZED state");
+                }
+                if(millis<0){
+                        throw new IllegalArgumentException("millis cannot be negative");
+                }
+                this.standbyIdleTime = millis;
+                log(0, "SP.setStandbyIdleTime() - " + millis);
         }
 
         /**
-         * Sets the restartThreshold: Minimum bytes required ahead to resume playback from paused state
-         * @param restartThreshold      new restartThreshold value. Must be less than bufferCapacity, bufferLeakSize, initialBuffer and greater than pauseThreshold.
+         * Paces the download in bursts: once highWaterSeconds of media are buffered ahead of the player, the connection
+         * is closed until the player has read down to lowWaterSeconds, and the download then resumes with a new range
+         * request. Fewer, larger transfers let the radio drop to low power in between, and no connection is held open
+         * idle until it times out. The marks are converted to bytes with the bitrate of the stream, so pacing starts 
+         * once that is known; the high-water mark is kept within the forward buffer budget and the low-water mark 
+         * above restartThreshold. Only seekable network sources are paced.
+         * @param lowWaterSeconds       Seconds of media ahead at which the download resumes.
+         * @param highWaterSeconds      Seconds of media ahead at which the download pauses. 0 for both disables pacing, the default.
          */
-        public void setRestartThreshold(int restartThreshold) {         
-                if(restartThreshold<80000){     // Set the minimum allowed value
-                        this.restartThreshold = 80000;
-                        log(0, "SP.setRestartThreshold() [setting default] - " + 80000);
-                } else{
-                        this.restartThreshold = restartThreshold;
-                        log(0, "SP.setRestartThreshold() - " + restartThreshold);
+        public void setDownloadPacing(int lowWaterSeconds, int highWaterSeconds){
+                if(lowWaterSeconds<0 || (highWaterSeconds<=lowWaterSeconds && highWaterSeconds!=0)){
+                        throw new IllegalArgumentException("highWaterSeconds must be above lowWaterSeconds");
                 }
+                pacingLowWater = highWaterSeconds==0 ? 0 : lowWaterSeconds;
+                pacingHighWater = highWaterSeconds;
+                log(0, "SP.setDownloadPacing() - " + pacingLowWater + " " + pacingHighWater);
         }
-
+        
         /**
-         * Sets the amount of data the buffer is allowed to lose to make space for new data for download.
-         * The buffer is designed to hold previously downloaded data as long as possible. When the player
-         * reaches the end of the buffer to read for more and the buffer is full, some data must be discarded 
-         * to make space for more data to download unless end of the stream is reached. Data is discarded 
-         * from the beginning of the buffer.
-         *  
-         * @param size  The amount of data to discard. Must be less than bufferCapacity and greater than initialBuffer and restartThreshold.  
+         * Gets the seconds of media ahead of the player at which a paced download resumes.
          */
-        public void setBufferLeakSize(int size){
-                this.bufferLeakSize = size;
+        public int getPacingLowWater(){
+                return pacingLowWater;
         }
         
         /**
-         * Gets the amount of data the buffer is allowed to lose to make space for new data for download.
-         * The buffer is designed to hold previously downloaded data as long as possible. When the player
-         * reaches the end of the buffer to read for more and the buffer is full, some data must be discarded 
-         * to make space for more data to download unless end of the stream is reached. Data is discarded 
-         * from the beginning of the buffer.
-         * @return      How much data is discarded.
+         * Gets the seconds of media ahead of the player at which a paced download pauses, or 0 if it is not paced.
          */
-        public int getBufferLeakSize(){
-                return bufferLeakSize;
+        public int getPacingHighWater(){
+                return pacingHighWater;
         }
         
         /**
-         * Gets the capacity of the buffer.
-         * @return      Capacity of the buffer.
+         * Sets whether this StreamingPlayer reads the media from the SharedDownload of its locator, so that players
+         * showing the same http:// or https:// locator at once, e.g. a preview and the full-screen player, fetch each
+         * byte once. The first such player starts the download with a memory budget of the buffer capacity it would
+         * otherwise use, as a flow of its BandwidthScheduler; each player then keeps a buffer of only MIN_BUFFER_CAPACITY, or twice the initial buffer
+         * if that is more. Off by default. Can only be called in the UNREALIZED state and does not apply to HLS streams
+         * or renditions.
+         * @throws IllegalStateException        If this StreamingPlayer is NOT in UNREALIZED state.
          */
-        public int getBufferCapacity() {
-                log(0, "SP.getBufferCapacity() - " + bufferCapacity);
-                return bufferCapacity;
+        public void setSharedDownload(boolean shared) throws IllegalStateException{
+                if(getState()!=UNREALIZED){
+                        log(0, "FAILED! SP.setSharedDownload()");
+                        throw new IllegalStateException("Can only be called in UNREALIZED state");
+                }
+                this.sharedDownload = shared;
+        }
+        
+        public boolean isSharedDownload(){
+                return sharedDownload;
         }
         
         /**
-         * Sets the buffer capacity. Must be set before the player is realized. 
-         * @param size  Size of the buffer. Must be greater than initialBuffer, bufferLeakSize, pauseThreshold or restartThreshold 
-         *  
+         * Gets the SharedDownload this StreamingPlayer reads, e.g. to observe how many players share it.
+         * @return      the download, or null if this StreamingPlayer does not read a shared download.
          */
-        public void setBufferCapacity(int size){                
-                bufferCapacity = size;          
+        public SharedDownload getSharedDownload(){
+                MediaSource s = source;
+                return s instanceof SharedMediaSource ? ((SharedMediaSource) s).getDownload() : null;
         }
-
+        
         /**
-         * Increases the size of the buffer by a percent factor of the current bufferCapacity.
-         * @param percent       Amount of increase as a percentage of the current bufferCapacity. E.g. a factor of 50 will increase a 1000KB buffer to 1500KB.
+         * Sets the BandwidthScheduler that arbitrates the download of this StreamingPlayer with the other downloads
+         * of the application: while it plays, the download waits whenever another player is closer to underflow, and
+         * while it is preloaded only spare capacity is used. Can only be called in the UNREALIZED state.
+         * @param scheduler     The scheduler, BandwidthScheduler.getDefault() by default, or null to download regardless.
+         * @throws IllegalStateException        If this StreamingPlayer is NOT in UNREALIZED state.
          */
-        public void increaseBufferCapacity(int percent) {
-                if(percent < 0){ 
-                        log(0, "FAILED! SP.setBufferCapacity() - " + percent);
-                        throw new IllegalArgumentException("Increase factor must be positive..");
+        public void setBandwidthScheduler(BandwidthScheduler scheduler) throws IllegalStateException{
+                if(getState()!=UNREALIZED){
+                        log(0, "FAILED! SP.setBandwidthScheduler()");
+                        throw new IllegalStateException("Can only be called in UNREALIZED state");
                 }
-                synchronized(readLock){
-                        synchronized(connectionLock){                           
-                                synchronized(userSeekLock){
-                                        synchronized(mediaIStream){                             
-                                                log(0, "SP.setBufferCapacity() - " + percent);          
-                                                buffer.resize();
-                                                this.bufferCapacity = buffer.getSize();
-                                        }
-                                }
-                        }
+                this.bandwidthScheduler = scheduler;
+        }
+        
+        public BandwidthScheduler getBandwidthScheduler(){
+                return bandwidthScheduler;
+        }
+        
+        /**
+         * Gets the download of this StreamingPlayer as a flow of its BandwidthScheduler, e.g. to observe its share of the link.
+         * @return      the flow, or null before the source is opened, for local sources and without a scheduler.
+         */
+        public BandwidthScheduler.Flow getBandwidthFlow(){
+                return bandwidthFlow;
+        }
+        
+        /**
+         * Sets the BufferPool the array of the buffer is taken from when this StreamingPlayer allocates it, and given
+         * back to when it is closed, so that switching between videos reuses the arrays rather than leaving them to
+         * the garbage collector. Capacities are rounded up to the size class of the pool. Can only be called in the
+         * UNREALIZED state.
+         * @param pool  The pool, BufferPool.getDefault() by default, or null to allocate the buffer afresh.
+         * @throws IllegalStateException        If this StreamingPlayer is NOT in UNREALIZED state.
+         */
+        public void setBufferPool(BufferPool pool) throws IllegalStateException{
+                if(getState()!=UNREALIZED){
+                        log(0, "FAILED! SP.setBufferPool()");
+                        throw new IllegalStateException("Can only be called in UNREALIZED state");
                 }
+                this.bufferPool = pool;
+        }
+        
+        public BufferPool getBufferPool(){
+                return bufferPool;
         }
         
         /**
-         * Gets the connectionTimeout value
-         * @return      connectionTimeout value
+         * Gets the ConnectionFactory used to open connections to the media source.
+         * @return      the ConnectionFactory of this StreamingPlayer.
          */
-        public int getConnectionTimeout(){
-                return connectionTimeout;
+        public ConnectionFactory getConnectionFactory(){
+                return connectionFactory;
         }
         
         /**
-         * Sets the connectionTimeout. Since we are using a blocking buffer i.e. download is blocked until player is done with reading a full buffer,
-         * when the buffer is freed up to download more data, the connection might become broken by that time. An exception will be eventually thrown
-         * and connection will be re-initialized. However, the exception might be very delayed and pause the playback for that period. To ensure 
-         * smooth playback, this connectionTimeout value determines how long this StreamingPlayer will wait for a connection before forcefully
-         * re-initializing the connection.
-         * @param timeout
+         * Sets the ConnectionFactory used to open connections to the media source, e.g. to route
+         * them through a network emulator. Can only be called in the UNREALIZED state.
+         * @param factory       The ConnectionFactory to use. Cannot be null.
+         * @throws IllegalStateException        If this StreamingPlayer is NOT in UNREALIZED state.
+         * @throws IllegalArgumentException     If factory is null.
          */
-        public void setConnectionTimeout(int timeout){
-                this.connectionTimeout = timeout;
+        public void setConnectionFactory(ConnectionFactory factory) throws IllegalStateException{
+                if(getState()!=UNREALIZED){
+                        log(0, "FAILED! SP.setConnectionFactory()");
+                        throw new IllegalStateException("Can only be called in UNREALIZED state");
+                }
+                if(factory==null){
+                        throw new IllegalArgumentException("factory cannot be null");
+                }
+                this.connectionFactory = factory;
+                log(0, "SP.setConnectionFactory() - " + factory);
+        }
+
+        /**
+         * Gets the MediaSource this StreamingPlayer streams from.
+         * @return      the MediaSource, or null if this StreamingPlayer was created from a locator and has not been realized yet.
+         */
+        public MediaSource getMediaSource(){
+                return source;
         }
 
         /**
          * Gets the connectionType of this StreamingPlayer.
-         * @return      One of CONNECTION_FILE|CONNECTION_HTTP|CONNECTION_HTTPS|CONNECTION_INPUT_STREAM.
+         * @return      One of CONNECTION_FILE|CONNECTION_HTTP|CONNECTION_HTTPS|CONNECTION_INPUT_STREAM|CONNECTION_MEDIA_SOURCE.
          */
         public int getConnectionType() {
                 log(0, "SP.getConnectionType() - " + connectionType);
@@ -974,6 +2191,7 @@ public class StreamingPlayer implements PlayerListener{
         }       
         
         private void notifyNowReading(long position){
+                nowReported = position;
                 if(listener!=null){
                         listener.nowReading(position);
                 }
@@ -985,6 +2203,24 @@ public class StreamingPlayer implements PlayerListener{
                 }
         }
         
+        private void notifyLiveEdgeDistanceUpdated(long distance){
+                if(listener!=null){
+                        listener.liveEdgeDistanceUpdated(distance);
+                }
+        }
+        
+        private void notifyRenditionSwitched(Rendition from, Rendition to){
+                if(listener!=null){
+                        listener.renditionSwitched(from, to);
+                }
+        }
+        
+        private void notifyUnderlyingPlayerReplaced(){
+                if(listener!=null){
+                        listener.underlyingPlayerReplaced();
+                }
+        }
+        
         private void notifyStreamingError(int errorCode){
                 if(listener!=null){
                         listener.streamingError(errorCode);
@@ -998,6 +2234,9 @@ public class StreamingPlayer implements PlayerListener{
         
         private class StreamingDataSource extends DataSource{           
                 
+                /** Set by preload(): the next connect() and start() find the source connected and the download running */
+                private boolean preloaded = false;
+                
                 /**
                  * Constructs a new StreamingDataSource.
                  * @param locator       URL of the media source.
@@ -1008,28 +2247,23 @@ public class StreamingPlayer implements PlayerListener{
                 }
                 
                 /**
-                 * Opens connection to the locator URL.
-                 * Opens InputStream from connection and initializes mediaIStream
+                 * Opens the media source.
                  * Initializes StreamingSourceStream feedToPlayer
                  */
                 public void connect() throws IOException {      
                         log(0, "Calling SDS.connect()...");
+                        if(preloaded){
+                                log(0, "SDS.connect() - connected by preload()");
+                                return;
+                        }
                         initConnection();
                         
-                        if(getConnectionType()==CONNECTION_HTTP || getConnectionType()==CONNECTION_HTTPS){                              
-                                feedToPlayer = new StreamingSourceStream();
-                                log(0, "SDS.connect() - feedToPlayer:StreamingSourceStream initialized");                               
-                        } else if(getConnectionType()==CONNECTION_FILE){                                
-                                feedToPlayer = new StreamingSourceStream();
-                                log(0, "SDS.connect() - feedToPlayer:StreamingSourceStream initialized");                               
-                        } else if(getConnectionType()==CONNECTION_INPUT_STREAM){                                                                
-                                feedToPlayer = new StreamingSourceStream();
-                                log(0, "SDS.connect() - feedToPlayer:StreamingSourceStream initialized");                               
-                        }
+                        feedToPlayer = new StreamingSourceStream();
+                        log(0, "SDS.connect() - feedToPlayer:StreamingSourceStream initialized");
                 }
 
                 /**
-                 * Closes and cleans up connection, mediaIStream and feedToPlayer.
+                 * Closes and cleans up the media source and feedToPlayer.
                  */
                 public void disconnect(){
                         log(0, "Calling SDS.disconnect()...");                  
@@ -1076,6 +2310,10 @@ public class StreamingPlayer implements PlayerListener{
                  * Starts the downloader thread.
                  */
                 public void start() throws IOException {                        
+                        if(preloaded){
+                                preloaded = false;      // the download started by preload() is running
+                                return;
+                        }
                         downloader = new Downloader();
                         downloader.start();             
                 }
@@ -1108,6 +2346,9 @@ public class StreamingPlayer implements PlayerListener{
         /************************* SourceStream Implementation *************************/
         
         private class StreamingSourceStream  implements SourceStream{           
+                /** Set by close(), so that the Player of a disconnected StreamingDataSource does not read what the buffer holds for its successor */
+                private volatile boolean closed = false;
+                
                 /**
                  * Initializes bufferIStream with InputStream of buffer.
                  */
@@ -1138,28 +2379,34 @@ public class StreamingPlayer implements PlayerListener{
                  * Gets data from buffer and returns to player as requested.
                  */
                 public int read(byte[] b, int off, int len) throws IOException {                        
+                        int readCount = readBuffered(b, off, len);
+                        if(readCount>=0){
+                                return readCount;
+                        }
                         log(1, "Calling SSS.read("+len+")..");
                         readStopped = false;
                         
                         synchronized (readLock) {
-                                if (stopRead) { // stop flag is set. Return -1
+                                if (stopRead || closed) {       // stop flag is set. Return -1
                                         log(1, "SSS.read() - " + -1);
                                         readStopped = true;     // set readStopped to notify waiting threads                            
                                         return -1;                                      
                                 }
 
-                                int readCount = 0;                              
                                 int available = 0;
 
                                 boolean restart_pause = false;  
                                 
                                 for (;;) {
-                                        if (stopRead) { // stop flag is set. Return -1
+                                        if (stopRead || closed) {       // stop flag is set. Return -1
                                                 log(1, "SSS.read() - " + -1);
                                                 readStopped = true;     // set readStopped to notify waiting threads
                                                 return -1;
                                         }
                                         
+                                        if(liveCatchUpBytes>0 && initialBufferingComplete){     // e.g. the backlog of a stall arrived while the feed was paused
+                                                catchUpLive();
+                                        }
                                         available = buffer.getAvailable();
                                         
                                         if (downloadComplete) {                 
@@ -1221,79 +2468,99 @@ public class StreamingPlayer implements PlayerListener{
                                                         restart_pause = true;
                                                         notifyFeedPaused(available);                                            
                                                         log(1, "SSS.read() - restart_pause set!");
-                                                } else{ // restart_pause is already set and we dont have enough. Discard some data from the beginning of the buffer (if necessary) to write/download more data to the buffer. Sleep a bit before looping back.                                                  
-                                                        if(restart_pause && buffer.getSpaceLeft()<=DOWNLOAD_CHUNK){                     
+                                                } else{ // restart_pause is already set and we dont have enough. The Downloader has room since it reclaims played data itself; have the MediaTimeThread check that it still downloads. Sleep a bit before looping back.
+                                                        if(!feedStarved && !source.isLocal()){ // a local source has no connection that could go stale
                                                                 synchronized(connectionLock){
-                                                                        log(0, "SSS.read() - discarding data..");
-                                                                        availableAtDiscard = mediaIStream.available();
-                                                                        log(0, "SSS.read() - mediaIStream.available(): " + availableAtDiscard);
-                                                                        bufferIStream.reset();                                  
-                                                                        long discardCount = bufferIStream.skip(bufferLeakSize);
-                                                                        bufferStartsAt += discardCount;
-                                                                        bufferIStream.mark(buffer.getSize()-2);
-                                                                        long skipToNow = bufferIStream.skip(now-bufferStartsAt);
-                                                                        dataDiscarded = true;
-                                                                        log(0, "SSS.read() - discarded " + discardCount);
-                                                                        notifyBufferStatusChanged(bufferStartsAt, buffer.getSize()-buffer.getSpaceLeft());                                                                                                              
+                                                                        availableAtStarve = source.available();
+                                                                        feedStarved = true;
+                                                                        log(0, "SSS.read() - feed starved, source.available(): " + availableAtStarve);
                                                                 }
-                                                        }                                                       
+                                                        }
                                                         log(0, "SSS.read() - feed paused: sleeping..");                                                         
                                                         try{Thread.sleep(500);} catch(Throwable t){}            
                                                 }
+                                        } else if (state!=STARTED && available >= len) {  // the Player reads the header in realize() and prefetch(); serve it as it arrives, start() waits for the initial buffer
+                                                readCount = bufferIStream.read(b, off, len);
+                                                
+                                                log(1, "SSS.read() - before initialBuffering: " + readCount);
+                                                
+                                                now += readCount;
+                                                notifyNowReading(now);
+                                                
+                                                readStopped = true;
+                                                return readCount;
                                         } else {        // initial buffering is not complete yet. So sleep a bit and loop back                                          
                                                 log(0, "SSS.read() - !bufferingComplete: sleeping.." + "Available: " + available);                                                                              
-                                                try{ Thread.sleep(500);} catch (Throwable e) {}
+                                                try{ Thread.sleep(state!=STARTED ? STARTUP_POLL_INTERVAL : 500);} catch (Throwable e) {}
                                         }
                                 }
                         }
                 }
 
                 
-                /** 
-                 * Get the size in bytes of the content on this stream.  
+                /**
+                 * The fast path of read(), taken while the player is far from running out of data: the initial buffer
+                 * is complete and restartThreshold is left buffered after the request, or the download is complete
+                 * and covers it. The request is served with one copy from the buffer; nothing is logged and the
+                 * listener only hears nowReading() every NOW_READING_INTERVAL bytes. readLock is still taken, since 
+                 * seek() repositions the same stream, but it is not contended while the player reads.
+                 * @return      the number of bytes read, or -1 if read() has to decide how to serve the request.
                  */
-                public long getContentLength() {
-                        if(connectionType==CONNECTION_HTTP || connectionType==CONNECTION_HTTPS){                                        
-                                log(0, "SSS.getContentLength() - " + contentLength);
-                                return contentLength;
-                                
-                        } else if(connectionType==CONNECTION_INPUT_STREAM){     // return -1 because contentLength is not known for InputStreams.
-                                log(0, "SSS.getContentLength() - " + -1);
-                                return -1;      
-                        } else if(connectionType==CONNECTION_FILE){     // return true length because we are playing a local resource and can seek forward. 
-                                try {
-                                        long length = ((FileConnection)connection).fileSize();
-                                        log(0, "SSS.getContentLength() - " + length);
-                                        return length;
-                                } catch (IOException e) {
-                                        log(0, "!IOException! in SSS.getContentLength() - -1");
+                private int readBuffered(byte[] b, int off, int len) throws IOException{
+                        if(stopRead || closed || !initialBufferingComplete){
+                                return -1;
+                        }
+                        synchronized(readLock){
+                                if(liveCatchUpBytes>0){
+                                        catchUpLive();
+                                }
+                                int available = buffer.getAvailable();
+                                if(stopRead || (available - len < restartThreshold && !(downloadComplete && available >= len))){
                                         return -1;
                                 }
-                        } else{
-                                log(0, "SSS.getContentLength() - " + -1);
-                                return -1;
+                                int readCount = bufferIStream.read(b, off, len);
+                                now += readCount;
+                                if(now - nowReported >= NOW_READING_INTERVAL){
+                                        notifyNowReading(now);
+                                }
+                                return readCount;
+                        }
+                }
+
+                /**
+                 * Discards the stale bytes of a live stream once more than liveCatchUpBytes are buffered ahead of the 
+                 * player, so that it plays liveTargetBytes behind the live edge again. Called with readLock held by both
+                 * the fast path and the loop of read(), so that it also runs while the feed is paused or short of data.
+                 */
+                private void catchUpLive() throws IOException{
+                        int available = buffer.getAvailable();
+                        if(available<=liveCatchUpBytes){
+                                return;
                         }
+                        long skipped = bufferIStream.skip(available - liveTargetBytes);
+                        now += skipped;
+                        discardedBytes += skipped;
+                        notifyNowReading(now);
+                        log(0, "SSS.catchUpLive() - discarded " + skipped + " stale bytes");
+                }
+
+                /** 
+                 * Get the size in bytes of the content on this stream.  
+                 */
+                public long getContentLength() {
+                        long length = source.isSeekable() ? contentLength : -1;        // -1 because contentLength is not known for InputStreams.
+                        log(0, "SSS.getContentLength() - " + length);
+                        return length;
                 } 
 
                 /**
-                 * Gets the seek type of the connection. Returns either NOT_SEEKABLE (for InputStream based StreamingPlayer) or 
-                 * RANDOM_ACCESSIBLE (for file and http/https connection). 
+                 * Gets the seek type of the connection. Returns RANDOM_ACCESSIBLE if the media source is seekable
+                 * (file and http/https connections of known length) and NOT_SEEKABLE otherwise (e.g. InputStream based StreamingPlayer).
                  */
                 public int getSeekType() {
-                        if(getConnectionType()==CONNECTION_HTTP || getConnectionType()==CONNECTION_HTTPS){
-                                if(contentLength>0){
-                                        log(0, "SSS.getSeekType() - " + "RANDOM_ACCESSIBLE");
-                                        return RANDOM_ACCESSIBLE;                       
-                                } else{
-                                        log(0, "SSS.getSeekType() - " + "NOT_SEEKABLE");
-                                        return NOT_SEEKABLE;
-                                }
-                        } else if(getConnectionType()==CONNECTION_FILE){
+                        if(source.isSeekable()){
                                 log(0, "SSS.getSeekType() - " + "RANDOM_ACCESSIBLE");
                                 return RANDOM_ACCESSIBLE;
-                        } else if(getConnectionType()==CONNECTION_INPUT_STREAM){
-                                log(0, "SSS.getSeekType() - " + "NOT_SEEKABLE");
-                                return NOT_SEEKABLE;
                         } else{
                                 log(0, "SSS.getSeekType() - " + "NOT_SEEKABLE");
                                 return NOT_SEEKABLE;
@@ -1310,40 +2577,67 @@ public class StreamingPlayer implements PlayerListener{
                         }
                         
                         synchronized(readLock){
+                                boolean skipRequired = true;
                                 synchronized(connectionLock){
-                                        if(getConnectionType()==CONNECTION_HTTP || getConnectionType()==CONNECTION_HTTPS || getConnectionType()==CONNECTION_INPUT_STREAM){      
-                                                if(where>=bufferStartsAt && where<=bufferEndsAt){       // seek if seek point is within what the buffer holds now
-                                                        try{
+                                        if(where>=bufferStartsAt && where<=bufferEndsAt){       // seek if seek point is within what the buffer holds now
+                                                try{
+                                                        synchronized(bufferLock){       // the Downloader must not reclaim played data meanwhile
                                                                 bufferIStream.reset();  // reset the buffer stream
                                                                 bufferIStream.mark(buffer.getSize()-2); // re-mark to ensure data persistence as long as possible
                                                                 
-                                                                long actualSkip = bufferIStream.skip(where-bufferStartsAt);     // skip to the seek location                                            
+                                                                long actualSkip = where>bufferStartsAt ? bufferIStream.skip(where-bufferStartsAt) : 0;  // skip to the seek location
                                                                 now = bufferStartsAt+actualSkip;        // update now   
+                                                        }
+                                                        notifyNowReading(now);
+                                                        log(0, "SSS.seek("+where+") - " + now);
+                                                        userSeek = false;
+                                                } catch(Throwable t){
+                                                        notifyStreamingError(StreamingPlayerListener.ERROR_SEEKING);
+                                                }
+                                                return now;
+                                        } else if(source.isLocal() && source.isSeekable()){     // Local source: re-opening is cheap, so reposition it directly
+                                                synchronized(downloadLock){     // block download until we are done seeking
+                                                        try{
+                                                                synchronized(bufferLock){
+                                                                        buffer.clear(); // clear the buffer
+                                                                        bufferStartsAt = where; // update bufferStartsAt
+                                                                }
+                                                                now = bufferStartsAt;   // update now
                                                                 notifyNowReading(now);
-                                                                log(0, "SSS.seek("+where+") - " + now);
+                                                                bufferEndsAt = bufferStartsAt;  //update bufferEndsAt
+                                                                if(downloadComplete || downloader==null || !downloader.isAlive()){      // the source has been read to the end already
+                                                                        source.open(where);
+                                                                        downloadComplete = false;
+                                                                        stopDownload = false;
+                                                                        dataSource.start();
+                                                                } else{
+                                                                        pendingSourceOffset = where;    // the Downloader repositions the source and drops what it read before
+                                                                }
                                                                 userSeek = false;
                                                         } catch(Throwable t){
+                                                                userSeek = false;
                                                                 notifyStreamingError(StreamingPlayerListener.ERROR_SEEKING);
                                                         }
                                                         return now;
-                                                } else if((where<bufferStartsAt || where>bufferEndsAt) && userSeek && getConnectionType()!=CONNECTION_INPUT_STREAM){    // User initiated seek..
-                                                        try{                                                            
-                                                                now = where;
-                                                                notifyNowReading(now);
-                                                                log(0, "SSS.seek("+where+") [userSeek]");
-                                                                stopDownload = true;    // stop Download Thread
-                                                                buffer.clear(); // Clear the buffer
-                                                                
-                                                                streamingPlayer.closeConnection();      // Close the connection to the source media
-                                                                log(0, "SSS.seek("+where+") [userSeek] - waiting for download thread to stop..");                                               
-                                                                while(!downloadStopped && downloader.isAlive()) {       // Wait for download thread to terminate
-                                                                        try{ Thread.sleep(100); } catch(Throwable t) {} 
-                                                                }               
+                                                }
+                                        } else if(userSeek && source.isSeekable()){    // User initiated seek..
+                                                try{                                                            
+                                                        now = where;
+                                                        notifyNowReading(now);
+                                                        log(0, "SSS.seek("+where+") [userSeek]");
+                                                        stopDownload = true;    // stop Download Thread
+                                                        buffer.clear(); // Clear the buffer
+                                                        
+                                                        streamingPlayer.closeConnection();      // Close the connection to the source media
+                                                        log(0, "SSS.seek("+where+") [userSeek] - waiting for download thread to stop..");                                               
+                                                        while(!downloadStopped && downloader.isAlive()) {       // Wait for download thread to terminate
+                                                                try{ Thread.sleep(100); } catch(Throwable t) {} 
+                                                        }               
+                                                        log(0, "SSS.seek("+where+") [userSeek] - download thread stopped..");
+                                                                                                        
+                                                        // download from a little earlier than the seek position
+                                                        synchronized(bufferLock){
                                                                 buffer.clear(); // Clear the buffer
-                                                                log(0, "SSS.seek("+where+") [userSeek] - download thread stopped..");
-                                                                                                                
-                                                                // download from a little earlier than the seek position
-                                                                boolean skipRequired = true;
                                                                 bufferStartsAt = where-seekBuffer;              
                                                                 if(bufferStartsAt<0){
                                                                         log(0, "SSS.seek("+where+") [userSeek] - Skipping not required.. bufferStartsAt: " + bufferStartsAt);
@@ -1351,57 +2645,46 @@ public class StreamingPlayer implements PlayerListener{
                                                                         skipRequired = false;
                                                                         log(0, "SSS.seek("+where+") [userSeek] - bufferStartsAt set to 0");
                                                                 }
-                                                                
-                                                                bufferEndsAt = bufferStartsAt;  // set bufferEndsAt             
-                                                                totalDownload = 0;
-                                                                resetFlags();
-                                                                initConnection(); //reopen connection with range header = buferStartsAt
-                                                                
-                                                                
-                                                                bufferIStream.mark(buffer.getSize()-2);                                                         
-                                                                dataSource.start();     // start a new Download thread
-                                                                userSeek = false;
-                                                                log(0, "SSS.seek("+where+") [userSeek] - waiting for initialBuffering to complete..");
-                                                                while(!initialBufferingComplete){ // wait till initialBuffer is filled up.
-                                                                        try { Thread.sleep(500); } catch (Throwable t) { }
-                                                                }                                               
-                                                                if(skipRequired){
-                                                                        log(0, "SSS.seek("+where+") [userSeek] - Skipping seekBuffer: " + seekBuffer);
-                                                                        bufferIStream.skip(seekBuffer);
-                                                                }
-                                                                skipRequired = true;
-                                                                
-                                                                log(0, "SSS.seek("+where+") [userSeek] - initialBufferingComplete");                                                                                    
-                                                                
-                                                                log(0, "SSS.seek("+where+") [userSeek] - " + now);                                                                                                                              
-                                                        } catch (Throwable t){
-                                                                userSeek = false;                                                               
-                                                                notifyStreamingError(StreamingPlayerListener.ERROR_SEEKING);
-                                                        }
-                                                        return now;      
-                                                } else{ // Cannot skip to a point outside of what the buffer holds now
-                                                        log(0, "SSS.seek("+where+") - " + now + " [DUMMY]" +" bufferStartsAt: " + bufferStartsAt + " bufferEndsAt: " + bufferEndsAt);
-                                                        return now;
-                                                }
-                                        } else if(getConnectionType()==CONNECTION_FILE){        //TODO: can be optimized a lot  
-                                                synchronized(mediaIStream){     // block download until we are done seeking                     
-                                                        try{
-                                                                buffer.clear(); // clear the buffer
-                                                                mediaIStream.reset();   // reset the file stream
-                                                                long actualSkip = mediaIStream.skip(where);     // skip to where
-                                                                bufferStartsAt = actualSkip;    // update bufferStartsAt
-                                                                now = bufferStartsAt;   // update now
-                                                                notifyNowReading(now);
-                                                                bufferEndsAt = bufferStartsAt;  //update bufferEndsAt                                                                                                   
-                                                        } catch(Throwable t){
-                                                                notifyStreamingError(StreamingPlayerListener.ERROR_SEEKING);
                                                         }
+                                                        
+                                                        bufferEndsAt = bufferStartsAt;  // set bufferEndsAt             
+                                                        totalDownload = 0;
+                                                        resetFlags();
+                                                        initConnection(); //reopen connection with range header = buferStartsAt
+                                                        source.setStandby(true);        // users often seek again shortly after
+                                                        
+                                                        
+                                                        bufferIStream.mark(buffer.getSize()-2);                                                         
+                                                        dataSource.start();     // start a new Download thread
+                                                        userSeek = false;
+                                                } catch (Throwable t){
+                                                        userSeek = false;                                                               
+                                                        notifyStreamingError(StreamingPlayerListener.ERROR_SEEKING);
                                                         return now;
                                                 }
-                                        } else{
-                                                return now; 
+                                        } else{ // Cannot skip to a point outside of what the buffer holds now
+                                                log(0, "SSS.seek("+where+") - " + now + " [DUMMY]" +" bufferStartsAt: " + bufferStartsAt + " bufferEndsAt: " + bufferEndsAt);
+                                                return now;
+                                        }
+                                }
+                                // wait till initialBuffer is filled up, without connectionLock: a Downloader that fails meanwhile needs it to reconnect
+                                log(0, "SSS.seek("+where+") [userSeek] - waiting for initialBuffering to complete..");
+                                awaitInitialBuffer();
+                                if(!initialBufferingComplete){
+                                        log(0, "SSS.seek("+where+") [userSeek] - stopped before initialBufferingComplete");
+                                        return now;
+                                }
+                                try{
+                                        if(skipRequired){
+                                                log(0, "SSS.seek("+where+") [userSeek] - Skipping seekBuffer: " + seekBuffer);
+                                                bufferIStream.skip(seekBuffer);
                                         }
+                                } catch (Throwable t){
+                                        notifyStreamingError(StreamingPlayerListener.ERROR_SEEKING);
                                 }
+                                log(0, "SSS.seek("+where+") [userSeek] - initialBufferingComplete");
+                                log(0, "SSS.seek("+where+") [userSeek] - " + now);
+                                return now;
                         }
                 }       
 
@@ -1425,7 +2708,7 @@ public class StreamingPlayer implements PlayerListener{
                 }
                 
                 public void close(){
-                        
+                        closed = true;
                 }
                 
         }
@@ -1444,47 +2727,71 @@ public class StreamingPlayer implements PlayerListener{
                                 int len = 0;                    
                                 
                                 notifyFeedPaused(0);
-                                while (-1 != (len = mediaIStream.read(data))) {
-                                        log(1, "DownloadThread - read " + len);
-                                        if (stopDownload){
-                                                downloadStopped = true;                                                 
-                                                log(0, "DownloadThread - stopped");
-                                                return;                                         
-                                        }
-                                        synchronized(mediaIStream){                                             
+                                boolean repositioned;
+                                do{
+                                        while (-1 != (len = readSource(data))) {
+                                                log(1, "DownloadThread - read " + len);
+                                                if (stopDownload){
+                                                        downloadStopped = true;                                                 
+                                                        log(0, "DownloadThread - stopped");
+                                                        return;                                         
+                                                }
+                                                reclaimPlayedData();
+                                                waitForSpace(len);
+                                                synchronized(downloadLock){                                             
+                                                        if(downloader!=this){   // resumeDownload() started another Downloader meanwhile
+                                                                log(0, "DownloadThread - superseded");
+                                                                return;
+                                                        }
+                                                        if(pendingSourceOffset>=0){     // read from before a seek repositioned the source
+                                                                continue;
+                                                        }
                                                                                         
-                                                byte[] preProcessed = notifyPreprocessData(data, 0, len);
+                                                        byte[] preProcessed = notifyPreprocessData(data, 0, len);
                                                 
-                                                if(preProcessed!=null){
-                                                        log(1, "Writing preProcessed bytes: " + preProcessed.length + "..");
-                                                        bufferOStream.write(preProcessed, 0, preProcessed.length);                                      
-                                                        bufferEndsAt += preProcessed.length;
-                                                        log(1, "DownloadThread - preProcessed bytes written: " + preProcessed.length);                                          
-                                                } else{
-                                                        log(1, "Writing bytes: " + len + "..");
-                                                        bufferOStream.write(data, 0, len);                                      
-                                                        bufferEndsAt += len;
-                                                        log(1, "DownloadThread - bytes written: " + len);
-                                                }
+                                                        if(preProcessed!=null){
+                                                                log(1, "Writing preProcessed bytes: " + preProcessed.length + "..");
+                                                                bufferOStream.write(preProcessed, 0, preProcessed.length);                                      
+                                                                bufferEndsAt += preProcessed.length;
+                                                                log(1, "DownloadThread - preProcessed bytes written: " + preProcessed.length);                                          
+                                                        } else{
+                                                                log(1, "Writing bytes: " + len + "..");
+                                                                bufferOStream.write(data, 0, len);                                      
+                                                                bufferEndsAt += len;
+                                                                log(1, "DownloadThread - bytes written: " + len);
+                                                        }
                                                 
-                                                notifyBufferStatusChanged(bufferStartsAt, buffer.getSize() - buffer.getSpaceLeft());                                    
+                                                        notifyBufferStatusChanged(bufferStartsAt, buffer.getSize() - buffer.getSpaceLeft());                                    
                                                 
                                                 
-                                                totalDownload += len;
-                                                notifyDownloadStatusUpdated(totalDownload);                                             
+                                                        totalDownload += len;
+                                                        notifyDownloadStatusUpdated(totalDownload);                                             
                                                 
-                                                if (!initialBufferingComplete && totalDownload >= initialBuffer) {                                                      
-                                                        initialBufferingComplete = true;                                                
-                                                        log(0, "DownloadThread - initialBuffering complete");
-                                                        notifyInitialBufferCompleted(totalDownload);
-                                                }                                       
+                                                        if (!initialBufferingComplete && totalDownload >= getStartBuffer()) {                                                      
+                                                                initialBufferingComplete = true;                                                
+                                                                log(0, "DownloadThread - initialBuffering complete");
+                                                                notifyInitialBufferCompleted(totalDownload);
+                                                        }                                       
+                                                }
+                                                pace();
+                                                holdForStartTime();
+                                                if (stopDownload){
+                                                        downloadStopped = true;                                                 
+                                                        log(0, "DownloadThread - stopped");
+                                                        return;                                         
+                                                }
+                                        }
+                                        synchronized(downloadLock){
+                                                repositioned = pendingSourceOffset>=0;  // a seek came in after the end of the source was reached
+                                                if(!repositioned){
+                                                        downloadComplete = true;
+                                                }
                                         }
-                                }                       
+                                } while(repositioned);
                                 if(!initialBufferingComplete){
                                         initialBufferingComplete = true;
                                         notifyInitialBufferCompleted(totalDownload);
                                 }
-                                downloadComplete = true;
                                 downloadStopped = true;
                                 log(0, "DownloadThread - download stopped.");
                                 log(0, "DownloadThread - download complete.");
@@ -1493,10 +2800,10 @@ public class StreamingPlayer implements PlayerListener{
                                 downloadStopped = true;
                                 log(0, "DownloadThread - download stopped due to an Exception - "+e.toString());                                
                                 
-                                if(!reconnectInProgress && !userClose && !userSeek){
+                                if(!reconnectInProgress && !userClose && !userSeek && downloader==this){
                                         synchronized(connectionLock){
                                                 notifyStreamingError(StreamingPlayerListener.ERROR_DOWNLOADING);
-                                                dataDiscarded = false;
+                                                feedStarved = false;
                                                 log(0, "DownloadThread - Trying to resume connection..");
                                                 streamingPlayer.resumeDownload();       
                                                 log(0, "DownloadThread - connected.. download resumed.");
@@ -1504,60 +2811,214 @@ public class StreamingPlayer implements PlayerListener{
                                 }
                         }
                 }
+                
+                /**
+                 * Waits for room for len bytes in the buffer before downloadLock is taken, so that a full buffer blocks
+                 * the Downloader rather than a seek waiting for the lock. Sources that are not paced, e.g. local ones,
+                 * fill the buffer up to the forward buffer budget. Returns early if a seek comes in meanwhile.
+                 */
+                private void waitForSpace(int len){
+                        while(!stopDownload && downloader==this && buffer.getSpaceLeft()<len){
+                                synchronized(downloadLock){
+                                        if(pendingSourceOffset>=0){
+                                                return;
+                                        }
+                                }
+                                try{ Thread.sleep(SPACE_POLL_INTERVAL); } catch(InterruptedException e){}
+                                reclaimPlayedData();
+                        }
+                }
+                
+                /**
+                 * Until the start time is applied, keeps the download within startupRange of the player, so that only the
+                 * header the Player reads while realizing is downloaded from where the media was opened.
+                 */
+                private void holdForStartTime(){
+                        while(startTime>0 && startupRange>0 && !stopDownload && buffer.getAvailable()>=startupRange){
+                                synchronized(downloadLock){
+                                        if(pendingSourceOffset>=0){
+                                                return;
+                                        }
+                                }
+                                try{ Thread.sleep(STARTUP_POLL_INTERVAL); } catch(InterruptedException e){}
+                        }
+                }
+                
+                /**
+                 * With download pacing, closes the source once the high-water mark is buffered ahead of the player and
+                 * waits for the player to read down to the low-water mark. The source is then re-opened at the end of the
+                 * buffer by readSource(), like after a seek. A bounded range is read to its end first, since closing it
+                 * earlier throws away the bytes of it the origin has sent already. Returns early if a seek or reconnect 
+                 * comes in meanwhile, which re-opens the source anyway, or if the download is stopped.
+                 */
+                private void pace() throws IOException{
+                        long high = getPacingHighMark();
+                        if(high<=0 || bufferEndsAt - now < high || source.isLocal() || !source.isSeekable()){
+                                return;
+                        }
+                        if(source.getRangeRemaining()>0){
+                                return;
+                        }
+                        if(contentLength>0 && bufferEndsAt>=contentLength){
+                                return; // the last range is used up; the next read ends the download
+                        }
+                        synchronized(downloadLock){
+                                if(pendingSourceOffset>=0 || downloadComplete){
+                                        return;
+                                }
+                                source.close();
+                        }
+                        log(0, "DownloadThread - paced at " + (bufferEndsAt - now) + " bytes ahead");
+                        while(!stopDownload){
+                                synchronized(downloadLock){
+                                        if(pendingSourceOffset>=0){
+                                                return;
+                                        }
+                                        if(bufferEndsAt - now <= getPacingLowMark(high)){
+                                                pendingSourceOffset = bufferEndsAt;
+                                                log(0, "DownloadThread - resuming at " + bufferEndsAt);
+                                                return;
+                                        }
+                                }
+                                try{ Thread.sleep(PACING_POLL_INTERVAL); } catch(InterruptedException e){ }
+                        }
+                }
+                
+                /**
+                 * Reads the next chunk from the source, first re-opening it if a seek asked for that.
+                 * Chunks read before such a request are dropped.
+                 */
+                private int readSource(byte[] data) throws IOException{
+                        while(true){
+                                synchronized(downloadLock){
+                                        if(pendingSourceOffset>=0){
+                                                source.open(pendingSourceOffset);
+                                                pendingSourceOffset = -1;
+                                        }
+                                }
+                                BandwidthScheduler.Flow flow = bandwidthFlow;
+                                if(flow!=null){
+                                        // a preloaded player waits for its turn until the user gets to it
+                                        flow.setPriority(isPreloaded() ? BandwidthScheduler.BACKGROUND : BandwidthScheduler.FOREGROUND);
+                                        flow.setBufferedTime(getBufferedTime());
+                                        flow.await();
+                                }
+                                int len = source.read(data, 0, data.length);
+                                if(flow!=null){
+                                        flow.transferred(len);
+                                }
+                                synchronized(downloadLock){
+                                        if(pendingSourceOffset<0){
+                                                return len;
+                                        }
+                                }
+                        }
+                }
         }
         
         /************************* End of Downloader Thread *************************/
         
+        /**
+         * Receives low memory signals. The buffer is shrunk by the MediaTimeThread, which holds the locks
+         * needed for that anyway; the system thread that signals is not blocked on the Downloader. A player
+         * that is preloaded or not started has no MediaTimeThread yet, so its buffer is shrunk right away.
+         */
+        private class MemoryMonitor implements LowMemoryListener{
+                public boolean freeStaleObject(int priority){
+                        CircularByteBuffer b = buffer;
+                        if(b==null || (b.getMarked()==0 && b.getSize()<=MIN_BUFFER_CAPACITY)){
+                                return false;
+                        }
+                        Thread t = timer;
+                        if(t!=null && t.isAlive()){
+                                synchronized(this){
+                                        memoryPressure = Math.max(memoryPressure, priority);
+                                }
+                                return true;
+                        }
+                        int size = b.getSize();
+                        int marked = b.getMarked();
+                        memoryPressureAt = System.currentTimeMillis();
+                        relieveMemoryPressure(b, priority);
+                        if(b.getLimit()>0){
+                                completeShrink(b);
+                        }
+                        return b.getSize()<size || b.getMarked()<marked;
+                }
+        }
+        
         private class MediaTimeThread extends Thread{
                 public void run(){                      
                         long tempTotal = 0;
-                        long discardTime = 0;
+                        long starvedAt = 0;
                         log(0, "Started MediaTimeThread");
-                        while(!stopTimer){
+                        while(!stopTimer && timer==this){       // a seek of a SegmentedMediaSource may have started another
                                 
                                 synchronized(connectionLock){
                                         // Detect stale connection.
-                                        if(dataDiscarded){
+                                        if(feedStarved){
                                                 
-                                                if(tempTotal==0 && discardTime==0){
+                                                if(tempTotal==0 && starvedAt==0){
                                                         tempTotal = totalDownload;
-                                                        discardTime = System.currentTimeMillis();
-                                                        log(0, "MediaTimeThread - tempTotal, discardTime set");
+                                                        starvedAt = System.currentTimeMillis();
+                                                        source.setStandby(true);        // in case the connection turns out to be stale
+                                                        log(0, "MediaTimeThread - tempTotal, starvedAt set");
                                                 }
                                                 
-                                                if(dataDiscarded)                                               
-                                                        log(0, "MediaTimeThread - " + ((totalDownload-tempTotal) < (availableAtDiscard+DOWNLOAD_CHUNK) && (System.currentTimeMillis()-discardTime) > connectionTimeout)+" "+(totalDownload - tempTotal) + "<>" + (availableAtDiscard+DOWNLOAD_CHUNK) + " : " + (System.currentTimeMillis()-discardTime));
+                                                if(feedStarved)                                               
+                                                        log(0, "MediaTimeThread - " + ((totalDownload-tempTotal) < (availableAtStarve+DOWNLOAD_CHUNK) && (System.currentTimeMillis()-starvedAt) > connectionTimeout)+" "+(totalDownload - tempTotal) + "<>" + (availableAtStarve+DOWNLOAD_CHUNK) + " : " + (System.currentTimeMillis()-starvedAt));
                                                 
-                                                if((totalDownload-tempTotal) < (availableAtDiscard+DOWNLOAD_CHUNK) && (System.currentTimeMillis()-discardTime) > connectionTimeout){
-                                                        dataDiscarded = false;
+                                                if((totalDownload-tempTotal) < (availableAtStarve+DOWNLOAD_CHUNK) && (System.currentTimeMillis()-starvedAt) > connectionTimeout){
+                                                        feedStarved = false;
                                                         tempTotal = 0;
-                                                        discardTime = 0;
-                                                        availableAtDiscard = 0;
+                                                        starvedAt = 0;
+                                                        availableAtStarve = 0;
                                                         log(0, "MediaTimeThread - Trying to resume connection..");
                                                         reconnectInProgress = true;
                                                         streamingPlayer.resumeDownload();                                                       
                                                         log(0, "MediaTimeThread - download resumed.");                                  
-                                                } else if((totalDownload - tempTotal) >= (availableAtDiscard+DOWNLOAD_CHUNK) && (System.currentTimeMillis()-discardTime) > connectionTimeout){
-                                                        dataDiscarded = false;
+                                                } else if((totalDownload - tempTotal) >= (availableAtStarve+DOWNLOAD_CHUNK) && (System.currentTimeMillis()-starvedAt) > connectionTimeout){
+                                                        feedStarved = false;
                                                         tempTotal = 0;
-                                                        discardTime = 0;
-                                                        availableAtDiscard = 0;
+                                                        starvedAt = 0;
+                                                        availableAtStarve = 0;
                                                         log(0, "MediaTimeThread - connection was not stale.");
                                                 }
                                         } else{
-                                                dataDiscarded = false;
+                                                feedStarved = false;
                                                 tempTotal = 0;
-                                                discardTime = 0;
-                                                availableAtDiscard = 0;
+                                                starvedAt = 0;
+                                                availableAtStarve = 0;
                                         }
                                 }
                                 
-                                if(state!=UNREALIZED){                                  
+                                if(state!=UNREALIZED && state!=CLOSED){                                 
                                         try{
-                                                notifyNowPlaying(player.getMediaTime());
+                                                long mediaTime = getUnderlyingPlayer().getMediaTime() + getTimeOffset();
+                                                if(source instanceof SegmentedMediaSource){
+                                                        ((SegmentedMediaSource) source).setPlaybackTime(mediaTime);
+                                                }
+                                                notifyNowPlaying(mediaTime);
+                                                if(isLive()){
+                                                        if(state==STARTED){
+                                                                measureLiveBitrate(mediaTime);
+                                                        }
+                                                        long distance = getLiveEdgeDistance();
+                                                        if(distance>=0){
+                                                                notifyLiveEdgeDistanceUpdated(distance);
+                                                        }
+                                                }
                                         } catch(IllegalStateException ise){
                                                 log(0, "FAILED! P.getMediaTime(): " + ise);
                                         }
+                                        manageBufferCapacity();
+                                        updateRangeSize();
+                                        Rendition playing = getRendition();
+                                        if(playing!=null && playing!=reportedRendition){
+                                                log(0, "MediaTimeThread - rendition switched from " + reportedRendition + " to " + playing);
+                                                notifyRenditionSwitched(reportedRendition, playing);
+                                                reportedRendition = playing;
+                                        }
                                 }
                                 try{ Thread.sleep(100); } catch(Throwable t){ }
                         }
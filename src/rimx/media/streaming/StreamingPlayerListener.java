@@ -3,7 +3,8 @@ package rimx.media.streaming;
 /**
  * Implement this interface and add your implementation using
  * StreamingPlayer.addStreamingPlayerListener(StreamingPlayerListener) to receive events
- * related to the associated StreamingPlayer.
+ * related to the associated StreamingPlayer. Events are added to this interface as StreamingPlayer
+ * gains features; extend StreamingPlayerListenerAdapter to only implement the events of interest.
  * @author Shadid Haque
  *
  */
@@ -91,6 +92,31 @@ public interface StreamingPlayerListener {
 	 */
 	public void nowPlaying(long now);
 	
+	/**
+	 * Invoked when the underlying Player starts reading another rendition of the media, and once
+	 * with from set to null when it starts reading the first. Only invoked for StreamingPlayers 
+	 * playing renditions or an HLS stream.
+	 * @param from	The rendition read before, or null.
+	 * @param to	The rendition read now.
+	 */
+	public void renditionSwitched(Rendition from, Rendition to);
+	
+	/**
+	 * Invoked with how far playback is from the live edge while a live stream plays (see 
+	 * StreamingPlayer.setLiveLatency(int)), once its bitrate is measured. This is useful to show 
+	 * how far behind a live feed is, e.g. next to a "LIVE" badge.
+	 * @param distance	Media buffered ahead of the player in microseconds, not counting what the underlying Player has read ahead.
+	 */
+	public void liveEdgeDistanceUpdated(long distance);
+	
+	/**
+	 * Invoked when a seek of an HLS stream has closed the underlying Player and realized a new one in 
+	 * its place, before the new Player is prefetched or started. Controls obtained from 
+	 * StreamingPlayer.getControl() before belong to the closed Player: obtain them again, e.g. to call
+	 * VideoControl.initDisplayMode() on the new Player's VideoControl so that the video stays visible.
+	 */
+	public void underlyingPlayerReplaced();
+	
 	/**
 	 * Triggered when an exception or error occurs in the private methods of StreamingPlayer
 	 * @param errorCode	One of the ERROR_* codes defined in this interface
@@ -0,0 +1,53 @@
+package rimx.media.streaming;
+
+/**
+ * A StreamingPlayerListener whose methods do nothing, and whose preprocessData() leaves the data
+ * as downloaded. Extend it and override only the events of interest, so that events added to
+ * StreamingPlayerListener later do not break the listener at compile time.
+ */
+public class StreamingPlayerListenerAdapter implements StreamingPlayerListener {
+
+	public void initialBufferCompleted(long available) {
+	}
+
+	public void bufferStatusChanged(long bufferStartsAt, long len) {
+	}
+
+	public void downloadStatusUpdated(long totalDownloaded) {
+	}
+
+	public void feedPaused(long available) {
+	}
+
+	public void feedRestarted(long available) {
+	}
+
+	public byte[] preprocessData(byte[] bytes, int off, int len) {
+		return null;
+	}
+
+	public void playerUpdate(String event, Object eventData) {
+	}
+
+	public void contentLengthUpdated(long contentLength) {
+	}
+
+	public void nowReading(long now) {
+	}
+
+	public void nowPlaying(long now) {
+	}
+
+	public void renditionSwitched(Rendition from, Rendition to) {
+	}
+
+	public void liveEdgeDistanceUpdated(long distance) {
+	}
+
+	public void underlyingPlayerReplaced() {
+	}
+
+	public void streamingError(int errorCode) {
+	}
+
+}
@@ -0,0 +1,34 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+
+import javax.microedition.io.Connection;
+
+/**
+ * A ConnectionFactory that opens each connection over the transport a TransportSelector
+ * currently chooses, by appending its connection parameters to the locator. Locators that
+ * already carry transport parameters are opened as they are.
+ */
+public class TransportConnectionFactory implements ConnectionFactory {
+
+	private final ConnectionFactory factory;
+	private final TransportSelector selector;
+
+	/**
+	 * @param factory	Opens the connections with the parameters appended.
+	 * @param selector	Chooses the transport.
+	 */
+	public TransportConnectionFactory(ConnectionFactory factory, TransportSelector selector){
+		this.factory = factory;
+		this.selector = selector;
+	}
+
+	public Connection open(String url, int mode) throws IOException {
+		return selector.open(factory, url, mode);
+	}
+
+	public TransportSelector getSelector(){
+		return selector;
+	}
+
+}
@@ -0,0 +1,321 @@
+package rimx.media.streaming;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import javax.microedition.io.Connection;
+import javax.microedition.io.HttpConnection;
+
+/**
+ * Chooses the BlackBerry transport (the connection parameters appended to a locator, e.g.
+ * ";interface=wifi" or ";deviceside=true") that fetches media fastest. For each transport
+ * the throughput measured while it was in use, the latency of its connections and its
+ * recent failures are kept; the state can be saved with getState() and restored in the
+ * next session with setState(String).
+ * <p>
+ * A transport that is in use is only left when it fails repeatedly, becomes unavailable,
+ * or another one promises to fetch a chunk in less than SWITCH_RATIO of its time. Install
+ * a TransportConnectionFactory to open connections over the chosen transport; call
+ * update() while playing and, when it switches, StreamingPlayer.reconnect() to move the
+ * download over.
+ */
+public class TransportSelector {
+
+	/** Consecutive failures after which a transport is avoided for FAILURE_BACKOFF */
+	public static final int MAX_FAILURES = 2;
+	/** How long a failing transport is avoided, in ms */
+	public static final long FAILURE_BACKOFF = 60000;
+	/** Another transport is switched to when its expected chunk time is below this share of the current one's */
+	public static final double SWITCH_RATIO = 0.5;
+	/** Size of the chunk whose fetch time transports are compared by, in bits */
+	private static final long CHUNK_BITS = 256 * 1024 * 8;
+	/** Throughput assumed for a transport that has not been measured, in bits per second */
+	private static final long UNKNOWN_THROUGHPUT = 500000;
+	/** Latency assumed for a transport that has not been measured, in ms */
+	private static final long UNKNOWN_LATENCY = 1000;
+
+	private final String[] transports;
+	private final BandwidthEstimator estimator;
+	private final boolean[] available;
+	/** Throughput in bits per second, -1 if not measured */
+	private final long[] throughput;
+	/** Average connection latency in ms, -1 if not measured */
+	private final long[] latency;
+	private final int[] failures;
+	private final long[] failedAt;
+	private int current = 0;
+
+	/**
+	 * @param transports	Connection parameters of the transports, in order of preference when
+	 * 	nothing has been measured yet, e.g. {";interface=wifi", ";deviceside=true"}. "" uses the device default.
+	 * @param estimator	Measures the throughput of the transport in use, e.g. BandwidthEstimator.getDefault().
+	 */
+	public TransportSelector(String[] transports, BandwidthEstimator estimator){
+		if(transports==null || transports.length==0){
+			throw new IllegalArgumentException("transports cannot be empty");
+		}
+		this.transports = new String[transports.length];
+		System.arraycopy(transports, 0, this.transports, 0, transports.length);
+		this.estimator = estimator;
+		available = new boolean[transports.length];
+		throughput = new long[transports.length];
+		latency = new long[transports.length];
+		failures = new int[transports.length];
+		failedAt = new long[transports.length];
+		for(int i=0; i<transports.length; i++){
+			available[i] = true;
+			throughput[i] = -1;
+			latency[i] = -1;
+		}
+	}
+
+	/**
+	 * Gets the connection parameters of the transport in use.
+	 */
+	public synchronized String getTransport(){
+		return transports[current];
+	}
+
+	public synchronized String[] getTransports(){
+		String[] copy = new String[transports.length];
+		System.arraycopy(transports, 0, copy, 0, transports.length);
+		return copy;
+	}
+
+	/**
+	 * Marks a transport as usable or not, e.g. as Wi-Fi comes and goes. Leaving the transport
+	 * in use takes effect with the next update().
+	 */
+	public synchronized void setAvailable(String transport, boolean available){
+		int i = indexOf(transport);
+		if(i>=0){
+			this.available[i] = available;
+		}
+	}
+
+	/**
+	 * Gets the throughput measured over a transport.
+	 * @return	bits per second, or -1 if not measured.
+	 */
+	public synchronized long getThroughput(String transport){
+		int i = indexOf(transport);
+		return i<0 ? -1 : throughput[i];
+	}
+
+	/**
+	 * Gets the average latency of connections over a transport.
+	 * @return	the latency in ms, or -1 if not measured.
+	 */
+	public synchronized long getLatency(String transport){
+		int i = indexOf(transport);
+		return i<0 ? -1 : latency[i];
+	}
+
+	/**
+	 * Records a connection over a transport that was opened in millis.
+	 */
+	public synchronized void connected(String transport, long millis){
+		int i = indexOf(transport);
+		if(i<0){
+			return;
+		}
+		latency[i] = latency[i]<0 ? millis : (latency[i] * 3 + millis) / 4;
+		failures[i] = 0;
+	}
+
+	/**
+	 * Records a failed connection over a transport.
+	 */
+	public synchronized void failed(String transport){
+		int i = indexOf(transport);
+		if(i<0){
+			return;
+		}
+		failures[i]++;
+		failedAt[i] = System.currentTimeMillis();
+	}
+
+	/**
+	 * Records a failure of the transport in use, e.g. a download that broke off.
+	 */
+	public synchronized void failed(){
+		failed(transports[current]);
+	}
+
+	/**
+	 * Takes the current throughput estimate as that of the transport in use and switches
+	 * to another transport if it is unusable or clearly slower. The estimator is reset on a
+	 * switch, since what it measured no longer applies.
+	 * @return	true if the transport in use changed.
+	 */
+	public synchronized boolean update(){
+		if(estimator.getSampleCount()>0){
+			throughput[current] = estimator.getEstimate();
+		}
+		int best = select();
+		if(best==current){
+			return false;
+		}
+		current = best;
+		estimator.reset();
+		return true;
+	}
+
+	/**
+	 * Gets the transport update() would switch to now, without switching. Use it for connections
+	 * made outside the download that update() is called for.
+	 */
+	public synchronized String getBestTransport(){
+		return transports[select()];
+	}
+
+	/**
+	 * Gets the index of the transport to use: the one in use unless it is unusable or another
+	 * is clearly faster.
+	 */
+	private int select(){
+		long now = System.currentTimeMillis();
+		int best = -1;
+		long bestCost = Long.MAX_VALUE;
+		for(int i=0; i<transports.length; i++){
+			long cost = getCost(i, now);
+			if(cost<bestCost){
+				best = i;
+				bestCost = cost;
+			}
+		}
+		long currentCost = getCost(current, now);
+		if(best<0 || (currentCost!=Long.MAX_VALUE && bestCost>=currentCost * SWITCH_RATIO)){
+			return current;
+		}
+		return best;
+	}
+
+	/**
+	 * Gets the expected time to fetch a chunk over a transport.
+	 * @return	the time in ms, or Long.MAX_VALUE if the transport cannot be used.
+	 */
+	private long getCost(int i, long now){
+		if(!available[i] || (failures[i]>=MAX_FAILURES && now - failedAt[i] < FAILURE_BACKOFF)){
+			return Long.MAX_VALUE;
+		}
+		long bps = throughput[i]>0 ? throughput[i] : UNKNOWN_THROUGHPUT;
+		return (latency[i]>=0 ? latency[i] : UNKNOWN_LATENCY) + CHUNK_BITS * 1000 / bps;
+	}
+
+	/**
+	 * Measures the latency of each available transport that has not been measured yet by
+	 * probing locator over it in the background.
+	 * @param locator	An http:// or https:// locator without connection parameters.
+	 * @param factory	Opens the connections with the transport parameters appended, e.g. the one
+	 * 	wrapped by the TransportConnectionFactory.
+	 */
+	public void probe(final String locator, final ConnectionFactory factory){
+		final Vector unknown = new Vector();
+		synchronized(this){
+			for(int i=0; i<transports.length; i++){
+				if(available[i] && latency[i]<0){
+					unknown.addElement(transports[i]);
+				}
+			}
+		}
+		if(unknown.isEmpty()){
+			return;
+		}
+		new Thread(){
+			public void run(){
+				for(int i=0; i<unknown.size(); i++){
+					String transport = (String) unknown.elementAt(i);
+					HttpMediaSource source = new HttpMediaSource(locator + transport, factory);
+					source.setStandbyIdleBudget(0);
+					long start = System.currentTimeMillis();
+					try{
+						source.probe();
+						connected(transport, System.currentTimeMillis() - start);
+					} catch(IOException e){
+						failed(transport);
+					}
+				}
+			}
+		}.start();
+	}
+
+	/**
+	 * Gets the measurements as a string for setState(String).
+	 */
+	public synchronized String getState(){
+		StringBuffer state = new StringBuffer();
+		for(int i=0; i<transports.length; i++){
+			state.append(transports[i]).append(' ').append(throughput[i]).append(' ').append(latency[i]).append('\n');
+		}
+		return state.toString();
+	}
+
+	/**
+	 * Restores the measurements of an earlier session. Lines for unknown transports or that do
+	 * not parse are ignored, and failures are not restored.
+	 */
+	public synchronized void setState(String state){
+		int start = 0;
+		while(start<state.length()){
+			int end = state.indexOf('\n', start);
+			if(end<0){
+				end = state.length();
+			}
+			String line = state.substring(start, end);
+			start = end + 1;
+			int b = line.lastIndexOf(' ');
+			int a = b>0 ? line.lastIndexOf(' ', b-1) : -1;
+			int i = a<0 ? -1 : indexOf(line.substring(0, a));
+			if(i<0){
+				continue;
+			}
+			try{
+				throughput[i] = Long.parseLong(line.substring(a+1, b));
+				latency[i] = Long.parseLong(line.substring(b+1));
+			} catch(NumberFormatException e){
+				// keep what was measured in this session
+			}
+		}
+	}
+
+	private int indexOf(String transport){
+		for(int i=0; i<transports.length; i++){
+			if(transports[i].equals(transport)){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets whether a locator already carries transport parameters.
+	 */
+	static boolean hasTransport(String locator){
+		String lower = locator.toLowerCase();
+		return lower.indexOf(";interface=")>=0 || lower.indexOf(";deviceside=")>=0;
+	}
+
+	/**
+	 * Opens a connection over the transport in use, recording its latency or failure. Only
+	 * sockets are timed: an HttpConnection does not connect until its request is sent.
+	 */
+	Connection open(ConnectionFactory factory, String url, int mode) throws IOException {
+		if(hasTransport(url)){
+			return factory.open(url, mode);
+		}
+		String transport = getTransport();
+		long start = System.currentTimeMillis();
+		try{
+			Connection c = factory.open(url + transport, mode);
+			if(!(c instanceof HttpConnection)){
+				connected(transport, System.currentTimeMillis() - start);
+			}
+			return c;
+		} catch(IOException e){
+			failed(transport);
+			throw e;
+		}
+	}
+
+}